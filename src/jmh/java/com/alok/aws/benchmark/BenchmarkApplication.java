@@ -0,0 +1,76 @@
+package com.alok.aws.benchmark;
+
+import com.alok.aws.iotcore.IotCoreApplication;
+import com.alok.aws.iotcore.configuration.AwsIotClientConfig;
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.resilience.RetryBudget;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import software.amazon.awssdk.services.iot.IotAsyncClient;
+import software.amazon.awssdk.services.iot.IotClient;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The application with the AWS clients swapped for in-memory fakes. Lives outside the
+ * com.alok.aws.iotcore package so the application's own component scan never picks it up.
+ */
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@ComponentScan(basePackages = "com.alok.aws.iotcore", excludeFilters = @ComponentScan.Filter(
+        type = FilterType.ASSIGNABLE_TYPE, classes = {IotCoreApplication.class, AwsIotClientConfig.class}))
+@EntityScan("com.alok.aws.iotcore.entity")
+@EnableJpaRepositories("com.alok.aws.iotcore.repository")
+public class BenchmarkApplication {
+
+    public static final String CURRENT_REGION = "ap-south-1";
+
+    private static final String[] REGIONS = {CURRENT_REGION, "ap-southeast-1", "eu-west-1", "us-east-1", "us-west-2"};
+
+    @Value("${benchmark.iot.latency-micros:0}")
+    private long latencyMicros;
+
+    @Value("${benchmark.iot.throttle-rate:0}")
+    private double throttleRate;
+
+    @Value("${benchmark.iot.error-rate:0}")
+    private double errorRate;
+
+    @Value("${benchmark.iot.region-count:2}")
+    private int regionCount;
+
+    private final List<FakeIotBackend> backends = new ArrayList<>();
+
+    @Bean(destroyMethod = "close")
+    public IotClientRegistry iotClientRegistry() {
+        Map<String, IotClient> clients = new LinkedHashMap<>();
+        Map<String, IotAsyncClient> asyncClients = new LinkedHashMap<>();
+        for (int i = 0; i < Math.min(regionCount, REGIONS.length); i++) {
+            FakeIotBackend backend = new FakeIotBackend(REGIONS[i], latencyMicros, throttleRate, errorRate);
+            backends.add(backend);
+            clients.put(REGIONS[i], new FakeIotClient(backend));
+            asyncClients.put(REGIONS[i], new FakeIotAsyncClient(backend));
+        }
+        return new IotClientRegistry(CURRENT_REGION, clients, asyncClients);
+    }
+
+    @Bean
+    public RetryBudget iotRetryBudget() {
+        return new RetryBudget(100, 0.1);
+    }
+
+    @PreDestroy
+    public void shutdownBackends() {
+        backends.forEach(FakeIotBackend::shutdown);
+    }
+}
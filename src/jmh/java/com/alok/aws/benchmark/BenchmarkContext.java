@@ -0,0 +1,77 @@
+package com.alok.aws.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Spring context shared by a benchmark trial: fake IoT clients and an in-memory H2 database.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkContext {
+
+    @Param({"0"})
+    public long latencyMicros;
+
+    @Param({"0"})
+    public double throttleRate;
+
+    @Param({"0"})
+    public double errorRate;
+
+    @Param({"2"})
+    public int regionCount;
+
+    @Param({"ALL"})
+    public String completionPolicy;
+
+    public ConfigurableApplicationContext applicationContext;
+
+    @Setup(Level.Trial)
+    public void start() {
+        // as command line arguments, default properties would lose against application.properties
+        applicationContext = new SpringApplicationBuilder(BenchmarkApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(
+                        "--benchmark.iot.latency-micros=" + latencyMicros,
+                        "--benchmark.iot.throttle-rate=" + throttleRate,
+                        "--benchmark.iot.error-rate=" + errorRate,
+                        "--benchmark.iot.region-count=" + regionCount,
+                        "--aws.iot.completion-policy=" + completionPolicy,
+                        "--aws.iot.http.warm-up.enabled=false",
+                        // the fakes throttle on their own
+                        "--aws.iot.rate-limit.enabled=false",
+                        "--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.hibernate.ddl-auto=create-drop",
+                        "--logging.level.root=WARN",
+                        "--logging.level.com.alok.aws.iotcore=WARN"
+                );
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        applicationContext.close();
+    }
+
+    public boolean injectsFaults() {
+        return throttleRate > 0 || errorRate > 0;
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return applicationContext.getBean(type);
+    }
+
+    public static String resource(String name) {
+        try (InputStream inputStream = BenchmarkContext.class.getResourceAsStream("/" + name)) {
+            return StreamUtils.copyToString(inputStream, StandardCharsets.US_ASCII);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Can't read " + name, ioe);
+        }
+    }
+}
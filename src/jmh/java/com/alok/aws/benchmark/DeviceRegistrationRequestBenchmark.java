@@ -0,0 +1,38 @@
+package com.alok.aws.benchmark;
+
+import com.alok.aws.iotcore.model.DeviceRegistrationRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeviceRegistrationRequestBenchmark {
+
+    private ObjectReader reader;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        reader = objectMapper.readerFor(DeviceRegistrationRequest.class);
+        payload = objectMapper.writeValueAsString(new DeviceRegistrationRequest(
+                "benchmark-device",
+                BenchmarkContext.resource("benchmark-device.pem"),
+                BenchmarkContext.resource("benchmark-ca.pem")
+        )).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public DeviceRegistrationRequest deserialize() throws IOException {
+        return reader.readValue(payload);
+    }
+}
@@ -0,0 +1,52 @@
+package com.alok.aws.benchmark;
+
+import com.alok.aws.iotcore.certificate.CertificateFingerprint;
+import com.alok.aws.iotcore.entity.Device;
+import com.alok.aws.iotcore.repository.DeviceRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeviceRepositoryBenchmark {
+
+    private static final int PRELOADED_DEVICES = 10_000;
+
+    private final AtomicLong deviceSequence = new AtomicLong();
+
+    private DeviceRepository deviceRepository;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkContext benchmarkContext) {
+        deviceRepository = benchmarkContext.getBean(DeviceRepository.class);
+        for (int i = 0; i < PRELOADED_DEVICES; i++)
+            deviceRepository.save(device("preloaded-device-" + i));
+    }
+
+    @Benchmark
+    public Device save() {
+        return deviceRepository.save(device("saved-device-" + deviceSequence.incrementAndGet()));
+    }
+
+    @Benchmark
+    public Device findOneByDeviceName() {
+        return deviceRepository.findOneByDeviceName("preloaded-device-" + ThreadLocalRandom.current().nextInt(PRELOADED_DEVICES));
+    }
+
+    private static Device device(String deviceName) {
+        String certificateId = CertificateFingerprint.sha256Hex(deviceName.getBytes(StandardCharsets.UTF_8));
+        return Device.builder()
+                .deviceName(deviceName)
+                .awsDeviceCertId(certificateId)
+                .awsDeviceCertArn("arn:aws:iot:" + BenchmarkApplication.CURRENT_REGION + ":123456789012:cert/" + certificateId)
+                .build();
+    }
+}
@@ -0,0 +1,64 @@
+package com.alok.aws.benchmark;
+
+import software.amazon.awssdk.services.iot.IotAsyncClient;
+import software.amazon.awssdk.services.iot.model.*;
+
+import java.util.concurrent.CompletableFuture;
+
+public class FakeIotAsyncClient implements IotAsyncClient {
+
+    private final FakeIotBackend backend;
+
+    public FakeIotAsyncClient(FakeIotBackend backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public CompletableFuture<CreateThingResponse> createThing(CreateThingRequest request) {
+        return backend.callAsync(() -> backend.createThing(request));
+    }
+
+    @Override
+    public CompletableFuture<RegisterCertificateResponse> registerCertificate(RegisterCertificateRequest request) {
+        return backend.callAsync(() -> backend.registerCertificate(request));
+    }
+
+    @Override
+    public CompletableFuture<AttachPolicyResponse> attachPolicy(AttachPolicyRequest request) {
+        return backend.callAsync(() -> backend.attachPolicy(request));
+    }
+
+    @Override
+    public CompletableFuture<AttachThingPrincipalResponse> attachThingPrincipal(AttachThingPrincipalRequest request) {
+        return backend.callAsync(() -> backend.attachThingPrincipal(request));
+    }
+
+    @Override
+    public CompletableFuture<DetachThingPrincipalResponse> detachThingPrincipal(DetachThingPrincipalRequest request) {
+        return backend.callAsync(() -> backend.detachThingPrincipal(request));
+    }
+
+    @Override
+    public CompletableFuture<ListThingPrincipalsResponse> listThingPrincipals(ListThingPrincipalsRequest request) {
+        return backend.callAsync(() -> backend.listThingPrincipals(request));
+    }
+
+    @Override
+    public CompletableFuture<UpdateCertificateResponse> updateCertificate(UpdateCertificateRequest request) {
+        return backend.callAsync(() -> backend.updateCertificate(request));
+    }
+
+    @Override
+    public CompletableFuture<DeleteCertificateResponse> deleteCertificate(DeleteCertificateRequest request) {
+        return backend.callAsync(() -> backend.deleteCertificate(request));
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,167 @@
+package com.alok.aws.benchmark;
+
+import com.alok.aws.iotcore.certificate.CertificateFingerprint;
+import software.amazon.awssdk.services.iot.model.*;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * In-memory stand-in for the IoT control plane of one region, with injectable latency, throttling
+ * and error rates. Shared by {@link FakeIotClient} and {@link FakeIotAsyncClient}.
+ */
+public class FakeIotBackend {
+
+    private static final String ACCOUNT_ID = "123456789012";
+
+    private final String region;
+    private final long latencyMicros;
+    private final double throttleRate;
+    private final double errorRate;
+    private final ScheduledExecutorService scheduler;
+
+    private final Set<String> things = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, String> certificateStatus = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> thingPrincipals = new ConcurrentHashMap<>();
+
+    public FakeIotBackend(String region, long latencyMicros, double throttleRate, double errorRate) {
+        this.region = region;
+        this.latencyMicros = latencyMicros;
+        this.throttleRate = throttleRate;
+        this.errorRate = errorRate;
+        this.scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "fake-iot-" + region);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public <T> T call(Supplier<T> operation) {
+        if (latencyMicros > 0) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(latencyMicros);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        RuntimeException fault = fault();
+        if (fault != null)
+            throw fault;
+        return operation.get();
+    }
+
+    public <T> CompletableFuture<T> callAsync(Supplier<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        scheduler.schedule(() -> {
+            RuntimeException fault = fault();
+            if (fault != null) {
+                future.completeExceptionally(fault);
+                return;
+            }
+            try {
+                future.complete(operation.get());
+            } catch (RuntimeException rte) {
+                future.completeExceptionally(rte);
+            }
+        }, latencyMicros, TimeUnit.MICROSECONDS);
+        return future;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private RuntimeException fault() {
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < throttleRate)
+            return (RuntimeException) ThrottlingException.builder()
+                    .message("Rate exceeded")
+                    .statusCode(429)
+                    .build();
+        if (roll < throttleRate + errorRate)
+            return (RuntimeException) InternalFailureException.builder()
+                    .message("Internal failure")
+                    .statusCode(500)
+                    .build();
+        return null;
+    }
+
+    public CreateThingResponse createThing(CreateThingRequest request) {
+        things.add(request.thingName());
+        return CreateThingResponse.builder()
+                .thingName(request.thingName())
+                .thingArn("arn:aws:iot:" + region + ":" + ACCOUNT_ID + ":thing/" + request.thingName())
+                .build();
+    }
+
+    public RegisterCertificateResponse registerCertificate(RegisterCertificateRequest request) {
+        String certificateId = CertificateFingerprint.certificateId(request.certificatePem());
+        if (certificateId == null)
+            throw (RuntimeException) CertificateValidationException.builder()
+                    .message("Invalid certificate")
+                    .statusCode(400)
+                    .build();
+        if (certificateStatus.putIfAbsent(certificateId, Boolean.TRUE.equals(request.setAsActive()) ? "ACTIVE" : "INACTIVE") != null)
+            throw (RuntimeException) ResourceAlreadyExistsException.builder()
+                    .message("Certificate already exists")
+                    .statusCode(409)
+                    .build();
+        return RegisterCertificateResponse.builder()
+                .certificateId(certificateId)
+                .certificateArn(certificateArn(certificateId))
+                .build();
+    }
+
+    public AttachPolicyResponse attachPolicy(AttachPolicyRequest request) {
+        return AttachPolicyResponse.builder().build();
+    }
+
+    public AttachThingPrincipalResponse attachThingPrincipal(AttachThingPrincipalRequest request) {
+        requireThing(request.thingName());
+        thingPrincipals.computeIfAbsent(request.thingName(), thing -> ConcurrentHashMap.newKeySet()).add(request.principal());
+        return AttachThingPrincipalResponse.builder().build();
+    }
+
+    public DetachThingPrincipalResponse detachThingPrincipal(DetachThingPrincipalRequest request) {
+        requireThing(request.thingName());
+        thingPrincipals.getOrDefault(request.thingName(), Collections.emptySet()).remove(request.principal());
+        return DetachThingPrincipalResponse.builder().build();
+    }
+
+    public ListThingPrincipalsResponse listThingPrincipals(ListThingPrincipalsRequest request) {
+        requireThing(request.thingName());
+        return ListThingPrincipalsResponse.builder()
+                .principals(thingPrincipals.getOrDefault(request.thingName(), Collections.emptySet()))
+                .build();
+    }
+
+    public UpdateCertificateResponse updateCertificate(UpdateCertificateRequest request) {
+        if (certificateStatus.replace(request.certificateId(), request.newStatusAsString()) == null)
+            throw resourceNotFound("Certificate " + request.certificateId());
+        return UpdateCertificateResponse.builder().build();
+    }
+
+    public DeleteCertificateResponse deleteCertificate(DeleteCertificateRequest request) {
+        if (certificateStatus.remove(request.certificateId()) == null)
+            throw resourceNotFound("Certificate " + request.certificateId());
+        return DeleteCertificateResponse.builder().build();
+    }
+
+    private void requireThing(String thingName) {
+        if (!things.contains(thingName))
+            throw resourceNotFound("Thing " + thingName);
+    }
+
+    private String certificateArn(String certificateId) {
+        return "arn:aws:iot:" + region + ":" + ACCOUNT_ID + ":cert/" + certificateId;
+    }
+
+    private static RuntimeException resourceNotFound(String resource) {
+        return (RuntimeException) ResourceNotFoundException.builder()
+                .message(resource + " not found")
+                .statusCode(404)
+                .build();
+    }
+}
@@ -0,0 +1,62 @@
+package com.alok.aws.benchmark;
+
+import software.amazon.awssdk.services.iot.IotClient;
+import software.amazon.awssdk.services.iot.model.*;
+
+public class FakeIotClient implements IotClient {
+
+    private final FakeIotBackend backend;
+
+    public FakeIotClient(FakeIotBackend backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public CreateThingResponse createThing(CreateThingRequest request) {
+        return backend.call(() -> backend.createThing(request));
+    }
+
+    @Override
+    public RegisterCertificateResponse registerCertificate(RegisterCertificateRequest request) {
+        return backend.call(() -> backend.registerCertificate(request));
+    }
+
+    @Override
+    public AttachPolicyResponse attachPolicy(AttachPolicyRequest request) {
+        return backend.call(() -> backend.attachPolicy(request));
+    }
+
+    @Override
+    public AttachThingPrincipalResponse attachThingPrincipal(AttachThingPrincipalRequest request) {
+        return backend.call(() -> backend.attachThingPrincipal(request));
+    }
+
+    @Override
+    public DetachThingPrincipalResponse detachThingPrincipal(DetachThingPrincipalRequest request) {
+        return backend.call(() -> backend.detachThingPrincipal(request));
+    }
+
+    @Override
+    public ListThingPrincipalsResponse listThingPrincipals(ListThingPrincipalsRequest request) {
+        return backend.call(() -> backend.listThingPrincipals(request));
+    }
+
+    @Override
+    public UpdateCertificateResponse updateCertificate(UpdateCertificateRequest request) {
+        return backend.call(() -> backend.updateCertificate(request));
+    }
+
+    @Override
+    public DeleteCertificateResponse deleteCertificate(DeleteCertificateRequest request) {
+        return backend.call(() -> backend.deleteCertificate(request));
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
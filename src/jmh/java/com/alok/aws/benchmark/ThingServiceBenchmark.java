@@ -0,0 +1,128 @@
+package com.alok.aws.benchmark;
+
+import com.alok.aws.iotcore.certificate.TestCertificates;
+import com.alok.aws.iotcore.concurrent.FanOutResult;
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.model.DeviceRegistrationRequest;
+import com.alok.aws.iotcore.service.AsyncThingService;
+import com.alok.aws.iotcore.service.ThingService;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.iot.model.InternalFailureException;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registration and status change paths against the fake IoT clients. A benchmark fails as soon as
+ * an operation isn't successful for any reason other than a fault the context injected, so the
+ * numbers never time the failure and compensation path by accident.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThingServiceBenchmark {
+
+    private static final String KNOWN_DEVICE = "benchmark-known-device";
+
+    private final AtomicLong deviceSequence = new AtomicLong();
+
+    private ThingService thingService;
+    private AsyncThingService asyncThingService;
+    private IotClientRegistry iotClientRegistry;
+    private TestCertificates testCertificates;
+    private DeviceRegistrationRequest knownDevice;
+    private boolean faultsInjected;
+
+    /**
+     * A device never registered before, with its own certificate, made outside of the measurement.
+     */
+    @State(Scope.Thread)
+    public static class NewDevice {
+
+        private DeviceRegistrationRequest request;
+
+        @Setup(Level.Invocation)
+        public void next(ThingServiceBenchmark benchmark) {
+            String deviceName = "benchmark-device-" + benchmark.deviceSequence.incrementAndGet();
+            request = new DeviceRegistrationRequest(deviceName, benchmark.testCertificates.deviceCertificatePem(deviceName),
+                    benchmark.testCertificates.getCaCertificatePem());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkContext benchmarkContext) {
+        thingService = benchmarkContext.getBean(ThingService.class);
+        asyncThingService = benchmarkContext.getBean(AsyncThingService.class);
+        iotClientRegistry = benchmarkContext.getBean(IotClientRegistry.class);
+        faultsInjected = benchmarkContext.injectsFaults();
+        testCertificates = new TestCertificates();
+        knownDevice = new DeviceRegistrationRequest(KNOWN_DEVICE, testCertificates.deviceCertificatePem(KNOWN_DEVICE),
+                testCertificates.getCaCertificatePem());
+
+        // the known device has to exist for the re-registration and status change benchmarks to mean anything,
+        // so this one is retried through injected faults
+        for (String region : iotClientRegistry.getRegions()) {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    thingService.createThingAndRegisterCertificate(knownDevice, region);
+                    break;
+                } catch (RuntimeException rte) {
+                    if (!isInjectedFault(rte) || attempt == 100)
+                        throw new IllegalStateException("Can't register " + KNOWN_DEVICE + " in " + region, rte);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void registerNewDeviceSequential(NewDevice newDevice) {
+        try {
+            for (String region : iotClientRegistry.getRegions())
+                thingService.createThingAndRegisterCertificate(newDevice.request, region);
+        } catch (RuntimeException rte) {
+            if (!isInjectedFault(rte))
+                throw rte;
+        }
+    }
+
+    @Benchmark
+    public FanOutResult registerNewDeviceParallel(NewDevice newDevice) {
+        return requireSuccess(asyncThingService.createThingAndRegisterCertificateAllRegions(newDevice.request)
+                .join());
+    }
+
+    @Benchmark
+    public FanOutResult reRegisterKnownDevice() {
+        return requireSuccess(asyncThingService.createThingAndRegisterCertificateAllRegions(knownDevice)
+                .join());
+    }
+
+    @Benchmark
+    public FanOutResult updateCertificateStatus() {
+        return requireSuccess(thingService.updateThingCertStatusAllRegions(KNOWN_DEVICE, "ACTIVE"));
+    }
+
+    private FanOutResult requireSuccess(FanOutResult fanOutResult) {
+        if (fanOutResult.isSuccessful())
+            return fanOutResult;
+        for (Throwable failure : fanOutResult.getFailures().values()) {
+            if (!isInjectedFault(failure))
+                throw new IllegalStateException("Operation failed: " + fanOutResult.errors(), failure);
+        }
+        return fanOutResult;
+    }
+
+    private boolean isInjectedFault(Throwable failure) {
+        if (!faultsInjected)
+            return false;
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ThrottlingException || cause instanceof InternalFailureException)
+                return true;
+        }
+        return false;
+    }
+}
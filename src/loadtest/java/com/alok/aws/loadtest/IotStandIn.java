@@ -0,0 +1,579 @@
+package com.alok.aws.loadtest;
+
+import com.alok.aws.iotcore.certificate.CertificateFingerprint;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local HTTP stand-in for the AWS IoT control plane APIs the service calls, speaking the REST-JSON
+ * protocol of the SDK so the real clients can be pointed at it with {@code aws.iot.endpoint-override}.
+ * One server serves all regions, a request's region is taken from the credential scope of its
+ * signature. Every call waits for a latency drawn from a log-normal distribution, is throttled by a
+ * per region and API token bucket at the AWS quota and fails with the configured error rate.
+ * <p>
+ * Run on its own with {@code IotStandIn --port=4580 [--latency-median-millis=30 ...]}, see {@link Settings}.
+ */
+public class IotStandIn implements Closeable {
+
+    private static final String ACCOUNT_ID = "123456789012";
+    private static final String DEFAULT_REGION = "us-east-1";
+    private static final Pattern CREDENTIAL_SCOPE = Pattern.compile("Credential=[^/]+/[^/]+/([^/]+)/");
+    private static final double Z_99 = 2.326;
+
+    // AWS IoT default quotas (requests per second per account and region) of the stand-in's APIs
+    private static final Map<String, Double> DEFAULT_QUOTAS = new LinkedHashMap<>();
+
+    static {
+        DEFAULT_QUOTAS.put("CreateThing", 100.0);
+        DEFAULT_QUOTAS.put("DeleteThing", 100.0);
+        DEFAULT_QUOTAS.put("ListThings", 10.0);
+        DEFAULT_QUOTAS.put("AttachThingPrincipal", 100.0);
+        DEFAULT_QUOTAS.put("DetachThingPrincipal", 100.0);
+        DEFAULT_QUOTAS.put("ListThingPrincipals", 10.0);
+        DEFAULT_QUOTAS.put("RegisterCertificate", 10.0);
+        DEFAULT_QUOTAS.put("DescribeCertificate", 10.0);
+        DEFAULT_QUOTAS.put("UpdateCertificate", 10.0);
+        DEFAULT_QUOTAS.put("DeleteCertificate", 10.0);
+        DEFAULT_QUOTAS.put("ListCertificates", 10.0);
+        DEFAULT_QUOTAS.put("AttachPolicy", 15.0);
+        DEFAULT_QUOTAS.put("DetachPolicy", 15.0);
+        DEFAULT_QUOTAS.put("ListAttachedPolicies", 15.0);
+    }
+
+    private final Settings settings;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ScheduledExecutorService responder;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ConcurrentMap<String, RegionState> regions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ApiStats> stats = new ConcurrentSkipListMap<>();
+
+    public IotStandIn(Settings settings) throws IOException {
+        this.settings = settings;
+        this.handlers = Executors.newFixedThreadPool(settings.threads, daemonThreads("iot-stand-in-"));
+        this.responder = Executors.newScheduledThreadPool(2, daemonThreads("iot-stand-in-responder-"));
+        this.server = HttpServer.create(new InetSocketAddress("localhost", settings.port), 1000);
+        server.setExecutor(handlers);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public static void main(String[] args) throws IOException {
+        IotStandIn iotStandIn = new IotStandIn(Settings.from(LoadTest.options(args)));
+        System.out.println("IoT stand-in listening on " + iotStandIn.getEndpoint()
+                + ", start the service with aws.iot.endpoint-override=" + iotStandIn.getEndpoint()
+                + " and any AWS credentials, e.g. AWS_ACCESS_KEY_ID=stand-in AWS_SECRET_ACCESS_KEY=stand-in");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.print(iotStandIn.report())));
+    }
+
+    public String getEndpoint() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public Map<String, ApiStats> getStats() {
+        return stats;
+    }
+
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format("%nIoT stand-in%n%-24s %10s %10s %10s %10s%n",
+                "api", "calls", "throttled", "failed", "rejected"));
+        stats.forEach((api, apiStats) -> report.append(String.format("%-24s %10d %10d %10d %10d%n", api,
+                apiStats.calls.get(), apiStats.throttled.get(), apiStats.failed.get(), apiStats.rejected.get())));
+        return report.toString();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdownNow();
+        responder.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Response response;
+        String api = "Unknown";
+        try {
+            String region = region(exchange);
+            Request request = new Request(exchange);
+            api = api(exchange.getRequestMethod(), request.segments);
+            ApiStats apiStats = stats.computeIfAbsent(api, key -> new ApiStats());
+            apiStats.calls.incrementAndGet();
+
+            if (settings.unavailableRegions.contains(region)) {
+                apiStats.failed.incrementAndGet();
+                response = Response.error(503, "ServiceUnavailableException", "Service unavailable");
+            } else if (!bucket(region, api).tryAcquire()) {
+                // AWS rejects over quota calls without doing the work, a throttled call costs no latency
+                apiStats.throttled.incrementAndGet();
+                send(exchange, Response.error(429, "ThrottlingException", "Rate exceeded"));
+                return;
+            } else if (ThreadLocalRandom.current().nextDouble() < settings.errorRate) {
+                apiStats.failed.incrementAndGet();
+                response = Response.error(500, "InternalFailureException", "Internal failure");
+            } else {
+                response = execute(api, request, regions.computeIfAbsent(region, RegionState::new));
+                if (response.status >= 400)
+                    apiStats.rejected.incrementAndGet();
+            }
+        } catch (RuntimeException rte) {
+            response = Response.error(400, "InvalidRequestException", String.valueOf(rte.getMessage()));
+        }
+
+        Response delayed = response;
+        responder.schedule(() -> send(exchange, delayed), latencyMicros(api), TimeUnit.MICROSECONDS);
+    }
+
+    private Response execute(String api, Request request, RegionState region) {
+        switch (api) {
+            case "CreateThing":
+                return region.createThing(request.segments.get(1));
+            case "DeleteThing":
+                return region.deleteThing(request.segments.get(1));
+            case "ListThings":
+                return region.listThings(request.intParam("maxResults", 50), request.params.get("nextToken"));
+            case "ListThingPrincipals":
+                return region.listThingPrincipals(request.segments.get(1));
+            case "AttachThingPrincipal":
+                return region.attachThingPrincipal(request.segments.get(1), request.principal);
+            case "DetachThingPrincipal":
+                return region.detachThingPrincipal(request.segments.get(1), request.principal);
+            case "RegisterCertificate":
+                return region.registerCertificate(request.body.path("certificatePem").asText(null),
+                        "true".equals(request.params.get("setAsActive")) || "ACTIVE".equals(request.body.path("status").asText()));
+            case "DescribeCertificate":
+                return region.describeCertificate(request.segments.get(1));
+            case "UpdateCertificate":
+                return region.updateCertificate(request.segments.get(1), request.params.get("newStatus"));
+            case "DeleteCertificate":
+                return region.deleteCertificate(request.segments.get(1));
+            case "ListCertificates":
+                return region.listCertificates(request.intParam("pageSize", 25), request.params.get("marker"));
+            case "AttachPolicy":
+                return region.attachPolicy(request.segments.get(1), request.body.path("target").asText(null));
+            case "DetachPolicy":
+                return region.detachPolicy(request.segments.get(1), request.body.path("target").asText(null));
+            case "ListAttachedPolicies":
+                return region.listAttachedPolicies(request.segments.get(1));
+            default:
+                return Response.error(400, "InvalidRequestException", "Operation not supported by the stand-in");
+        }
+    }
+
+    // REST-JSON routes of the IoT service model
+    private static String api(String method, List<String> segments) {
+        String resource = segments.isEmpty() ? "" : segments.get(0);
+        boolean principals = segments.size() == 3 && "principals".equals(segments.get(2));
+        switch (resource) {
+            case "things":
+                if (segments.size() == 1)
+                    return "GET".equals(method) ? "ListThings" : "Unknown";
+                if (principals)
+                    return "GET".equals(method) ? "ListThingPrincipals" : "PUT".equals(method) ? "AttachThingPrincipal" : "DetachThingPrincipal";
+                return "POST".equals(method) ? "CreateThing" : "DELETE".equals(method) ? "DeleteThing" : "DescribeThing";
+            case "certificate":
+                return "RegisterCertificate";
+            case "certificates":
+                if (segments.size() == 1)
+                    return "ListCertificates";
+                return "PUT".equals(method) ? "UpdateCertificate" : "DELETE".equals(method) ? "DeleteCertificate" : "DescribeCertificate";
+            case "target-policies":
+                return "PUT".equals(method) ? "AttachPolicy" : "DetachPolicy";
+            case "attached-policies":
+                return "ListAttachedPolicies";
+            default:
+                return "Unknown";
+        }
+    }
+
+    private static String region(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        Matcher matcher = CREDENTIAL_SCOPE.matcher(authorization == null ? "" : authorization);
+        return matcher.find() ? matcher.group(1) : DEFAULT_REGION;
+    }
+
+    private TokenBucket bucket(String region, String api) {
+        return buckets.computeIfAbsent(region + "/" + api, key -> new TokenBucket(
+                settings.quotas.getOrDefault(api, 10.0) * settings.quotaScale));
+    }
+
+    private long latencyMicros(String api) {
+        double[] latency = settings.latencies.getOrDefault(api, settings.latency);
+        // log-normal through the median and the 99th percentile
+        double mu = Math.log(latency[0]);
+        double sigma = latency[1] > latency[0] ? (Math.log(latency[1]) - mu) / Z_99 : 0;
+        return (long) (Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()) * 1000);
+    }
+
+    private void send(HttpExchange exchange, Response response) {
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(response.body);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("x-amzn-RequestId", UUID.randomUUID().toString());
+            if (response.errorType != null)
+                exchange.getResponseHeaders().set("x-amzn-ErrorType", response.errorType);
+            exchange.sendResponseHeaders(response.status, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        } catch (IOException ioe) {
+            exchange.close();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicLong sequence = new AtomicLong();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    /**
+     * Stand-in options, {@code --name=value} on the command line.
+     * <ul>
+     * <li>{@code port}: listen port, 0 picks a free one (0)</li>
+     * <li>{@code latency-median-millis}, {@code latency-p99-millis}: latency of every API (30, 200)</li>
+     * <li>{@code latency.<Api>=<median>:<p99>}: latency of one API, e.g. {@code latency.RegisterCertificate=80:600}</li>
+     * <li>{@code quota.<Api>}: requests per second of one API and region (AWS defaults)</li>
+     * <li>{@code quota-scale}: factor applied to all quotas (1)</li>
+     * <li>{@code error-rate}: fraction of calls failing with InternalFailureException (0)</li>
+     * <li>{@code unavailable-regions}: comma separated regions answering every call with 503</li>
+     * <li>{@code threads}: request handler threads (16)</li>
+     * </ul>
+     */
+    public static class Settings {
+        int port;
+        double[] latency = {30, 200};
+        Map<String, double[]> latencies = new HashMap<>();
+        Map<String, Double> quotas = new HashMap<>(DEFAULT_QUOTAS);
+        double quotaScale = 1;
+        double errorRate;
+        Set<String> unavailableRegions = new HashSet<>();
+        int threads = 16;
+
+        public static Settings from(Map<String, String> options) {
+            Settings settings = new Settings();
+            settings.port = Integer.parseInt(options.getOrDefault("port", "0"));
+            settings.latency = new double[]{
+                    Double.parseDouble(options.getOrDefault("latency-median-millis", "30")),
+                    Double.parseDouble(options.getOrDefault("latency-p99-millis", "200"))};
+            settings.quotaScale = Double.parseDouble(options.getOrDefault("quota-scale", "1"));
+            settings.errorRate = Double.parseDouble(options.getOrDefault("error-rate", "0"));
+            settings.threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+            for (String region : options.getOrDefault("unavailable-regions", "").split(","))
+                if (!region.trim().isEmpty())
+                    settings.unavailableRegions.add(region.trim());
+            options.forEach((name, value) -> {
+                if (name.startsWith("latency.")) {
+                    String[] medianAndP99 = value.split(":");
+                    settings.latencies.put(name.substring("latency.".length()), new double[]{
+                            Double.parseDouble(medianAndP99[0]), Double.parseDouble(medianAndP99[medianAndP99.length - 1])});
+                } else if (name.startsWith("quota.")) {
+                    settings.quotas.put(name.substring("quota.".length()), Double.parseDouble(value));
+                }
+            });
+            return settings;
+        }
+    }
+
+    public static class ApiStats {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong throttled = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getThrottled() {
+            return throttled.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public long getRejected() {
+            return rejected.get();
+        }
+    }
+
+    private static class TokenBucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket(double tps) {
+            this.ratePerNano = tps / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, tps);
+            this.tokens = capacity;
+        }
+
+        synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * ratePerNano);
+            refilledAt = now;
+            if (tokens < 1)
+                return false;
+            tokens--;
+            return true;
+        }
+    }
+
+    private class Request {
+        private final List<String> segments = new ArrayList<>();
+        private final Map<String, String> params = new HashMap<>();
+        private final String principal;
+        private final JsonNode body;
+
+        Request(HttpExchange exchange) throws IOException {
+            for (String segment : exchange.getRequestURI().getRawPath().split("/"))
+                if (!segment.isEmpty())
+                    segments.add(decode(segment));
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query != null)
+                for (String param : query.split("&")) {
+                    int equals = param.indexOf('=');
+                    if (equals > 0)
+                        params.put(decode(param.substring(0, equals)), decode(param.substring(equals + 1)));
+                }
+            principal = exchange.getRequestHeaders().getFirst("x-amzn-principal");
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                JsonNode json = objectMapper.readTree(inputStream);
+                body = json == null || json.isMissingNode() ? objectMapper.createObjectNode() : json;
+            }
+        }
+
+        int intParam(String name, int defaultValue) {
+            return params.containsKey(name) ? Integer.parseInt(params.get(name)) : defaultValue;
+        }
+    }
+
+    private static class Response {
+        private final int status;
+        private final String errorType;
+        private final ObjectNode body;
+
+        Response(int status, String errorType, ObjectNode body) {
+            this.status = status;
+            this.errorType = errorType;
+            this.body = body;
+        }
+
+        static Response ok(ObjectNode body) {
+            return new Response(200, null, body);
+        }
+
+        static Response error(int status, String errorType, String message) {
+            return new Response(status, errorType, JsonNodeFactory.instance.objectNode().put("message", message));
+        }
+    }
+
+    /**
+     * Inventory of one region. Things and certificates are kept sorted so list calls can page by key.
+     */
+    private class RegionState {
+        private final String region;
+        private final ConcurrentSkipListMap<String, Set<String>> thingPrincipals = new ConcurrentSkipListMap<>();
+        private final ConcurrentSkipListMap<String, String> certificateStatus = new ConcurrentSkipListMap<>();
+        private final ConcurrentMap<String, Set<String>> attachedPolicies = new ConcurrentHashMap<>();
+
+        RegionState(String region) {
+            this.region = region;
+        }
+
+        Response createThing(String thingName) {
+            thingPrincipals.putIfAbsent(thingName, ConcurrentHashMap.newKeySet());
+            return Response.ok(json()
+                    .put("thingName", thingName)
+                    .put("thingArn", arn("thing/" + thingName))
+                    .put("thingId", UUID.nameUUIDFromBytes(thingName.getBytes(StandardCharsets.UTF_8)).toString()));
+        }
+
+        Response deleteThing(String thingName) {
+            Set<String> principals = thingPrincipals.get(thingName);
+            if (principals == null)
+                return Response.ok(json());
+            if (!principals.isEmpty())
+                return Response.error(400, "InvalidRequestException", "Thing " + thingName + " has principals attached");
+            thingPrincipals.remove(thingName);
+            return Response.ok(json());
+        }
+
+        Response listThings(int maxResults, String nextToken) {
+            ObjectNode response = json();
+            ArrayNode things = response.putArray("things");
+            Map<String, Set<String>> page = nextToken == null ? thingPrincipals : thingPrincipals.tailMap(nextToken, true);
+            for (String thingName : page.keySet()) {
+                if (things.size() == maxResults) {
+                    response.put("nextToken", thingName);
+                    break;
+                }
+                things.addObject().put("thingName", thingName).put("thingArn", arn("thing/" + thingName));
+            }
+            return Response.ok(response);
+        }
+
+        Response listThingPrincipals(String thingName) {
+            Set<String> principals = thingPrincipals.get(thingName);
+            if (principals == null)
+                return notFound("Thing " + thingName);
+            ObjectNode response = json();
+            ArrayNode array = response.putArray("principals");
+            principals.forEach(array::add);
+            return Response.ok(response);
+        }
+
+        Response attachThingPrincipal(String thingName, String principal) {
+            Set<String> principals = thingPrincipals.get(thingName);
+            if (principals == null)
+                return notFound("Thing " + thingName);
+            if (!certificateStatus.containsKey(certificateId(principal)))
+                return notFound("Principal " + principal);
+            principals.add(principal);
+            return Response.ok(json());
+        }
+
+        Response detachThingPrincipal(String thingName, String principal) {
+            Set<String> principals = thingPrincipals.get(thingName);
+            if (principals == null)
+                return notFound("Thing " + thingName);
+            principals.remove(principal);
+            return Response.ok(json());
+        }
+
+        Response registerCertificate(String certificatePem, boolean active) {
+            String certificateId = CertificateFingerprint.certificateId(certificatePem);
+            if (certificateId == null)
+                return Response.error(400, "CertificateValidationException", "Invalid certificate");
+            if (certificateStatus.putIfAbsent(certificateId, active ? "ACTIVE" : "INACTIVE") != null)
+                return Response.error(409, "ResourceAlreadyExistsException", "Certificate already exists");
+            return Response.ok(json()
+                    .put("certificateId", certificateId)
+                    .put("certificateArn", arn("cert/" + certificateId)));
+        }
+
+        Response describeCertificate(String certificateId) {
+            String status = certificateStatus.get(certificateId);
+            if (status == null)
+                return notFound("Certificate " + certificateId);
+            ObjectNode response = json();
+            response.putObject("certificateDescription")
+                    .put("certificateId", certificateId)
+                    .put("certificateArn", arn("cert/" + certificateId))
+                    .put("status", status);
+            return Response.ok(response);
+        }
+
+        Response updateCertificate(String certificateId, String newStatus) {
+            String status = certificateStatus.get(certificateId);
+            if (status == null)
+                return notFound("Certificate " + certificateId);
+            // a revoked certificate can't be brought back
+            if ("REVOKED".equals(status) && !"REVOKED".equals(newStatus))
+                return Response.error(406, "CertificateStateException", "Certificate " + certificateId + " is revoked");
+            certificateStatus.put(certificateId, newStatus);
+            return Response.ok(json());
+        }
+
+        Response deleteCertificate(String certificateId) {
+            String status = certificateStatus.get(certificateId);
+            if (status == null)
+                return notFound("Certificate " + certificateId);
+            if ("ACTIVE".equals(status))
+                return Response.error(406, "CertificateStateException", "Certificate " + certificateId + " is active");
+            String certificateArn = arn("cert/" + certificateId);
+            if (thingPrincipals.values().stream().anyMatch(principals -> principals.contains(certificateArn)))
+                return Response.error(409, "DeleteConflictException", "Certificate " + certificateId + " is attached to a thing");
+            certificateStatus.remove(certificateId);
+            attachedPolicies.remove(certificateArn);
+            return Response.ok(json());
+        }
+
+        Response listCertificates(int pageSize, String marker) {
+            ObjectNode response = json();
+            ArrayNode certificates = response.putArray("certificates");
+            Map<String, String> page = marker == null ? certificateStatus : certificateStatus.tailMap(marker, true);
+            for (Map.Entry<String, String> certificate : page.entrySet()) {
+                if (certificates.size() == pageSize) {
+                    response.put("nextMarker", certificate.getKey());
+                    break;
+                }
+                certificates.addObject()
+                        .put("certificateId", certificate.getKey())
+                        .put("certificateArn", arn("cert/" + certificate.getKey()))
+                        .put("status", certificate.getValue());
+            }
+            return Response.ok(response);
+        }
+
+        Response attachPolicy(String policyName, String target) {
+            if (target == null || !certificateStatus.containsKey(certificateId(target)))
+                return notFound("Target " + target);
+            attachedPolicies.computeIfAbsent(target, key -> ConcurrentHashMap.newKeySet()).add(policyName);
+            return Response.ok(json());
+        }
+
+        Response detachPolicy(String policyName, String target) {
+            attachedPolicies.getOrDefault(target, Collections.emptySet()).remove(policyName);
+            return Response.ok(json());
+        }
+
+        Response listAttachedPolicies(String target) {
+            ObjectNode response = json();
+            ArrayNode policies = response.putArray("policies");
+            attachedPolicies.getOrDefault(target, Collections.emptySet()).forEach(policyName -> policies.addObject()
+                    .put("policyName", policyName)
+                    .put("policyArn", arn("policy/" + policyName)));
+            return Response.ok(response);
+        }
+
+        private String arn(String resource) {
+            return "arn:aws:iot:" + region + ":" + ACCOUNT_ID + ":" + resource;
+        }
+
+        private String certificateId(String certificateArn) {
+            return certificateArn == null ? "" : certificateArn.substring(certificateArn.lastIndexOf('/') + 1);
+        }
+
+        private ObjectNode json() {
+            return objectMapper.createObjectNode();
+        }
+
+        private Response notFound(String resource) {
+            return Response.error(404, "ResourceNotFoundException", resource + " not found");
+        }
+    }
+}
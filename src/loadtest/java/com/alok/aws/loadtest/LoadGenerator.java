@@ -0,0 +1,307 @@
+package com.alok.aws.loadtest;
+
+import com.alok.aws.iotcore.certificate.TestCertificates;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a mixed workload against the device API: registrations of new devices, re-registrations of
+ * registered devices and revocations of their certificates, picked by weight. Without a target rate
+ * every worker sends its next request as soon as the last one returns (closed model); with one, the
+ * requests are scheduled at that rate and latency is measured from the scheduled start, so a stalled
+ * service shows up in the percentiles instead of just slowing the generator down.
+ */
+public class LoadGenerator {
+
+    public enum Operation {
+        REGISTER, RE_REGISTER, REVOKE
+    }
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String target;
+    private final int concurrency;
+    private final long warmUpNanos;
+    private final long durationNanos;
+    private final double rate;
+    private final Map<Operation, Integer> mix;
+    private final TestCertificates testCertificates;
+
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong deviceSequence = new AtomicLong();
+    private final AtomicLong slots = new AtomicLong();
+    private final DevicePool registered = new DevicePool();
+
+    public LoadGenerator(String target, int concurrency, long warmUpSeconds, long durationSeconds, double rate,
+                         Map<Operation, Integer> mix, TestCertificates testCertificates) {
+        this.target = target;
+        this.concurrency = concurrency;
+        this.warmUpNanos = TimeUnit.SECONDS.toNanos(warmUpSeconds);
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        this.rate = rate;
+        this.mix = mix;
+        this.testCertificates = testCertificates;
+    }
+
+    public Report run() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        List<Future<Map<Operation, Samples>>> results = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++)
+            results.add(workers.submit(() -> work(start)));
+
+        Map<Operation, Samples> samples = new EnumMap<>(Operation.class);
+        for (Future<Map<Operation, Samples>> result : results) {
+            try {
+                result.get().forEach((operation, workerSamples) ->
+                        samples.computeIfAbsent(operation, key -> new Samples()).add(workerSamples));
+            } catch (ExecutionException ee) {
+                throw new IllegalStateException("Load generator worker failed", ee.getCause());
+            }
+        }
+        workers.shutdown();
+        return new Report(samples, TimeUnit.NANOSECONDS.toMillis(durationNanos) / 1000.0);
+    }
+
+    private Map<Operation, Samples> work(long start) throws InterruptedException {
+        Map<Operation, Samples> samples = new EnumMap<>(Operation.class);
+        long measureFrom = start + warmUpNanos;
+        long end = measureFrom + durationNanos;
+        long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+
+        while (true) {
+            long scheduled = System.nanoTime();
+            if (interval > 0) {
+                scheduled = start + slots.getAndIncrement() * interval;
+                long wait = scheduled - System.nanoTime();
+                if (wait > 0)
+                    TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            if (scheduled >= end)
+                return samples;
+
+            Operation operation = pick();
+            String deviceName = operation == Operation.REGISTER ? null : registered.random();
+            if (deviceName == null)
+                operation = Operation.REGISTER;
+
+            int status = execute(operation, deviceName);
+            long latency = System.nanoTime() - scheduled;
+            if (scheduled >= measureFrom)
+                samples.computeIfAbsent(operation, key -> new Samples()).record(status, latency);
+        }
+    }
+
+    private int execute(Operation operation, String deviceName) {
+        switch (operation) {
+            case REGISTER: {
+                String newDevice = "loadtest-" + runId + "-" + deviceSequence.incrementAndGet();
+                int status = register(newDevice);
+                if (status / 100 == 2)
+                    registered.add(newDevice);
+                return status;
+            }
+            case RE_REGISTER:
+                return register(deviceName);
+            default: {
+                int status = request("PUT", "/device/" + deviceName + "?newStatus=REVOKED", null);
+                // a revoked certificate can't be registered again, nor revoked twice in a meaningful way
+                if (status / 100 == 2)
+                    registered.remove(deviceName);
+                return status;
+            }
+        }
+    }
+
+    private int register(String deviceName) {
+        ObjectNode body = OBJECT_MAPPER.createObjectNode()
+                .put("DeviceName", deviceName)
+                .put("CertificatePem", registered.certificatePem(deviceName, testCertificates))
+                .put("CaCertificatePem", testCertificates.getCaCertificatePem());
+        try {
+            return request("POST", "/device/register", OBJECT_MAPPER.writeValueAsBytes(body));
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    // -1 for requests that didn't get a response
+    private int request(String method, String path, byte[] body) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(target + path).openConnection();
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(120000);
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream outputStream = connection.getOutputStream()) {
+                    outputStream.write(body);
+                }
+            }
+            int status = connection.getResponseCode();
+            // the body is read to the end so the connection goes back to the keep-alive pool
+            try (InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (inputStream != null)
+                    while (inputStream.read(new byte[1024]) >= 0) ;
+            }
+            return status;
+        } catch (IOException ioe) {
+            return -1;
+        }
+    }
+
+    private Operation pick() {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        int roll = ThreadLocalRandom.current().nextInt(total);
+        for (Map.Entry<Operation, Integer> weight : mix.entrySet()) {
+            roll -= weight.getValue();
+            if (roll < 0)
+                return weight.getKey();
+        }
+        return Operation.REGISTER;
+    }
+
+    /**
+     * Registered devices with their certificate, for re-registrations and revocations to pick from.
+     */
+    private static class DevicePool {
+        private final List<String> deviceNames = new ArrayList<>();
+        private final Map<String, Integer> positions = new HashMap<>();
+        private final ConcurrentMap<String, String> certificatePems = new ConcurrentHashMap<>();
+
+        String certificatePem(String deviceName, TestCertificates testCertificates) {
+            return certificatePems.computeIfAbsent(deviceName, testCertificates::deviceCertificatePem);
+        }
+
+        synchronized void add(String deviceName) {
+            if (positions.putIfAbsent(deviceName, deviceNames.size()) == null)
+                deviceNames.add(deviceName);
+        }
+
+        synchronized String random() {
+            return deviceNames.isEmpty() ? null : deviceNames.get(ThreadLocalRandom.current().nextInt(deviceNames.size()));
+        }
+
+        synchronized void remove(String deviceName) {
+            Integer position = positions.remove(deviceName);
+            if (position == null)
+                return;
+            String last = deviceNames.remove(deviceNames.size() - 1);
+            if (position < deviceNames.size()) {
+                deviceNames.set(position, last);
+                positions.put(last, position);
+            }
+            certificatePems.remove(deviceName);
+        }
+    }
+
+    /**
+     * Latencies and response status counts of one operation.
+     */
+    public static class Samples {
+        private long[] latencies = new long[1024];
+        private int count;
+        private final Map<Integer, Long> statuses = new TreeMap<>();
+
+        void record(int status, long latencyNanos) {
+            if (count == latencies.length)
+                latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = latencyNanos;
+            statuses.merge(status, 1L, Long::sum);
+        }
+
+        void add(Samples other) {
+            if (count + other.count > latencies.length)
+                latencies = Arrays.copyOf(latencies, count + other.count);
+            System.arraycopy(other.latencies, 0, latencies, count, other.count);
+            count += other.count;
+            other.statuses.forEach((status, statusCount) -> statuses.merge(status, statusCount, Long::sum));
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public Map<Integer, Long> getStatuses() {
+            return statuses;
+        }
+
+        public long getErrors() {
+            return statuses.entrySet().stream()
+                    .filter(status -> status.getKey() / 100 != 2)
+                    .mapToLong(Map.Entry::getValue)
+                    .sum();
+        }
+
+        /**
+         * @return the latency in milliseconds at the percentile, 0-100
+         */
+        public double percentile(double percentile) {
+            if (count == 0)
+                return 0;
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))] / 1e6;
+        }
+    }
+
+    public static class Report {
+        private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+
+        private final Map<Operation, Samples> samples;
+        private final double seconds;
+
+        Report(Map<Operation, Samples> samples, double seconds) {
+            this.samples = samples;
+            this.seconds = seconds;
+        }
+
+        public String format() {
+            StringBuilder report = new StringBuilder(String.format("%n%-12s %9s %9s %8s %9s %9s %9s %9s %9s  %s%n",
+                    "operation", "requests", "req/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "statuses"));
+            Samples total = new Samples();
+            samples.forEach((operation, operationSamples) -> {
+                report.append(line(operation.name(), operationSamples));
+                total.add(operationSamples);
+            });
+            report.append(line("TOTAL", total));
+            return report.toString();
+        }
+
+        public ObjectNode toJson() {
+            ObjectNode json = OBJECT_MAPPER.createObjectNode().put("seconds", seconds);
+            samples.forEach((operation, operationSamples) -> {
+                ObjectNode operationJson = json.putObject(operation.name())
+                        .put("requests", operationSamples.getCount())
+                        .put("throughput", operationSamples.getCount() / seconds)
+                        .put("errorRate", operationSamples.getCount() == 0 ? 0 : (double) operationSamples.getErrors() / operationSamples.getCount());
+                ObjectNode latency = operationJson.putObject("latencyMillis");
+                for (double percentile : PERCENTILES)
+                    latency.put(percentile == 100 ? "max" : "p" + (percentile % 1 == 0 ? String.valueOf((long) percentile) : String.valueOf(percentile)),
+                            operationSamples.percentile(percentile));
+                ObjectNode statuses = operationJson.putObject("statuses");
+                operationSamples.getStatuses().forEach((status, count) -> statuses.put(String.valueOf(status), count));
+            });
+            return json;
+        }
+
+        private String line(String name, Samples operationSamples) {
+            double errorRate = operationSamples.getCount() == 0 ? 0 : 100.0 * operationSamples.getErrors() / operationSamples.getCount();
+            return String.format("%-12s %9d %9.1f %7.2f%% %9.1f %9.1f %9.1f %9.1f %9.1f  %s%n", name, operationSamples.getCount(),
+                    operationSamples.getCount() / seconds, errorRate,
+                    operationSamples.percentile(50), operationSamples.percentile(90), operationSamples.percentile(99),
+                    operationSamples.percentile(99.9), operationSamples.percentile(100), operationSamples.getStatuses());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.alok.aws.loadtest;
+
+import com.alok.aws.iotcore.IotCoreApplication;
+import com.alok.aws.iotcore.certificate.TestCertificates;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Load test of the whole HTTP stack: starts the {@link IotStandIn}, the service pointed at it and the
+ * {@link LoadGenerator}, then prints throughput, latency percentiles and error rates per operation and
+ * the calls the stand-in saw. With {@code --target} only the generator runs, against a service started
+ * separately (e.g. with the stand-in's main).
+ * <p>
+ * Options, {@code --name=value}:
+ * <ul>
+ * <li>{@code duration-seconds} (60), {@code warm-up-seconds} (10), {@code concurrency} (32)</li>
+ * <li>{@code rate}: requests per second scheduled across all workers, 0 for a closed model (0)</li>
+ * <li>{@code mix}: operation weights (register:60,re_register:25,revoke:15)</li>
+ * <li>{@code regions}: regions of the service started in-process (ap-south-1,ap-southeast-1)</li>
+ * <li>{@code app.<property>}: property of the service started in-process, e.g. {@code app.aws.iot.api.non-blocking=true}</li>
+ * <li>{@code result}: JSON report file (target/loadtest-result.json)</li>
+ * <li>{@code target}: base URL of a service to drive instead of starting one</li>
+ * <li>the {@link IotStandIn.Settings} options for latency, quotas and failures</li>
+ * </ul>
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "32"));
+        // HttpURLConnection keeps only 5 idle connections per host by default
+        System.setProperty("http.maxConnections", String.valueOf(concurrency));
+
+        IotStandIn iotStandIn = null;
+        ConfigurableApplicationContext applicationContext = null;
+        String target = options.get("target");
+        if (target == null) {
+            iotStandIn = new IotStandIn(IotStandIn.Settings.from(options));
+            applicationContext = startService(iotStandIn.getEndpoint(), options);
+            target = "http://localhost:" + applicationContext.getEnvironment().getProperty("local.server.port");
+        }
+
+        try {
+            LoadGenerator loadGenerator = new LoadGenerator(target, concurrency,
+                    Long.parseLong(options.getOrDefault("warm-up-seconds", "10")),
+                    Long.parseLong(options.getOrDefault("duration-seconds", "60")),
+                    Double.parseDouble(options.getOrDefault("rate", "0")),
+                    mix(options.getOrDefault("mix", "register:60,re_register:25,revoke:15")),
+                    new TestCertificates());
+            System.out.println("Load test of " + target + ", options: " + options);
+            LoadGenerator.Report report = loadGenerator.run();
+
+            System.out.print(report.format());
+            ObjectNode result = report.toJson();
+            result.set("options", new ObjectMapper().valueToTree(options));
+            if (iotStandIn != null) {
+                System.out.print(iotStandIn.report());
+                result.set("standIn", new ObjectMapper().valueToTree(iotStandIn.getStats()));
+            }
+            File resultFile = new File(options.getOrDefault("result", "target/loadtest-result.json"));
+            if (resultFile.getParentFile() != null)
+                resultFile.getParentFile().mkdirs();
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(resultFile, result);
+            System.out.println("Results written to " + resultFile);
+        } finally {
+            if (applicationContext != null)
+                applicationContext.close();
+            if (iotStandIn != null)
+                iotStandIn.close();
+        }
+    }
+
+    private static ConfigurableApplicationContext startService(String endpoint, Map<String, String> options) {
+        List<String> regions = Arrays.asList(options.getOrDefault("regions", "ap-south-1,ap-southeast-1").split(","));
+        // the stand-in takes any signature, the region of the first one becomes the current region
+        System.setProperty("aws.accessKeyId", "stand-in");
+        System.setProperty("aws.secretAccessKey", "stand-in");
+        System.setProperty("aws.region", regions.get(0));
+
+        // as command line arguments, default properties would lose against application.properties
+        List<String> arguments = new ArrayList<>(Arrays.asList(
+                "--server.port=0",
+                "--aws.iot.endpoint-override=" + endpoint,
+                "--aws.iot.regions=" + String.join(",", regions),
+                "--spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+                "--spring.jpa.hibernate.ddl-auto=create-drop",
+                "--logging.level.root=WARN",
+                "--logging.level.com.alok.aws.iotcore=WARN"));
+        options.forEach((name, value) -> {
+            if (name.startsWith("app."))
+                arguments.add("--" + name.substring("app.".length()) + "=" + value);
+        });
+
+        return new SpringApplicationBuilder(IotCoreApplication.class)
+                .run(arguments.toArray(new String[0]));
+    }
+
+    private static Map<LoadGenerator.Operation, Integer> mix(String mix) {
+        Map<LoadGenerator.Operation, Integer> weights = new EnumMap<>(LoadGenerator.Operation.class);
+        for (String weight : mix.split(",")) {
+            String[] operationAndWeight = weight.split(":");
+            weights.put(LoadGenerator.Operation.valueOf(operationAndWeight[0].trim().toUpperCase()),
+                    Integer.parseInt(operationAndWeight[1].trim()));
+        }
+        return weights;
+    }
+
+    static Map<String, String> options(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--"))
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            int equals = arg.indexOf('=');
+            if (equals < 0)
+                options.put(arg.substring(2), "true");
+            else
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,77 @@
+package com.alok.aws.iotcore.cache;
+
+import com.alok.aws.iotcore.entity.DeviceRegionState;
+import com.alok.aws.iotcore.entity.DeviceRegionStateId;
+import com.alok.aws.iotcore.repository.DeviceRegionStateRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-region thing -> principal (certificate ARN) cache, so certificate status changes don't need
+ * a listThingPrincipals round trip. Misses fall back to the ARN recorded on the {@link DeviceRegionState}
+ * of the region while its principal is attached.
+ */
+@Component
+@Slf4j
+public class CertificateArnCache {
+
+    // cached after a revoke detached the principal, so the thing is known to have none
+    private static final String NO_PRINCIPAL = "";
+
+    private final ConcurrentMap<String, ExpiringLruCache<String, String>> regionCaches = new ConcurrentHashMap<>();
+
+    @Autowired
+    private DeviceRegionStateRepository deviceRegionStateRepository;
+
+    @Value("${aws.iot.cache.certificate-arn.max-size:10000}")
+    private int maxSize;
+
+    @Value("${aws.iot.cache.certificate-arn.ttl-millis:3600000}")
+    private long ttlMillis;
+
+    /**
+     * @return the certificate ARN, {@code ""} if the thing is known to have no principal, or
+     * {@code null} if neither the cache nor the database know the thing
+     */
+    public String get(String region, String thingName) {
+        ExpiringLruCache<String, String> cache = regionCache(region);
+        String certificateArn = cache.get(thingName);
+        if (certificateArn != null)
+            return certificateArn;
+
+        DeviceRegionState deviceRegionState = deviceRegionStateRepository.findById(new DeviceRegionStateId(thingName, region))
+                .orElse(null);
+        if (deviceRegionState == null || !deviceRegionState.isPrincipalAttached() || deviceRegionState.getCertificateArn() == null)
+            return null;
+
+        certificateArn = deviceRegionState.getCertificateArn();
+        log.debug("Certificate ARN loaded from DB, thing: {}, region: {}, certArn: {}", thingName, region, certificateArn);
+        cache.put(thingName, certificateArn);
+        return certificateArn;
+    }
+
+    public void put(String region, String thingName, String certificateArn) {
+        regionCache(region).put(thingName, certificateArn);
+    }
+
+    public void markDetached(String region, String thingName) {
+        regionCache(region).put(thingName, NO_PRINCIPAL);
+    }
+
+    public void evict(String region, String thingName) {
+        regionCache(region).remove(thingName);
+    }
+
+    public static boolean isDetached(String certificateArn) {
+        return NO_PRINCIPAL.equals(certificateArn);
+    }
+
+    private ExpiringLruCache<String, String> regionCache(String region) {
+        return regionCaches.computeIfAbsent(String.valueOf(region), r -> new ExpiringLruCache<>(maxSize, ttlMillis));
+    }
+}
@@ -0,0 +1,69 @@
+package com.alok.aws.iotcore.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-region certificate ARN -> attached policies cache, so re-registrations of a certificate that
+ * already has the policy skip attachPolicy, which counts against the same quota as new provisioning.
+ * Filled by registrations (a new certificate has no policy), successful attaches and on demand from
+ * listAttachedPolicies; evicted when the certificate is revoked or deleted. Within a region the ARN
+ * is told apart by its certificate id, so entries can be evicted by either. All changes of an entry
+ * are atomic compute calls on the region cache, under the same lock as its reads.
+ */
+@Component
+public class PolicyAttachmentCache {
+
+    private final ConcurrentMap<String, ExpiringLruCache<String, Set<String>>> regionCaches = new ConcurrentHashMap<>();
+
+    @Value("${aws.iot.cache.policy-attachment.max-size:10000}")
+    private int maxSize;
+
+    @Value("${aws.iot.cache.policy-attachment.ttl-millis:3600000}")
+    private long ttlMillis;
+
+    /**
+     * @return the policies attached to the certificate, or {@code null} if not known
+     */
+    public Set<String> get(String region, String certificateArn) {
+        return regionCache(region).get(certificateId(certificateArn));
+    }
+
+    public void registered(String region, String certificateArn) {
+        regionCache(region).compute(certificateId(certificateArn), policyNames -> Collections.emptySet());
+    }
+
+    public void loaded(String region, String certificateArn, Collection<String> policyNames) {
+        Set<String> loaded = Collections.unmodifiableSet(new HashSet<>(policyNames));
+        regionCache(region).compute(certificateId(certificateArn), cached -> loaded);
+    }
+
+    public void attached(String region, String certificateArn, String policyName) {
+        // entries are replaced, never changed, readers hold on to them outside the cache lock
+        regionCache(region).compute(certificateId(certificateArn), policyNames -> {
+            Set<String> attached = policyNames == null ? new HashSet<>() : new HashSet<>(policyNames);
+            attached.add(policyName);
+            return Collections.unmodifiableSet(attached);
+        });
+    }
+
+    public void evict(String region, String certificateId) {
+        regionCache(region).compute(certificateId, policyNames -> null);
+    }
+
+    private ExpiringLruCache<String, Set<String>> regionCache(String region) {
+        return regionCaches.computeIfAbsent(String.valueOf(region), r -> new ExpiringLruCache<>(maxSize, ttlMillis));
+    }
+
+    // arn:aws:iot:<region>:<account>:cert/<certId>
+    private static String certificateId(String certificateArn) {
+        return certificateArn.substring(certificateArn.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,61 @@
+package com.alok.aws.iotcore.certificate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * AWS IoT uses the SHA-256 fingerprint of the DER encoded certificate as certificate id, so the id
+ * can be worked out locally from the PEM without asking AWS.
+ */
+public final class CertificateFingerprint {
+
+    private static final String BEGIN_CERTIFICATE = "-----BEGIN CERTIFICATE-----";
+    private static final String END_CERTIFICATE = "-----END CERTIFICATE-----";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private CertificateFingerprint() {
+    }
+
+    /**
+     * @return the certificate id AWS IoT will assign, or {@code null} if the PEM can't be decoded
+     */
+    public static String certificateId(String certificatePem) {
+        byte[] der = toDer(certificatePem);
+        return der == null ? null : sha256Hex(der);
+    }
+
+    public static byte[] toDer(String certificatePem) {
+        if (certificatePem == null)
+            return null;
+
+        int begin = certificatePem.indexOf(BEGIN_CERTIFICATE);
+        int end = certificatePem.indexOf(END_CERTIFICATE);
+        if (begin < 0 || end < begin)
+            return null;
+
+        try {
+            return Base64.getMimeDecoder().decode(certificatePem.substring(begin + BEGIN_CERTIFICATE.length(), end)
+                    .getBytes(StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+    public static String sha256Hex(byte[] bytes) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException("SHA-256 not available", nsae);
+        }
+
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX[digest[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+}
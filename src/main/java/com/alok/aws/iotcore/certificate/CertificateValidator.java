@@ -0,0 +1,240 @@
+package com.alok.aws.iotcore.certificate;
+
+import com.alok.aws.iotcore.cache.ExpiringLruCache;
+import com.alok.aws.iotcore.exception.InvalidCertificateException;
+import com.alok.aws.iotcore.exception.ThingCreationException;
+import com.alok.aws.iotcore.model.DeviceRegistrationRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the device and CA certificate of a registration locally, before any AWS call: both PEMs
+ * parse as X.509, both are within their validity period and the device certificate is issued and
+ * signed by the CA. A fleet shares a handful of CAs, so parsed CA certificates are cached by their
+ * fingerprint; certificates found valid are cached by device and CA fingerprint, so the pipelines of
+ * the other regions and re-registrations only check the validity period again.
+ * <p>
+ * The time spent is kept as {@code iot.certificate.validation} tagged by outcome, rejections as
+ * {@code iot.certificate.rejections} tagged by reason.
+ */
+@Component
+@Slf4j
+public class CertificateValidator {
+
+    public static final String VALIDATION = "iot.certificate.validation";
+    public static final String REJECTIONS = "iot.certificate.rejections";
+
+    static final String VALID = "valid";
+    static final String MALFORMED = "malformed";
+    static final String CA_MALFORMED = "ca.malformed";
+    static final String EXPIRED = "expired";
+    static final String NOT_YET_VALID = "not.yet.valid";
+    static final String CA_EXPIRED = "ca.expired";
+    static final String CA_NOT_YET_VALID = "ca.not.yet.valid";
+    static final String ISSUER_MISMATCH = "issuer.mismatch";
+    static final String SIGNATURE = "signature";
+
+    // CertificateFactory isn't thread safe
+    private static final ThreadLocal<CertificateFactory> CERTIFICATE_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return CertificateFactory.getInstance("X.509");
+        } catch (CertificateException ce) {
+            throw new IllegalStateException("X.509 not available", ce);
+        }
+    });
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> rejections = new ConcurrentHashMap<>();
+
+    private ExpiringLruCache<String, X509Certificate> caCertificates;
+    private ExpiringLruCache<String, ValidityPeriod> validCertificates;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${aws.iot.certificate.validation.enabled:true}")
+    private boolean enabled;
+
+    @Value("${aws.iot.certificate.validation.clock-skew-millis:300000}")
+    private long clockSkewMillis;
+
+    @Value("${aws.iot.cache.ca-certificate.max-size:100}")
+    private int caCertificateMaxSize;
+
+    @Value("${aws.iot.cache.ca-certificate.ttl-millis:3600000}")
+    private long caCertificateTtlMillis;
+
+    @Value("${aws.iot.cache.valid-certificate.max-size:10000}")
+    private int validCertificateMaxSize;
+
+    @Value("${aws.iot.cache.valid-certificate.ttl-millis:3600000}")
+    private long validCertificateTtlMillis;
+
+    @PostConstruct
+    public void init() {
+        caCertificates = new ExpiringLruCache<>(caCertificateMaxSize, caCertificateTtlMillis);
+        validCertificates = new ExpiringLruCache<>(validCertificateMaxSize, validCertificateTtlMillis);
+    }
+
+    /**
+     * Checks a registration request, its fields and its certificate.
+     *
+     * @throws ThingCreationException if a field is missing
+     * @throws InvalidCertificateException if the device certificate wouldn't be accepted by AWS IoT
+     */
+    public void validate(DeviceRegistrationRequest deviceRegistrationRequest) {
+        if (deviceRegistrationRequest == null
+                || deviceRegistrationRequest.getDeviceName() == null
+                || deviceRegistrationRequest.getCertificatePem() == null
+                || deviceRegistrationRequest.getCaCertificatePem() == null
+        )
+            throw new ThingCreationException("Request validation failed!");
+        validate(deviceRegistrationRequest.getCertificatePem(), deviceRegistrationRequest.getCaCertificatePem());
+    }
+
+    /**
+     * Checks the certificate of a request once ahead of a fan-out, the pipelines of the regions then only
+     * find it in the cache. Missing fields are left to the pipelines to reject.
+     *
+     * @return why the certificate was rejected, null if it wasn't
+     */
+    public InvalidCertificateException rejection(DeviceRegistrationRequest deviceRegistrationRequest) {
+        if (deviceRegistrationRequest == null
+                || deviceRegistrationRequest.getCertificatePem() == null
+                || deviceRegistrationRequest.getCaCertificatePem() == null
+        )
+            return null;
+        try {
+            validate(deviceRegistrationRequest.getCertificatePem(), deviceRegistrationRequest.getCaCertificatePem());
+            return null;
+        } catch (InvalidCertificateException ice) {
+            log.error("Thing creation rejected, thing: {}, error: {}", deviceRegistrationRequest.getDeviceName(), ice.getMessage());
+            return ice;
+        }
+    }
+
+    /**
+     * @throws InvalidCertificateException if the device certificate wouldn't be accepted by AWS IoT
+     */
+    public void validate(String certificatePem, String caCertificatePem) {
+        if (!enabled)
+            return;
+
+        long start = System.nanoTime();
+        String outcome = VALID;
+        try {
+            check(certificatePem, caCertificatePem);
+        } catch (Rejection rejection) {
+            outcome = rejection.reason;
+            rejections.computeIfAbsent(outcome, reason -> Counter.builder(REJECTIONS)
+                    .tag("reason", reason)
+                    .register(meterRegistry))
+                    .increment();
+            log.debug("Certificate rejected, reason: {}, error: {}", rejection.reason, rejection.getMessage());
+            throw new InvalidCertificateException(rejection.getMessage());
+        } finally {
+            timers.computeIfAbsent(outcome, key -> Timer.builder(VALIDATION)
+                    .tag("outcome", key)
+                    .register(meterRegistry))
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void check(String certificatePem, String caCertificatePem) {
+        byte[] der = CertificateFingerprint.toDer(certificatePem);
+        if (der == null)
+            throw new Rejection(MALFORMED, "Certificate isn't a PEM encoded certificate!");
+        byte[] caDer = CertificateFingerprint.toDer(caCertificatePem);
+        if (caDer == null)
+            throw new Rejection(CA_MALFORMED, "CA certificate isn't a PEM encoded certificate!");
+
+        long now = System.currentTimeMillis();
+        String caFingerprint = CertificateFingerprint.sha256Hex(caDer);
+        String key = CertificateFingerprint.sha256Hex(der) + ':' + caFingerprint;
+        ValidityPeriod validityPeriod = validCertificates.get(key);
+        if (validityPeriod != null && validityPeriod.contains(now, clockSkewMillis))
+            return;
+
+        X509Certificate caCertificate = caCertificate(caFingerprint, caDer);
+        X509Certificate certificate = parse(der, MALFORMED, "Certificate");
+
+        checkValidity(caCertificate, now, CA_EXPIRED, CA_NOT_YET_VALID, "CA certificate");
+        checkValidity(certificate, now, EXPIRED, NOT_YET_VALID, "Certificate");
+
+        if (!certificate.getIssuerX500Principal().equals(caCertificate.getSubjectX500Principal()))
+            throw new Rejection(ISSUER_MISMATCH, "Certificate issuer " + certificate.getIssuerX500Principal()
+                    + " isn't the CA " + caCertificate.getSubjectX500Principal() + "!");
+        try {
+            certificate.verify(caCertificate.getPublicKey());
+        } catch (GeneralSecurityException gse) {
+            throw new Rejection(SIGNATURE, "Certificate isn't signed by the CA: " + gse.getMessage());
+        }
+
+        validCertificates.put(key, new ValidityPeriod(
+                Math.max(certificate.getNotBefore().getTime(), caCertificate.getNotBefore().getTime()),
+                Math.min(certificate.getNotAfter().getTime(), caCertificate.getNotAfter().getTime())));
+    }
+
+    private X509Certificate caCertificate(String caFingerprint, byte[] caDer) {
+        X509Certificate caCertificate = caCertificates.get(caFingerprint);
+        if (caCertificate == null) {
+            // parsed twice at worst when two requests miss at once, X509Certificate is immutable
+            caCertificate = parse(caDer, CA_MALFORMED, "CA certificate");
+            caCertificates.put(caFingerprint, caCertificate);
+        }
+        return caCertificate;
+    }
+
+    private static X509Certificate parse(byte[] der, String reason, String what) {
+        try {
+            return (X509Certificate) CERTIFICATE_FACTORY.get().generateCertificate(new ByteArrayInputStream(der));
+        } catch (CertificateException | ClassCastException e) {
+            throw new Rejection(reason, what + " can't be parsed: " + e.getMessage());
+        }
+    }
+
+    private void checkValidity(X509Certificate certificate, long now, String expired, String notYetValid, String what) {
+        if (now - clockSkewMillis > certificate.getNotAfter().getTime())
+            throw new Rejection(expired, what + " expired at " + certificate.getNotAfter().toInstant() + "!");
+        if (now + clockSkewMillis < certificate.getNotBefore().getTime())
+            throw new Rejection(notYetValid, what + " isn't valid before " + certificate.getNotBefore().toInstant() + "!");
+    }
+
+    private static final class ValidityPeriod {
+        private final long notBefore;
+        private final long notAfter;
+
+        private ValidityPeriod(long notBefore, long notAfter) {
+            this.notBefore = notBefore;
+            this.notAfter = notAfter;
+        }
+
+        private boolean contains(long now, long clockSkewMillis) {
+            return now + clockSkewMillis >= notBefore && now - clockSkewMillis <= notAfter;
+        }
+    }
+
+    private static final class Rejection extends RuntimeException {
+        private final String reason;
+
+        private Rejection(String reason, String message) {
+            super(message, null, false, false);
+            this.reason = reason;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.alok.aws.iotcore.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket kept as the time the next token becomes free (GCRA), so that taking a
+ * token is a single CAS. The rate halves whenever the server throttles and creeps back up to the
+ * configured rate on every successful call (AIMD).
+ */
+public class AdaptiveTokenBucket {
+
+    private final long minIntervalNanos;
+    private final long maxIntervalNanos;
+    private final int burst;
+    private final AtomicLong intervalNanos;
+    private final AtomicLong nextFreeNanos;
+
+    public AdaptiveTokenBucket(double permitsPerSecond, double minPermitsPerSecond, int burst) {
+        this.minIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.maxIntervalNanos = Math.max(minIntervalNanos, (long) (TimeUnit.SECONDS.toNanos(1) / minPermitsPerSecond));
+        this.burst = Math.max(1, burst);
+        this.intervalNanos = new AtomicLong(minIntervalNanos);
+        // starts out idle, with the full burst free
+        this.nextFreeNanos = new AtomicLong(System.nanoTime() - (this.burst - 1) * minIntervalNanos);
+    }
+
+    /**
+     * Waits for a token for at most {@code maxWaitNanos}.
+     *
+     * @return false without taking a token if it wouldn't be free in time
+     */
+    public boolean acquire(long maxWaitNanos) throws InterruptedException {
+        long waitNanos = reserve(maxWaitNanos);
+        if (waitNanos < 0)
+            return false;
+
+        if (waitNanos > 0)
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        return true;
+    }
+
+    /**
+     * Takes a token that is free within {@code maxWaitNanos} without waiting for it.
+     *
+     * @return the nanos until the token is free, or -1 without taking a token if it wouldn't be free in time
+     */
+    public long reserve(long maxWaitNanos) {
+        long now = System.nanoTime();
+        while (true) {
+            long next = nextFreeNanos.get();
+            long interval = intervalNanos.get();
+            // an idle bucket refills up to burst tokens
+            long start = Math.max(next, now - (burst - 1) * interval);
+            long waitNanos = start - now;
+            if (waitNanos > maxWaitNanos)
+                return -1;
+
+            if (nextFreeNanos.compareAndSet(next, start + interval))
+                return Math.max(0, waitNanos);
+        }
+    }
+
+    public void onThrottled() {
+        intervalNanos.updateAndGet(interval -> Math.min(maxIntervalNanos, interval * 2));
+    }
+
+    public void onSuccess() {
+        intervalNanos.updateAndGet(interval -> Math.max(minIntervalNanos, interval - interval / 32));
+    }
+
+    public double getPermitsPerSecond() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos.get();
+    }
+}
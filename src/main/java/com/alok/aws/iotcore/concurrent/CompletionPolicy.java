@@ -0,0 +1,13 @@
+package com.alok.aws.iotcore.concurrent;
+
+/**
+ * How many regions of a fan-out have to succeed before the operation counts as done.
+ */
+public enum CompletionPolicy {
+    ALL,
+    QUORUM;
+
+    public int required(int regions) {
+        return this == ALL ? regions : regions / 2 + 1;
+    }
+}
@@ -0,0 +1,52 @@
+package com.alok.aws.iotcore.concurrent;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of one operation fanned out across the configured regions, as seen when the
+ * {@link CompletionPolicy} was met or could no longer be met. Regions still running at that point
+ * are pending and their result is only logged.
+ */
+@Getter
+public class FanOutResult {
+
+    private final List<String> regions;
+    private final int required;
+    private final List<String> succeeded;
+    private final Map<String, Throwable> failures;
+
+    FanOutResult(List<String> regions, int required, List<String> succeeded, Map<String, Throwable> failures) {
+        this.regions = regions;
+        this.required = required;
+        this.succeeded = Collections.unmodifiableList(new ArrayList<>(succeeded));
+        this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    public boolean isSuccessful() {
+        return succeeded.size() >= required;
+    }
+
+    public List<String> getPending() {
+        List<String> pending = new ArrayList<>(regions);
+        pending.removeAll(succeeded);
+        pending.removeAll(failures.keySet());
+        return pending;
+    }
+
+    public boolean anyFailed(Class<? extends Throwable> type) {
+        return failures.values().stream().anyMatch(type::isInstance);
+    }
+
+    // one "region: message" entry per failed region
+    public List<String> errors() {
+        List<String> errors = new ArrayList<>(failures.size());
+        failures.forEach((region, throwable) -> errors.add(region + ": " + throwable.getMessage()));
+        return errors;
+    }
+}
@@ -0,0 +1,126 @@
+package com.alok.aws.iotcore.concurrent;
+
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs one operation against every configured region at the same time and completes as soon as
+ * the {@link CompletionPolicy} is met, or can no longer be met, without waiting for the slowest
+ * region.
+ */
+@Component
+@Slf4j
+public class RegionFanOut {
+
+    @Autowired
+    private IotClientRegistry iotClientRegistry;
+
+    @Value("${aws.iot.completion-policy:ALL}")
+    private CompletionPolicy completionPolicy;
+
+    @Value("${aws.iot.fan-out.threads:32}")
+    private int threads;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        // blocking calls only; when saturated the caller runs its own region instead of queueing behind others
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads), new CustomizableThreadFactory("region-fan-out-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public CompletableFuture<FanOutResult> fanOut(Function<String, CompletableFuture<?>> call) {
+        return fanOut(completionPolicy, call);
+    }
+
+    /**
+     * The returned future never fails, region failures are reported in the {@link FanOutResult}.
+     */
+    public CompletableFuture<FanOutResult> fanOut(CompletionPolicy policy, Function<String, CompletableFuture<?>> call) {
+        List<String> regions = iotClientRegistry.getRegions();
+        Tracker tracker = new Tracker(regions, policy.required(regions.size()));
+        for (String region : regions) {
+            CompletableFuture<?> regionCall;
+            try {
+                regionCall = call.apply(region);
+            } catch (RuntimeException rte) {
+                tracker.completed(region, rte);
+                continue;
+            }
+            regionCall.whenComplete((ignore, throwable) -> tracker.completed(region, throwable));
+        }
+        return tracker.result;
+    }
+
+    public FanOutResult fanOutBlocking(Consumer<String> call) {
+        return fanOutBlocking(completionPolicy, call);
+    }
+
+    public FanOutResult fanOutBlocking(CompletionPolicy policy, Consumer<String> call) {
+        return fanOut(policy, region -> CompletableFuture.runAsync(() -> call.accept(region), executor)).join();
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        while ((throwable instanceof CompletionException || throwable instanceof ExecutionException) && throwable.getCause() != null)
+            throwable = throwable.getCause();
+        return throwable;
+    }
+
+    private static final class Tracker {
+        private final List<String> regions;
+        private final int required;
+        private final List<String> succeeded = new ArrayList<>();
+        private final Map<String, Throwable> failures = new LinkedHashMap<>();
+        private final CompletableFuture<FanOutResult> result = new CompletableFuture<>();
+
+        private Tracker(List<String> regions, int required) {
+            this.regions = regions;
+            this.required = required;
+        }
+
+        private synchronized void completed(String region, Throwable throwable) {
+            if (result.isDone()) {
+                if (throwable != null)
+                    log.error("Region failed after fan-out completed, region: {}, error: {}", region, unwrap(throwable).getMessage());
+                return;
+            }
+
+            if (throwable == null)
+                succeeded.add(region);
+            else
+                failures.put(region, unwrap(throwable));
+
+            boolean quorumReached = succeeded.size() >= required;
+            boolean quorumLost = regions.size() - failures.size() < required;
+            if (quorumReached || quorumLost || succeeded.size() + failures.size() == regions.size())
+                result.complete(new FanOutResult(regions, required, succeeded, failures));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.alok.aws.iotcore.concurrent;
+
+import com.alok.aws.iotcore.model.DeviceRegistrationRequest;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.springframework.stereotype.Component;
+
+/**
+ * Shared by the blocking and the async registration paths, so boot-time retries of a device join
+ * the pipeline already running for it in that region.
+ */
+@Component
+public class RegistrationSingleFlight extends SingleFlight<RegistrationSingleFlight.Key, Void> {
+
+    public static Key key(String region, DeviceRegistrationRequest deviceRegistrationRequest) {
+        return new Key(region, deviceRegistrationRequest.getDeviceName(), deviceRegistrationRequest.getCertificatePem());
+    }
+
+    // the certificate is part of the key so that a device presenting a different certificate is never handed another one's result
+    @EqualsAndHashCode
+    @ToString(exclude = "certificatePem")
+    public static final class Key {
+        private final String region;
+        private final String deviceName;
+        private final String certificatePem;
+
+        private Key(String region, String deviceName, String certificatePem) {
+            this.region = region;
+            this.deviceName = deviceName;
+            this.certificatePem = certificatePem;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.alok.aws.iotcore.concurrent;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer. Every slot carries a sequence
+ * number: a producer claims the next slot with one CAS on the tail and publishes its element by
+ * advancing the slot's sequence, the consumer takes the element once the sequence says it is there
+ * and hands the slot back for the next lap. A full buffer fails {@link #offer} instead of waiting.
+ */
+public class RingBuffer<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // only written by the consumer, read by producers for the size
+    private volatile long head;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    public boolean offer(E element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference < 0)
+                return false;
+            if (difference == 0 && tail.compareAndSet(position, position + 1)) {
+                elements.lazySet(index, element);
+                sequences.set(index, position + 1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves up to {@code max} elements to {@code drain}, only to be called from the consumer thread.
+     *
+     * @return the number of elements moved
+     */
+    public int drainTo(Collection<? super E> drain, int max) {
+        long position = head;
+        int drained = 0;
+        for (; drained < max; drained++, position++) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1)
+                break;
+            drain.add(elements.get(index));
+            elements.lazySet(index, null);
+            sequences.set(index, position + mask + 1);
+        }
+        head = position;
+        return drained;
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
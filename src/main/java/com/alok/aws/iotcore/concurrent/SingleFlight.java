@@ -0,0 +1,76 @@
+package com.alok.aws.iotcore.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the call, callers arriving
+ * while it is in flight get the same result instead of repeating it. The in-flight map is a
+ * {@link ConcurrentHashMap}, which only locks the bin of the key, so unrelated keys don't contend.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> promise = new CompletableFuture<>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, promise);
+        if (leader != null)
+            return leader;
+
+        // whatever the call throws, Errors and sneaky checked exceptions included, has to complete the promise,
+        // followers would otherwise wait on it forever
+        try {
+            call.get().whenComplete((value, throwable) -> complete(key, promise, value, throwable));
+        } catch (Throwable throwable) {
+            complete(key, promise, null, throwable);
+        }
+        return promise;
+    }
+
+    public V executeBlocking(K key, Supplier<V> call) {
+        CompletableFuture<V> promise = new CompletableFuture<>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, promise);
+        if (leader != null)
+            return join(leader);
+
+        V value = null;
+        Throwable failure = null;
+        try {
+            value = call.get();
+            return value;
+        } catch (Throwable throwable) {
+            failure = throwable;
+            throw throwable;
+        } finally {
+            complete(key, promise, value, failure);
+        }
+    }
+
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    private void complete(K key, CompletableFuture<V> promise, V value, Throwable throwable) {
+        inFlight.remove(key, promise);
+        if (throwable == null)
+            promise.complete(value);
+        else
+            promise.completeExceptionally(throwable);
+    }
+
+    private static <V> V join(CompletableFuture<V> leader) {
+        try {
+            return leader.join();
+        } catch (CompletionException ce) {
+            if (ce.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ce.getCause();
+            if (ce.getCause() instanceof Error)
+                throw (Error) ce.getCause();
+            throw ce;
+        }
+    }
+}
@@ -1,32 +1,198 @@
 package com.alok.aws.iotcore.configuration;
 
+import com.alok.aws.iotcore.interceptor.IotCircuitBreakerInterceptor;
+import com.alok.aws.iotcore.interceptor.IotMetricsInterceptor;
+import com.alok.aws.iotcore.interceptor.IotRateLimitInterceptor;
+import com.alok.aws.iotcore.metrics.IotHttpMetricsPublisher;
+import com.alok.aws.iotcore.resilience.DecorrelatedJitterBackoff;
+import com.alok.aws.iotcore.resilience.RetryBudget;
+import com.alok.aws.iotcore.resilience.RetryBudgetCondition;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import software.amazon.awssdk.awscore.retry.AwsRetryPolicy;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.regions.providers.DefaultAwsRegionProviderChain;
+import software.amazon.awssdk.services.iot.IotAsyncClient;
+import software.amazon.awssdk.services.iot.IotAsyncClientBuilder;
 import software.amazon.awssdk.services.iot.IotClient;
+import software.amazon.awssdk.services.iot.IotClientBuilder;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 @Configuration
 @Slf4j
 public class AwsIotClientConfig {
 
+    @Autowired
+    private IotCircuitBreakerInterceptor iotCircuitBreakerInterceptor;
+
+    @Autowired
+    private IotRateLimitInterceptor iotRateLimitInterceptor;
+
+    @Autowired
+    private IotMetricsInterceptor iotMetricsInterceptor;
+
+    @Autowired
+    private IotHttpMetricsPublisher iotHttpMetricsPublisher;
+
+    @Autowired
+    private IotHttpClientProperties iotHttpClientProperties;
+
+    @Autowired
+    private IotResilienceProperties iotResilienceProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${aws.iot.regions:}")
+    private List<String> configuredRegions;
+
+    @Value("${aws.iot.endpoint-override:}")
+    private String endpointOverride;
+
+    @Value("${aws.iot.clients.lazy:false}")
+    private boolean lazyClients;
+
+    @Bean(destroyMethod = "close")
+    public IotClientRegistry iotClientRegistry() {
+        String currentRegion = getCurrentRegion();
+        List<String> regions = new ArrayList<>(getRegions(currentRegion));
+        log.info("IoT current region: {}, regions: {}, endpoint override: {}, lazy clients: {}", currentRegion, regions, endpointOverride, lazyClients);
+        IotClientRegistry iotClientRegistry = new IotClientRegistry(currentRegion, regions, this::iotClient, this::iotAsyncClient);
+        // lazily built clients are built by the warm up, or by the first call of their region
+        if (!lazyClients)
+            iotClientRegistry.initialize();
+        return iotClientRegistry;
+    }
+
+    private IotClient iotClient(String region) {
+        IotClientBuilder clientBuilder = IotClient.builder()
+                .region(Region.of(region))
+                .httpClient(iotHttpClient())
+                .overrideConfiguration(clientOverrideConfiguration());
+        // requests are still signed for their region, which is how a stand-in serving all regions tells them apart
+        if (!endpointOverride.isEmpty())
+            clientBuilder.endpointOverride(URI.create(endpointOverride));
+        return clientBuilder.build();
+    }
+
+    private IotAsyncClient iotAsyncClient(String region) {
+        IotAsyncClientBuilder asyncClientBuilder = IotAsyncClient.builder()
+                .region(Region.of(region))
+                .httpClient(iotAsyncHttpClient())
+                .overrideConfiguration(clientOverrideConfiguration());
+        if (!endpointOverride.isEmpty())
+            asyncClientBuilder.endpointOverride(URI.create(endpointOverride));
+        return asyncClientBuilder.build();
+    }
+
+    // one connection pool for the clients of all regions instead of a default pool per client;
+    // clients given an HTTP client don't close it, the bean is closed by the context.
+    // Lazy, so that with lazy clients the pools are only created with the first client
+    @Bean
+    @Lazy
+    public SdkHttpClient iotHttpClient() {
+        return ApacheHttpClient.builder()
+                .maxConnections(iotHttpClientProperties.getMaxConnections())
+                .connectionTimeToLive(Duration.ofMillis(iotHttpClientProperties.getConnectionTtlMillis()))
+                .connectionMaxIdleTime(Duration.ofMillis(iotHttpClientProperties.getConnectionMaxIdleMillis()))
+                .useIdleConnectionReaper(iotHttpClientProperties.isUseIdleConnectionReaper())
+                .connectionTimeout(Duration.ofMillis(iotHttpClientProperties.getConnectionTimeoutMillis()))
+                .connectionAcquisitionTimeout(Duration.ofMillis(iotHttpClientProperties.getConnectionAcquisitionTimeoutMillis()))
+                .socketTimeout(Duration.ofMillis(iotHttpClientProperties.getSocketTimeoutMillis()))
+                .build();
+    }
+
     @Bean
-    public IotClient currentRegionIotClient() {
-        System.out.println("Current Region: " + System.getenv("AWS_REGION"));
-        return IotClient.builder()
+    @Lazy
+    public SdkAsyncHttpClient iotAsyncHttpClient() {
+        return NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(iotHttpClientProperties.getMaxConnections())
+                .connectionTimeToLive(Duration.ofMillis(iotHttpClientProperties.getConnectionTtlMillis()))
+                .connectionMaxIdleTime(Duration.ofMillis(iotHttpClientProperties.getConnectionMaxIdleMillis()))
+                .useIdleConnectionReaper(iotHttpClientProperties.isUseIdleConnectionReaper())
+                .putChannelOption(ChannelOption.SO_KEEPALIVE, iotHttpClientProperties.isTcpKeepAlive())
+                .connectionTimeout(Duration.ofMillis(iotHttpClientProperties.getConnectionTimeoutMillis()))
+                .connectionAcquisitionTimeout(Duration.ofMillis(iotHttpClientProperties.getConnectionAcquisitionTimeoutMillis()))
+                .readTimeout(Duration.ofMillis(iotHttpClientProperties.getSocketTimeoutMillis()))
+                .writeTimeout(Duration.ofMillis(iotHttpClientProperties.getSocketTimeoutMillis()))
                 .build();
     }
 
     @Bean
-    public IotClient otherRegionIotClient() {
-        System.out.println("Current Region: " + System.getenv("AWS_REGION"));
-        return IotClient.builder()
-                .region(Region.of(getOtherRegion()))
+    public RetryBudget iotRetryBudget() {
+        RetryBudget retryBudget = new RetryBudget(iotResilienceProperties.getRetry().getBudget(), iotResilienceProperties.getRetry().getBudgetRatio());
+        Gauge.builder("iot.retry.budget", retryBudget, RetryBudget::getTokens)
+                .register(meterRegistry);
+        return retryBudget;
+    }
+
+    // AWS' classification of retryable errors, with jittered backoff and a retry budget shared by all clients
+    private RetryPolicy retryPolicy() {
+        IotResilienceProperties.Retry retry = iotResilienceProperties.getRetry();
+        return AwsRetryPolicy.defaultRetryPolicy().toBuilder()
+                .numRetries(retry.getMaxRetries())
+                .backoffStrategy(new DecorrelatedJitterBackoff(retry.getBaseDelayMillis(), retry.getMaxDelayMillis()))
+                .throttlingBackoffStrategy(new DecorrelatedJitterBackoff(retry.getThrottlingBaseDelayMillis(), retry.getMaxDelayMillis()))
+                .retryCapacityCondition(new RetryBudgetCondition(iotRetryBudget()))
                 .build();
     }
 
-    private String getOtherRegion() {
-       if ("ap-south-1".equals(System.getenv("AWS_REGION")))
+    private ClientOverrideConfiguration clientOverrideConfiguration() {
+        return ClientOverrideConfiguration.builder()
+                .retryPolicy(retryPolicy())
+                // first, so that calls to an unhealthy region don't even wait for a rate limit token
+                .addExecutionInterceptor(iotCircuitBreakerInterceptor)
+                .addExecutionInterceptor(iotRateLimitInterceptor)
+                // after the rate limiter so that time spent queueing for a token isn't counted as AWS latency
+                .addExecutionInterceptor(iotMetricsInterceptor)
+                .addMetricPublisher(iotHttpMetricsPublisher)
+                .build();
+    }
+
+    // same resolution the client builders use when no region is set explicitly
+    private String getCurrentRegion() {
+        if (System.getenv("AWS_REGION") != null)
+            return System.getenv("AWS_REGION");
+
+        return new DefaultAwsRegionProviderChain().getRegion().id();
+    }
+
+    // current region first; without aws.iot.regions the old current/other pair is kept
+    private Set<String> getRegions(String currentRegion) {
+        Set<String> regions = new LinkedHashSet<>();
+        regions.add(currentRegion);
+        if (configuredRegions == null || configuredRegions.stream().allMatch(String::isEmpty)) {
+            regions.add(getOtherRegion(currentRegion));
+            return regions;
+        }
+        configuredRegions.stream()
+                .map(String::trim)
+                .filter(region -> !region.isEmpty())
+                .forEach(regions::add);
+        return regions;
+    }
+
+    private String getOtherRegion(String currentRegion) {
+       if ("ap-south-1".equals(currentRegion))
            return "ap-southeast-1";
 
        return "ap-south-1";
@@ -0,0 +1,86 @@
+package com.alok.aws.iotcore.configuration;
+
+import software.amazon.awssdk.services.iot.IotAsyncClient;
+import software.amazon.awssdk.services.iot.IotClient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * The configured regions, current region first, with the blocking and async IoT client of each.
+ * Clients given as factories are built on first use of their region, or by {@link #initialize()}.
+ */
+public class IotClientRegistry implements AutoCloseable {
+
+    private final String currentRegion;
+    private final List<String> regions;
+    private final Function<String, IotClient> clientFactory;
+    private final Function<String, IotAsyncClient> asyncClientFactory;
+    private final ConcurrentMap<String, IotClient> clients = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, IotAsyncClient> asyncClients = new ConcurrentHashMap<>();
+
+    public IotClientRegistry(String currentRegion, Map<String, IotClient> clients, Map<String, IotAsyncClient> asyncClients) {
+        this(currentRegion, new ArrayList<>(clients.keySet()), clients::get, asyncClients::get);
+        initialize();
+    }
+
+    public IotClientRegistry(String currentRegion, List<String> regions, Function<String, IotClient> clientFactory,
+                             Function<String, IotAsyncClient> asyncClientFactory) {
+        this.currentRegion = currentRegion;
+        this.regions = Collections.unmodifiableList(new ArrayList<>(regions));
+        this.clientFactory = clientFactory;
+        this.asyncClientFactory = asyncClientFactory;
+    }
+
+    /**
+     * Builds the clients of all regions not built yet.
+     */
+    public void initialize() {
+        for (String region : regions) {
+            client(region);
+            asyncClient(region);
+        }
+    }
+
+    public String getCurrentRegion() {
+        return currentRegion;
+    }
+
+    public List<String> getRegions() {
+        return regions;
+    }
+
+    public IotClient client(String region) {
+        IotClient iotClient = clients.get(region);
+        if (iotClient != null)
+            return iotClient;
+
+        requireRegion(region);
+        return clients.computeIfAbsent(region, clientFactory);
+    }
+
+    public IotAsyncClient asyncClient(String region) {
+        IotAsyncClient iotAsyncClient = asyncClients.get(region);
+        if (iotAsyncClient != null)
+            return iotAsyncClient;
+
+        requireRegion(region);
+        return asyncClients.computeIfAbsent(region, asyncClientFactory);
+    }
+
+    @Override
+    public void close() {
+        clients.values().forEach(IotClient::close);
+        asyncClients.values().forEach(IotAsyncClient::close);
+    }
+
+    private void requireRegion(String region) {
+        if (!regions.contains(region))
+            throw new IllegalArgumentException("Region not configured: " + region);
+    }
+}
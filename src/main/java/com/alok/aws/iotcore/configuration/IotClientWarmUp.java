@@ -0,0 +1,100 @@
+package com.alok.aws.iotcore.configuration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.iot.IotAsyncClient;
+import software.amazon.awssdk.services.iot.IotClient;
+import software.amazon.awssdk.services.iot.model.ListThingsRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Opens connections to the IoT endpoint of every region before the application reports ready, so
+ * the first registrations after a deploy don't pay for the TCP and TLS handshakes. Readiness is
+ * only published after the ApplicationReadyEvent listeners have returned. In the background mode
+ * readiness doesn't wait: lazily built clients are built and warmed up while the first requests come
+ * in, which build the clients of their region themselves if they get there first.
+ */
+@Component
+@Slf4j
+public class IotClientWarmUp {
+
+    @Autowired
+    private IotClientRegistry iotClientRegistry;
+
+    @Autowired
+    private IotHttpClientProperties iotHttpClientProperties;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        IotHttpClientProperties.WarmUp warmUp = iotHttpClientProperties.getWarmUp();
+        if (!warmUp.isBackground()) {
+            warmUp(warmUp);
+            return;
+        }
+
+        Thread thread = new CustomizableThreadFactory("iot-warm-up-").newThread(() -> warmUp(warmUp));
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void warmUp(IotHttpClientProperties.WarmUp warmUp) {
+        long start = System.nanoTime();
+        iotClientRegistry.initialize();
+        log.info("IoT clients initialized, regions: {}, took {} ms", iotClientRegistry.getRegions(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (!warmUp.isEnabled() || warmUp.getConnections() <= 0)
+            return;
+
+        start = System.nanoTime();
+        // concurrent calls, otherwise the pool keeps reusing the single connection the first call opened
+        ExecutorService executor = Executors.newFixedThreadPool(warmUp.getConnections(), new CustomizableThreadFactory("iot-warm-up-"));
+        try {
+            List<CompletableFuture<?>> calls = new ArrayList<>();
+            for (String region : iotClientRegistry.getRegions()) {
+                IotClient iotClient = iotClientRegistry.client(region);
+                IotAsyncClient iotAsyncClient = iotClientRegistry.asyncClient(region);
+                for (int i = 0; i < warmUp.getConnections(); i++) {
+                    calls.add(CompletableFuture.runAsync(() -> iotClient.listThings(warmUpRequest()), executor)
+                            .exceptionally(throwable -> logFailure(region, throwable)));
+                    calls.add(iotAsyncClient.listThings(warmUpRequest())
+                            .handle((ignore, throwable) -> throwable == null ? null : logFailure(region, throwable)));
+                }
+            }
+            CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0]))
+                    .get(warmUp.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+            log.info("IoT connections warmed up, regions: {}, took {} ms", iotClientRegistry.getRegions(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (TimeoutException te) {
+            log.error("IoT connection warm up timed out after {} ms", warmUp.getTimeoutMillis());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("IoT connection warm up failed, error: {}", e.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ListThingsRequest warmUpRequest() {
+        return ListThingsRequest.builder()
+                .maxResults(1)
+                .build();
+    }
+
+    // an error response still leaves a warm connection behind
+    private static Void logFailure(String region, Throwable throwable) {
+        log.debug("IoT warm up call failed, region: {}, error: {}", region, throwable.getMessage());
+        return null;
+    }
+}
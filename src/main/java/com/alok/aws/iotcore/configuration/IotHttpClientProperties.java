@@ -0,0 +1,47 @@
+package com.alok.aws.iotcore.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "aws.iot.http")
+public class IotHttpClientProperties {
+
+    // shared by the clients of all regions, sized for all of them
+    private int maxConnections = 100;
+
+    // recycled after this long even when busy, so DNS changes of the endpoint are picked up
+    private long connectionTtlMillis = 300000;
+
+    private long connectionMaxIdleMillis = 60000;
+
+    private boolean useIdleConnectionReaper = true;
+
+    // async client only, the Apache client of this SDK version has no keep-alive setting
+    private boolean tcpKeepAlive = true;
+
+    private long connectionTimeoutMillis = 2000;
+
+    // how long a request waits for a pooled connection before failing
+    private long connectionAcquisitionTimeoutMillis = 5000;
+
+    private long socketTimeoutMillis = 30000;
+
+    private WarmUp warmUp = new WarmUp();
+
+    @Data
+    public static class WarmUp {
+
+        private boolean enabled = true;
+
+        // connections opened per region and client before the application reports ready
+        private int connections = 4;
+
+        private long timeoutMillis = 10000;
+
+        // warm up after the application reports ready instead of before
+        private boolean background = false;
+    }
+}
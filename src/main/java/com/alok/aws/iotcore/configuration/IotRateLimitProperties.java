@@ -0,0 +1,36 @@
+package com.alok.aws.iotcore.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "aws.iot.rate-limit")
+public class IotRateLimitProperties {
+
+    private boolean enabled = true;
+
+    // how long a caller queues for a token before failing
+    private long maxWaitMillis = 2000;
+
+    // same for async callers, they don't hold a thread while queued so they can afford to wait longer
+    private long maxAsyncWaitMillis = 30000;
+
+    private int burst = 5;
+
+    private double defaultTps = 8;
+
+    // lower bound the adaptive rate backs off to, as a fraction of the configured rate
+    private double minTpsFraction = 0.1;
+
+    // per API, keyed by operation name e.g. CreateThing
+    private Map<String, Double> tps = new HashMap<>();
+
+    public double getTps(String operationName) {
+        return tps.getOrDefault(operationName, defaultTps);
+    }
+}
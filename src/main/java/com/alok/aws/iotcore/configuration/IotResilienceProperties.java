@@ -0,0 +1,74 @@
+package com.alok.aws.iotcore.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "aws.iot.resilience")
+public class IotResilienceProperties {
+
+    private Retry retry = new Retry();
+
+    private Hedge hedge = new Hedge();
+
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    private Replay replay = new Replay();
+
+    @Data
+    public static class Retry {
+
+        private int maxRetries = 3;
+
+        private long baseDelayMillis = 50;
+
+        private long throttlingBaseDelayMillis = 500;
+
+        private long maxDelayMillis = 5000;
+
+        // retries and hedges allowed in a burst, shared by all clients
+        private int budget = 100;
+
+        // budget earned back per successful call, i.e. the share of calls that may be retried in the long run
+        private double budgetRatio = 0.1;
+    }
+
+    @Data
+    public static class Hedge {
+
+        private boolean enabled = true;
+
+        // roughly the p95 of the hedged call, later hedges only add load
+        private long delayMillis = 150;
+
+        // workers starting the hedged calls, hedges beyond what they can take are skipped
+        private int threads = 8;
+    }
+
+    @Data
+    public static class CircuitBreaker {
+
+        private boolean enabled = true;
+
+        // outcomes of the last calls per region the failure rate is taken over
+        private int windowSize = 20;
+
+        private int minimumCalls = 10;
+
+        private double failureRateThreshold = 0.5;
+
+        private long openMillis = 30000;
+    }
+
+    @Data
+    public static class Replay {
+
+        private long intervalMillis = 5000;
+
+        private int batchSize = 100;
+
+        private int maxAttempts = 10;
+    }
+}
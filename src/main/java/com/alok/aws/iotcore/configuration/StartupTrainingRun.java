@@ -0,0 +1,42 @@
+package com.alok.aws.iotcore.configuration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Training run for the class data sharing archive (cds Maven profile): the application exits as soon
+ * as it accepts traffic, so the classes loaded up to then are the ones the archive is built from.
+ */
+@Component
+@ConditionalOnProperty("aws.iot.startup.training-run")
+@Slf4j
+public class StartupTrainingRun {
+
+    @Autowired
+    private ConfigurableApplicationContext applicationContext;
+
+    @Autowired
+    private IotClientRegistry iotClientRegistry;
+
+    @EventListener
+    public void readinessChanged(AvailabilityChangeEvent<ReadinessState> availabilityChangeEvent) {
+        if (availabilityChangeEvent.getState() != ReadinessState.ACCEPTING_TRAFFIC)
+            return;
+
+        // lazy clients are otherwise built after the run and their classes would miss the archive
+        iotClientRegistry.initialize();
+        log.info("Training run done, exiting");
+        // not on the event thread, closing the context waits for the startup to complete
+        new CustomizableThreadFactory("training-run-exit-")
+                .newThread(() -> System.exit(SpringApplication.exit(applicationContext)))
+                .start();
+    }
+}
@@ -1,29 +1,127 @@
 package com.alok.aws.iotcore.controller;
 
+import com.alok.aws.iotcore.concurrent.FanOutResult;
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.entity.AuditAction;
+import com.alok.aws.iotcore.entity.ProvisioningSaga;
+import com.alok.aws.iotcore.entity.ReconciliationRun;
+import com.alok.aws.iotcore.entity.RegistrationJob;
+import com.alok.aws.iotcore.entity.StatusChangeJob;
 import com.alok.aws.iotcore.exception.CertificateDoesntExistException;
+import com.alok.aws.iotcore.exception.InvalidCertificateException;
+import com.alok.aws.iotcore.exception.InvalidRequestException;
+import com.alok.aws.iotcore.exception.JobQueueFullException;
 import com.alok.aws.iotcore.exception.ThingDoesntExistException;
+import com.alok.aws.iotcore.exception.ThingUpdateException;
+import com.alok.aws.iotcore.model.AuditEventResponse;
+import com.alok.aws.iotcore.model.BulkStatusChangeRequest;
 import com.alok.aws.iotcore.model.DeviceRegistrationRequest;
+import com.alok.aws.iotcore.model.DeviceResponse;
+import com.alok.aws.iotcore.model.ReconciliationFindingResponse;
+import com.alok.aws.iotcore.model.ReconciliationRequest;
+import com.alok.aws.iotcore.model.ReconciliationRunResponse;
+import com.alok.aws.iotcore.model.RegistrationJobResponse;
+import com.alok.aws.iotcore.model.SagaResponse;
+import com.alok.aws.iotcore.model.StatusChangeJobResponse;
+import com.alok.aws.iotcore.service.AsyncThingService;
+import com.alok.aws.iotcore.service.AuditLog;
+import com.alok.aws.iotcore.service.BulkRegistrationService;
+import com.alok.aws.iotcore.service.DeviceInventoryService;
+import com.alok.aws.iotcore.service.ProvisioningSagaService;
+import com.alok.aws.iotcore.service.ReconciliationService;
+import com.alok.aws.iotcore.service.RegistrationJobService;
+import com.alok.aws.iotcore.service.StatusChangeJobService;
 import com.alok.aws.iotcore.service.ThingService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
 @RestController
 @RequestMapping("/device")
 @Slf4j
 public class DeviceController {
 
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+
     @Autowired
     private ThingService thingService;
 
+    @Autowired
+    private AsyncThingService asyncThingService;
+
+    @Autowired
+    private IotClientRegistry iotClientRegistry;
+
+    @Autowired
+    private BulkRegistrationService bulkRegistrationService;
+
+    @Autowired
+    private RegistrationJobService registrationJobService;
+
+    @Autowired
+    private StatusChangeJobService statusChangeJobService;
+
+    @Autowired
+    private ProvisioningSagaService provisioningSagaService;
+
+    @Autowired
+    private ReconciliationService reconciliationService;
+
+    @Autowired
+    private AuditLog auditLog;
+
+    @Autowired
+    private DeviceInventoryService deviceInventoryService;
+
+    @Value("${aws.iot.registration.parallel:true}")
+    private boolean parallelRegistration;
+
+    @Value("${aws.iot.saga.enabled:false}")
+    private boolean sagas;
+
+    @Value("${aws.iot.api.non-blocking:false}")
+    private boolean nonBlocking;
+
     @PostMapping(value = "/register")
-    public ResponseEntity<String> registerDevice(@RequestBody DeviceRegistrationRequest deviceRegistrationRequest) {
+    public CompletableFuture<ResponseEntity<String>> registerDevice(@RequestBody DeviceRegistrationRequest deviceRegistrationRequest) {
+
+        // the request thread is released while the regions are provisioned, the response is written on completion
+        if (nonBlocking && !sagas)
+            return asyncThingService.createThingAndRegisterCertificateAllRegions(deviceRegistrationRequest)
+                    .thenApply(DeviceController::registrationResponse);
+
+        return CompletableFuture.completedFuture(registerDeviceBlocking(deviceRegistrationRequest));
+    }
+
+    private ResponseEntity<String> registerDeviceBlocking(DeviceRegistrationRequest deviceRegistrationRequest) {
+        if (sagas)
+            return registerDeviceSaga(deviceRegistrationRequest);
+
+        if (parallelRegistration)
+            return registerDeviceParallel(deviceRegistrationRequest);
 
         try {
-            thingService.createThingAndRegisterCertificateCurrentRegion(deviceRegistrationRequest);
-            thingService.createThingAndRegisterCertificateOtherRegion(deviceRegistrationRequest);
+            for (String region : iotClientRegistry.getRegions())
+                thingService.createThingAndRegisterCertificate(deviceRegistrationRequest, region);
+        } catch (InvalidCertificateException rte) {
+            log.error("Thing creation rejected, error: {}", rte.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .build();
         } catch (RuntimeException rte) {
             log.error("Thing creation failed, error: {}, cause: {}", rte.getMessage(), rte.getCause());
             return ResponseEntity.status(HttpStatus.FAILED_DEPENDENCY)
@@ -34,29 +132,280 @@ public class DeviceController {
                 .build();
     }
 
-    @PutMapping(value = "/{thingName}")
-    public ResponseEntity<Void> updateDeviceCertState(@PathVariable("thingName") String thingName, @RequestParam("newStatus") String newStatus) {
+    private ResponseEntity<String> registerDeviceParallel(DeviceRegistrationRequest deviceRegistrationRequest) {
+        return registrationResponse(asyncThingService.createThingAndRegisterCertificateAllRegions(deviceRegistrationRequest)
+                .join());
+    }
 
-        try {
-            thingService.updateThingCertStatusCurrentRegion(thingName, newStatus);
-            thingService.updateThingCertStatusOtherRegion(thingName, newStatus);
-        } catch (ThingDoesntExistException rte) {
-            log.error("Thing creation failed, error: {}, cause: {}", rte.getMessage(), rte.getCause());
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+    private static ResponseEntity<String> registrationResponse(FanOutResult fanOutResult) {
+        if (fanOutResult.anyFailed(InvalidCertificateException.class))
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .build();
-        } catch (CertificateDoesntExistException rte) {
-            log.error("Thing creation failed, error: {}, cause: {}", rte.getMessage(), rte.getCause());
-            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+        if (!fanOutResult.isSuccessful())
+            return ResponseEntity.status(HttpStatus.FAILED_DEPENDENCY)
+                    .build();
+
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .build();
+    }
+
+    private ResponseEntity<String> registerDeviceSaga(DeviceRegistrationRequest deviceRegistrationRequest) {
+        ProvisioningSaga provisioningSaga;
+        try {
+            provisioningSaga = provisioningSagaService.startRegistration(deviceRegistrationRequest);
+        } catch (InvalidCertificateException rte) {
+            log.error("Thing creation rejected, error: {}", rte.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .build();
         } catch (RuntimeException rte) {
             log.error("Thing creation failed, error: {}, cause: {}", rte.getMessage(), rte.getCause());
             return ResponseEntity.status(HttpStatus.FAILED_DEPENDENCY)
                     .build();
         }
-        return ResponseEntity.status(HttpStatus.ACCEPTED)
+
+        return ResponseEntity.accepted()
+                .location(URI.create("/device/sagas/" + provisioningSaga.getSagaId()))
+                .build();
+    }
+
+    @PostMapping(value = "/register", params = "async=true")
+    public ResponseEntity<RegistrationJobResponse> registerDeviceAsync(@RequestBody DeviceRegistrationRequest deviceRegistrationRequest) {
+
+        RegistrationJob registrationJob;
+        try {
+            registrationJob = registrationJobService.submit(deviceRegistrationRequest);
+        } catch (JobQueueFullException rte) {
+            log.error("Thing creation failed, error: {}, cause: {}", rte.getMessage(), rte.getCause());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .build();
+        }
+
+        return ResponseEntity.accepted()
+                .location(URI.create("/device/jobs/" + registrationJob.getJobId()))
+                .body(RegistrationJobResponse.from(registrationJob));
+    }
+
+    @GetMapping(value = "/jobs/{jobId}")
+    public ResponseEntity<RegistrationJobResponse> getRegistrationJob(@PathVariable("jobId") String jobId) {
+        return registrationJobService.getJob(jobId)
+                .map(registrationJob -> ResponseEntity.ok(RegistrationJobResponse.from(registrationJob)))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .build());
+    }
+
+    @GetMapping(value = "/sagas/{sagaId}")
+    public ResponseEntity<SagaResponse> getSaga(@PathVariable("sagaId") String sagaId) {
+        return provisioningSagaService.getSaga(sagaId)
+                .map(provisioningSaga -> ResponseEntity.ok(SagaResponse.from(provisioningSaga)))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .build());
+    }
+
+    @PostMapping(value = "/register/bulk", consumes = {NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public void registerDevices(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(NDJSON_VALUE);
+        bulkRegistrationService.registerDevices(request.getInputStream(), response.getOutputStream());
+    }
+
+    @PutMapping(value = "/{thingName}")
+    public CompletableFuture<ResponseEntity<Void>> updateDeviceCertState(@PathVariable("thingName") String thingName, @RequestParam("newStatus") String newStatus) {
+
+        if (nonBlocking && !sagas)
+            return asyncThingService.updateThingCertStatusAllRegions(thingName, newStatus)
+                    .thenApply(fanOutResult -> statusUpdateResponse(thingName, fanOutResult));
+
+        return CompletableFuture.completedFuture(updateDeviceCertStateBlocking(thingName, newStatus));
+    }
+
+    private ResponseEntity<Void> updateDeviceCertStateBlocking(String thingName, String newStatus) {
+        if (sagas) {
+            ProvisioningSaga provisioningSaga;
+            try {
+                provisioningSaga = provisioningSagaService.startStatusUpdate(thingName, newStatus);
+            } catch (InvalidRequestException rte) {
+                log.error("Thing update rejected, thing: {}, error: {}", thingName, rte.getMessage());
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .build();
+            }
+            return ResponseEntity.accepted()
+                    .location(URI.create("/device/sagas/" + provisioningSaga.getSagaId()))
+                    .build();
+        }
+
+        return statusUpdateResponse(thingName, thingService.updateThingCertStatusAllRegions(thingName, newStatus));
+    }
+
+    private ResponseEntity<Void> statusUpdateResponse(String thingName, FanOutResult fanOutResult) {
+        if (fanOutResult.isSuccessful())
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .build();
+
+        // the first failing region in configured order decides, as with the former sequential update
+        Throwable failure = iotClientRegistry.getRegions().stream()
+                .map(fanOutResult.getFailures()::get)
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElseGet(() -> new ThingUpdateException("Regions pending: " + fanOutResult.getPending()));
+        log.error("Thing update failed, thing: {}, errors: {}", thingName, fanOutResult.errors());
+        if (failure instanceof ThingDoesntExistException)
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .build();
+        if (failure instanceof CertificateDoesntExistException)
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .build();
+        return ResponseEntity.status(HttpStatus.FAILED_DEPENDENCY)
                 .build();
     }
 
+    @PostMapping(value = "/status-jobs")
+    public ResponseEntity<StatusChangeJobResponse> updateDevicesCertState(@RequestBody BulkStatusChangeRequest bulkStatusChangeRequest) {
+
+        StatusChangeJob statusChangeJob;
+        try {
+            statusChangeJob = statusChangeJobService.submit(bulkStatusChangeRequest);
+        } catch (InvalidRequestException rte) {
+            log.error("Status change job rejected, error: {}", rte.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .build();
+        } catch (JobQueueFullException rte) {
+            log.error("Status change job rejected, error: {}", rte.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .build();
+        }
+
+        return ResponseEntity.accepted()
+                .location(URI.create("/device/status-jobs/" + statusChangeJob.getJobId()))
+                .body(StatusChangeJobResponse.from(statusChangeJob));
+    }
+
+    @GetMapping(value = "/status-jobs/{jobId}")
+    public ResponseEntity<StatusChangeJobResponse> getStatusChangeJob(@PathVariable("jobId") String jobId) {
+        return statusChangeJobService.getJob(jobId)
+                .map(statusChangeJob -> ResponseEntity.ok(StatusChangeJobResponse.from(statusChangeJob)))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .build());
+    }
+
+    @PostMapping(value = "/status-jobs/{jobId}/resume")
+    public ResponseEntity<StatusChangeJobResponse> resumeStatusChangeJob(@PathVariable("jobId") String jobId) {
+        try {
+            return statusChangeJobService.resume(jobId)
+                    .map(statusChangeJob -> ResponseEntity.accepted().body(StatusChangeJobResponse.from(statusChangeJob)))
+                    .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                            .build());
+        } catch (JobQueueFullException rte) {
+            log.error("Status change job resume rejected, error: {}", rte.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .build();
+        }
+    }
+
+    @PostMapping(value = "/reconciliations")
+    public ResponseEntity<ReconciliationRunResponse> reconcile(@RequestBody(required = false) ReconciliationRequest reconciliationRequest) {
+
+        ReconciliationRun reconciliationRun;
+        try {
+            reconciliationRun = reconciliationService.submit(reconciliationRequest);
+        } catch (InvalidRequestException rte) {
+            log.error("Reconciliation rejected, error: {}", rte.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .build();
+        } catch (JobQueueFullException rte) {
+            log.error("Reconciliation rejected, error: {}", rte.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .build();
+        }
+
+        return ResponseEntity.accepted()
+                .location(URI.create("/device/reconciliations/" + reconciliationRun.getRunId()))
+                .body(ReconciliationRunResponse.from(reconciliationRun));
+    }
+
+    @GetMapping(value = "/reconciliations/{runId}")
+    public ResponseEntity<ReconciliationRunResponse> getReconciliation(@PathVariable("runId") String runId) {
+        return reconciliationService.getRun(runId)
+                .map(reconciliationRun -> ResponseEntity.ok(ReconciliationRunResponse.from(reconciliationRun)))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .build());
+    }
+
+    // keyset paged, pass the Id of the last finding of a page as "after" to get the next one
+    @GetMapping(value = "/reconciliations/{runId}/findings")
+    public ResponseEntity<List<ReconciliationFindingResponse>> getReconciliationFindings(@PathVariable("runId") String runId,
+                                                                                         @RequestParam(value = "after", defaultValue = "0") long after,
+                                                                                         @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        if (!reconciliationService.getRun(runId).isPresent())
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .build();
+
+        return ResponseEntity.ok(reconciliationService.getFindings(runId, after, limit).stream()
+                .map(ReconciliationFindingResponse::from)
+                .collect(Collectors.toList()));
+    }
+
+    // keyset paged like the findings, all filters are optional; "from" and "to" are ISO-8601 instants
+    @GetMapping(value = "/audit")
+    public ResponseEntity<List<AuditEventResponse>> getAuditEvents(@RequestParam(value = "deviceName", required = false) String deviceName,
+                                                                   @RequestParam(value = "region", required = false) String region,
+                                                                   @RequestParam(value = "action", required = false) AuditAction action,
+                                                                   @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+                                                                   @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+                                                                   @RequestParam(value = "after", defaultValue = "0") long after,
+                                                                   @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        return ResponseEntity.ok(auditLog.find(deviceName, region, action, from, to, after, limit).stream()
+                .map(AuditEventResponse::from)
+                .collect(Collectors.toList()));
+    }
+
+    // keyset paged, pass the DeviceName of the last device of a page as "after" to get the next one;
+    // status is the certificate status in region, the current region if not given
+    @GetMapping(value = "/inventory")
+    public ResponseEntity<List<DeviceResponse>> getDevices(@RequestParam(value = "certificateId", required = false) String certificateId,
+                                                           @RequestParam(value = "status", required = false) String status,
+                                                           @RequestParam(value = "region", required = false) String region,
+                                                           @RequestParam(value = "after", required = false) String after,
+                                                           @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        try {
+            return ResponseEntity.ok(deviceInventoryService.getDevices(certificateId, status, region, after, limit));
+        } catch (InvalidRequestException rte) {
+            log.error("Device query rejected, error: {}", rte.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .build();
+        }
+    }
+
+    // the whole inventory matching the filters of GET /device/inventory, streamed as NDJSON or CSV
+    @GetMapping(value = "/inventory/export")
+    public void exportDevices(@RequestParam(value = "certificateId", required = false) String certificateId,
+                              @RequestParam(value = "status", required = false) String status,
+                              @RequestParam(value = "region", required = false) String region,
+                              @RequestParam(value = "format", defaultValue = "ndjson") String format,
+                              HttpServletResponse response) throws IOException {
+        DeviceInventoryService.ExportFormat exportFormat;
+        try {
+            exportFormat = DeviceInventoryService.ExportFormat.valueOf(format.toUpperCase());
+            deviceInventoryService.validate(status, region);
+        } catch (IllegalArgumentException | InvalidRequestException rte) {
+            log.error("Device export rejected, error: {}", rte.getMessage());
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(exportFormat == DeviceInventoryService.ExportFormat.CSV ? "text/csv;charset=UTF-8" : NDJSON_VALUE);
+        response.setHeader("Content-Disposition", "attachment; filename=\"devices." + exportFormat.name().toLowerCase() + "\"");
+        deviceInventoryService.export(certificateId, status, region, exportFormat, response.getOutputStream());
+    }
+
+    @GetMapping(value = "/inventory/{thingName}")
+    public ResponseEntity<DeviceResponse> getDevice(@PathVariable("thingName") String thingName) {
+        return deviceInventoryService.getDevice(thingName)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .build());
+    }
+
     @GetMapping(value = "/test")
     public ResponseEntity<Void> test() {
        return ResponseEntity.ok().build();
@@ -0,0 +1,5 @@
+package com.alok.aws.iotcore.entity;
+
+public enum AuditAction {
+    REGISTRATION, STATUS_UPDATE, COMPENSATION, DEPROVISION
+}
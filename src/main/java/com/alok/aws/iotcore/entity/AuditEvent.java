@@ -0,0 +1,41 @@
+package com.alok.aws.iotcore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * Append-only record of a provisioning operation in one region. Ids come from a sequence handed out
+ * in blocks, so the inserts of a batch go out as one JDBC batch.
+ */
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Immutable
+@Table(indexes = {
+        @Index(name = "idx_audit_event_device", columnList = "deviceName, id"),
+        @Index(name = "idx_audit_event_occurred", columnList = "occurredAt")
+})
+public class AuditEvent {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "audit_event_seq")
+    @SequenceGenerator(name = "audit_event_seq", sequenceName = "audit_event_seq", allocationSize = 500)
+    private Long id;
+    private Instant occurredAt;
+    @Enumerated(EnumType.STRING)
+    private AuditAction action;
+    private String deviceName;
+    private String region;
+    private String detail;
+    private String outcome;
+    @Column(length = 2000)
+    private String error;
+    private long durationMillis;
+}
@@ -0,0 +1,60 @@
+package com.alok.aws.iotcore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * Provisioning state of a device in one region: which registration steps have been completed, so
+ * that repeated registrations only run the steps that are still missing, the outcome of the last
+ * operation and the status of the certificate. Written in batches by {@code DeviceStateWriter}.
+ */
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@IdClass(DeviceRegionStateId.class)
+@Table(indexes = {
+        @Index(name = "idx_device_region_state_status", columnList = "region, status"),
+        @Index(name = "idx_device_region_state_cert_status", columnList = "region, certificateStatus")
+})
+public class DeviceRegionState {
+    @Id
+    private String deviceName;
+    @Id
+    private String region;
+    private String certificateId;
+    private String certificateArn;
+    // ACTIVE, INACTIVE or REVOKED, as last set by this service
+    private String certificateStatus;
+    private boolean thingCreated;
+    private boolean certificateRegistered;
+    private boolean policyAttached;
+    private boolean principalAttached;
+    @Builder.Default
+    @Enumerated(EnumType.STRING)
+    private ProvisioningStatus status = ProvisioningStatus.PENDING;
+    @Column(length = 2000)
+    private String error;
+    private Instant createdAt;
+    private Instant updatedAt;
+    @Version
+    private Long version;
+
+    public boolean isProvisioned() {
+        return thingCreated && certificateRegistered && policyAttached && principalAttached;
+    }
+
+    public void resetCertificate() {
+        certificateArn = null;
+        certificateStatus = null;
+        certificateRegistered = false;
+        policyAttached = false;
+        principalAttached = false;
+    }
+}
@@ -0,0 +1,15 @@
+package com.alok.aws.iotcore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeviceRegionStateId implements Serializable {
+    private String deviceName;
+    private String region;
+}
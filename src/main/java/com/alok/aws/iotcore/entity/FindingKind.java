@@ -0,0 +1,14 @@
+package com.alok.aws.iotcore.entity;
+
+public enum FindingKind {
+    // thing in AWS without a Device row
+    ORPHAN_THING,
+    // Device row without the thing in AWS
+    MISSING_THING,
+    // certificate in AWS not referenced by any Device row
+    ORPHAN_CERTIFICATE,
+    // certificate of a Device row not registered in AWS
+    MISSING_CERTIFICATE,
+    // thing attached to a certificate other than the one of its Device row
+    PRINCIPAL_MISMATCH
+}
@@ -0,0 +1,8 @@
+package com.alok.aws.iotcore.entity;
+
+public enum JobStatus {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    FAILED
+}
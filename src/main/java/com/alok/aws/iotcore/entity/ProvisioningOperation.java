@@ -0,0 +1,6 @@
+package com.alok.aws.iotcore.entity;
+
+public enum ProvisioningOperation {
+    REGISTRATION,
+    STATUS_UPDATE
+}
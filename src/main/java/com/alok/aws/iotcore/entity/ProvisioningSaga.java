@@ -0,0 +1,47 @@
+package com.alok.aws.iotcore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outbox record of a multi-region operation: written when the request is accepted, then driven
+ * to completion, or compensated, by the saga dispatcher.
+ */
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(indexes = @Index(name = "idx_provisioning_saga_status", columnList = "status, nextAttemptAt"))
+public class ProvisioningSaga {
+    @Id
+    private String sagaId;
+    @Enumerated(EnumType.STRING)
+    private ProvisioningOperation operation;
+    private String deviceName;
+    @Lob
+    private String certificatePem;
+    @Lob
+    private String caCertificatePem;
+    private String newStatus;
+    @Enumerated(EnumType.STRING)
+    private SagaStatus status;
+    @Builder.Default
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "provisioning_saga_step", joinColumns = @JoinColumn(name = "saga_id"))
+    @OrderColumn(name = "step_index")
+    private List<SagaStep> steps = new ArrayList<>();
+    private int attempts;
+    private Instant nextAttemptAt;
+    @Column(length = 2000)
+    private String error;
+    private Instant createdAt;
+    private Instant updatedAt;
+}
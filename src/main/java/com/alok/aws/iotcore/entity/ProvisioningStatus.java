@@ -0,0 +1,12 @@
+package com.alok.aws.iotcore.entity;
+
+public enum ProvisioningStatus {
+    PENDING,
+    PROVISIONED,
+    // the last registration attempt failed, see error
+    FAILED,
+    // the certificate was revoked and detached from the thing
+    REVOKED,
+    // the registration was undone, only the empty thing is left
+    DEPROVISIONED
+}
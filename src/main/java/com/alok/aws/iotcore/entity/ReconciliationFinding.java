@@ -0,0 +1,31 @@
+package com.alok.aws.iotcore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(indexes = @Index(name = "idx_reconciliation_finding_run", columnList = "runId, id"))
+public class ReconciliationFinding {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    private String runId;
+    private String region;
+    @Enumerated(EnumType.STRING)
+    private FindingKind kind;
+    private String thingName;
+    private String certificateId;
+    @Column(length = 2000)
+    private String detail;
+    private boolean repaired;
+    private Instant createdAt;
+}
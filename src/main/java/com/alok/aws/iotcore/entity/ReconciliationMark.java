@@ -0,0 +1,43 @@
+package com.alok.aws.iotcore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.*;
+
+/**
+ * A thing name or certificate id seen in a region while a reconciliation streamed the AWS
+ * inventory. The marks keep the "seen" side of the diff in the database instead of in memory,
+ * they are deleted once the region has been reconciled.
+ */
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@IdClass(ReconciliationMarkId.class)
+public class ReconciliationMark implements Persistable<ReconciliationMarkId> {
+    @Id
+    private String runId;
+    @Id
+    private String region;
+    @Id
+    @Enumerated(EnumType.STRING)
+    private InventoryKind kind;
+    @Id
+    private String markKey;
+
+    @Override
+    public ReconciliationMarkId getId() {
+        return new ReconciliationMarkId(runId, region, kind, markKey);
+    }
+
+    // marks are only ever inserted, saves the select a merge of an assigned id would run first
+    @Override
+    public boolean isNew() {
+        return true;
+    }
+}
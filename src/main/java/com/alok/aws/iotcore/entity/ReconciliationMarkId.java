@@ -0,0 +1,17 @@
+package com.alok.aws.iotcore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReconciliationMarkId implements Serializable {
+    private String runId;
+    private String region;
+    private InventoryKind kind;
+    private String markKey;
+}
@@ -0,0 +1,46 @@
+package com.alok.aws.iotcore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * A diff of the AWS IoT inventory (things, certificates and thing principals) of some regions
+ * against the Device table, with the totals of what was scanned, found and repaired so far.
+ * The individual findings are {@link ReconciliationFinding} rows.
+ */
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(indexes = @Index(name = "idx_reconciliation_run_status", columnList = "status"))
+public class ReconciliationRun {
+    @Id
+    private String runId;
+    // comma separated
+    private String regions;
+    private boolean repair;
+    private boolean checkPrincipals;
+    @Enumerated(EnumType.STRING)
+    private JobStatus status;
+    private long thingsScanned;
+    private long certificatesScanned;
+    private long devicesScanned;
+    private long orphanThings;
+    private long missingThings;
+    private long orphanCertificates;
+    private long missingCertificates;
+    private long principalMismatches;
+    private long repaired;
+    @Column(length = 2000)
+    private String error;
+    private Instant createdAt;
+    // AWS resources created or rows changed after this aren't repaired
+    private Instant startedAt;
+    private Instant updatedAt;
+}
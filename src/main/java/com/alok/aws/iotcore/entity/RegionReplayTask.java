@@ -0,0 +1,35 @@
+package com.alok.aws.iotcore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(indexes = @Index(name = "idx_region_replay_task_region", columnList = "region, id"))
+public class RegionReplayTask {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    private String region;
+    @Enumerated(EnumType.STRING)
+    private ProvisioningOperation operation;
+    private String deviceName;
+    @Lob
+    private String certificatePem;
+    @Lob
+    private String caCertificatePem;
+    private String newStatus;
+    private int attempts;
+    @Column(length = 2000)
+    private String error;
+    private Instant createdAt;
+    private Instant updatedAt;
+}
@@ -0,0 +1,31 @@
+package com.alok.aws.iotcore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(indexes = @Index(name = "idx_registration_job_status", columnList = "status"))
+public class RegistrationJob {
+    @Id
+    private String jobId;
+    private String deviceName;
+    @Lob
+    private String certificatePem;
+    @Lob
+    private String caCertificatePem;
+    @Enumerated(EnumType.STRING)
+    private JobStatus status;
+    @Column(length = 2000)
+    private String error;
+    private Instant createdAt;
+    private Instant updatedAt;
+}
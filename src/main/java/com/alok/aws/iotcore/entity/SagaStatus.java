@@ -0,0 +1,9 @@
+package com.alok.aws.iotcore.entity;
+
+public enum SagaStatus {
+    PENDING,
+    COMPENSATING,
+    SUCCEEDED,
+    COMPENSATED,
+    FAILED
+}
@@ -0,0 +1,28 @@
+package com.alok.aws.iotcore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+
+/**
+ * The part of a saga that runs in one region. The steps within the region are tracked by
+ * {@link DeviceRegionState}.
+ */
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Embeddable
+public class SagaStep {
+    private String region;
+    @Enumerated(EnumType.STRING)
+    private SagaStepStatus status;
+    @Column(length = 2000)
+    private String error;
+}
@@ -0,0 +1,7 @@
+package com.alok.aws.iotcore.entity;
+
+public enum SagaStepStatus {
+    PENDING,
+    DONE,
+    COMPENSATED
+}
@@ -0,0 +1,46 @@
+package com.alok.aws.iotcore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * A certificate status change over a set of devices, selected either by an explicit list of names
+ * or by a query over the Device rows: a name prefix, optionally narrowed down by the certificate
+ * status and the first registration time recorded for the device in {@code filterRegion}. Devices are processed in name order and {@code lastDeviceName} is the last name of
+ * the last completed chunk, which is where a resumed job carries on.
+ */
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(indexes = @Index(name = "idx_status_change_job_status", columnList = "status"))
+public class StatusChangeJob {
+    @Id
+    private String jobId;
+    private String newStatus;
+    // sorted, new line separated
+    @Lob
+    private String deviceNames;
+    private String deviceNamePrefix;
+    private String currentStatus;
+    private String filterRegion;
+    private Instant registeredFrom;
+    private Instant registeredTo;
+    private String lastDeviceName;
+    @Enumerated(EnumType.STRING)
+    private JobStatus status;
+    private long processed;
+    private long succeeded;
+    private long notModified;
+    private long failed;
+    @Column(length = 2000)
+    private String error;
+    private Instant createdAt;
+    private Instant updatedAt;
+}
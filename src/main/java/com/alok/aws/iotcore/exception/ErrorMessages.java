@@ -0,0 +1,16 @@
+package com.alok.aws.iotcore.exception;
+
+/**
+ * Error messages as they are stored, in the 2000 character error and detail columns of the entities.
+ */
+public final class ErrorMessages {
+
+    public static final int MAX_LENGTH = 2000;
+
+    private ErrorMessages() {
+    }
+
+    public static String truncate(String error) {
+        return error == null || error.length() <= MAX_LENGTH ? error : error.substring(0, MAX_LENGTH);
+    }
+}
@@ -0,0 +1,15 @@
+package com.alok.aws.iotcore.exception;
+
+public class InvalidCertificateException extends InvalidRequestException {
+    public InvalidCertificateException() {
+        super();
+    }
+
+    public InvalidCertificateException(String messge) {
+        super(messge);
+    }
+
+    public InvalidCertificateException(String message, Throwable cause) {
+        super(message,cause);
+    }
+}
@@ -0,0 +1,15 @@
+package com.alok.aws.iotcore.exception;
+
+public class InvalidRequestException extends RuntimeException {
+    public InvalidRequestException() {
+        super();
+    }
+
+    public InvalidRequestException(String messge) {
+        super(messge);
+    }
+
+    public InvalidRequestException(String message, Throwable cause) {
+        super(message,cause);
+    }
+}
@@ -0,0 +1,15 @@
+package com.alok.aws.iotcore.exception;
+
+public class JobQueueFullException extends RuntimeException {
+    public JobQueueFullException() {
+        super();
+    }
+
+    public JobQueueFullException(String messge) {
+        super(messge);
+    }
+
+    public JobQueueFullException(String message, Throwable cause) {
+        super(message,cause);
+    }
+}
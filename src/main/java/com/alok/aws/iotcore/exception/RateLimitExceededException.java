@@ -0,0 +1,15 @@
+package com.alok.aws.iotcore.exception;
+
+public class RateLimitExceededException extends RuntimeException {
+    public RateLimitExceededException() {
+        super();
+    }
+
+    public RateLimitExceededException(String messge) {
+        super(messge);
+    }
+
+    public RateLimitExceededException(String message, Throwable cause) {
+        super(message,cause);
+    }
+}
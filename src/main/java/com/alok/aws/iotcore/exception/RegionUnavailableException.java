@@ -0,0 +1,15 @@
+package com.alok.aws.iotcore.exception;
+
+public class RegionUnavailableException extends RuntimeException {
+    public RegionUnavailableException() {
+        super();
+    }
+
+    public RegionUnavailableException(String messge) {
+        super(messge);
+    }
+
+    public RegionUnavailableException(String message, Throwable cause) {
+        super(message,cause);
+    }
+}
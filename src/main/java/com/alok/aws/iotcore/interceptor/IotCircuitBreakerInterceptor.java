@@ -0,0 +1,72 @@
+package com.alok.aws.iotcore.interceptor;
+
+import com.alok.aws.iotcore.exception.RateLimitExceededException;
+import com.alok.aws.iotcore.exception.RegionUnavailableException;
+import com.alok.aws.iotcore.resilience.RegionCircuitBreakers;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.awscore.AwsExecutionAttribute;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+/**
+ * Fails calls to a region fast while its circuit breaker is open. Only the outcome after the SDK's
+ * retries counts: server errors and transport failures count against the region, client errors
+ * such as a missing thing count as a healthy response.
+ */
+@Component
+public class IotCircuitBreakerInterceptor implements ExecutionInterceptor {
+
+    private static final ExecutionAttribute<Boolean> PERMITTED = new ExecutionAttribute<>("IotCircuitBreakerPermitted");
+
+    @Autowired
+    private RegionCircuitBreakers regionCircuitBreakers;
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        String region = region(executionAttributes);
+        if (!regionCircuitBreakers.tryAcquirePermission(region))
+            throw new RegionUnavailableException("Region unavailable: " + region + "!");
+        executionAttributes.putAttribute(PERMITTED, Boolean.TRUE);
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        if (executionAttributes.getAttribute(PERMITTED) != null)
+            regionCircuitBreakers.onSuccess(region(executionAttributes));
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        if (executionAttributes.getAttribute(PERMITTED) == null)
+            return;
+
+        String region = region(executionAttributes);
+        Throwable exception = context.exception();
+        if (isClientSide(exception))
+            regionCircuitBreakers.onIgnored(region);
+        else if (exception instanceof SdkServiceException && !isServerError((SdkServiceException) exception))
+            regionCircuitBreakers.onSuccess(region);
+        else
+            regionCircuitBreakers.onFailure(region);
+    }
+
+    // throttling is the rate limiter's business, it says nothing about the health of the region
+    private static boolean isServerError(SdkServiceException exception) {
+        return exception.statusCode() >= 500 && !exception.isThrottlingException();
+    }
+
+    private static boolean isClientSide(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause())
+            if (cause instanceof RateLimitExceededException || cause instanceof RegionUnavailableException)
+                return true;
+        return false;
+    }
+
+    private static String region(ExecutionAttributes executionAttributes) {
+        return String.valueOf(executionAttributes.getAttribute(AwsExecutionAttribute.AWS_REGION));
+    }
+}
@@ -0,0 +1,50 @@
+package com.alok.aws.iotcore.interceptor;
+
+import com.alok.aws.iotcore.metrics.IotMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.awscore.AwsExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+/**
+ * Times every IoT client call, including the SDK's own retries, by region, operation and outcome.
+ */
+@Component
+public class IotMetricsInterceptor implements ExecutionInterceptor {
+
+    private static final ExecutionAttribute<Long> START_NANOS = new ExecutionAttribute<>("IotMetricsStartNanos");
+
+    @Autowired
+    private IotMetrics iotMetrics;
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        executionAttributes.putAttribute(START_NANOS, iotMetrics.start());
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        record(executionAttributes, null);
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        record(executionAttributes, context.exception());
+    }
+
+    private void record(ExecutionAttributes executionAttributes, Throwable throwable) {
+        Long startNanos = executionAttributes.getAttribute(START_NANOS);
+        if (startNanos == null)
+            return;
+
+        iotMetrics.record(IotMetrics.AWS_CALLS,
+                String.valueOf(executionAttributes.getAttribute(AwsExecutionAttribute.AWS_REGION)),
+                executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME),
+                throwable,
+                startNanos);
+    }
+}
@@ -0,0 +1,186 @@
+package com.alok.aws.iotcore.interceptor;
+
+import com.alok.aws.iotcore.concurrent.AdaptiveTokenBucket;
+import com.alok.aws.iotcore.configuration.IotRateLimitProperties;
+import com.alok.aws.iotcore.exception.RateLimitExceededException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.awscore.AwsExecutionAttribute;
+import software.amazon.awssdk.core.ClientType;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Client side rate limit per region and API in front of every IoT client. Callers wait briefly for
+ * a token instead of being throttled by AWS, and HTTP 429 responses slow the bucket down. Async
+ * callers go through {@link #execute}, which waits for the token on a timer instead of a thread.
+ * <p>
+ * Tokens are taken per attempt, so retries are metered too. Retries of async calls run on the SDK's
+ * retry scheduler, which mustn't block; they go out at once and are charged against the bucket, so
+ * the calls queued behind them wait for it instead.
+ */
+@Component
+@Slf4j
+public class IotRateLimitInterceptor implements ExecutionInterceptor {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    // set while execute() starts a call whose token it already took
+    private static final ThreadLocal<Boolean> RESERVED = new ThreadLocal<>();
+
+    private static final ExecutionAttribute<Boolean> FIRST_ATTEMPT_RESERVED = new ExecutionAttribute<>("IotRateLimitFirstAttemptReserved");
+    private static final ExecutionAttribute<Integer> ATTEMPTS = new ExecutionAttribute<>("IotRateLimitAttempts");
+
+    private final ConcurrentMap<String, AdaptiveTokenBucket> buckets = new ConcurrentHashMap<>();
+
+    @Autowired
+    private IotRateLimitProperties iotRateLimitProperties;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("iot-rate-limit-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Starts an async client call once a token of the region and API is free, without blocking the
+     * calling thread; the returned future fails with {@link RateLimitExceededException} if the token
+     * wouldn't be free within the async max wait. Cancelling it cancels the call, or the call still
+     * waiting for its token.
+     */
+    public <T> CompletableFuture<T> execute(String region, String operationName, Supplier<CompletableFuture<T>> call) {
+        if (!iotRateLimitProperties.isEnabled())
+            return call.get();
+
+        String key = region + "/" + operationName;
+        long waitNanos = bucket(key, operationName).reserve(TimeUnit.MILLISECONDS.toNanos(iotRateLimitProperties.getMaxAsyncWaitMillis()));
+        if (waitNanos < 0) {
+            log.error("Client side rate limit exceeded, api: {}", key);
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new RateLimitExceededException("Rate limit exceeded for " + key + "!"));
+            return failed;
+        }
+        if (waitNanos == 0)
+            return callReserved(call);
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> scheduled = scheduler.schedule(() -> {
+            if (result.isDone())
+                return;
+            CompletableFuture<T> started = callReserved(call);
+            started.whenComplete((value, throwable) -> {
+                if (throwable == null)
+                    result.complete(value);
+                else
+                    result.completeExceptionally(throwable);
+            });
+            result.whenComplete((value, throwable) -> started.cancel(false));
+        }, waitNanos, TimeUnit.NANOSECONDS);
+        result.whenComplete((value, throwable) -> scheduled.cancel(false));
+        return result;
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        // async clients run this on the thread starting the call, execute() has taken the first token already
+        if (RESERVED.get() != null)
+            executionAttributes.putAttribute(FIRST_ATTEMPT_RESERVED, Boolean.TRUE);
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        if (!iotRateLimitProperties.isEnabled())
+            return;
+
+        Integer previousAttempts = executionAttributes.getAttribute(ATTEMPTS);
+        int attempt = previousAttempts == null ? 1 : previousAttempts + 1;
+        executionAttributes.putAttribute(ATTEMPTS, attempt);
+        if (attempt == 1 && executionAttributes.getAttribute(FIRST_ATTEMPT_RESERVED) != null)
+            return;
+
+        String key = bucketKey(executionAttributes);
+        AdaptiveTokenBucket bucket = bucket(key, executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME));
+        if (attempt > 1 && executionAttributes.getAttribute(SdkExecutionAttribute.CLIENT_TYPE) == ClientType.ASYNC) {
+            bucket.reserve(Long.MAX_VALUE);
+            return;
+        }
+        try {
+            if (!bucket.acquire(TimeUnit.MILLISECONDS.toNanos(iotRateLimitProperties.getMaxWaitMillis()))) {
+                log.error("Client side rate limit exceeded, api: {}, attempt: {}", key, attempt);
+                throw new RateLimitExceededException("Rate limit exceeded for " + key + "!");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RateLimitExceededException("Interrupted waiting for rate limit of " + key + "!", ie);
+        }
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes executionAttributes) {
+        if (!iotRateLimitProperties.isEnabled())
+            return;
+
+        AdaptiveTokenBucket bucket = buckets.get(bucketKey(executionAttributes));
+        if (bucket == null)
+            return;
+
+        if (context.httpResponse().statusCode() == TOO_MANY_REQUESTS) {
+            bucket.onThrottled();
+            log.debug("Throttled by AWS, api: {}, tps now: {}", bucketKey(executionAttributes), bucket.getPermitsPerSecond());
+        } else if (context.httpResponse().isSuccessful()) {
+            bucket.onSuccess();
+        }
+    }
+
+    public double getPermitsPerSecond(String region, String operationName) {
+        AdaptiveTokenBucket bucket = buckets.get(region + "/" + operationName);
+        return bucket == null ? iotRateLimitProperties.getTps(operationName) : bucket.getPermitsPerSecond();
+    }
+
+    private static <T> CompletableFuture<T> callReserved(Supplier<CompletableFuture<T>> call) {
+        RESERVED.set(Boolean.TRUE);
+        try {
+            return call.get();
+        } catch (RuntimeException rte) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(rte);
+            return failed;
+        } finally {
+            RESERVED.remove();
+        }
+    }
+
+    private AdaptiveTokenBucket bucket(String key, String operationName) {
+        return buckets.computeIfAbsent(key, k -> {
+            double tps = iotRateLimitProperties.getTps(operationName);
+            return new AdaptiveTokenBucket(tps, tps * iotRateLimitProperties.getMinTpsFraction(), iotRateLimitProperties.getBurst());
+        });
+    }
+
+    private static String bucketKey(ExecutionAttributes executionAttributes) {
+        return executionAttributes.getAttribute(AwsExecutionAttribute.AWS_REGION) + "/"
+                + executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+    }
+}
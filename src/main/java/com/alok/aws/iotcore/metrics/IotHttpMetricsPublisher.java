@@ -0,0 +1,90 @@
+package com.alok.aws.iotcore.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection pool state of the shared IoT HTTP clients, as reported by the SDK with every request:
+ * gauges of the last seen max, leased, available and pending connections and the pool saturation,
+ * and the distribution of requests queued for a connection ahead of each request.
+ */
+@Component
+public class IotHttpMetricsPublisher implements MetricPublisher {
+
+    public static final String POOL = "iot.http.pool";
+    public static final String PENDING_ACQUIRES = "iot.http.pool.pending.acquires";
+
+    private final ConcurrentMap<String, PoolGauges> pools = new ConcurrentHashMap<>();
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    public void publish(MetricCollection metricCollection) {
+        List<String> clientNames = metricCollection.metricValues(HttpMetric.HTTP_CLIENT_NAME);
+        if (!clientNames.isEmpty()) {
+            PoolGauges poolGauges = pools.computeIfAbsent(clientNames.get(0), PoolGauges::new);
+            set(poolGauges.max, metricCollection.metricValues(HttpMetric.MAX_CONCURRENCY));
+            set(poolGauges.leased, metricCollection.metricValues(HttpMetric.LEASED_CONCURRENCY));
+            set(poolGauges.available, metricCollection.metricValues(HttpMetric.AVAILABLE_CONCURRENCY));
+            List<Integer> pending = metricCollection.metricValues(HttpMetric.PENDING_CONCURRENCY_ACQUIRES);
+            set(poolGauges.pending, pending);
+            pending.forEach(poolGauges.pendingAcquires::record);
+        }
+
+        for (MetricCollection child : metricCollection.children())
+            publish(child);
+    }
+
+    // the SDK closes publishers with its clients, the meters outlive them
+    @Override
+    public void close() {
+    }
+
+    private static void set(AtomicInteger gauge, List<Integer> values) {
+        if (!values.isEmpty())
+            gauge.set(values.get(values.size() - 1));
+    }
+
+    private final class PoolGauges {
+        private final AtomicInteger max = new AtomicInteger();
+        private final AtomicInteger leased = new AtomicInteger();
+        private final AtomicInteger available = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final DistributionSummary pendingAcquires;
+
+        private PoolGauges(String client) {
+            gauge(client, "max", max);
+            gauge(client, "leased", leased);
+            gauge(client, "available", available);
+            gauge(client, "pending", pending);
+            Gauge.builder(POOL + ".saturation", this, poolGauges -> poolGauges.max.get() == 0
+                            ? 0
+                            : (double) poolGauges.leased.get() / poolGauges.max.get())
+                    .tag("client", client)
+                    .register(meterRegistry);
+            pendingAcquires = DistributionSummary.builder(PENDING_ACQUIRES)
+                    .tag("client", client)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry);
+        }
+
+        private void gauge(String client, String state, AtomicInteger value) {
+            Gauge.builder(POOL + ".connections", value, AtomicInteger::get)
+                    .tag("client", client)
+                    .tag("state", state)
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.alok.aws.iotcore.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers for the provisioning paths, tagged by region, operation and outcome. Timers are looked up
+ * once and kept, so recording on the hot path is a map lookup and no tag allocation.
+ */
+@Component
+public class IotMetrics {
+
+    public static final String AWS_CALLS = "iot.aws.calls";
+    public static final String REGISTRATION = "iot.registration";
+    public static final String STATUS_UPDATE = "iot.certificate.status.update";
+    public static final String COMPENSATION = "iot.compensation";
+    public static final String REPOSITORY = "iot.repository";
+
+    public static final String SUCCESS = "success";
+    public static final String THROTTLED = "throttled";
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private StartupMetrics startupMetrics;
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void record(String name, String region, String operation, String outcome, long startNanos) {
+        if (REGISTRATION.equals(name) && SUCCESS.equals(outcome))
+            startupMetrics.registrationSucceeded();
+        timer(name, "region", String.valueOf(region), operation, outcome)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRepository(String repository, String method, Throwable throwable, long startNanos) {
+        timer(REPOSITORY, "repository", repository, method, outcome(throwable))
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void record(String name, String region, String operation, Throwable throwable, long startNanos) {
+        record(name, region, operation, outcome(throwable), startNanos);
+    }
+
+    public static String outcome(Throwable throwable) {
+        if (throwable == null)
+            return SUCCESS;
+
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null)
+            cause = cause.getCause();
+        if (cause instanceof SdkServiceException && ((SdkServiceException) cause).isThrottlingException())
+            return THROTTLED;
+        return cause.getClass().getSimpleName();
+    }
+
+    private Timer timer(String name, String scopeTag, String scope, String operation, String outcome) {
+        String key = name + '|' + scope + '|' + operation + '|' + outcome;
+        Timer timer = timers.get(key);
+        if (timer != null)
+            return timer;
+
+        return timers.computeIfAbsent(key, k -> Timer.builder(name)
+                .tag(scopeTag, scope)
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry));
+    }
+}
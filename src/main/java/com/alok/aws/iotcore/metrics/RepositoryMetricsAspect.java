@@ -0,0 +1,39 @@
+package com.alok.aws.iotcore.metrics;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Aspect
+@Component
+public class RepositoryMetricsAspect {
+
+    private static final String REPOSITORY_PACKAGE = "com.alok.aws.iotcore.repository.";
+
+    @Autowired
+    private IotMetrics iotMetrics;
+
+    @Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+    public Object time(ProceedingJoinPoint joinPoint) throws Throwable {
+        long start = iotMetrics.start();
+        Throwable failure = null;
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable throwable) {
+            failure = throwable;
+            throw throwable;
+        } finally {
+            iotMetrics.recordRepository(repositoryName(joinPoint), joinPoint.getSignature().getName(), failure, start);
+        }
+    }
+
+    // the proxy implements our repository interface, the target is Spring Data's implementation
+    private static String repositoryName(ProceedingJoinPoint joinPoint) {
+        for (Class<?> repositoryInterface : joinPoint.getThis().getClass().getInterfaces())
+            if (repositoryInterface.getName().startsWith(REPOSITORY_PACKAGE))
+                return repositoryInterface.getSimpleName();
+        return joinPoint.getSignature().getDeclaringType().getSimpleName();
+    }
+}
@@ -0,0 +1,68 @@
+package com.alok.aws.iotcore.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cold start of the instance, measured from JVM start: until it accepts traffic and until its first
+ * successful registration in a region, the time a scaled out instance takes to be of use. Logged
+ * once and kept as {@code iot.startup} gauges tagged by phase.
+ */
+@Component
+@Slf4j
+public class StartupMetrics {
+
+    public static final String STARTUP = "iot.startup";
+
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final AtomicLong readyMillis = new AtomicLong();
+    private final AtomicLong firstRegistrationMillis = new AtomicLong();
+    private volatile boolean registered;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @PostConstruct
+    public void init() {
+        TimeGauge.builder(STARTUP, readyMillis, TimeUnit.MILLISECONDS, AtomicLong::get)
+                .tag("phase", "ready")
+                .register(meterRegistry);
+        TimeGauge.builder(STARTUP, firstRegistrationMillis, TimeUnit.MILLISECONDS, AtomicLong::get)
+                .tag("phase", "first.registration")
+                .register(meterRegistry);
+    }
+
+    @EventListener
+    public void readinessChanged(AvailabilityChangeEvent<ReadinessState> availabilityChangeEvent) {
+        if (availabilityChangeEvent.getState() != ReadinessState.ACCEPTING_TRAFFIC)
+            return;
+
+        if (readyMillis.compareAndSet(0, sinceJvmStart()))
+            log.info("Accepting traffic {} ms after JVM start", readyMillis.get());
+    }
+
+    public void registrationSucceeded() {
+        // a volatile read on the hot path once the first registration is recorded
+        if (registered)
+            return;
+
+        registered = true;
+        if (firstRegistrationMillis.compareAndSet(0, sinceJvmStart()))
+            log.info("First successful registration {} ms after JVM start", firstRegistrationMillis.get());
+    }
+
+    private long sinceJvmStart() {
+        return System.currentTimeMillis() - jvmStartMillis;
+    }
+}
@@ -0,0 +1,63 @@
+package com.alok.aws.iotcore.model;
+
+import com.alok.aws.iotcore.entity.AuditAction;
+import com.alok.aws.iotcore.entity.AuditEvent;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AuditEventResponse {
+
+    @JsonProperty("Id")
+    private long id;
+
+    @JsonProperty("OccurredAt")
+    private Instant occurredAt;
+
+    @JsonProperty("Action")
+    private AuditAction action;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("DeviceName")
+    private String deviceName;
+
+    @JsonProperty("Region")
+    private String region;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("Detail")
+    private String detail;
+
+    @JsonProperty("Outcome")
+    private String outcome;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("Error")
+    private String error;
+
+    @JsonProperty("DurationMillis")
+    private long durationMillis;
+
+    public static AuditEventResponse from(AuditEvent auditEvent) {
+        return AuditEventResponse.builder()
+                .id(auditEvent.getId())
+                .occurredAt(auditEvent.getOccurredAt())
+                .action(auditEvent.getAction())
+                .deviceName(auditEvent.getDeviceName())
+                .region(auditEvent.getRegion())
+                .detail(auditEvent.getDetail())
+                .outcome(auditEvent.getOutcome())
+                .error(auditEvent.getError())
+                .durationMillis(auditEvent.getDurationMillis())
+                .build();
+    }
+}
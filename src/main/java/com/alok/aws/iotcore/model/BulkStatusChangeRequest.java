@@ -0,0 +1,49 @@
+package com.alok.aws.iotcore.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkStatusChangeRequest {
+
+    @JsonProperty("NewStatus")
+    private String newStatus;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("DeviceNames")
+    private List<String> deviceNames;
+
+    // "" selects every device
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("DeviceNamePrefix")
+    private String deviceNamePrefix;
+
+    // the filters below narrow a DeviceNamePrefix selection down to the devices whose recorded state in Region,
+    // the current region if missing, matches; devices without a recorded state there never match a filter
+
+    // certificate status as last set by this service: ACTIVE, INACTIVE or REVOKED
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("CurrentStatus")
+    private String currentStatus;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("Region")
+    private String region;
+
+    // first registration in the region, from inclusive, to exclusive
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("RegisteredFrom")
+    private Instant registeredFrom;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("RegisteredTo")
+    private Instant registeredTo;
+}
@@ -0,0 +1,28 @@
+package com.alok.aws.iotcore.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeviceRegistrationResult {
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("DeviceName")
+    private String deviceName;
+
+    @JsonProperty("Status")
+    private int status;
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @JsonProperty("Errors")
+    private List<String> errors;
+}
@@ -0,0 +1,26 @@
+package com.alok.aws.iotcore.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeviceResponse {
+
+    @JsonProperty("DeviceName")
+    private String deviceName;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("CertificateId")
+    private String certificateId;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("CertificateArn")
+    private String certificateArn;
+}
@@ -0,0 +1,53 @@
+package com.alok.aws.iotcore.model;
+
+import com.alok.aws.iotcore.entity.FindingKind;
+import com.alok.aws.iotcore.entity.ReconciliationFinding;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReconciliationFindingResponse {
+
+    @JsonProperty("Id")
+    private long id;
+
+    @JsonProperty("Region")
+    private String region;
+
+    @JsonProperty("Kind")
+    private FindingKind kind;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("ThingName")
+    private String thingName;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("CertificateId")
+    private String certificateId;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("Detail")
+    private String detail;
+
+    @JsonProperty("Repaired")
+    private boolean repaired;
+
+    public static ReconciliationFindingResponse from(ReconciliationFinding reconciliationFinding) {
+        return ReconciliationFindingResponse.builder()
+                .id(reconciliationFinding.getId())
+                .region(reconciliationFinding.getRegion())
+                .kind(reconciliationFinding.getKind())
+                .thingName(reconciliationFinding.getThingName())
+                .certificateId(reconciliationFinding.getCertificateId())
+                .detail(reconciliationFinding.getDetail())
+                .repaired(reconciliationFinding.isRepaired())
+                .build();
+    }
+}
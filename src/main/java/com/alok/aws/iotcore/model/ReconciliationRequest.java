@@ -0,0 +1,29 @@
+package com.alok.aws.iotcore.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReconciliationRequest {
+
+    // all configured regions when absent
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("Regions")
+    private List<String> regions;
+
+    // deactivate orphan certificates and delete orphan things without principals, only those left over by
+    // registrations of this service that failed or were compensated; needs aws.iot.reconciliation.repair-enabled
+    @JsonProperty("Repair")
+    private boolean repair;
+
+    // one listThingPrincipals per thing, by far the slowest part of a run
+    @JsonProperty("CheckPrincipals")
+    private boolean checkPrincipals;
+}
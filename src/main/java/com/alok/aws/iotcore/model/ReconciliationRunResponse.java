@@ -0,0 +1,95 @@
+package com.alok.aws.iotcore.model;
+
+import com.alok.aws.iotcore.entity.JobStatus;
+import com.alok.aws.iotcore.entity.ReconciliationRun;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReconciliationRunResponse {
+
+    @JsonProperty("RunId")
+    private String runId;
+
+    @JsonProperty("Regions")
+    private List<String> regions;
+
+    @JsonProperty("Repair")
+    private boolean repair;
+
+    @JsonProperty("CheckPrincipals")
+    private boolean checkPrincipals;
+
+    @JsonProperty("Status")
+    private JobStatus status;
+
+    @JsonProperty("ThingsScanned")
+    private long thingsScanned;
+
+    @JsonProperty("CertificatesScanned")
+    private long certificatesScanned;
+
+    @JsonProperty("DevicesScanned")
+    private long devicesScanned;
+
+    @JsonProperty("OrphanThings")
+    private long orphanThings;
+
+    @JsonProperty("MissingThings")
+    private long missingThings;
+
+    @JsonProperty("OrphanCertificates")
+    private long orphanCertificates;
+
+    @JsonProperty("MissingCertificates")
+    private long missingCertificates;
+
+    @JsonProperty("PrincipalMismatches")
+    private long principalMismatches;
+
+    @JsonProperty("Repaired")
+    private long repaired;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("Error")
+    private String error;
+
+    @JsonProperty("CreatedAt")
+    private Instant createdAt;
+
+    @JsonProperty("UpdatedAt")
+    private Instant updatedAt;
+
+    public static ReconciliationRunResponse from(ReconciliationRun reconciliationRun) {
+        return ReconciliationRunResponse.builder()
+                .runId(reconciliationRun.getRunId())
+                .regions(Arrays.asList(reconciliationRun.getRegions().split(",")))
+                .repair(reconciliationRun.isRepair())
+                .checkPrincipals(reconciliationRun.isCheckPrincipals())
+                .status(reconciliationRun.getStatus())
+                .thingsScanned(reconciliationRun.getThingsScanned())
+                .certificatesScanned(reconciliationRun.getCertificatesScanned())
+                .devicesScanned(reconciliationRun.getDevicesScanned())
+                .orphanThings(reconciliationRun.getOrphanThings())
+                .missingThings(reconciliationRun.getMissingThings())
+                .orphanCertificates(reconciliationRun.getOrphanCertificates())
+                .missingCertificates(reconciliationRun.getMissingCertificates())
+                .principalMismatches(reconciliationRun.getPrincipalMismatches())
+                .repaired(reconciliationRun.getRepaired())
+                .error(reconciliationRun.getError())
+                .createdAt(reconciliationRun.getCreatedAt())
+                .updatedAt(reconciliationRun.getUpdatedAt())
+                .build();
+    }
+}
@@ -0,0 +1,50 @@
+package com.alok.aws.iotcore.model;
+
+import com.alok.aws.iotcore.entity.JobStatus;
+import com.alok.aws.iotcore.entity.RegistrationJob;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RegistrationJobResponse {
+
+    @JsonProperty("JobId")
+    private String jobId;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("DeviceName")
+    private String deviceName;
+
+    @JsonProperty("Status")
+    private JobStatus status;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("Error")
+    private String error;
+
+    @JsonProperty("CreatedAt")
+    private Instant createdAt;
+
+    @JsonProperty("UpdatedAt")
+    private Instant updatedAt;
+
+    public static RegistrationJobResponse from(RegistrationJob registrationJob) {
+        return RegistrationJobResponse.builder()
+                .jobId(registrationJob.getJobId())
+                .deviceName(registrationJob.getDeviceName())
+                .status(registrationJob.getStatus())
+                .error(registrationJob.getError())
+                .createdAt(registrationJob.getCreatedAt())
+                .updatedAt(registrationJob.getUpdatedAt())
+                .build();
+    }
+}
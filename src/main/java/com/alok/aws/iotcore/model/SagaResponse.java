@@ -0,0 +1,98 @@
+package com.alok.aws.iotcore.model;
+
+import com.alok.aws.iotcore.entity.ProvisioningOperation;
+import com.alok.aws.iotcore.entity.ProvisioningSaga;
+import com.alok.aws.iotcore.entity.SagaStatus;
+import com.alok.aws.iotcore.entity.SagaStep;
+import com.alok.aws.iotcore.entity.SagaStepStatus;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SagaResponse {
+
+    @JsonProperty("SagaId")
+    private String sagaId;
+
+    @JsonProperty("Operation")
+    private ProvisioningOperation operation;
+
+    @JsonProperty("DeviceName")
+    private String deviceName;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("NewStatus")
+    private String newStatus;
+
+    @JsonProperty("Status")
+    private SagaStatus status;
+
+    @JsonProperty("Steps")
+    private List<Step> steps;
+
+    @JsonProperty("Attempts")
+    private int attempts;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("Error")
+    private String error;
+
+    @JsonProperty("CreatedAt")
+    private Instant createdAt;
+
+    @JsonProperty("UpdatedAt")
+    private Instant updatedAt;
+
+    public static SagaResponse from(ProvisioningSaga provisioningSaga) {
+        return SagaResponse.builder()
+                .sagaId(provisioningSaga.getSagaId())
+                .operation(provisioningSaga.getOperation())
+                .deviceName(provisioningSaga.getDeviceName())
+                .newStatus(provisioningSaga.getNewStatus())
+                .status(provisioningSaga.getStatus())
+                .steps(provisioningSaga.getSteps().stream()
+                        .map(Step::from)
+                        .collect(Collectors.toList()))
+                .attempts(provisioningSaga.getAttempts())
+                .error(provisioningSaga.getError())
+                .createdAt(provisioningSaga.getCreatedAt())
+                .updatedAt(provisioningSaga.getUpdatedAt())
+                .build();
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Step {
+
+        @JsonProperty("Region")
+        private String region;
+
+        @JsonProperty("Status")
+        private SagaStepStatus status;
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        @JsonProperty("Error")
+        private String error;
+
+        public static Step from(SagaStep sagaStep) {
+            return Step.builder()
+                    .region(sagaStep.getRegion())
+                    .status(sagaStep.getStatus())
+                    .error(sagaStep.getError())
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.alok.aws.iotcore.model;
+
+import com.alok.aws.iotcore.entity.JobStatus;
+import com.alok.aws.iotcore.entity.StatusChangeJob;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatusChangeJobResponse {
+
+    @JsonProperty("JobId")
+    private String jobId;
+
+    @JsonProperty("NewStatus")
+    private String newStatus;
+
+    @JsonProperty("Status")
+    private JobStatus status;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("LastDeviceName")
+    private String lastDeviceName;
+
+    @JsonProperty("Processed")
+    private long processed;
+
+    @JsonProperty("Succeeded")
+    private long succeeded;
+
+    @JsonProperty("NotModified")
+    private long notModified;
+
+    @JsonProperty("Failed")
+    private long failed;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("Error")
+    private String error;
+
+    @JsonProperty("CreatedAt")
+    private Instant createdAt;
+
+    @JsonProperty("UpdatedAt")
+    private Instant updatedAt;
+
+    public static StatusChangeJobResponse from(StatusChangeJob statusChangeJob) {
+        return StatusChangeJobResponse.builder()
+                .jobId(statusChangeJob.getJobId())
+                .newStatus(statusChangeJob.getNewStatus())
+                .status(statusChangeJob.getStatus())
+                .lastDeviceName(statusChangeJob.getLastDeviceName())
+                .processed(statusChangeJob.getProcessed())
+                .succeeded(statusChangeJob.getSucceeded())
+                .notModified(statusChangeJob.getNotModified())
+                .failed(statusChangeJob.getFailed())
+                .error(statusChangeJob.getError())
+                .createdAt(statusChangeJob.getCreatedAt())
+                .updatedAt(statusChangeJob.getUpdatedAt())
+                .build();
+    }
+}
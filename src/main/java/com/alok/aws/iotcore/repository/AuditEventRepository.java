@@ -0,0 +1,7 @@
+package com.alok.aws.iotcore.repository;
+
+import com.alok.aws.iotcore.entity.AuditEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface AuditEventRepository extends JpaRepository<AuditEvent, Long> {
+}
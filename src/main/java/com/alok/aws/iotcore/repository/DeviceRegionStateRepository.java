@@ -0,0 +1,15 @@
+package com.alok.aws.iotcore.repository;
+
+import com.alok.aws.iotcore.entity.DeviceRegionState;
+import com.alok.aws.iotcore.entity.DeviceRegionStateId;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface DeviceRegionStateRepository extends JpaRepository<DeviceRegionState, DeviceRegionStateId> {
+
+    List<DeviceRegionState> findByRegionAndDeviceNameIn(String region, Collection<String> deviceNames);
+
+    List<DeviceRegionState> findByRegionAndCertificateIdIn(String region, Collection<String> certificateIds);
+}
@@ -1,9 +1,20 @@
 package com.alok.aws.iotcore.repository;
 
 import com.alok.aws.iotcore.entity.Device;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.Collection;
+import java.util.List;
+
 public interface DeviceRepository extends JpaRepository<Device, String> {
 
     Device findOneByDeviceName(String deviceName);
+
+    List<Device> findByDeviceNameIn(Collection<String> deviceNames);
+
+    List<Device> findByAwsDeviceCertIdIn(Collection<String> awsDeviceCertIds);
+
+    // keyset page: the devices whose name sorts after the given one
+    List<Device> findByDeviceNameGreaterThanOrderByDeviceNameAsc(String deviceName, Pageable pageable);
 }
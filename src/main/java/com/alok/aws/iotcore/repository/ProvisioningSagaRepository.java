@@ -0,0 +1,17 @@
+package com.alok.aws.iotcore.repository;
+
+import com.alok.aws.iotcore.entity.ProvisioningSaga;
+import com.alok.aws.iotcore.entity.SagaStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface ProvisioningSagaRepository extends JpaRepository<ProvisioningSaga, String> {
+
+    List<ProvisioningSaga> findByStatusInAndNextAttemptAtLessThanEqualOrderByNextAttemptAt(Collection<SagaStatus> statuses, Instant now, Pageable pageable);
+
+    List<ProvisioningSaga> findByDeviceNameInAndStatusIn(Collection<String> deviceNames, Collection<SagaStatus> statuses);
+}
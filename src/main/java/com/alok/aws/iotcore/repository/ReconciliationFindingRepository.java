@@ -0,0 +1,13 @@
+package com.alok.aws.iotcore.repository;
+
+import com.alok.aws.iotcore.entity.ReconciliationFinding;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface ReconciliationFindingRepository extends JpaRepository<ReconciliationFinding, Long> {
+
+    // keyset page: the findings of the run recorded after the given one
+    List<ReconciliationFinding> findByRunIdAndIdGreaterThanOrderByIdAsc(String runId, Long id, Pageable pageable);
+}
@@ -0,0 +1,28 @@
+package com.alok.aws.iotcore.repository;
+
+import com.alok.aws.iotcore.entity.InventoryKind;
+import com.alok.aws.iotcore.entity.ReconciliationMark;
+import com.alok.aws.iotcore.entity.ReconciliationMarkId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface ReconciliationMarkRepository extends JpaRepository<ReconciliationMark, ReconciliationMarkId> {
+
+    List<ReconciliationMark> findByRunIdAndRegionAndKindAndMarkKeyIn(String runId, String region, InventoryKind kind, Collection<String> markKeys);
+
+    // bulk delete, a derived delete would load every mark first
+    @Transactional
+    @Modifying
+    @Query("delete from ReconciliationMark m where m.runId = ?1 and m.region = ?2")
+    int deleteByRunIdAndRegion(String runId, String region);
+
+    @Transactional
+    @Modifying
+    @Query("delete from ReconciliationMark m where m.runId = ?1")
+    int deleteByRunId(String runId);
+}
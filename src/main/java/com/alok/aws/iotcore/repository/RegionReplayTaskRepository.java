@@ -0,0 +1,15 @@
+package com.alok.aws.iotcore.repository;
+
+import com.alok.aws.iotcore.entity.RegionReplayTask;
+import com.alok.aws.iotcore.entity.ProvisioningOperation;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface RegionReplayTaskRepository extends JpaRepository<RegionReplayTask, Long> {
+
+    List<RegionReplayTask> findByRegionOrderById(String region, Pageable pageable);
+
+    RegionReplayTask findFirstByRegionAndOperationAndDeviceName(String region, ProvisioningOperation operation, String deviceName);
+}
@@ -0,0 +1,13 @@
+package com.alok.aws.iotcore.repository;
+
+import com.alok.aws.iotcore.entity.JobStatus;
+import com.alok.aws.iotcore.entity.StatusChangeJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface StatusChangeJobRepository extends JpaRepository<StatusChangeJob, String> {
+
+    List<StatusChangeJob> findByStatusInOrderByCreatedAt(Collection<JobStatus> statuses);
+}
@@ -0,0 +1,104 @@
+package com.alok.aws.iotcore.resilience;
+
+/**
+ * Count based circuit breaker. Opens when the failure rate over the last {@code windowSize} calls
+ * reaches the threshold, rejects calls while open, then lets a single probe call through: the
+ * probe closes the breaker again on success and re-opens it on failure.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final boolean[] failures;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int calls;
+    private int failed;
+    private int next;
+    private long openUntilNanos;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long openNanos) {
+        this.failures = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openNanos;
+    }
+
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN && System.nanoTime() - openUntilNanos >= 0)
+            state = State.HALF_OPEN;
+
+        if (state == State.CLOSED)
+            return true;
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return true;
+        }
+        return false;
+    }
+
+    // true while calls are rejected without even a probe
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && System.nanoTime() - openUntilNanos < 0;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            reset();
+            state = State.CLOSED;
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        record(true);
+        if (state == State.CLOSED && calls >= minimumCalls && (double) failed / calls >= failureRateThreshold)
+            open();
+    }
+
+    // the call said nothing about the health of the region, e.g. it was rate limited client side
+    public synchronized void onIgnored() {
+        probeInFlight = false;
+    }
+
+    private void record(boolean failure) {
+        if (calls == failures.length) {
+            if (failures[next])
+                failed--;
+        } else {
+            calls++;
+        }
+        failures[next] = failure;
+        if (failure)
+            failed++;
+        next = (next + 1) % failures.length;
+    }
+
+    private void open() {
+        reset();
+        state = State.OPEN;
+        openUntilNanos = System.nanoTime() + openNanos;
+    }
+
+    private void reset() {
+        calls = 0;
+        failed = 0;
+        next = 0;
+        probeInFlight = false;
+    }
+}
@@ -0,0 +1,38 @@
+package com.alok.aws.iotcore.resilience;
+
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.retry.RetryPolicyContext;
+import software.amazon.awssdk.core.retry.backoff.BackoffStrategy;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decorrelated jitter: each delay is random between the base delay and three times the previous
+ * one, capped. Retries of concurrent callers spread out instead of arriving in waves. The previous
+ * delay is kept in the execution attributes of the call.
+ */
+public class DecorrelatedJitterBackoff implements BackoffStrategy {
+
+    private final ExecutionAttribute<Long> previousDelayMillis = new ExecutionAttribute<>("DecorrelatedJitterPreviousDelay");
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public DecorrelatedJitterBackoff(long baseDelayMillis, long maxDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    @Override
+    public Duration computeDelayBeforeNextRetry(RetryPolicyContext context) {
+        ExecutionAttributes executionAttributes = context.executionAttributes();
+        Long previous = executionAttributes.getAttribute(previousDelayMillis);
+        long upper = Math.min(maxDelayMillis, (previous == null ? baseDelayMillis : previous) * 3);
+        long delay = upper <= baseDelayMillis
+                ? baseDelayMillis
+                : ThreadLocalRandom.current().nextLong(baseDelayMillis, upper + 1);
+        executionAttributes.putAttribute(previousDelayMillis, delay);
+        return Duration.ofMillis(delay);
+    }
+}
@@ -0,0 +1,124 @@
+package com.alok.aws.iotcore.resilience;
+
+import com.alok.aws.iotcore.configuration.IotResilienceProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Hedging for idempotent reads: when the first call hasn't answered within the hedge delay a
+ * second, identical call is sent and whichever answers first wins, the other is cancelled. Hedges
+ * spend the shared {@link RetryBudget}, so a slow region doesn't double the read traffic to it.
+ * Rate limited calls are hedged inside the limit: the delay starts once the first call has its
+ * token and went out, and the hedge takes a token of its own only when it's sent.
+ * <p>
+ * The timer thread only hands the hedge over to a bounded worker pool: starting a call may block,
+ * e.g. on the rate limit, and that mustn't hold up the hedges of every other request. A hedge that
+ * finds the pool saturated is skipped, the first call is still running after all.
+ */
+@Component
+@Slf4j
+public class HedgedRequests {
+
+    @Autowired
+    private IotResilienceProperties iotResilienceProperties;
+
+    @Autowired
+    private RetryBudget retryBudget;
+
+    private ScheduledExecutorService scheduler;
+    private ThreadPoolExecutor workers;
+
+    @PostConstruct
+    public void init() {
+        int threads = iotResilienceProperties.getHedge().getThreads();
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("hedged-request-"));
+        workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads), new CustomizableThreadFactory("hedged-request-worker-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call) {
+        IotResilienceProperties.Hedge hedge = iotResilienceProperties.getHedge();
+        if (!hedge.isEnabled())
+            return call.get();
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        CompletableFuture<T> first = call.get();
+        subscribe(first, result, outstanding);
+        result.whenComplete((value, throwable) -> first.cancel(false));
+
+        scheduler.schedule(() -> {
+            if (result.isDone())
+                return;
+            try {
+                workers.execute(() -> hedge(call, first, result, outstanding));
+            } catch (RejectedExecutionException ree) {
+                log.debug("Hedge skipped, workers saturated");
+            }
+        }, hedge.getDelayMillis(), TimeUnit.MILLISECONDS);
+
+        return result;
+    }
+
+    public <T> T executeBlocking(Supplier<CompletableFuture<T>> call) {
+        try {
+            return execute(call).join();
+        } catch (CompletionException ce) {
+            if (ce.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ce.getCause();
+            throw ce;
+        }
+    }
+
+    private <T> void hedge(Supplier<CompletableFuture<T>> call, CompletableFuture<T> first, CompletableFuture<T> result, AtomicInteger outstanding) {
+        if (result.isDone() || !retryBudget.tryAcquire())
+            return;
+        outstanding.incrementAndGet();
+        CompletableFuture<T> second = call(call);
+        subscribe(second, result, outstanding);
+        result.whenComplete((value, throwable) -> second.cancel(false));
+    }
+
+    private static <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> call) {
+        try {
+            return call.get();
+        } catch (RuntimeException rte) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(rte);
+            return failed;
+        }
+    }
+
+    // the first answer wins, a failure only counts once no other call is left that could still answer
+    private static <T> void subscribe(CompletableFuture<T> call, CompletableFuture<T> result, AtomicInteger outstanding) {
+        call.whenComplete((value, throwable) -> {
+            if (throwable == null)
+                result.complete(value);
+            else if (outstanding.decrementAndGet() == 0)
+                result.completeExceptionally(throwable);
+        });
+    }
+}
@@ -0,0 +1,85 @@
+package com.alok.aws.iotcore.resilience;
+
+import com.alok.aws.iotcore.configuration.IotResilienceProperties;
+import com.alok.aws.iotcore.exception.RegionUnavailableException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One {@link CircuitBreaker} per region, so an unhealthy region fails fast instead of holding up
+ * every device while the healthy regions carry on.
+ */
+@Component
+@Slf4j
+public class RegionCircuitBreakers {
+
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    @Autowired
+    private IotResilienceProperties iotResilienceProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    public boolean tryAcquirePermission(String region) {
+        return !iotResilienceProperties.getCircuitBreaker().isEnabled() || breaker(region).tryAcquirePermission();
+    }
+
+    public boolean isOpen(String region) {
+        return iotResilienceProperties.getCircuitBreaker().isEnabled() && breaker(region).isOpen();
+    }
+
+    public void onSuccess(String region) {
+        CircuitBreaker breaker = breaker(region);
+        CircuitBreaker.State before = breaker.getState();
+        breaker.onSuccess();
+        logTransition(region, before, breaker.getState());
+    }
+
+    public void onFailure(String region) {
+        CircuitBreaker breaker = breaker(region);
+        CircuitBreaker.State before = breaker.getState();
+        breaker.onFailure();
+        logTransition(region, before, breaker.getState());
+    }
+
+    public void onIgnored(String region) {
+        breaker(region).onIgnored();
+    }
+
+    public static boolean isRegionUnavailable(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause())
+            if (cause instanceof RegionUnavailableException)
+                return true;
+        return false;
+    }
+
+    private CircuitBreaker breaker(String region) {
+        CircuitBreaker breaker = breakers.get(region);
+        if (breaker != null)
+            return breaker;
+
+        return breakers.computeIfAbsent(region, r -> {
+            IotResilienceProperties.CircuitBreaker properties = iotResilienceProperties.getCircuitBreaker();
+            CircuitBreaker circuitBreaker = new CircuitBreaker(properties.getWindowSize(), properties.getMinimumCalls(),
+                    properties.getFailureRateThreshold(), TimeUnit.MILLISECONDS.toNanos(properties.getOpenMillis()));
+            // 0 closed, 1 half open, 2 open
+            Gauge.builder("iot.circuit.state", circuitBreaker, cb -> cb.getState().ordinal())
+                    .tag("region", r)
+                    .register(meterRegistry);
+            return circuitBreaker;
+        });
+    }
+
+    private static void logTransition(String region, CircuitBreaker.State before, CircuitBreaker.State after) {
+        if (before != after)
+            log.error("Circuit breaker {} -> {}, region: {}", before, after, region);
+    }
+}
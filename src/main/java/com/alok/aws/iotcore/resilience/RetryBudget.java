@@ -0,0 +1,45 @@
+package com.alok.aws.iotcore.resilience;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the extra load retries and hedges put on AWS: every retry spends a token, every successful
+ * call earns back a fraction of one. When a region degrades, retries stop once the budget is spent
+ * instead of multiplying the traffic. Tokens are kept in thousandths in an {@link AtomicLong}.
+ */
+public class RetryBudget {
+
+    private static final long SCALE = 1000;
+
+    private final long capacity;
+    private final long deposit;
+    private final AtomicLong tokens;
+
+    public RetryBudget(int capacity, double ratio) {
+        this.capacity = capacity * SCALE;
+        this.deposit = Math.max(1, Math.round(ratio * SCALE));
+        this.tokens = new AtomicLong(this.capacity);
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            long current = tokens.get();
+            if (current < SCALE)
+                return false;
+            if (tokens.compareAndSet(current, current - SCALE))
+                return true;
+        }
+    }
+
+    public void onSuccess() {
+        while (true) {
+            long current = tokens.get();
+            if (current >= capacity || tokens.compareAndSet(current, Math.min(capacity, current + deposit)))
+                return;
+        }
+    }
+
+    public double getTokens() {
+        return (double) tokens.get() / SCALE;
+    }
+}
@@ -0,0 +1,27 @@
+package com.alok.aws.iotcore.resilience;
+
+import software.amazon.awssdk.core.retry.RetryPolicyContext;
+import software.amazon.awssdk.core.retry.conditions.RetryCondition;
+
+/**
+ * Retry capacity condition of the SDK retry policy backed by the {@link RetryBudget} shared by
+ * the clients of all regions, instead of the SDK's token bucket per client.
+ */
+public class RetryBudgetCondition implements RetryCondition {
+
+    private final RetryBudget retryBudget;
+
+    public RetryBudgetCondition(RetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+    }
+
+    @Override
+    public boolean shouldRetry(RetryPolicyContext context) {
+        return retryBudget.tryAcquire();
+    }
+
+    @Override
+    public void requestSucceeded(RetryPolicyContext context) {
+        retryBudget.onSuccess();
+    }
+}
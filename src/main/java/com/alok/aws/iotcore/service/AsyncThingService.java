@@ -0,0 +1,479 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.cache.CertificateArnCache;
+import com.alok.aws.iotcore.cache.PolicyAttachmentCache;
+import com.alok.aws.iotcore.certificate.CertificateFingerprint;
+import com.alok.aws.iotcore.certificate.CertificateValidator;
+import com.alok.aws.iotcore.concurrent.FanOutResult;
+import com.alok.aws.iotcore.concurrent.RegionFanOut;
+import com.alok.aws.iotcore.concurrent.RegistrationSingleFlight;
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.entity.AuditAction;
+import com.alok.aws.iotcore.entity.DeviceRegionState;
+import com.alok.aws.iotcore.exception.CertificateDoesntExistException;
+import com.alok.aws.iotcore.exception.InvalidCertificateException;
+import com.alok.aws.iotcore.exception.ThingCreationException;
+import com.alok.aws.iotcore.exception.ThingDoesntExistException;
+import com.alok.aws.iotcore.exception.ThingUpdateException;
+import com.alok.aws.iotcore.interceptor.IotRateLimitInterceptor;
+import com.alok.aws.iotcore.metrics.IotMetrics;
+import com.alok.aws.iotcore.model.DeviceRegistrationRequest;
+import com.alok.aws.iotcore.resilience.HedgedRequests;
+import com.alok.aws.iotcore.resilience.RegionCircuitBreakers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.iot.IotAsyncClient;
+import software.amazon.awssdk.services.iot.model.*;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Non-blocking counterpart of {@link ThingService} registration and certificate status changes, built
+ * on {@link IotAsyncClient} so that the pipelines of all configured regions can run side by side.
+ * Calls wait for their rate limit token on a timer, no thread is held while a request is in flight.
+ */
+@Service
+@Slf4j
+public class AsyncThingService {
+
+    @Autowired
+    private IotClientRegistry iotClientRegistry;
+
+    @Autowired
+    private RegionFanOut regionFanOut;
+
+
+    @Autowired
+    private CertificateArnCache certificateArnCache;
+
+    @Autowired
+    private PolicyAttachmentCache policyAttachmentCache;
+
+    @Autowired
+    private RegistrationSingleFlight registrationSingleFlight;
+
+    @Autowired
+    private CertificateValidator certificateValidator;
+
+    @Autowired
+    private DeviceRegionStateService deviceRegionStateService;
+
+
+    @Autowired
+    private IotMetrics iotMetrics;
+
+    @Autowired
+    private AuditLog auditLog;
+
+    @Autowired
+    private RegionReplayService regionReplayService;
+
+    @Autowired
+    private IotRateLimitInterceptor iotRateLimitInterceptor;
+
+    @Autowired
+    private HedgedRequests hedgedRequests;
+
+    @Value("${aws.iot.thing.policy.allowed}")
+    private String thingAllowedPolicy;
+
+    public CompletableFuture<Void> createThingAndRegisterCertificate(DeviceRegistrationRequest deviceRegistrationRequest, String region) {
+        return createThingAndRegisterCertificate(deviceRegistrationRequest, iotClientRegistry.asyncClient(region), region)
+                .whenComplete((ignore, throwable) -> {
+                    if (RegionCircuitBreakers.isRegionUnavailable(throwable))
+                        regionReplayService.deferRegistration(region, deviceRegistrationRequest);
+                });
+    }
+
+    // without deferring to the replay queue when the region is unavailable, for callers that keep their own record of the work
+    public CompletableFuture<Void> provision(DeviceRegistrationRequest deviceRegistrationRequest, String region) {
+        return createThingAndRegisterCertificate(deviceRegistrationRequest, iotClientRegistry.asyncClient(region), region);
+    }
+
+    /**
+     * Runs the pipelines of all configured regions concurrently. The returned future never fails,
+     * it completes once the configured completion policy is met or can no longer be met.
+     */
+    public CompletableFuture<FanOutResult> createThingAndRegisterCertificateAllRegions(DeviceRegistrationRequest deviceRegistrationRequest) {
+        InvalidCertificateException invalidCertificate = certificateValidator.rejection(deviceRegistrationRequest);
+        if (invalidCertificate != null)
+            return regionFanOut.fanOut(region -> failed(invalidCertificate));
+
+        return regionFanOut.fanOut(region -> createThingAndRegisterCertificate(deviceRegistrationRequest, region))
+                .thenApply(fanOutResult -> {
+                    fanOutResult.getFailures().forEach((region, cause) -> {
+                        log.error("Thing creation failed, region: {}, error: {}, cause: {}", region, cause.getMessage(), cause.getCause());
+                        for (Throwable suppressed : cause.getSuppressed())
+                            log.error("Compensation failed, region: {}, error: {}, cause: {}", region, suppressed.getMessage(), suppressed.getCause());
+                    });
+                    return fanOutResult;
+                });
+    }
+
+    public CompletableFuture<Void> updateThingCertStatus(String thingName, String newStatus, String region) {
+        IotAsyncClient iotClient = iotClientRegistry.asyncClient(region);
+        long start = iotMetrics.start();
+        return getCertificateArn(thingName, iotClient, region)
+                .thenCompose(certificateArn -> updateCertificateStatus(extractCertIdFromArn(certificateArn), newStatus, iotClient, region)
+                        .thenCompose(ignore -> deviceRegionStateService.certificateStatusChanged(thingName, region, newStatus))
+                        .thenCompose(ignore -> "REVOKED".equals(newStatus)
+                                ? detachThingCertificate(thingName, certificateArn, iotClient, region)
+                                : CompletableFuture.<Void>completedFuture(null)))
+                .whenComplete((ignore, throwable) -> {
+                    iotMetrics.record(IotMetrics.STATUS_UPDATE, region, "updateThingCertStatus", throwable, start);
+                    auditLog.record(AuditAction.STATUS_UPDATE, thingName, region, newStatus, throwable, start);
+                    if (RegionCircuitBreakers.isRegionUnavailable(throwable))
+                        regionReplayService.deferStatusUpdate(region, thingName, newStatus);
+                });
+    }
+
+    /**
+     * Changes the certificate status in all configured regions concurrently. The returned future never
+     * fails, it completes once the configured completion policy is met or can no longer be met.
+     */
+    public CompletableFuture<FanOutResult> updateThingCertStatusAllRegions(String thingName, String newStatus) {
+        return regionFanOut.fanOut(region -> updateThingCertStatus(thingName, newStatus, region));
+    }
+
+    private CompletableFuture<Void> createThingAndRegisterCertificate(DeviceRegistrationRequest deviceRegistrationRequest, IotAsyncClient iotClient, String region) {
+
+        try {
+            certificateValidator.validate(deviceRegistrationRequest);
+        } catch (ThingCreationException | InvalidCertificateException invalid) {
+            return failed(invalid);
+        }
+
+        long start = iotMetrics.start();
+        return registrationSingleFlight.execute(RegistrationSingleFlight.key(region, deviceRegistrationRequest),
+                        () -> runRegistration(deviceRegistrationRequest, iotClient, region))
+                .whenComplete((ignore, throwable) -> {
+                    iotMetrics.record(IotMetrics.REGISTRATION, region, "createThingAndRegisterCertificate", throwable, start);
+                    auditLog.record(AuditAction.REGISTRATION, deviceRegistrationRequest.getDeviceName(), region,
+                            CertificateFingerprint.certificateId(deviceRegistrationRequest.getCertificatePem()), throwable, start);
+                });
+    }
+
+    private CompletableFuture<Void> runRegistration(DeviceRegistrationRequest deviceRegistrationRequest, IotAsyncClient iotClient, String region) {
+        String deviceName = deviceRegistrationRequest.getDeviceName();
+        DeviceRegionState deviceRegionState = deviceRegionStateService.load(deviceName, region,
+                CertificateFingerprint.certificateId(deviceRegistrationRequest.getCertificatePem()));
+        if (deviceRegionState.isProvisioned()) {
+            log.debug("Thing already provisioned, thing: {}, region: {}, certId: {}", deviceName, region, deviceRegionState.getCertificateId());
+            certificateArnCache.put(region, deviceName, deviceRegionState.getCertificateArn());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        log.info("Thing creation started, thing: {}", deviceName);
+        CompletableFuture<Void> thingCreated = deviceRegionState.isThingCreated()
+                ? CompletableFuture.completedFuture(null)
+                : createThing(deviceName, iotClient, region).thenRun(() -> deviceRegionState.setThingCreated(true));
+
+        return thingCreated
+                .thenCompose(ignore -> deviceRegionState.isCertificateRegistered()
+                        ? CompletableFuture.completedFuture(deviceRegionStateService.registeredCertificate(deviceRegionState))
+                        : registerCertificate(deviceRegistrationRequest, iotClient, region).thenCompose(registerCertificateResponse ->
+                                deviceRegionStateService.certificateRegisteredAsync(deviceRegionState, registerCertificateResponse)
+                                        .thenApply(written -> registerCertificateResponse)))
+                .thenCompose(registerCertificateResponse -> attachCertificate(deviceName, registerCertificateResponse, deviceRegionState, iotClient, region)
+                        .thenApply(ignore -> registerCertificateResponse))
+                .handle((registerCertificateResponse, throwable) -> recordOutcome(deviceRegionState, registerCertificateResponse, throwable))
+                .thenCompose(Function.identity())
+                .thenAccept(registerCertificateResponse -> {
+                    certificateArnCache.put(region, deviceName, registerCertificateResponse.certificateArn());
+                    log.info("Thing creation completed, thing: {}, certId: {}", deviceName, registerCertificateResponse.certificateId());
+                });
+    }
+
+    // the state is written whatever the outcome, then the registration result or failure is passed on
+    private <T> CompletableFuture<T> recordOutcome(DeviceRegionState deviceRegionState, T result, Throwable throwable) {
+        deviceRegionStateService.registrationEnded(deviceRegionState, throwable);
+        return deviceRegionStateService.saveAsync(deviceRegionState)
+                .handle((ignore, saveFailure) -> {
+                    Throwable failure = throwable != null ? throwable : saveFailure;
+                    if (failure != null)
+                        throw failure instanceof CompletionException ? (CompletionException) failure : new CompletionException(failure);
+                    return result;
+                });
+    }
+
+    private CompletableFuture<Void> attachCertificate(String deviceName, RegisterCertificateResponse registerCertificateResponse, DeviceRegionState deviceRegionState, IotAsyncClient iotClient, String region) {
+        CompletableFuture<Void> policyAttached = deviceRegionState.isPolicyAttached()
+                ? CompletableFuture.completedFuture(null)
+                : attachPolicyToCertificate(deviceName, registerCertificateResponse, iotClient, region).thenRun(() -> deviceRegionState.setPolicyAttached(true));
+
+        return policyAttached
+                .thenCompose(ignore -> deviceRegionState.isPrincipalAttached()
+                        ? CompletableFuture.<Void>completedFuture(null)
+                        : attachThingCertificate(deviceName, registerCertificateResponse, iotClient, region).thenRun(() -> deviceRegionState.setPrincipalAttached(true)))
+                .whenComplete((ignore, throwable) -> {
+                    // the attach steps delete the certificate before failing
+                    if (throwable != null)
+                        deviceRegionState.resetCertificate();
+                });
+    }
+
+    private CompletableFuture<Void> createThing(String thingName, IotAsyncClient iotClient, String region) {
+
+        log.debug("Creating thing: {}", thingName);
+        return iotRateLimitInterceptor.execute(region, "CreateThing", () -> iotClient.createThing(
+                CreateThingRequest.builder()
+                        .thingName(thingName)
+                        .build()
+        )).handle((response, throwable) -> {
+            if (throwable == null)
+                return null;
+
+            Throwable cause = unwrap(throwable);
+            if (cause instanceof ResourceAlreadyExistsException) {
+                // treat this as success
+                log.debug("Thing already exists, thing: {}", thingName);
+                return null;
+            }
+            log.error("Thing creation failed, thing: {}, error: {}", thingName, cause.getMessage());
+            throw new ThingCreationException("Thing Creation Failed!", cause);
+        });
+    }
+
+    private CompletableFuture<RegisterCertificateResponse> registerCertificate(DeviceRegistrationRequest deviceRegistrationRequest, IotAsyncClient iotClient, String region) {
+        log.debug("Creating certificate for thing: {}", deviceRegistrationRequest.getDeviceName());
+        return iotRateLimitInterceptor.execute(region, "RegisterCertificate", () -> iotClient.registerCertificate(RegisterCertificateRequest.builder()
+                .caCertificatePem(deviceRegistrationRequest.getCaCertificatePem())
+                .certificatePem(deviceRegistrationRequest.getCertificatePem())
+                .setAsActive(true)
+                .build()
+        )).handle((registerCertificateResponse, throwable) -> {
+            if (throwable == null) {
+                policyAttachmentCache.registered(region, registerCertificateResponse.certificateArn());
+                return CompletableFuture.completedFuture(registerCertificateResponse);
+            }
+
+            Throwable cause = unwrap(throwable);
+            if (cause instanceof ResourceAlreadyExistsException) {
+                // treat this as success if the region's state has the cert, read off the SDK thread
+                log.debug("Certificate already exists, thing: {}", deviceRegistrationRequest.getDeviceName());
+                return deviceRegionStateService.read(() -> deviceRegionStateService.findRegisteredCertificate(deviceRegistrationRequest.getDeviceName(),
+                                region, CertificateFingerprint.certificateId(deviceRegistrationRequest.getCertificatePem())))
+                        .thenApply(registeredCertificate -> {
+                            if (registeredCertificate == null)
+                                throw certificateCreationFailed(deviceRegistrationRequest, cause);
+                            return registeredCertificate;
+                        });
+            }
+            throw certificateCreationFailed(deviceRegistrationRequest, cause);
+        }).thenCompose(Function.identity());
+    }
+
+    private static ThingCreationException certificateCreationFailed(DeviceRegistrationRequest deviceRegistrationRequest, Throwable cause) {
+        log.error("Certificate creation failed, thing: {}", deviceRegistrationRequest.getDeviceName());
+        return new ThingCreationException("Certificate Creation Failed!", cause);
+    }
+
+    private CompletableFuture<Void> attachPolicyToCertificate(String deviceName, RegisterCertificateResponse registerCertificateResponse, IotAsyncClient iotClient, String region) {
+        String certificateArn = registerCertificateResponse.certificateArn();
+        return isPolicyAttached(certificateArn, iotClient, region).thenCompose(policyAttached -> {
+            if (policyAttached) {
+                log.debug("Policy already attached to certificate, thing: {}, certId: {}, policy: {}", deviceName, registerCertificateResponse.certificateId(), thingAllowedPolicy);
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+
+            log.debug("Attaching policy to certificate, thing: {}, certId: {}, policy: {}", deviceName, registerCertificateResponse.certificateId(), thingAllowedPolicy);
+            return compensateOnFailure(
+                    iotRateLimitInterceptor.execute(region, "AttachPolicy", () -> iotClient.attachPolicy(AttachPolicyRequest.builder()
+                            .policyName(thingAllowedPolicy)
+                            .target(certificateArn)
+                            .build()))
+                            .thenRun(() -> policyAttachmentCache.attached(region, certificateArn, thingAllowedPolicy)),
+                    "Policy attachment Failed!",
+                    deviceName,
+                    registerCertificateResponse.certificateId(),
+                    iotClient,
+                    region
+            );
+        });
+    }
+
+    // certificates not registered through this instance are looked up, a failed lookup just doesn't save the attach
+    private CompletableFuture<Boolean> isPolicyAttached(String certificateArn, IotAsyncClient iotClient, String region) {
+        Set<String> policyNames = policyAttachmentCache.get(region, certificateArn);
+        if (policyNames != null)
+            return CompletableFuture.completedFuture(policyNames.contains(thingAllowedPolicy));
+
+        return iotRateLimitInterceptor.execute(region, "ListAttachedPolicies", () -> iotClient.listAttachedPolicies(ListAttachedPoliciesRequest.builder()
+                .target(certificateArn)
+                .build()
+        )).handle((response, throwable) -> {
+            if (throwable != null) {
+                log.debug("Listing attached policies failed, certArn: {}, error: {}", certificateArn, unwrap(throwable).getMessage());
+                return false;
+            }
+
+            Set<String> attachedPolicyNames = response.policies().stream()
+                    .map(Policy::policyName)
+                    .collect(Collectors.toSet());
+            policyAttachmentCache.loaded(region, certificateArn, attachedPolicyNames);
+            return attachedPolicyNames.contains(thingAllowedPolicy);
+        });
+    }
+
+    private CompletableFuture<Void> attachThingCertificate(String deviceName, RegisterCertificateResponse registerCertificateResponse, IotAsyncClient iotClient, String region) {
+        log.debug("Attaching certificate to thing: {}, certId: {}", deviceName, registerCertificateResponse.certificateId());
+        return compensateOnFailure(
+                iotRateLimitInterceptor.execute(region, "AttachThingPrincipal", () -> iotClient.attachThingPrincipal(AttachThingPrincipalRequest.builder()
+                        .thingName(deviceName)
+                        .principal(registerCertificateResponse.certificateArn())
+                        .build())),
+                "Certificate attachment Failed!",
+                deviceName,
+                registerCertificateResponse.certificateId(),
+                iotClient,
+                region
+        );
+    }
+
+    /**
+     * Deletes the certificate when the attach step failed and fails the returned future with a
+     * {@link ThingCreationException}; a failed compensation is attached as suppressed so both get reported.
+     */
+    private CompletableFuture<Void> compensateOnFailure(CompletableFuture<?> step, String failureMessage, String deviceName, String certificateId, IotAsyncClient iotClient, String region) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        step.whenComplete((response, throwable) -> {
+            if (throwable == null) {
+                result.complete(null);
+                return;
+            }
+
+            certificateArnCache.evict(region, deviceName);
+            log.error("{} deleting certificate, thing: {}, certId: {}", failureMessage, deviceName, certificateId);
+            ThingCreationException failure = new ThingCreationException(failureMessage, unwrap(throwable));
+            long start = iotMetrics.start();
+            deleteCertificate(certificateId, iotClient, region).whenComplete((ignore, compensationFailure) -> {
+                iotMetrics.record(IotMetrics.COMPENSATION, region, "deleteCertificate", compensationFailure, start);
+                auditLog.record(AuditAction.COMPENSATION, deviceName, region, certificateId, compensationFailure, start);
+                if (compensationFailure != null)
+                    failure.addSuppressed(unwrap(compensationFailure));
+                result.completeExceptionally(failure);
+            });
+        });
+        return result;
+    }
+
+    private CompletableFuture<Void> deleteCertificate(String certificateId, IotAsyncClient iotClient, String region) {
+        policyAttachmentCache.evict(region, certificateId);
+        return updateCertificateStatus(certificateId, "INACTIVE", iotClient, region)
+                .thenCompose(ignore -> {
+                    log.debug("Deleting certificate, certId: {}", certificateId);
+                    return iotRateLimitInterceptor.execute(region, "DeleteCertificate", () -> iotClient.deleteCertificate(
+                            DeleteCertificateRequest.builder()
+                                    .certificateId(certificateId)
+                                    .forceDelete(true)
+                                    .build()));
+                })
+                .handle((response, throwable) -> {
+                    if (throwable == null)
+                        return null;
+
+                    Throwable cause = unwrap(throwable);
+                    if (cause instanceof ThingCreationException)
+                        throw (ThingCreationException) cause;
+                    log.error("Certificate deletion failed, certId: {}", certificateId);
+                    throw new ThingCreationException("Certificate deletion failed!", cause);
+                });
+    }
+
+    private CompletableFuture<Void> updateCertificateStatus(String certificateId, String status, IotAsyncClient iotClient, String region) {
+        log.debug("Updating certificate status, certId: {}, status: {}", certificateId, status);
+        return iotRateLimitInterceptor.execute(region, "UpdateCertificate", () -> iotClient.updateCertificate(UpdateCertificateRequest.builder()
+                .certificateId(certificateId)
+                .newStatus(status)
+                .build()
+        )).handle((response, throwable) -> {
+            if (throwable == null) {
+                if ("REVOKED".equals(status))
+                    policyAttachmentCache.evict(region, certificateId);
+                return null;
+            }
+
+            log.error("Updating Certificate status failed, certId: {}, status: {}", certificateId, status);
+            throw new ThingCreationException("Updating certificate status failed!", unwrap(throwable));
+        });
+    }
+
+    private CompletableFuture<String> getCertificateArn(String thingName, IotAsyncClient iotClient, String region) {
+        String cachedCertificateArn = certificateArnCache.get(region, thingName);
+        if (CertificateArnCache.isDetached(cachedCertificateArn)) {
+            log.error("Thing doesn't have principal, thing: {}", thingName);
+            return failed(new CertificateDoesntExistException("Thing doesn't have principal!"));
+        }
+        if (cachedCertificateArn != null)
+            return CompletableFuture.completedFuture(cachedCertificateArn);
+
+        log.debug("Get certificate id for thing: {}", thingName);
+        ListThingPrincipalsRequest listThingPrincipalsRequest = ListThingPrincipalsRequest.builder()
+                .thingName(thingName)
+                .build();
+        // idempotent read, hedged once it has its token; the hedge takes its own when it's sent
+        return iotRateLimitInterceptor.execute(region, "ListThingPrincipals",
+                () -> hedgedRequests.execute(() -> iotClient.listThingPrincipals(listThingPrincipalsRequest))
+        ).handle((thingPrincipals, throwable) -> {
+            if (throwable != null) {
+                Throwable cause = unwrap(throwable);
+                if (cause instanceof ResourceNotFoundException) {
+                    log.error("Thing doesn't exist!, thing: {}", thingName);
+                    throw new ThingDoesntExistException("Thing doesn't exist!", cause);
+                }
+                log.error("Listing thing principals failed, thing: {}", thingName);
+                throw new ThingUpdateException("List Thing principals failed!", cause);
+            }
+            if (!thingPrincipals.hasPrincipals() || thingPrincipals.principals().isEmpty()) {
+                log.error("Thing doesn't have principal, thing: {}", thingName);
+                throw new CertificateDoesntExistException("Thing doesn't have principal!");
+            }
+
+            // Assuming thing has only one principal any time - during revoke the principal was detached
+            String certificateArn = thingPrincipals.principals().get(0);
+            certificateArnCache.put(region, thingName, certificateArn);
+            return certificateArn;
+        });
+    }
+
+    private CompletableFuture<Void> detachThingCertificate(String deviceName, String certificateArn, IotAsyncClient iotClient, String region) {
+        log.debug("Detaching certificate from thing: {}, certArn: {}", deviceName, certificateArn);
+        return iotRateLimitInterceptor.execute(region, "DetachThingPrincipal", () -> iotClient.detachThingPrincipal(DetachThingPrincipalRequest.builder()
+                .thingName(deviceName)
+                .principal(certificateArn)
+                .build()
+        )).handle((response, throwable) -> {
+            if (throwable != null) {
+                log.error("Detaching certificate from thing failed, thing: {}, certArn: {}", deviceName, certificateArn);
+                throw new ThingCreationException("Detaching certificate from thing Failed!", unwrap(throwable));
+            }
+
+            certificateArnCache.markDetached(region, deviceName);
+            return deviceRegionStateService.principalDetached(deviceName, region);
+        }).thenCompose(Function.identity());
+    }
+
+    private static String extractCertIdFromArn(String certArn) {
+        return certArn.split("/")[1];
+    }
+
+    public static Throwable unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null)
+            cause = cause.getCause();
+        return cause;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+}
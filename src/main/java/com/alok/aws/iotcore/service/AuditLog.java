@@ -0,0 +1,244 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.concurrent.RingBuffer;
+import com.alok.aws.iotcore.entity.AuditAction;
+import com.alok.aws.iotcore.entity.AuditEvent;
+import com.alok.aws.iotcore.exception.ErrorMessages;
+import com.alok.aws.iotcore.metrics.IotMetrics;
+import com.alok.aws.iotcore.repository.AuditEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Audit trail of the registrations, status changes and compensations, one {@link AuditEvent} per
+ * operation and region. Recording never blocks and never touches the database on the caller's
+ * thread: events go into a {@link RingBuffer} and a writer thread inserts them in batches, one
+ * transaction per batch. Once the buffer is filled beyond sample-above, successful operations are
+ * only kept at sample-rate so failures still make it in; events arriving at a full buffer are dropped.
+ * A batch whose insert fails is kept and retried with backoff until it is written; meanwhile the
+ * buffer fills up and drops instead. Only a batch still failing at shutdown is lost, each of its events
+ * is logged at error level. All of it is counted as {@code iot.audit.events} tagged by result.
+ */
+@Component
+@Slf4j
+public class AuditLog {
+
+    public static final String EVENTS = "iot.audit.events";
+
+    @Autowired
+    private AuditEventRepository auditEventRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${aws.iot.audit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${aws.iot.audit.capacity:65536}")
+    private int capacity;
+
+    @Value("${aws.iot.audit.batch-size:500}")
+    private int batchSize;
+
+    @Value("${aws.iot.audit.max-delay-millis:200}")
+    private long maxDelayMillis;
+
+    @Value("${aws.iot.audit.sample-above:0.75}")
+    private double sampleAbove;
+
+    @Value("${aws.iot.audit.sample-rate:0.1}")
+    private double sampleRate;
+
+    @Value("${aws.iot.audit.retry.base-backoff-millis:100}")
+    private long baseBackoffMillis;
+
+    @Value("${aws.iot.audit.retry.max-backoff-millis:10000}")
+    private long maxBackoffMillis;
+
+    private RingBuffer<AuditEvent> ringBuffer;
+    private int sampleThreshold;
+    private Counter queued;
+    private Counter sampledOut;
+    private Counter dropped;
+    private Counter written;
+    private Counter retried;
+    private Counter lost;
+    private Thread writer;
+    private volatile boolean stopped;
+
+    @PostConstruct
+    public void init() {
+        ringBuffer = new RingBuffer<>(capacity);
+        sampleThreshold = (int) (ringBuffer.capacity() * sampleAbove);
+        queued = counter("queued");
+        sampledOut = counter("sampled.out");
+        dropped = counter("dropped");
+        written = counter("written");
+        retried = counter("retried");
+        lost = counter("lost");
+        Gauge.builder("iot.audit.buffer.size", ringBuffer, RingBuffer::size)
+                .register(meterRegistry);
+
+        if (!enabled)
+            return;
+        writer = new CustomizableThreadFactory("audit-writer-").newThread(this::run);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (writer == null)
+            return;
+        // not interrupted, the writer's last flush would run against the database interrupted
+        stopped = true;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        // whatever was recorded after the writer stopped
+        List<AuditEvent> batch = new ArrayList<>(batchSize);
+        while (ringBuffer.drainTo(batch, batchSize) > 0) {
+            if (!flush(batch))
+                lost(batch);
+            batch.clear();
+        }
+    }
+
+    public void record(AuditAction action, String deviceName, String region, String detail, Throwable failure, long startNanos) {
+        if (!enabled)
+            return;
+
+        if (failure == null && ringBuffer.size() >= sampleThreshold && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            sampledOut.increment();
+            return;
+        }
+
+        AuditEvent auditEvent = AuditEvent.builder()
+                .occurredAt(Instant.now())
+                .action(action)
+                .deviceName(deviceName)
+                .region(region)
+                .detail(detail)
+                .outcome(IotMetrics.outcome(failure))
+                .error(failure == null ? null : ErrorMessages.truncate(AsyncThingService.unwrap(failure).getMessage()))
+                .durationMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos))
+                .build();
+        if (ringBuffer.offer(auditEvent)) {
+            queued.increment();
+        } else {
+            dropped.increment();
+            log.debug("Audit buffer full, event dropped, action: {}, thing: {}, region: {}", action, deviceName, region);
+        }
+    }
+
+    /**
+     * Events matching all given filters, null for any, in id order after the given id.
+     */
+    public List<AuditEvent> find(String deviceName, String region, AuditAction action, Instant from, Instant to, long after, int limit) {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<AuditEvent> query = criteriaBuilder.createQuery(AuditEvent.class);
+        Root<AuditEvent> auditEvent = query.from(AuditEvent.class);
+
+        List<Predicate> predicates = new ArrayList<>();
+        predicates.add(criteriaBuilder.greaterThan(auditEvent.<Long>get("id"), after));
+        if (deviceName != null)
+            predicates.add(criteriaBuilder.equal(auditEvent.get("deviceName"), deviceName));
+        if (region != null)
+            predicates.add(criteriaBuilder.equal(auditEvent.get("region"), region));
+        if (action != null)
+            predicates.add(criteriaBuilder.equal(auditEvent.get("action"), action));
+        if (from != null)
+            predicates.add(criteriaBuilder.greaterThanOrEqualTo(auditEvent.<Instant>get("occurredAt"), from));
+        if (to != null)
+            predicates.add(criteriaBuilder.lessThan(auditEvent.<Instant>get("occurredAt"), to));
+
+        return entityManager.createQuery(query.where(predicates.toArray(new Predicate[0]))
+                        .orderBy(criteriaBuilder.asc(auditEvent.<Long>get("id"))))
+                .setMaxResults(Math.max(1, Math.min(limit, 1000)))
+                .getResultList();
+    }
+
+    private void run() {
+        List<AuditEvent> batch = new ArrayList<>(batchSize);
+        long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        long batchStart = 0;
+        int failures = 0;
+        while (!stopped) {
+            if (batch.isEmpty())
+                batchStart = System.nanoTime();
+            ringBuffer.drainTo(batch, batchSize - batch.size());
+
+            // a full batch goes out at once, a partial one once its first event waited max-delay
+            if (batch.size() >= batchSize || (!batch.isEmpty() && System.nanoTime() - batchStart >= maxDelayNanos)) {
+                if (flush(batch)) {
+                    batch.clear();
+                    failures = 0;
+                    continue;
+                }
+                // the batch is kept until it is written, it's topped up from the buffer on the next attempt
+                retried.increment(batch.size());
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoffMillis(failures++)));
+                continue;
+            }
+            // producers don't signal the writer, offering stays a CAS; it polls instead
+            LockSupport.parkNanos(Math.max(TimeUnit.MILLISECONDS.toNanos(1), maxDelayNanos / 10));
+        }
+        if (!batch.isEmpty() && !flush(batch))
+            lost(batch);
+    }
+
+    private boolean flush(List<AuditEvent> batch) {
+        // ids drawn by an earlier failed attempt weren't inserted, new ones are drawn
+        batch.forEach(auditEvent -> auditEvent.setId(null));
+        try {
+            auditEventRepository.saveAll(batch);
+            written.increment(batch.size());
+            return true;
+        } catch (RuntimeException rte) {
+            log.warn("Audit batch write failed, events: {}, error: {}", batch.size(), rte.getMessage());
+            return false;
+        }
+    }
+
+    private void lost(List<AuditEvent> batch) {
+        lost.increment(batch.size());
+        for (AuditEvent auditEvent : batch)
+            log.error("Audit event lost, id: {}, action: {}, thing: {}, region: {}, occurredAt: {}, outcome: {}, error: {}",
+                    auditEvent.getId(), auditEvent.getAction(), auditEvent.getDeviceName(), auditEvent.getRegion(),
+                    auditEvent.getOccurredAt(), auditEvent.getOutcome(), auditEvent.getError());
+    }
+
+    private long backoffMillis(int failures) {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(failures, 20));
+        return ThreadLocalRandom.current().nextLong(baseBackoffMillis, Math.max(baseBackoffMillis, ceiling) + 1);
+    }
+
+    private Counter counter(String result) {
+        return Counter.builder(EVENTS)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,140 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.concurrent.FanOutResult;
+import com.alok.aws.iotcore.exception.InvalidCertificateException;
+import com.alok.aws.iotcore.exception.ThingCreationException;
+import com.alok.aws.iotcore.model.DeviceRegistrationRequest;
+import com.alok.aws.iotcore.model.DeviceRegistrationResult;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Registers a stream of devices (NDJSON or a JSON array) with at most {@code maxInFlight} devices
+ * in flight, writing one NDJSON result line per device as soon as it finishes. The window is
+ * shared by all regions, each device in flight is registered in every region at once. Only the
+ * in-flight window is ever held in memory. A malformed element gets its own error line, only a
+ * stream that can't be parsed any further ends the registration early.
+ */
+@Service
+@Slf4j
+public class BulkRegistrationService {
+
+    private static final byte[] NEW_LINE = {'\n'};
+
+    @Autowired
+    private AsyncThingService asyncThingService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${aws.iot.registration.bulk.max-in-flight:16}")
+    private int maxInFlight;
+
+    public void registerDevices(InputStream requestStream, OutputStream resultStream) throws IOException {
+        BlockingQueue<DeviceRegistrationResult> completed = new LinkedBlockingQueue<>();
+        int inFlight = 0;
+        int element = 0;
+
+        try (MappingIterator<DeviceRegistrationRequest> requests = objectMapper.readerFor(DeviceRegistrationRequest.class)
+                .readValues(requestStream)) {
+            while (true) {
+                DeviceRegistrationRequest deviceRegistrationRequest;
+                try {
+                    if (!requests.hasNextValue())
+                        break;
+                    element++;
+                    deviceRegistrationRequest = requests.nextValue();
+                } catch (JsonMappingException jme) {
+                    // valid JSON that doesn't bind, the iterator skips to the next element
+                    log.error("Bulk registration element malformed, element: {}, error: {}", element, jme.getOriginalMessage());
+                    write(resultStream, failed(null, HttpStatus.BAD_REQUEST, "Malformed request, element " + element + ": " + jme.getOriginalMessage()));
+                    continue;
+                } catch (IOException | RuntimeException e) {
+                    log.error("Bulk registration payload malformed, element: {}, error: {}", element, e.getMessage());
+                    write(resultStream, failed(null, HttpStatus.BAD_REQUEST, "Malformed request, element " + element + ": " + e.getMessage()));
+                    break;
+                }
+
+                for (; inFlight >= maxInFlight; inFlight--)
+                    write(resultStream, take(completed));
+
+                register(deviceRegistrationRequest, completed);
+                inFlight++;
+
+                DeviceRegistrationResult result;
+                while ((result = completed.poll()) != null) {
+                    write(resultStream, result);
+                    inFlight--;
+                }
+            }
+
+            for (; inFlight > 0; inFlight--)
+                write(resultStream, take(completed));
+        }
+    }
+
+    // every registered device adds exactly one result, or take() would wait for it forever
+    private void register(DeviceRegistrationRequest deviceRegistrationRequest, BlockingQueue<DeviceRegistrationResult> completed) {
+        String deviceName = deviceRegistrationRequest == null ? null : deviceRegistrationRequest.getDeviceName();
+        CompletableFuture<FanOutResult> registration;
+        try {
+            registration = asyncThingService.createThingAndRegisterCertificateAllRegions(deviceRegistrationRequest);
+        } catch (RuntimeException rte) {
+            registration = new CompletableFuture<>();
+            registration.completeExceptionally(rte);
+        }
+        registration.whenComplete((fanOutResult, throwable) -> {
+            if (throwable != null) {
+                Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                log.error("Bulk registration failed, thing: {}, error: {}", deviceName, cause.getMessage());
+                completed.add(failed(deviceName, HttpStatus.INTERNAL_SERVER_ERROR, cause.getMessage()));
+            } else {
+                completed.add(fanOutResult.isSuccessful()
+                        ? DeviceRegistrationResult.builder().deviceName(deviceName).status(HttpStatus.CREATED.value()).build()
+                        : DeviceRegistrationResult.builder().deviceName(deviceName).status(fanOutResult.anyFailed(InvalidCertificateException.class)
+                                ? HttpStatus.BAD_REQUEST.value() : HttpStatus.FAILED_DEPENDENCY.value()).errors(fanOutResult.errors()).build());
+            }
+        });
+    }
+
+    private DeviceRegistrationResult failed(String deviceName, HttpStatus status, String error) {
+        List<String> errors = new ArrayList<>(1);
+        errors.add(error);
+        return DeviceRegistrationResult.builder()
+                .deviceName(deviceName)
+                .status(status.value())
+                .errors(errors)
+                .build();
+    }
+
+    private DeviceRegistrationResult take(BlockingQueue<DeviceRegistrationResult> completed) {
+        try {
+            return completed.take();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ThingCreationException("Bulk registration interrupted!", ie);
+        }
+    }
+
+    private void write(OutputStream resultStream, DeviceRegistrationResult result) throws IOException {
+        resultStream.write(objectMapper.writeValueAsBytes(result));
+        resultStream.write(NEW_LINE);
+        resultStream.flush();
+    }
+}
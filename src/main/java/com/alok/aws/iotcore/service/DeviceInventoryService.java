@@ -0,0 +1,203 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.entity.Device;
+import com.alok.aws.iotcore.entity.DeviceRegionState;
+import com.alok.aws.iotcore.exception.InvalidRequestException;
+import com.alok.aws.iotcore.model.DeviceResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Read side of the device inventory, so dashboards and exports don't have to page through AWS
+ * listThings against the provisioning quota. Pages are seeks on the device name, the primary key, so
+ * every page costs the same however deep it is. The export runs the same seek in fetch-size chunks,
+ * each its own short statement, and writes every chunk out before reading the next: memory stays
+ * at one chunk and no cursor, transaction or connection is held open for the length of the download
+ * (open-in-view is off). Rows are read as {@link DeviceResponse} projections, which the persistence
+ * context doesn't keep.
+ */
+@Service
+@Slf4j
+public class DeviceInventoryService {
+
+    public enum ExportFormat {
+        NDJSON, CSV
+    }
+
+    private static final Set<String> STATUSES = new HashSet<>(Arrays.asList("ACTIVE", "INACTIVE", "REVOKED"));
+    private static final byte[] NEW_LINE = {'\n'};
+
+    @Autowired
+    private IotClientRegistry iotClientRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${aws.iot.inventory.max-page-size:1000}")
+    private int maxPageSize;
+
+    @Value("${aws.iot.inventory.export.fetch-size:1000}")
+    private int fetchSize;
+
+    public Optional<DeviceResponse> getDevice(String deviceName) {
+        Device device = entityManager.find(Device.class, deviceName);
+        return Optional.ofNullable(device)
+                .map(found -> new DeviceResponse(found.getDeviceName(), found.getAwsDeviceCertId(), found.getAwsDeviceCertArn()));
+    }
+
+    /**
+     * The devices matching the filters, null for any, whose name sorts after {@code after}. A status
+     * filter applies to the certificate status in the given region, the current region if none.
+     *
+     * @throws InvalidRequestException if the status or region isn't known
+     */
+    public List<DeviceResponse> getDevices(String certificateId, String status, String region, String after, int limit) {
+        validate(status, region);
+        return page(certificateId, status, region, after, Math.max(1, Math.min(limit, maxPageSize)));
+    }
+
+    /**
+     * Checks the filters up front, so a bad export is rejected before anything is written.
+     *
+     * @throws InvalidRequestException if the status or region isn't known
+     */
+    public void validate(String status, String region) {
+        if (status != null && !STATUSES.contains(status))
+            throw new InvalidRequestException("Status must be one of " + STATUSES + "!");
+        if (region != null && !iotClientRegistry.getRegions().contains(region))
+            throw new InvalidRequestException("Region must be one of " + iotClientRegistry.getRegions() + "!");
+    }
+
+    public void export(String certificateId, String status, String region, ExportFormat format, OutputStream outputStream) throws IOException {
+        validate(status, region);
+        Writer csvWriter = format == ExportFormat.CSV ? new OutputStreamWriter(outputStream, StandardCharsets.UTF_8) : null;
+        if (csvWriter != null)
+            csvWriter.write("DeviceName,CertificateId,CertificateArn\n");
+
+        String after = null;
+        long exported = 0;
+        while (true) {
+            List<DeviceResponse> chunk = page(certificateId, status, region, after, fetchSize);
+            for (DeviceResponse device : chunk) {
+                if (csvWriter != null) {
+                    csvWriter.write(csv(device.getDeviceName()) + ',' + csv(device.getCertificateId()) + ',' + csv(device.getCertificateArn()) + '\n');
+                } else {
+                    outputStream.write(objectMapper.writeValueAsBytes(device));
+                    outputStream.write(NEW_LINE);
+                }
+            }
+            if (csvWriter != null)
+                csvWriter.flush();
+            outputStream.flush();
+
+            exported += chunk.size();
+            if (chunk.size() < fetchSize)
+                break;
+            after = chunk.get(chunk.size() - 1).getDeviceName();
+        }
+        log.debug("Device export done, format: {}, devices: {}", format, exported);
+    }
+
+    /**
+     * Names of the devices with the name prefix, in name order after {@code after}, whose certificate
+     * status and first registration in the region, the current region if none, match the filters,
+     * null for any. The selection of a status change job.
+     */
+    public List<String> findDeviceNames(String deviceNamePrefix, String status, String region,
+                                        Instant registeredFrom, Instant registeredTo, String after, int limit) {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+        Root<Device> device = query.from(Device.class);
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (after != null)
+            predicates.add(criteriaBuilder.greaterThan(device.<String>get("deviceName"), after));
+        if (deviceNamePrefix != null && !deviceNamePrefix.isEmpty())
+            predicates.add(criteriaBuilder.like(device.<String>get("deviceName"), escapeLike(deviceNamePrefix) + '%', '\\'));
+        if (status != null || registeredFrom != null || registeredTo != null)
+            predicates.add(regionStateExists(query, device, status, region, registeredFrom, registeredTo));
+
+        return entityManager.createQuery(query
+                        .select(device.<String>get("deviceName"))
+                        .where(predicates.toArray(new Predicate[0]))
+                        .orderBy(criteriaBuilder.asc(device.get("deviceName"))))
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    private List<DeviceResponse> page(String certificateId, String status, String region, String after, int limit) {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<DeviceResponse> query = criteriaBuilder.createQuery(DeviceResponse.class);
+        Root<Device> device = query.from(Device.class);
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (after != null)
+            predicates.add(criteriaBuilder.greaterThan(device.<String>get("deviceName"), after));
+        if (certificateId != null)
+            predicates.add(criteriaBuilder.equal(device.get("awsDeviceCertId"), certificateId));
+        if (status != null)
+            predicates.add(regionStateExists(query, device, status, region, null, null));
+
+        return entityManager.createQuery(query
+                        .select(criteriaBuilder.construct(DeviceResponse.class,
+                                device.get("deviceName"), device.get("awsDeviceCertId"), device.get("awsDeviceCertArn")))
+                        .where(predicates.toArray(new Predicate[0]))
+                        .orderBy(criteriaBuilder.asc(device.get("deviceName"))))
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    private Predicate regionStateExists(CriteriaQuery<?> query, Root<Device> device, String status, String region,
+                                        Instant registeredFrom, Instant registeredTo) {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        Subquery<String> regionState = query.subquery(String.class);
+        Root<DeviceRegionState> deviceRegionState = regionState.from(DeviceRegionState.class);
+
+        List<Predicate> predicates = new ArrayList<>();
+        predicates.add(criteriaBuilder.equal(deviceRegionState.get("deviceName"), device.get("deviceName")));
+        predicates.add(criteriaBuilder.equal(deviceRegionState.get("region"), region == null ? iotClientRegistry.getCurrentRegion() : region));
+        if (status != null)
+            predicates.add(criteriaBuilder.equal(deviceRegionState.get("certificateStatus"), status));
+        if (registeredFrom != null)
+            predicates.add(criteriaBuilder.greaterThanOrEqualTo(deviceRegionState.<Instant>get("createdAt"), registeredFrom));
+        if (registeredTo != null)
+            predicates.add(criteriaBuilder.lessThan(deviceRegionState.<Instant>get("createdAt"), registeredTo));
+
+        return criteriaBuilder.exists(regionState.select(deviceRegionState.<String>get("deviceName"))
+                .where(predicates.toArray(new Predicate[0])));
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static String csv(String value) {
+        if (value == null)
+            return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,227 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.entity.Device;
+import com.alok.aws.iotcore.entity.DeviceRegionState;
+import com.alok.aws.iotcore.entity.DeviceRegionStateId;
+import com.alok.aws.iotcore.entity.ProvisioningStatus;
+import com.alok.aws.iotcore.exception.ErrorMessages;
+import com.alok.aws.iotcore.repository.DeviceRegionStateRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.iot.model.RegisterCertificateResponse;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Reads and changes the {@link DeviceRegionState} rows, writes go through
+ * the {@link DeviceStateWriter}. Everything that differs by region, the certificate ARN included, is only
+ * kept there; the {@link Device} row holds what is the same in every region, with the ARN of the current
+ * region. The async pipelines continue on SDK threads, which mustn't wait on JDBC:
+ * their reads run on a small bounded reader pool instead, and fail with a
+ * {@link RejectedExecutionException} when it's saturated.
+ */
+@Service
+@Slf4j
+public class DeviceRegionStateService {
+
+    @Autowired
+    private DeviceRegionStateRepository deviceRegionStateRepository;
+
+    @Autowired
+    private DeviceStateWriter deviceStateWriter;
+
+    @Autowired
+    private IotClientRegistry iotClientRegistry;
+
+    @Value("${aws.iot.registration.fast-path:true}")
+    private boolean fastPath;
+
+    @Value("${aws.iot.state-reader.threads:4}")
+    private int readerThreads;
+
+    @Value("${aws.iot.state-reader.queue-capacity:1000}")
+    private int readerQueueCapacity;
+
+    private ThreadPoolExecutor readers;
+
+    @PostConstruct
+    public void init() {
+        readers = new ThreadPoolExecutor(readerThreads, readerThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(readerQueueCapacity), new CustomizableThreadFactory("device-state-reader-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        readers.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        readers.shutdownNow();
+    }
+
+    /**
+     * Runs a blocking read on the reader pool, for async pipelines.
+     */
+    public <T> CompletableFuture<T> read(Supplier<T> query) {
+        try {
+            return CompletableFuture.supplyAsync(query, readers);
+        } catch (RejectedExecutionException ree) {
+            log.error("Device state readers saturated, queued: {}", readers.getQueue().size());
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ree);
+            return failed;
+        }
+    }
+
+    /**
+     * Loads the recorded state for the device in the region. When the request carries a different
+     * certificate than the recorded one only the thing creation is kept, with the fast path
+     * disabled nothing is.
+     */
+    public DeviceRegionState load(String deviceName, String region, String certificateId) {
+        DeviceRegionState deviceRegionState = deviceRegionStateRepository.findById(new DeviceRegionStateId(deviceName, region))
+                .orElse(null);
+        if (deviceRegionState == null)
+            return DeviceRegionState.builder()
+                    .deviceName(deviceName)
+                    .region(region)
+                    .certificateId(certificateId)
+                    .build();
+
+        if (!fastPath) {
+            deviceRegionState.setCertificateId(certificateId);
+            deviceRegionState.setThingCreated(false);
+            deviceRegionState.resetCertificate();
+        } else if (certificateId == null || !certificateId.equals(deviceRegionState.getCertificateId())) {
+            log.debug("Certificate changed, thing: {}, region: {}, certId: {}", deviceName, region, certificateId);
+            deviceRegionState.setCertificateId(certificateId);
+            deviceRegionState.resetCertificate();
+        }
+        return deviceRegionState;
+    }
+
+    public DeviceRegionState find(String deviceName, String region) {
+        return deviceRegionStateRepository.findById(new DeviceRegionStateId(deviceName, region))
+                .orElse(null);
+    }
+
+    /**
+     * Records the registered certificate at once, before the attach steps: a registration interrupted
+     * later finds it instead of registering it again.
+     */
+    public void certificateRegistered(DeviceRegionState deviceRegionState, RegisterCertificateResponse registerCertificateResponse) {
+        join(certificateRegisteredAsync(deviceRegionState, registerCertificateResponse));
+    }
+
+    public CompletableFuture<Void> certificateRegisteredAsync(DeviceRegionState deviceRegionState, RegisterCertificateResponse registerCertificateResponse) {
+        deviceRegionState.setCertificateId(registerCertificateResponse.certificateId());
+        deviceRegionState.setCertificateArn(registerCertificateResponse.certificateArn());
+        deviceRegionState.setCertificateStatus("ACTIVE");
+        deviceRegionState.setCertificateRegistered(true);
+        // every region writes the same row
+        CompletableFuture<Void> device = deviceStateWriter.write(Device.builder()
+                .deviceName(deviceRegionState.getDeviceName())
+                .awsDeviceCertId(registerCertificateResponse.certificateId())
+                .awsDeviceCertArn(toRegion(registerCertificateResponse.certificateArn(), iotClientRegistry.getCurrentRegion()))
+                .build());
+        return CompletableFuture.allOf(device, deviceStateWriter.write(deviceRegionState));
+    }
+
+    /**
+     * The certificate as recorded for the device in the region, for a registration AWS answers with
+     * ResourceAlreadyExists; null unless the recorded certificate is the given one.
+     */
+    public RegisterCertificateResponse findRegisteredCertificate(String deviceName, String region, String certificateId) {
+        DeviceRegionState deviceRegionState = find(deviceName, region);
+        if (deviceRegionState == null || deviceRegionState.getCertificateArn() == null || certificateId == null
+                || !certificateId.equals(deviceRegionState.getCertificateId()))
+            return null;
+        return registeredCertificate(deviceRegionState);
+    }
+
+    public void registrationEnded(DeviceRegionState deviceRegionState, Throwable failure) {
+        if (failure == null) {
+            deviceRegionState.setStatus(ProvisioningStatus.PROVISIONED);
+            deviceRegionState.setError(null);
+            return;
+        }
+
+        Throwable cause = AsyncThingService.unwrap(failure);
+        deviceRegionState.setStatus(ProvisioningStatus.FAILED);
+        deviceRegionState.setError(ErrorMessages.truncate(cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage()));
+    }
+
+    public void deprovisioned(DeviceRegionState deviceRegionState) {
+        deviceRegionState.resetCertificate();
+        deviceRegionState.setStatus(ProvisioningStatus.DEPROVISIONED);
+        deviceRegionState.setError(null);
+    }
+
+    public RegisterCertificateResponse registeredCertificate(DeviceRegionState deviceRegionState) {
+        return RegisterCertificateResponse.builder()
+                .certificateId(deviceRegionState.getCertificateId())
+                .certificateArn(deviceRegionState.getCertificateArn())
+                .build();
+    }
+
+    public void save(DeviceRegionState deviceRegionState) {
+        join(deviceStateWriter.write(deviceRegionState));
+    }
+
+    public CompletableFuture<Void> saveAsync(DeviceRegionState deviceRegionState) {
+        return deviceStateWriter.write(deviceRegionState);
+    }
+
+    // devices registered before their state was recorded have no row, nothing to update then
+    public CompletableFuture<Void> certificateStatusChanged(String deviceName, String region, String certificateStatus) {
+        return update(deviceName, region, deviceRegionState -> deviceRegionState.setCertificateStatus(certificateStatus));
+    }
+
+    public CompletableFuture<Void> principalDetached(String deviceName, String region) {
+        return update(deviceName, region, deviceRegionState -> {
+            deviceRegionState.setPrincipalAttached(false);
+            deviceRegionState.setStatus(ProvisioningStatus.REVOKED);
+        });
+    }
+
+    private CompletableFuture<Void> update(String deviceName, String region, Consumer<DeviceRegionState> change) {
+        return read(() -> deviceRegionStateRepository.findById(new DeviceRegionStateId(deviceName, region)))
+                .thenCompose(found -> found
+                        .map(deviceRegionState -> {
+                            change.accept(deviceRegionState);
+                            return deviceStateWriter.write(deviceRegionState);
+                        })
+                        .orElseGet(() -> CompletableFuture.completedFuture(null)));
+    }
+
+    private static void join(CompletableFuture<Void> write) {
+        try {
+            write.join();
+        } catch (CompletionException ce) {
+            if (ce.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ce.getCause();
+            throw ce;
+        }
+    }
+
+    // arn:aws:iot:<region>:<account>:cert/<certId>, certificate ids are the same in every region
+    private static String toRegion(String certificateArn, String region) {
+        String[] parts = certificateArn.split(":", 6);
+        if (region == null || parts.length < 6 || region.equals(parts[3]))
+            return certificateArn;
+
+        parts[3] = region;
+        return String.join(":", parts);
+    }
+}
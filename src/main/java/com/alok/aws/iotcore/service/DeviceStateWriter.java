@@ -0,0 +1,243 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.entity.Device;
+import com.alok.aws.iotcore.entity.DeviceRegionState;
+import com.alok.aws.iotcore.entity.DeviceRegionStateId;
+import com.alok.aws.iotcore.repository.DeviceRegionStateRepository;
+import com.alok.aws.iotcore.repository.DeviceRepository;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceContext;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Group commit for {@link Device} and {@link DeviceRegionState} rows. Writes from concurrent
+ * registrations are queued and upserted by one writer thread, up to batch-size rows per transaction:
+ * the existing rows of a batch are loaded with one query per region, so merges don't select row by
+ * row, and the inserts and updates go out as JDBC batches. The returned futures complete once the
+ * row is committed. A state must carry the version it was read with: one that is stale, or that was
+ * built without reading a row that exists by now, fails with an {@link OptimisticLockException}
+ * and its caller retries from a fresh read. A batch that fails is retried row by row, so one stale row
+ * only fails itself.
+ * Writes are queued from SDK threads too, so queueing never blocks: a write finding the queue full
+ * fails at once with a {@link RejectedExecutionException} and its registration is retried later.
+ * Writes arriving after shutdown fail the same way.
+ */
+@Component
+@Slf4j
+public class DeviceStateWriter {
+
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Autowired
+    private DeviceRegionStateRepository deviceRegionStateRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${aws.iot.state-writer.batch-size:100}")
+    private int batchSize;
+
+    @Value("${aws.iot.state-writer.max-delay-millis:5}")
+    private long maxDelayMillis;
+
+    @Value("${aws.iot.state-writer.queue-capacity:10000}")
+    private int queueCapacity;
+
+    private BlockingQueue<PendingWrite> queue;
+    private TransactionTemplate transactionTemplate;
+    private Thread writer;
+    private volatile boolean stopped;
+
+    @PostConstruct
+    public void init() {
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        writer = new CustomizableThreadFactory("device-state-writer-").newThread(this::run);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // not interrupted, the writer would run its last flush against the database interrupted
+        stopped = true;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        // whatever was queued after the writer stopped, later writes are rejected
+        List<PendingWrite> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (int from = 0; from < remaining.size(); from += batchSize)
+            flush(remaining.subList(from, Math.min(remaining.size(), from + batchSize)));
+    }
+
+    public CompletableFuture<Void> write(Device device) {
+        return enqueue(device);
+    }
+
+    public CompletableFuture<Void> write(DeviceRegionState deviceRegionState) {
+        return enqueue(deviceRegionState);
+    }
+
+    private CompletableFuture<Void> enqueue(Object entity) {
+        PendingWrite pendingWrite = new PendingWrite(entity, new CompletableFuture<>());
+        if (stopped) {
+            rejectStopped(pendingWrite);
+        } else if (!queue.offer(pendingWrite)) {
+            log.error("Device state queue full, write rejected, capacity: {}", queueCapacity);
+            pendingWrite.done.completeExceptionally(new RejectedExecutionException("Device state queue full!"));
+        } else if (stopped && queue.remove(pendingWrite)) {
+            // queued after shutdown drained the queue, nothing would ever write it
+            rejectStopped(pendingWrite);
+        }
+        return pendingWrite.done;
+    }
+
+    private void rejectStopped(PendingWrite pendingWrite) {
+        log.error("Device state writer stopped, write rejected");
+        pendingWrite.done.completeExceptionally(new RejectedExecutionException("Device state writer stopped!"));
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (!stopped) {
+            try {
+                // wakes up now and then to notice the shutdown
+                PendingWrite first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                // waits a little for more rows unless a full batch is already queued
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (batch.size() < batchSize) {
+                    PendingWrite next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null)
+                        break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (!batch.isEmpty())
+                flush(batch);
+            batch.clear();
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        try {
+            upsert(batch);
+            batch.forEach(pendingWrite -> pendingWrite.done.complete(null));
+            return;
+        } catch (RuntimeException rte) {
+            if (batch.size() == 1) {
+                log.error("Device state write failed, error: {}", rte.getMessage());
+                batch.get(0).done.completeExceptionally(rte);
+                return;
+            }
+            log.debug("Device state batch failed, writing {} rows one by one, error: {}", batch.size(), rte.getMessage());
+        }
+
+        for (PendingWrite pendingWrite : batch)
+            flush(Collections.singletonList(pendingWrite));
+    }
+
+    private void upsert(List<PendingWrite> batch) {
+        // a later write of the same row in the batch supersedes the earlier one
+        Map<String, Device> devices = new LinkedHashMap<>();
+        Map<DeviceRegionStateId, DeviceRegionState> deviceRegionStates = new LinkedHashMap<>();
+        for (PendingWrite pendingWrite : batch) {
+            if (pendingWrite.entity instanceof Device) {
+                Device device = (Device) pendingWrite.entity;
+                devices.put(device.getDeviceName(), device);
+            } else {
+                DeviceRegionState deviceRegionState = (DeviceRegionState) pendingWrite.entity;
+                deviceRegionStates.put(new DeviceRegionStateId(deviceRegionState.getDeviceName(), deviceRegionState.getRegion()), deviceRegionState);
+            }
+        }
+
+        Map<DeviceRegionState, DeviceRegionState> merged = new IdentityHashMap<>();
+        Instant now = Instant.now();
+        transactionTemplate.executeWithoutResult(transactionStatus -> {
+            Set<String> existingDevices = devices.isEmpty()
+                    ? Collections.emptySet()
+                    : deviceRepository.findByDeviceNameIn(devices.keySet()).stream()
+                            .map(Device::getDeviceName)
+                            .collect(Collectors.toSet());
+            for (Device device : devices.values()) {
+                if (existingDevices.contains(device.getDeviceName()))
+                    entityManager.merge(device);
+                else
+                    entityManager.persist(device);
+            }
+
+            Map<DeviceRegionStateId, DeviceRegionState> existingStates = loadExisting(deviceRegionStates.keySet());
+            for (Map.Entry<DeviceRegionStateId, DeviceRegionState> entry : deviceRegionStates.entrySet()) {
+                DeviceRegionState deviceRegionState = entry.getValue();
+                DeviceRegionState existing = existingStates.get(entry.getKey());
+                deviceRegionState.setUpdatedAt(now);
+                if (existing == null) {
+                    deviceRegionState.setVersion(null);
+                    deviceRegionState.setCreatedAt(now);
+                    entityManager.persist(deviceRegionState);
+                    continue;
+                }
+
+                // built without reading the row, a registration racing another: it reloads and retries
+                if (deviceRegionState.getVersion() == null)
+                    throw new OptimisticLockException("Device state changed since read, " + entry.getKey(), null, deviceRegionState);
+                if (deviceRegionState.getCreatedAt() == null)
+                    deviceRegionState.setCreatedAt(existing.getCreatedAt() == null ? now : existing.getCreatedAt());
+                merged.put(deviceRegionState, entityManager.merge(deviceRegionState));
+            }
+        });
+
+        // callers keep their object, the next write of it has to carry the new version
+        merged.forEach((deviceRegionState, managed) -> deviceRegionState.setVersion(managed.getVersion()));
+    }
+
+    private Map<DeviceRegionStateId, DeviceRegionState> loadExisting(Set<DeviceRegionStateId> ids) {
+        Map<String, List<String>> deviceNamesByRegion = ids.stream()
+                .collect(Collectors.groupingBy(DeviceRegionStateId::getRegion,
+                        Collectors.mapping(DeviceRegionStateId::getDeviceName, Collectors.toList())));
+
+        Map<DeviceRegionStateId, DeviceRegionState> existing = new HashMap<>();
+        deviceNamesByRegion.forEach((region, deviceNames) -> existing.putAll(
+                deviceRegionStateRepository.findByRegionAndDeviceNameIn(region, deviceNames).stream()
+                        .collect(Collectors.toMap(
+                                deviceRegionState -> new DeviceRegionStateId(deviceRegionState.getDeviceName(), deviceRegionState.getRegion()),
+                                Function.identity()))));
+        return existing;
+    }
+
+    @AllArgsConstructor
+    private static class PendingWrite {
+        private final Object entity;
+        private final CompletableFuture<Void> done;
+    }
+}
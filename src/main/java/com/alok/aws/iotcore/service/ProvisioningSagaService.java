@@ -0,0 +1,309 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.certificate.CertificateFingerprint;
+import com.alok.aws.iotcore.certificate.CertificateValidator;
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.entity.Device;
+import com.alok.aws.iotcore.entity.ProvisioningOperation;
+import com.alok.aws.iotcore.entity.ProvisioningSaga;
+import com.alok.aws.iotcore.entity.SagaStatus;
+import com.alok.aws.iotcore.entity.SagaStep;
+import com.alok.aws.iotcore.entity.SagaStepStatus;
+import com.alok.aws.iotcore.exception.CertificateDoesntExistException;
+import com.alok.aws.iotcore.exception.ErrorMessages;
+import com.alok.aws.iotcore.exception.InvalidRequestException;
+import com.alok.aws.iotcore.model.DeviceRegistrationRequest;
+import com.alok.aws.iotcore.repository.DeviceRepository;
+import com.alok.aws.iotcore.repository.ProvisioningSagaRepository;
+import com.alok.aws.iotcore.resilience.RegionCircuitBreakers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.iot.model.CertificateStatus;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Multi-region registrations and certificate status changes as sagas. The request path only
+ * writes the saga, one outbox row with a step per region, and returns. A single dispatcher thread
+ * then picks up due sagas in batches and runs their pending region steps concurrently, retrying
+ * with backoff. A registration that still fails after the last attempt is compensated in the
+ * regions where it succeeded, so the regions converge either way, and its Device row is deleted.
+ * Status changes can't be undone and are only retried. A compensation that still fails after its
+ * own last attempt leaves the saga FAILED, whatever is left over is found by the reconciliation.
+ * Sagas survive restarts, the dispatcher simply finds them again.
+ */
+@Service
+@Slf4j
+public class ProvisioningSagaService {
+
+    private static final List<SagaStatus> ACTIVE = Arrays.asList(SagaStatus.PENDING, SagaStatus.COMPENSATING);
+    private static final Set<CertificateStatus> NEW_STATUSES = EnumSet.of(CertificateStatus.ACTIVE, CertificateStatus.INACTIVE, CertificateStatus.REVOKED);
+
+    @Autowired
+    private ProvisioningSagaRepository provisioningSagaRepository;
+
+    @Autowired
+    private AsyncThingService asyncThingService;
+
+    @Autowired
+    private ThingService thingService;
+
+    @Autowired
+    private IotClientRegistry iotClientRegistry;
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Autowired
+    private CertificateValidator certificateValidator;
+
+    @Value("${aws.iot.saga.enabled:false}")
+    private boolean enabled;
+
+    @Value("${aws.iot.saga.dispatch-interval-millis:1000}")
+    private long dispatchIntervalMillis;
+
+    @Value("${aws.iot.saga.batch-size:50}")
+    private int batchSize;
+
+    @Value("${aws.iot.saga.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${aws.iot.saga.max-compensation-attempts:8}")
+    private int maxCompensationAttempts;
+
+    @Value("${aws.iot.saga.base-backoff-millis:1000}")
+    private long baseBackoffMillis;
+
+    @Value("${aws.iot.saga.max-backoff-millis:60000}")
+    private long maxBackoffMillis;
+
+    @Value("${aws.iot.saga.workers:16}")
+    private int workerThreads;
+
+    private final AtomicBoolean dispatchRequested = new AtomicBoolean();
+
+    private ScheduledExecutorService dispatcher;
+    private ExecutorService workers;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled)
+            return;
+        dispatcher = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("saga-dispatcher-"));
+        workers = Executors.newFixedThreadPool(workerThreads, new CustomizableThreadFactory("saga-worker-"));
+        dispatcher.scheduleWithFixedDelay(this::dispatch, dispatchIntervalMillis, dispatchIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (dispatcher == null)
+            return;
+        // the running dispatch finishes before the repositories go away and joins its steps, the workers
+        // are idle once it stopped. Sagas still due stay PENDING/COMPENSATING for the next start up
+        dispatcher.shutdown();
+        if (!dispatcher.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Saga dispatcher didn't stop in time, interrupting");
+            dispatcher.shutdownNow();
+            workers.shutdownNow();
+            dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        workers.shutdown();
+    }
+
+    public ProvisioningSaga startRegistration(DeviceRegistrationRequest deviceRegistrationRequest) {
+        // rejected before the saga is recorded, a bad certificate fails the same way in every region
+        certificateValidator.validate(deviceRegistrationRequest);
+
+        return start(ProvisioningSaga.builder()
+                .operation(ProvisioningOperation.REGISTRATION)
+                .deviceName(deviceRegistrationRequest.getDeviceName())
+                .certificatePem(deviceRegistrationRequest.getCertificatePem())
+                .caCertificatePem(deviceRegistrationRequest.getCaCertificatePem()));
+    }
+
+    /**
+     * @throws InvalidRequestException if the status isn't one a certificate can be set to, before the saga is recorded
+     */
+    public ProvisioningSaga startStatusUpdate(String thingName, String newStatus) {
+        if (!NEW_STATUSES.contains(CertificateStatus.fromValue(newStatus)))
+            throw new InvalidRequestException("newStatus must be one of " + NEW_STATUSES + "!");
+
+        return start(ProvisioningSaga.builder()
+                .operation(ProvisioningOperation.STATUS_UPDATE)
+                .deviceName(thingName)
+                .newStatus(newStatus));
+    }
+
+    public Optional<ProvisioningSaga> getSaga(String sagaId) {
+        return provisioningSagaRepository.findById(sagaId);
+    }
+
+    private ProvisioningSaga start(ProvisioningSaga.ProvisioningSagaBuilder sagaBuilder) {
+        Instant now = Instant.now();
+        List<SagaStep> steps = new ArrayList<>();
+        for (String region : iotClientRegistry.getRegions())
+            steps.add(SagaStep.builder()
+                    .region(region)
+                    .status(SagaStepStatus.PENDING)
+                    .build());
+
+        ProvisioningSaga provisioningSaga = provisioningSagaRepository.save(sagaBuilder
+                .sagaId(UUID.randomUUID().toString())
+                .status(SagaStatus.PENDING)
+                .steps(steps)
+                .nextAttemptAt(now)
+                .createdAt(now)
+                .updatedAt(now)
+                .build());
+        log.debug("Saga started, operation: {}, thing: {}, sagaId: {}", provisioningSaga.getOperation(), provisioningSaga.getDeviceName(), provisioningSaga.getSagaId());
+
+        // don't wait for the next poll, several requests arriving together share one dispatch
+        if (dispatcher != null && dispatchRequested.compareAndSet(false, true))
+            dispatcher.execute(this::dispatch);
+        return provisioningSaga;
+    }
+
+    private void dispatch() {
+        dispatchRequested.set(false);
+        try {
+            List<ProvisioningSaga> batch;
+            do {
+                batch = provisioningSagaRepository.findByStatusInAndNextAttemptAtLessThanEqualOrderByNextAttemptAt(
+                        ACTIVE, Instant.now(), PageRequest.of(0, batchSize));
+                List<CompletableFuture<?>> advances = new ArrayList<>(batch.size());
+                for (ProvisioningSaga provisioningSaga : batch)
+                    advances.add(advance(provisioningSaga));
+                CompletableFuture.allOf(advances.toArray(new CompletableFuture<?>[0])).join();
+                provisioningSagaRepository.saveAll(batch);
+            } while (batch.size() == batchSize);
+        } catch (RuntimeException rte) {
+            // keep the scheduled task alive, the sagas are picked up again by the next run
+            log.error("Saga dispatch failed, error: {}", rte.getMessage());
+        }
+    }
+
+    private CompletableFuture<Void> advance(ProvisioningSaga provisioningSaga) {
+        boolean compensating = provisioningSaga.getStatus() == SagaStatus.COMPENSATING;
+        // an outage of a region doesn't use up attempts, its steps are just retried after it
+        AtomicBoolean attemptFailed = new AtomicBoolean();
+        List<CompletableFuture<?>> stepRuns = new ArrayList<>();
+        for (SagaStep sagaStep : provisioningSaga.getSteps()) {
+            // a failed region may hold a partial registration too, deprovision skips regions without this certificate
+            if (compensating && sagaStep.getStatus() != SagaStepStatus.COMPENSATED)
+                stepRuns.add(run(sagaStep, () -> CompletableFuture.runAsync(
+                        () -> thingService.deprovision(provisioningSaga.getDeviceName(), sagaStep.getRegion(),
+                                CertificateFingerprint.certificateId(provisioningSaga.getCertificatePem())), workers),
+                        SagaStepStatus.COMPENSATED, attemptFailed));
+            else if (!compensating && sagaStep.getStatus() == SagaStepStatus.PENDING)
+                stepRuns.add(run(sagaStep, () -> forward(provisioningSaga, sagaStep.getRegion()), SagaStepStatus.DONE, attemptFailed));
+        }
+
+        return CompletableFuture.allOf(stepRuns.toArray(new CompletableFuture<?>[0]))
+                .handle((ignore, throwable) -> {
+                    completeOrRetry(provisioningSaga, compensating, attemptFailed.get());
+                    return null;
+                });
+    }
+
+    private CompletableFuture<Void> forward(ProvisioningSaga provisioningSaga, String region) {
+        if (provisioningSaga.getOperation() == ProvisioningOperation.REGISTRATION)
+            return asyncThingService.provision(new DeviceRegistrationRequest(
+                    provisioningSaga.getDeviceName(),
+                    provisioningSaga.getCertificatePem(),
+                    provisioningSaga.getCaCertificatePem()
+            ), region);
+
+        return CompletableFuture.runAsync(() -> {
+            try {
+                thingService.changeCertStatus(provisioningSaga.getDeviceName(), provisioningSaga.getNewStatus(), region);
+            } catch (CertificateDoesntExistException nothingToChange) {
+                log.debug("Thing doesn't have principal, nothing to change, thing: {}, region: {}", provisioningSaga.getDeviceName(), region);
+            }
+        }, workers);
+    }
+
+    private CompletableFuture<Void> run(SagaStep sagaStep, Callable<CompletableFuture<Void>> step, SagaStepStatus doneStatus, AtomicBoolean attemptFailed) {
+        CompletableFuture<Void> stepRun;
+        try {
+            stepRun = step.call();
+        } catch (Exception e) {
+            stepRun = new CompletableFuture<>();
+            stepRun.completeExceptionally(e);
+        }
+        return stepRun.whenComplete((ignore, throwable) -> {
+            if (throwable == null) {
+                sagaStep.setStatus(doneStatus);
+                sagaStep.setError(null);
+                return;
+            }
+            sagaStep.setError(ErrorMessages.truncate(AsyncThingService.unwrap(throwable).getMessage()));
+            if (!RegionCircuitBreakers.isRegionUnavailable(throwable))
+                attemptFailed.set(true);
+        });
+    }
+
+    private void completeOrRetry(ProvisioningSaga provisioningSaga, boolean compensating, boolean attemptFailed) {
+        SagaStepStatus target = compensating ? SagaStepStatus.COMPENSATED : SagaStepStatus.DONE;
+        provisioningSaga.setUpdatedAt(Instant.now());
+        if (provisioningSaga.getSteps().stream().allMatch(sagaStep -> sagaStep.getStatus() == target)) {
+            provisioningSaga.setStatus(compensating ? SagaStatus.COMPENSATED : SagaStatus.SUCCEEDED);
+            if (compensating)
+                deleteDevice(provisioningSaga);
+            log.debug("Saga {}, thing: {}, sagaId: {}", provisioningSaga.getStatus(), provisioningSaga.getDeviceName(), provisioningSaga.getSagaId());
+            return;
+        }
+
+        String error = provisioningSaga.getSteps().stream()
+                .filter(sagaStep -> sagaStep.getStatus() != target && sagaStep.getError() != null)
+                .map(sagaStep -> sagaStep.getRegion() + ": " + sagaStep.getError())
+                .reduce((a, b) -> a + "; " + b)
+                .orElse(null);
+        provisioningSaga.setError(ErrorMessages.truncate(error));
+        if (attemptFailed)
+            provisioningSaga.setAttempts(provisioningSaga.getAttempts() + 1);
+
+        if (compensating && provisioningSaga.getAttempts() >= maxCompensationAttempts) {
+            log.error("Saga compensation failed, thing: {}, sagaId: {}, error: {}", provisioningSaga.getDeviceName(), provisioningSaga.getSagaId(), error);
+            provisioningSaga.setStatus(SagaStatus.FAILED);
+            return;
+        }
+        if (!compensating && provisioningSaga.getAttempts() >= maxAttempts) {
+            log.error("Saga failed, thing: {}, sagaId: {}, error: {}", provisioningSaga.getDeviceName(), provisioningSaga.getSagaId(), error);
+            if (provisioningSaga.getOperation() == ProvisioningOperation.REGISTRATION) {
+                provisioningSaga.setStatus(SagaStatus.COMPENSATING);
+                provisioningSaga.setAttempts(0);
+                provisioningSaga.setNextAttemptAt(Instant.now());
+            } else {
+                provisioningSaga.setStatus(SagaStatus.FAILED);
+            }
+            return;
+        }
+        provisioningSaga.setNextAttemptAt(Instant.now().plusMillis(backoffMillis(provisioningSaga.getAttempts())));
+    }
+
+    // left in place, CertificateArnCache would keep serving the ARN of the deleted certificate; a row
+    // already pointing at another certificate belongs to a later registration and stays
+    private void deleteDevice(ProvisioningSaga provisioningSaga) {
+        Device device = deviceRepository.findOneByDeviceName(provisioningSaga.getDeviceName());
+        if (device == null || !Objects.equals(device.getAwsDeviceCertId(), CertificateFingerprint.certificateId(provisioningSaga.getCertificatePem())))
+            return;
+        deviceRepository.delete(device);
+        log.debug("Device deleted after compensation, thing: {}, certId: {}", device.getDeviceName(), device.getAwsDeviceCertId());
+    }
+
+    // exponential with full jitter
+    private long backoffMillis(int attempts) {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempts, 20));
+        return ThreadLocalRandom.current().nextLong(baseBackoffMillis, Math.max(baseBackoffMillis, ceiling) + 1);
+    }
+}
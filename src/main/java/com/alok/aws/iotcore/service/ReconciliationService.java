@@ -0,0 +1,599 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.cache.CertificateArnCache;
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.entity.Device;
+import com.alok.aws.iotcore.entity.DeviceRegionState;
+import com.alok.aws.iotcore.entity.FindingKind;
+import com.alok.aws.iotcore.entity.InventoryKind;
+import com.alok.aws.iotcore.entity.JobStatus;
+import com.alok.aws.iotcore.entity.ProvisioningSaga;
+import com.alok.aws.iotcore.entity.ProvisioningStatus;
+import com.alok.aws.iotcore.entity.ReconciliationFinding;
+import com.alok.aws.iotcore.entity.ReconciliationMark;
+import com.alok.aws.iotcore.entity.ReconciliationRun;
+import com.alok.aws.iotcore.entity.SagaStatus;
+import com.alok.aws.iotcore.exception.ErrorMessages;
+import com.alok.aws.iotcore.exception.InvalidRequestException;
+import com.alok.aws.iotcore.exception.JobQueueFullException;
+import com.alok.aws.iotcore.model.ReconciliationRequest;
+import com.alok.aws.iotcore.repository.DeviceRegionStateRepository;
+import com.alok.aws.iotcore.repository.DeviceRepository;
+import com.alok.aws.iotcore.repository.ProvisioningSagaRepository;
+import com.alok.aws.iotcore.repository.ReconciliationFindingRepository;
+import com.alok.aws.iotcore.repository.ReconciliationMarkRepository;
+import com.alok.aws.iotcore.repository.ReconciliationRunRepository;
+import com.alok.aws.iotcore.repository.RegistrationJobRepository;
+import com.alok.aws.iotcore.repository.StatusChangeJobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.iot.IotAsyncClient;
+import software.amazon.awssdk.services.iot.IotClient;
+import software.amazon.awssdk.services.iot.model.Certificate;
+import software.amazon.awssdk.services.iot.model.CertificateStatus;
+import software.amazon.awssdk.services.iot.model.DeleteThingRequest;
+import software.amazon.awssdk.services.iot.model.ListCertificatesRequest;
+import software.amazon.awssdk.services.iot.model.ListCertificatesResponse;
+import software.amazon.awssdk.services.iot.model.ListThingPrincipalsRequest;
+import software.amazon.awssdk.services.iot.model.ListThingPrincipalsResponse;
+import software.amazon.awssdk.services.iot.model.ListThingsRequest;
+import software.amazon.awssdk.services.iot.model.ListThingsResponse;
+import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.iot.model.ThingAttribute;
+import software.amazon.awssdk.services.iot.model.UpdateCertificateRequest;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Diffs the AWS IoT inventory of each region against the Device table, regions in parallel.
+ * <ol>
+ * <li>things are streamed page by page (listThings); every page is marked as seen and looked up in the
+ * Device table, things without a row are orphans, and with principal checks on, things attached to
+ * another certificate than the one of their row are mismatches</li>
+ * <li>certificates are streamed the same way (listCertificates), certificates no row refers to are orphans</li>
+ * <li>Device rows are read in name order, a chunk at a time, rows whose thing or certificate wasn't marked
+ * as seen are missing in the region</li>
+ * </ol>
+ * Only a page or a chunk is ever held in memory, the seen side of the diff is kept as {@link ReconciliationMark}
+ * rows. Registrations running concurrently with a run can show up as missing, runs belong in a maintenance window.
+ * <p>
+ * The account can be shared, so detection never changes anything. Repair has to be enabled with
+ * repair-enabled on top of being requested, and only touches orphans this service left over: those of a
+ * {@link DeviceRegionState} whose registration failed or was compensated, unchanged since the run started,
+ * with no saga or job open. Everything else is only reported.
+ */
+@Service
+@Slf4j
+public class ReconciliationService {
+
+    private static final List<JobStatus> OPEN_JOBS = Arrays.asList(JobStatus.QUEUED, JobStatus.RUNNING);
+    private static final List<SagaStatus> OPEN_SAGAS = Arrays.asList(SagaStatus.PENDING, SagaStatus.COMPENSATING);
+    private static final Set<ProvisioningStatus> LEFT_OVER = EnumSet.of(ProvisioningStatus.FAILED, ProvisioningStatus.DEPROVISIONED);
+    private static final String NOT_LEFT_OVER = "not left over by this service";
+
+    @Autowired
+    private IotClientRegistry iotClientRegistry;
+
+    @Autowired
+    private CertificateArnCache certificateArnCache;
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Autowired
+    private ReconciliationRunRepository reconciliationRunRepository;
+
+    @Autowired
+    private ReconciliationFindingRepository reconciliationFindingRepository;
+
+    @Autowired
+    private ReconciliationMarkRepository reconciliationMarkRepository;
+
+    @Autowired
+    private DeviceRegionStateRepository deviceRegionStateRepository;
+
+    @Autowired
+    private ProvisioningSagaRepository provisioningSagaRepository;
+
+    @Autowired
+    private RegistrationJobRepository registrationJobRepository;
+
+    @Autowired
+    private StatusChangeJobRepository statusChangeJobRepository;
+
+    @Value("${aws.iot.reconciliation.page-size:250}")
+    private int pageSize;
+
+    @Value("${aws.iot.reconciliation.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${aws.iot.reconciliation.concurrency-per-region:8}")
+    private int concurrencyPerRegion;
+
+    @Value("${aws.iot.reconciliation.max-queued-runs:2}")
+    private int maxQueuedRuns;
+
+    @Value("${aws.iot.reconciliation.repair-enabled:false}")
+    private boolean repairEnabled;
+
+    private ThreadPoolExecutor runExecutor;
+    private ExecutorService regionExecutor;
+
+    @PostConstruct
+    public void init() {
+        // one run at a time, it already scans every region in parallel
+        runExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueuedRuns),
+                new CustomizableThreadFactory("reconciliation-run-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        regionExecutor = Executors.newFixedThreadPool(iotClientRegistry.getRegions().size(), new CustomizableThreadFactory("reconciliation-region-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runExecutor.shutdownNow();
+        regionExecutor.shutdownNow();
+    }
+
+    public ReconciliationRun submit(ReconciliationRequest reconciliationRequest) {
+        if (reconciliationRequest == null)
+            reconciliationRequest = new ReconciliationRequest();
+        List<String> regions = validate(reconciliationRequest);
+
+        Instant now = Instant.now();
+        ReconciliationRun reconciliationRun = reconciliationRunRepository.save(ReconciliationRun.builder()
+                .runId(UUID.randomUUID().toString())
+                .regions(String.join(",", regions))
+                .repair(reconciliationRequest.isRepair())
+                .checkPrincipals(reconciliationRequest.isCheckPrincipals())
+                .status(JobStatus.QUEUED)
+                .createdAt(now)
+                .updatedAt(now)
+                .build());
+        schedule(reconciliationRun);
+        return reconciliationRun;
+    }
+
+    public Optional<ReconciliationRun> getRun(String runId) {
+        return reconciliationRunRepository.findById(runId);
+    }
+
+    public List<ReconciliationFinding> getFindings(String runId, long after, int limit) {
+        return reconciliationFindingRepository.findByRunIdAndIdGreaterThanOrderByIdAsc(runId, after, PageRequest.of(0, Math.max(1, Math.min(limit, 1000))));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeRuns() {
+        for (ReconciliationRun reconciliationRun : reconciliationRunRepository.findByStatusInOrderByCreatedAt(Arrays.asList(JobStatus.QUEUED, JobStatus.RUNNING))) {
+            if (reconciliationRun.getStatus() == JobStatus.RUNNING) {
+                // findings of an interrupted run are kept, but its marks are incomplete, a new run starts over
+                log.error("Reconciliation interrupted, runId: {}", reconciliationRun.getRunId());
+                reconciliationMarkRepository.deleteByRunId(reconciliationRun.getRunId());
+                reconciliationRun.setStatus(JobStatus.FAILED);
+                reconciliationRun.setError("Interrupted by shut down!");
+                save(reconciliationRun);
+                continue;
+            }
+
+            try {
+                schedule(reconciliationRun);
+            } catch (JobQueueFullException jqfe) {
+                return;
+            }
+        }
+    }
+
+    private List<String> validate(ReconciliationRequest reconciliationRequest) {
+        if (reconciliationRequest.isRepair() && !repairEnabled)
+            throw new InvalidRequestException("Repair isn't enabled, see aws.iot.reconciliation.repair-enabled!");
+        if (reconciliationRequest.getRegions() == null || reconciliationRequest.getRegions().isEmpty())
+            return iotClientRegistry.getRegions();
+
+        List<String> regions = reconciliationRequest.getRegions().stream()
+                .distinct()
+                .collect(Collectors.toList());
+        if (!iotClientRegistry.getRegions().containsAll(regions))
+            throw new InvalidRequestException("Regions must be some of " + iotClientRegistry.getRegions() + "!");
+        return regions;
+    }
+
+    private void schedule(ReconciliationRun reconciliationRun) {
+        try {
+            runExecutor.execute(() -> run(reconciliationRun));
+        } catch (RejectedExecutionException ree) {
+            log.error("Reconciliation queue full, runId: {}", reconciliationRun.getRunId());
+            throw new JobQueueFullException("Reconciliation queue full!", ree);
+        }
+    }
+
+    private void run(ReconciliationRun reconciliationRun) {
+        log.info("Reconciliation started, runId: {}, regions: {}, repair: {}, checkPrincipals: {}", reconciliationRun.getRunId(),
+                reconciliationRun.getRegions(), reconciliationRun.isRepair(), reconciliationRun.isCheckPrincipals());
+        if (reconciliationRun.isRepair() && !repairEnabled) {
+            // queued before repair was disabled
+            log.info("Repair disabled, only detecting, runId: {}", reconciliationRun.getRunId());
+            reconciliationRun.setRepair(false);
+        }
+        reconciliationRun.setStatus(JobStatus.RUNNING);
+        reconciliationRun.setStartedAt(Instant.now());
+        save(reconciliationRun);
+
+        List<Future<?>> regionRuns = new ArrayList<>();
+        for (String region : reconciliationRun.getRegions().split(","))
+            regionRuns.add(regionExecutor.submit(() -> {
+                reconcile(reconciliationRun, region);
+                return null;
+            }));
+
+        try {
+            for (Future<?> regionRun : regionRuns)
+                regionRun.get();
+            reconciliationRun.setStatus(JobStatus.SUCCEEDED);
+        } catch (InterruptedException ie) {
+            regionRuns.forEach(regionRun -> regionRun.cancel(true));
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException ee) {
+            regionRuns.forEach(regionRun -> regionRun.cancel(true));
+            log.error("Reconciliation failed, runId: {}, error: {}", reconciliationRun.getRunId(), ee.getCause().getMessage());
+            synchronized (this) {
+                reconciliationRun.setStatus(JobStatus.FAILED);
+                reconciliationRun.setError(ErrorMessages.truncate(ee.getCause().getMessage()));
+            }
+        }
+        synchronized (this) {
+            save(reconciliationRun);
+        }
+        log.info("Reconciliation {}, runId: {}, things: {}, certificates: {}, devices: {}, orphanThings: {}, missingThings: {}, " +
+                        "orphanCertificates: {}, missingCertificates: {}, principalMismatches: {}, repaired: {}",
+                reconciliationRun.getStatus(), reconciliationRun.getRunId(), reconciliationRun.getThingsScanned(),
+                reconciliationRun.getCertificatesScanned(), reconciliationRun.getDevicesScanned(), reconciliationRun.getOrphanThings(),
+                reconciliationRun.getMissingThings(), reconciliationRun.getOrphanCertificates(), reconciliationRun.getMissingCertificates(),
+                reconciliationRun.getPrincipalMismatches(), reconciliationRun.getRepaired());
+    }
+
+    private void reconcile(ReconciliationRun reconciliationRun, String region) throws InterruptedException {
+        log.debug("Reconciling region, runId: {}, region: {}", reconciliationRun.getRunId(), region);
+        try {
+            scanThings(reconciliationRun, region);
+            scanCertificates(reconciliationRun, region);
+            scanDevices(reconciliationRun, region);
+        } catch (RuntimeException rte) {
+            throw new IllegalStateException("Reconciliation of " + region + " failed: " + rte.getMessage(), rte);
+        } finally {
+            reconciliationMarkRepository.deleteByRunIdAndRegion(reconciliationRun.getRunId(), region);
+        }
+    }
+
+    private void scanThings(ReconciliationRun reconciliationRun, String region) throws InterruptedException {
+        IotClient iotClient = iotClientRegistry.client(region);
+        Semaphore permits = new Semaphore(concurrencyPerRegion);
+
+        // pages are fetched lazily, one listThings call per iteration
+        for (ListThingsResponse page : iotClient.listThingsPaginator(ListThingsRequest.builder().maxResults(pageSize).build())) {
+            checkInterrupted();
+            List<String> thingNames = page.things().stream()
+                    .map(ThingAttribute::thingName)
+                    .collect(Collectors.toList());
+            if (thingNames.isEmpty())
+                continue;
+
+            mark(reconciliationRun, region, InventoryKind.THING, thingNames);
+            Map<String, Device> devices = deviceRepository.findByDeviceNameIn(thingNames).stream()
+                    .collect(Collectors.toMap(Device::getDeviceName, Function.identity()));
+            Map<String, DeviceRegionState> repairable = Collections.emptyMap();
+            if (reconciliationRun.isRepair()) {
+                List<String> orphans = thingNames.stream()
+                        .filter(thingName -> !devices.containsKey(thingName))
+                        .collect(Collectors.toList());
+                List<DeviceRegionState> thingsCreated = orphans.isEmpty()
+                        ? Collections.<DeviceRegionState>emptyList()
+                        : deviceRegionStateRepository.findByRegionAndDeviceNameIn(region, orphans).stream()
+                        .filter(DeviceRegionState::isThingCreated)
+                        .collect(Collectors.toList());
+                repairable = repairable(reconciliationRun, thingsCreated, DeviceRegionState::getDeviceName);
+            }
+
+            // principals are only listed for the things that need them, concurrently within the page
+            Map<String, CompletableFuture<List<String>>> principals = new LinkedHashMap<>();
+            for (String thingName : thingNames)
+                if (devices.containsKey(thingName) ? reconciliationRun.isCheckPrincipals() : repairable.containsKey(thingName))
+                    principals.put(thingName, listPrincipals(region, thingName, permits));
+
+            List<ReconciliationFinding> findings = new ArrayList<>();
+            for (String thingName : thingNames) {
+                Device device = devices.get(thingName);
+                CompletableFuture<List<String>> thingPrincipals = principals.get(thingName);
+                if (device == null)
+                    findings.add(orphanThing(reconciliationRun, region, thingName, thingPrincipals, repairable.get(thingName), iotClient));
+                else if (thingPrincipals != null)
+                    checkPrincipal(reconciliationRun, region, device, thingPrincipals).ifPresent(findings::add);
+            }
+            record(reconciliationRun, thingNames.size(), 0, 0, findings);
+        }
+    }
+
+    private void scanCertificates(ReconciliationRun reconciliationRun, String region) throws InterruptedException {
+        IotClient iotClient = iotClientRegistry.client(region);
+
+        for (ListCertificatesResponse page : iotClient.listCertificatesPaginator(ListCertificatesRequest.builder().pageSize(pageSize).build())) {
+            checkInterrupted();
+            List<Certificate> certificates = page.certificates();
+            if (certificates.isEmpty())
+                continue;
+
+            List<String> certificateIds = certificates.stream()
+                    .map(Certificate::certificateId)
+                    .collect(Collectors.toList());
+            mark(reconciliationRun, region, InventoryKind.CERTIFICATE, certificateIds);
+            Set<String> knownCertificateIds = deviceRepository.findByAwsDeviceCertIdIn(certificateIds).stream()
+                    .map(Device::getAwsDeviceCertId)
+                    .collect(Collectors.toSet());
+            Map<String, DeviceRegionState> repairable = Collections.emptyMap();
+            if (reconciliationRun.isRepair()) {
+                List<String> orphans = certificateIds.stream()
+                        .filter(certificateId -> !knownCertificateIds.contains(certificateId))
+                        .collect(Collectors.toList());
+                repairable = repairable(reconciliationRun, orphans.isEmpty()
+                        ? Collections.<DeviceRegionState>emptyList()
+                        : deviceRegionStateRepository.findByRegionAndCertificateIdIn(region, orphans), DeviceRegionState::getCertificateId);
+            }
+
+            List<ReconciliationFinding> findings = new ArrayList<>();
+            for (Certificate certificate : certificates)
+                if (!knownCertificateIds.contains(certificate.certificateId()))
+                    findings.add(orphanCertificate(reconciliationRun, region, certificate, repairable.get(certificate.certificateId()), iotClient));
+            record(reconciliationRun, 0, certificates.size(), 0, findings);
+        }
+    }
+
+    private void scanDevices(ReconciliationRun reconciliationRun, String region) throws InterruptedException {
+        String after = "";
+        for (List<Device> chunk = nextChunk(after); !chunk.isEmpty(); chunk = nextChunk(after)) {
+            checkInterrupted();
+            List<String> deviceNames = chunk.stream()
+                    .map(Device::getDeviceName)
+                    .collect(Collectors.toList());
+            List<String> certificateIds = chunk.stream()
+                    .map(Device::getAwsDeviceCertId)
+                    .filter(Objects::nonNull)
+                    .distinct()
+                    .collect(Collectors.toList());
+            Set<String> seenThings = marked(reconciliationRun, region, InventoryKind.THING, deviceNames);
+            Set<String> seenCertificates = marked(reconciliationRun, region, InventoryKind.CERTIFICATE, certificateIds);
+
+            List<ReconciliationFinding> findings = new ArrayList<>();
+            for (Device device : chunk) {
+                if (!seenThings.contains(device.getDeviceName()))
+                    findings.add(finding(reconciliationRun, region, FindingKind.MISSING_THING, device.getDeviceName(), device.getAwsDeviceCertId(), null, false));
+                if (device.getAwsDeviceCertId() != null && !seenCertificates.contains(device.getAwsDeviceCertId()))
+                    findings.add(finding(reconciliationRun, region, FindingKind.MISSING_CERTIFICATE, device.getDeviceName(), device.getAwsDeviceCertId(), null, false));
+            }
+            record(reconciliationRun, 0, 0, chunk.size(), findings);
+            after = deviceNames.get(deviceNames.size() - 1);
+        }
+    }
+
+    private List<Device> nextChunk(String after) {
+        return deviceRepository.findByDeviceNameGreaterThanOrderByDeviceNameAsc(after, PageRequest.of(0, chunkSize));
+    }
+
+    private CompletableFuture<List<String>> listPrincipals(String region, String thingName, Semaphore permits) throws InterruptedException {
+        permits.acquire();
+        IotAsyncClient iotAsyncClient = iotClientRegistry.asyncClient(region);
+        CompletableFuture<ListThingPrincipalsResponse> response;
+        try {
+            response = iotAsyncClient.listThingPrincipals(ListThingPrincipalsRequest.builder()
+                    .thingName(thingName)
+                    .build());
+        } catch (RuntimeException rte) {
+            permits.release();
+            throw rte;
+        }
+        return response
+                .whenComplete((listThingPrincipalsResponse, throwable) -> permits.release())
+                .thenApply(listThingPrincipalsResponse -> listThingPrincipalsResponse.hasPrincipals()
+                        ? listThingPrincipalsResponse.principals()
+                        : Collections.<String>emptyList());
+    }
+
+    private ReconciliationFinding orphanThing(ReconciliationRun reconciliationRun, String region, String thingName,
+                                              CompletableFuture<List<String>> thingPrincipals, DeviceRegionState deviceRegionState,
+                                              IotClient iotClient) throws InterruptedException {
+        if (thingPrincipals == null || deviceRegionState == null)
+            return finding(reconciliationRun, region, FindingKind.ORPHAN_THING, thingName, null,
+                    reconciliationRun.isRepair() ? "Not deleted, " + NOT_LEFT_OVER : null, false);
+
+        List<String> principals;
+        try {
+            principals = thingPrincipals.get();
+        } catch (ExecutionException ee) {
+            return finding(reconciliationRun, region, FindingKind.ORPHAN_THING, thingName, null,
+                    "Listing principals failed: " + ee.getCause().getMessage(), false);
+        }
+        // a thing attached to a certificate may still be in use, only bare things are deleted
+        if (!principals.isEmpty())
+            return finding(reconciliationRun, region, FindingKind.ORPHAN_THING, thingName, null,
+                    "Not deleted, attached to: " + principals, false);
+
+        try {
+            // the version check fails if a registration picked the thing up since it was read; updatedAt is
+            // left alone, the certificate of the row is still repairable in this run
+            deviceRegionState.setThingCreated(false);
+            deviceRegionStateRepository.save(deviceRegionState);
+        } catch (RuntimeException rte) {
+            return finding(reconciliationRun, region, FindingKind.ORPHAN_THING, thingName, null, "Not deleted, changed: " + rte.getMessage(), false);
+        }
+        try {
+            iotClient.deleteThing(DeleteThingRequest.builder()
+                    .thingName(thingName)
+                    .build());
+            certificateArnCache.evict(region, thingName);
+            log.debug("Orphan thing deleted, thing: {}, region: {}", thingName, region);
+            return finding(reconciliationRun, region, FindingKind.ORPHAN_THING, thingName, null, "Deleted", true);
+        } catch (ResourceNotFoundException rnf) {
+            return finding(reconciliationRun, region, FindingKind.ORPHAN_THING, thingName, null, "Already deleted", true);
+        } catch (RuntimeException rte) {
+            log.error("Orphan thing deletion failed, thing: {}, region: {}, error: {}", thingName, region, rte.getMessage());
+            return finding(reconciliationRun, region, FindingKind.ORPHAN_THING, thingName, null, "Deletion failed: " + rte.getMessage(), false);
+        }
+    }
+
+    private Optional<ReconciliationFinding> checkPrincipal(ReconciliationRun reconciliationRun, String region, Device device,
+                                                           CompletableFuture<List<String>> thingPrincipals) throws InterruptedException {
+        List<String> certificateIds;
+        try {
+            certificateIds = thingPrincipals.get().stream()
+                    .filter(principal -> principal.contains(":cert/"))
+                    .map(principal -> principal.substring(principal.lastIndexOf('/') + 1))
+                    .collect(Collectors.toList());
+        } catch (ExecutionException ee) {
+            // the thing can have been deleted since it was listed
+            log.error("Listing thing principals failed, thing: {}, region: {}, error: {}", device.getDeviceName(), region, ee.getCause().getMessage());
+            return Optional.empty();
+        }
+
+        // no certificate at all is how a revoked device is left
+        if (certificateIds.isEmpty() || certificateIds.contains(device.getAwsDeviceCertId()))
+            return Optional.empty();
+
+        return Optional.of(finding(reconciliationRun, region, FindingKind.PRINCIPAL_MISMATCH, device.getDeviceName(), device.getAwsDeviceCertId(),
+                "Attached to: " + certificateIds, false));
+    }
+
+    private ReconciliationFinding orphanCertificate(ReconciliationRun reconciliationRun, String region, Certificate certificate,
+                                                    DeviceRegionState deviceRegionState, IotClient iotClient) {
+        String detail = "Status: " + certificate.statusAsString();
+        // deactivating is reversible, orphan certificates are never deleted
+        if (!reconciliationRun.isRepair() || certificate.status() != CertificateStatus.ACTIVE)
+            return finding(reconciliationRun, region, FindingKind.ORPHAN_CERTIFICATE, null, certificate.certificateId(), detail, false);
+        if (deviceRegionState == null || certificate.creationDate() == null || !certificate.creationDate().isBefore(reconciliationRun.getStartedAt()))
+            return finding(reconciliationRun, region, FindingKind.ORPHAN_CERTIFICATE, null, certificate.certificateId(),
+                    detail + ", not deactivated, " + NOT_LEFT_OVER, false);
+
+        try {
+            iotClient.updateCertificate(UpdateCertificateRequest.builder()
+                    .certificateId(certificate.certificateId())
+                    .newStatus(CertificateStatus.INACTIVE)
+                    .build());
+            log.debug("Orphan certificate deactivated, certId: {}, region: {}", certificate.certificateId(), region);
+            return finding(reconciliationRun, region, FindingKind.ORPHAN_CERTIFICATE, null, certificate.certificateId(), "Deactivated", true);
+        } catch (RuntimeException rte) {
+            log.error("Orphan certificate deactivation failed, certId: {}, region: {}, error: {}", certificate.certificateId(), region, rte.getMessage());
+            return finding(reconciliationRun, region, FindingKind.ORPHAN_CERTIFICATE, null, certificate.certificateId(),
+                    detail + ", deactivation failed: " + rte.getMessage(), false);
+        }
+    }
+
+    // the region states, by key, whose orphans may be repaired: registrations that failed or were compensated,
+    // not changed since the run started and not in the hands of an open saga or job
+    private Map<String, DeviceRegionState> repairable(ReconciliationRun reconciliationRun, List<DeviceRegionState> deviceRegionStates,
+                                                      Function<DeviceRegionState, String> key) {
+        if (deviceRegionStates.isEmpty())
+            return Collections.emptyMap();
+        // jobs don't index their devices, while one is open nothing is repaired
+        if (!registrationJobRepository.findByStatusInOrderByCreatedAt(OPEN_JOBS).isEmpty()
+                || !statusChangeJobRepository.findByStatusInOrderByCreatedAt(OPEN_JOBS).isEmpty())
+            return Collections.emptyMap();
+
+        Set<String> openSagas = provisioningSagaRepository.findByDeviceNameInAndStatusIn(deviceRegionStates.stream()
+                        .map(DeviceRegionState::getDeviceName)
+                        .collect(Collectors.toSet()), OPEN_SAGAS).stream()
+                .map(ProvisioningSaga::getDeviceName)
+                .collect(Collectors.toSet());
+        return deviceRegionStates.stream()
+                .filter(deviceRegionState -> LEFT_OVER.contains(deviceRegionState.getStatus()))
+                .filter(deviceRegionState -> deviceRegionState.getUpdatedAt() != null
+                        && deviceRegionState.getUpdatedAt().isBefore(reconciliationRun.getStartedAt()))
+                .filter(deviceRegionState -> !openSagas.contains(deviceRegionState.getDeviceName()))
+                .collect(Collectors.toMap(key, Function.identity(), (first, second) -> first));
+    }
+
+    private void mark(ReconciliationRun reconciliationRun, String region, InventoryKind kind, List<String> markKeys) {
+        reconciliationMarkRepository.saveAll(markKeys.stream()
+                .map(markKey -> ReconciliationMark.builder()
+                        .runId(reconciliationRun.getRunId())
+                        .region(region)
+                        .kind(kind)
+                        .markKey(markKey)
+                        .build())
+                .collect(Collectors.toList()));
+    }
+
+    private Set<String> marked(ReconciliationRun reconciliationRun, String region, InventoryKind kind, List<String> markKeys) {
+        if (markKeys.isEmpty())
+            return Collections.emptySet();
+
+        return reconciliationMarkRepository.findByRunIdAndRegionAndKindAndMarkKeyIn(reconciliationRun.getRunId(), region, kind, markKeys).stream()
+                .map(ReconciliationMark::getMarkKey)
+                .collect(Collectors.toSet());
+    }
+
+    private static ReconciliationFinding finding(ReconciliationRun reconciliationRun, String region, FindingKind kind,
+                                                 String thingName, String certificateId, String detail, boolean repaired) {
+        return ReconciliationFinding.builder()
+                .runId(reconciliationRun.getRunId())
+                .region(region)
+                .kind(kind)
+                .thingName(thingName)
+                .certificateId(certificateId)
+                .detail(ErrorMessages.truncate(detail))
+                .repaired(repaired)
+                .createdAt(Instant.now())
+                .build();
+    }
+
+    // region threads share the run, its totals are updated and saved one page at a time
+    private synchronized void record(ReconciliationRun reconciliationRun, long things, long certificates, long devices,
+                                     List<ReconciliationFinding> findings) {
+        reconciliationFindingRepository.saveAll(findings);
+
+        reconciliationRun.setThingsScanned(reconciliationRun.getThingsScanned() + things);
+        reconciliationRun.setCertificatesScanned(reconciliationRun.getCertificatesScanned() + certificates);
+        reconciliationRun.setDevicesScanned(reconciliationRun.getDevicesScanned() + devices);
+        for (ReconciliationFinding finding : findings) {
+            switch (finding.getKind()) {
+                case ORPHAN_THING:
+                    reconciliationRun.setOrphanThings(reconciliationRun.getOrphanThings() + 1);
+                    break;
+                case MISSING_THING:
+                    reconciliationRun.setMissingThings(reconciliationRun.getMissingThings() + 1);
+                    break;
+                case ORPHAN_CERTIFICATE:
+                    reconciliationRun.setOrphanCertificates(reconciliationRun.getOrphanCertificates() + 1);
+                    break;
+                case MISSING_CERTIFICATE:
+                    reconciliationRun.setMissingCertificates(reconciliationRun.getMissingCertificates() + 1);
+                    break;
+                case PRINCIPAL_MISMATCH:
+                    reconciliationRun.setPrincipalMismatches(reconciliationRun.getPrincipalMismatches() + 1);
+                    break;
+            }
+            if (finding.isRepaired())
+                reconciliationRun.setRepaired(reconciliationRun.getRepaired() + 1);
+        }
+        save(reconciliationRun);
+    }
+
+    private void save(ReconciliationRun reconciliationRun) {
+        reconciliationRun.setUpdatedAt(Instant.now());
+        reconciliationRunRepository.save(reconciliationRun);
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException("Reconciliation cancelled!");
+    }
+}
@@ -0,0 +1,162 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.configuration.IotResilienceProperties;
+import com.alok.aws.iotcore.entity.RegionReplayTask;
+import com.alok.aws.iotcore.entity.ProvisioningOperation;
+import com.alok.aws.iotcore.exception.CertificateDoesntExistException;
+import com.alok.aws.iotcore.exception.ErrorMessages;
+import com.alok.aws.iotcore.exception.ThingDoesntExistException;
+import com.alok.aws.iotcore.model.DeviceRegistrationRequest;
+import com.alok.aws.iotcore.repository.RegionReplayTaskRepository;
+import com.alok.aws.iotcore.resilience.RegionCircuitBreakers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work a region rejected while its circuit breaker was open. It is kept per region in arrival
+ * order and replayed once the breaker lets calls through again, so e.g. a revoke issued during an
+ * outage still reaches that region. The first replayed call of a region doubles as the breaker's
+ * probe.
+ */
+@Service
+@Slf4j
+public class RegionReplayService {
+
+    @Autowired
+    private RegionReplayTaskRepository regionReplayTaskRepository;
+
+    @Autowired
+    private RegionCircuitBreakers regionCircuitBreakers;
+
+    @Autowired
+    private IotClientRegistry iotClientRegistry;
+
+    @Autowired
+    private IotResilienceProperties iotResilienceProperties;
+
+    @Autowired
+    private ThingService thingService;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        long intervalMillis = iotResilienceProperties.getReplay().getIntervalMillis();
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("region-replay-"));
+        scheduler.scheduleWithFixedDelay(this::replay, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    // a device retrying its registration during an outage keeps a single task, with its latest certificate
+    public void deferRegistration(String region, DeviceRegistrationRequest deviceRegistrationRequest) {
+        RegionReplayTask regionReplayTask = pendingTask(region, ProvisioningOperation.REGISTRATION, deviceRegistrationRequest.getDeviceName());
+        regionReplayTask.setCertificatePem(deviceRegistrationRequest.getCertificatePem());
+        regionReplayTask.setCaCertificatePem(deviceRegistrationRequest.getCaCertificatePem());
+        save(regionReplayTask);
+        log.debug("Registration deferred, thing: {}, region: {}", deviceRegistrationRequest.getDeviceName(), region);
+    }
+
+    public void deferStatusUpdate(String region, String thingName, String newStatus) {
+        RegionReplayTask regionReplayTask = pendingTask(region, ProvisioningOperation.STATUS_UPDATE, thingName);
+        regionReplayTask.setNewStatus(newStatus);
+        save(regionReplayTask);
+        log.debug("Certificate status change deferred, thing: {}, region: {}, newStatus: {}", thingName, region, newStatus);
+    }
+
+    private RegionReplayTask pendingTask(String region, ProvisioningOperation operation, String deviceName) {
+        RegionReplayTask regionReplayTask = regionReplayTaskRepository.findFirstByRegionAndOperationAndDeviceName(region, operation, deviceName);
+        if (regionReplayTask != null)
+            return regionReplayTask;
+
+        return RegionReplayTask.builder()
+                .region(region)
+                .operation(operation)
+                .deviceName(deviceName)
+                .createdAt(Instant.now())
+                .build();
+    }
+
+    private void replay() {
+        for (String region : iotClientRegistry.getRegions()) {
+            try {
+                replay(region);
+            } catch (RuntimeException rte) {
+                // keep the scheduled task alive, the next run retries
+                log.error("Replay failed, region: {}, error: {}", region, rte.getMessage());
+            }
+        }
+    }
+
+    // batch after batch while every task of the batch went through, failed tasks wait for the next run
+    private void replay(String region) {
+        boolean drained = true;
+        while (drained && !regionCircuitBreakers.isOpen(region)) {
+            List<RegionReplayTask> regionReplayTasks = regionReplayTaskRepository.findByRegionOrderById(region,
+                    PageRequest.of(0, iotResilienceProperties.getReplay().getBatchSize()));
+            if (regionReplayTasks.isEmpty())
+                return;
+
+            for (RegionReplayTask regionReplayTask : regionReplayTasks) {
+                ReplayOutcome replayOutcome = replay(regionReplayTask);
+                if (replayOutcome == ReplayOutcome.REGION_UNAVAILABLE)
+                    return;
+                drained &= replayOutcome == ReplayOutcome.DONE;
+            }
+        }
+    }
+
+    private ReplayOutcome replay(RegionReplayTask regionReplayTask) {
+        try {
+            if (regionReplayTask.getOperation() == ProvisioningOperation.REGISTRATION)
+                thingService.provision(new DeviceRegistrationRequest(
+                        regionReplayTask.getDeviceName(),
+                        regionReplayTask.getCertificatePem(),
+                        regionReplayTask.getCaCertificatePem()
+                ), regionReplayTask.getRegion());
+            else
+                thingService.changeCertStatus(regionReplayTask.getDeviceName(), regionReplayTask.getNewStatus(), regionReplayTask.getRegion());
+        } catch (ThingDoesntExistException | CertificateDoesntExistException nothingToChange) {
+            log.debug("Nothing to replay, thing: {}, region: {}", regionReplayTask.getDeviceName(), regionReplayTask.getRegion());
+        } catch (RuntimeException rte) {
+            if (RegionCircuitBreakers.isRegionUnavailable(rte))
+                return ReplayOutcome.REGION_UNAVAILABLE;
+
+            regionReplayTask.setAttempts(regionReplayTask.getAttempts() + 1);
+            regionReplayTask.setError(ErrorMessages.truncate(rte.getMessage()));
+            if (regionReplayTask.getAttempts() < iotResilienceProperties.getReplay().getMaxAttempts()) {
+                save(regionReplayTask);
+                return ReplayOutcome.RETAINED;
+            }
+            log.error("Replay given up, thing: {}, region: {}, operation: {}, error: {}", regionReplayTask.getDeviceName(),
+                    regionReplayTask.getRegion(), regionReplayTask.getOperation(), rte.getMessage());
+        }
+        regionReplayTaskRepository.delete(regionReplayTask);
+        return ReplayOutcome.DONE;
+    }
+
+    private void save(RegionReplayTask regionReplayTask) {
+        regionReplayTask.setUpdatedAt(Instant.now());
+        regionReplayTaskRepository.save(regionReplayTask);
+    }
+
+
+    private enum ReplayOutcome {
+        DONE, RETAINED, REGION_UNAVAILABLE
+    }
+}
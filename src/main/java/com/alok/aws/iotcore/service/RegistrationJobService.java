@@ -0,0 +1,159 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.concurrent.FanOutResult;
+import com.alok.aws.iotcore.entity.JobStatus;
+import com.alok.aws.iotcore.entity.RegistrationJob;
+import com.alok.aws.iotcore.exception.ErrorMessages;
+import com.alok.aws.iotcore.exception.JobQueueFullException;
+import com.alok.aws.iotcore.model.DeviceRegistrationRequest;
+import com.alok.aws.iotcore.repository.RegistrationJobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs registrations off the servlet threads. Jobs are persisted before they are queued so that
+ * anything still QUEUED or RUNNING when the application stopped is picked up again on start up.
+ */
+@Service
+@Slf4j
+public class RegistrationJobService {
+
+    private static final long RESUME_RETRY_MILLIS = 100;
+
+    @Autowired
+    private AsyncThingService asyncThingService;
+
+    @Autowired
+    private RegistrationJobRepository registrationJobRepository;
+
+    @Value("${aws.iot.registration.jobs.threads:4}")
+    private int threads;
+
+    @Value("${aws.iot.registration.jobs.queue-capacity:1000}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("registration-job-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.prestartAllCoreThreads();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // whatever is still queued stays persisted as QUEUED and is resumed on next start up
+        executor.shutdownNow();
+    }
+
+    public RegistrationJob submit(DeviceRegistrationRequest deviceRegistrationRequest) {
+        Instant now = Instant.now();
+        RegistrationJob registrationJob = registrationJobRepository.save(RegistrationJob.builder()
+                .jobId(UUID.randomUUID().toString())
+                .deviceName(deviceRegistrationRequest == null ? null : deviceRegistrationRequest.getDeviceName())
+                .certificatePem(deviceRegistrationRequest == null ? null : deviceRegistrationRequest.getCertificatePem())
+                .caCertificatePem(deviceRegistrationRequest == null ? null : deviceRegistrationRequest.getCaCertificatePem())
+                .status(JobStatus.QUEUED)
+                .createdAt(now)
+                .updatedAt(now)
+                .build());
+
+        try {
+            executor.execute(() -> run(registrationJob));
+        } catch (RejectedExecutionException ree) {
+            log.error("Registration job queue full, thing: {}, jobId: {}", registrationJob.getDeviceName(), registrationJob.getJobId());
+            registrationJobRepository.delete(registrationJob);
+            throw new JobQueueFullException("Registration job queue full!", ree);
+        }
+        log.debug("Registration job queued, thing: {}, jobId: {}", registrationJob.getDeviceName(), registrationJob.getJobId());
+        return registrationJob;
+    }
+
+    public Optional<RegistrationJob> getJob(String jobId) {
+        return registrationJobRepository.findById(jobId);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeJobs() {
+        List<RegistrationJob> pendingJobs = registrationJobRepository.findByStatusInOrderByCreatedAt(
+                Arrays.asList(JobStatus.QUEUED, JobStatus.RUNNING));
+        if (pendingJobs.isEmpty())
+            return;
+
+        log.info("Resuming registration jobs, count: {}", pendingJobs.size());
+        Thread resumer = new Thread(() -> {
+            try {
+                for (RegistrationJob registrationJob : pendingJobs) {
+                    // a job the full queue rejects stays QUEUED and is offered again once the queue made room
+                    while (!resume(registrationJob))
+                        Thread.sleep(RESUME_RETRY_MILLIS);
+                }
+            } catch (RejectedExecutionException ree) {
+                log.info("Registration job executor shut down, remaining jobs are resumed on next start up");
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }, "registration-job-resume");
+        resumer.setDaemon(true);
+        resumer.start();
+    }
+
+    private boolean resume(RegistrationJob registrationJob) {
+        try {
+            executor.execute(() -> run(registrationJob));
+            return true;
+        } catch (RejectedExecutionException ree) {
+            if (executor.isShutdown())
+                throw ree;
+            log.debug("Registration job queue full, retrying resume, thing: {}, jobId: {}", registrationJob.getDeviceName(), registrationJob.getJobId());
+            return false;
+        }
+    }
+
+    private void run(RegistrationJob registrationJob) {
+        updateStatus(registrationJob, JobStatus.RUNNING, null);
+        try {
+            FanOutResult fanOutResult = asyncThingService.createThingAndRegisterCertificateAllRegions(new DeviceRegistrationRequest(
+                    registrationJob.getDeviceName(),
+                    registrationJob.getCertificatePem(),
+                    registrationJob.getCaCertificatePem()
+            )).join();
+
+            if (fanOutResult.isSuccessful())
+                updateStatus(registrationJob, JobStatus.SUCCEEDED, null);
+            else
+                updateStatus(registrationJob, JobStatus.FAILED, String.join("; ", fanOutResult.errors()));
+        } catch (RuntimeException rte) {
+            log.error("Registration job failed, thing: {}, jobId: {}, error: {}", registrationJob.getDeviceName(), registrationJob.getJobId(), rte.getMessage());
+            updateStatus(registrationJob, JobStatus.FAILED, rte.getMessage());
+        }
+    }
+
+    private void updateStatus(RegistrationJob registrationJob, JobStatus status, String error) {
+        log.debug("Registration job {}, thing: {}, jobId: {}", status, registrationJob.getDeviceName(), registrationJob.getJobId());
+        registrationJob.setStatus(status);
+        registrationJob.setError(ErrorMessages.truncate(error));
+        registrationJob.setUpdatedAt(Instant.now());
+        registrationJobRepository.save(registrationJob);
+    }
+}
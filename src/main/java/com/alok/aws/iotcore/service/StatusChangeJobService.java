@@ -0,0 +1,248 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.concurrent.RegionFanOut;
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.entity.JobStatus;
+import com.alok.aws.iotcore.entity.StatusChangeJob;
+import com.alok.aws.iotcore.exception.CertificateDoesntExistException;
+import com.alok.aws.iotcore.exception.ErrorMessages;
+import com.alok.aws.iotcore.exception.InvalidRequestException;
+import com.alok.aws.iotcore.exception.JobQueueFullException;
+import com.alok.aws.iotcore.model.BulkStatusChangeRequest;
+import com.alok.aws.iotcore.repository.StatusChangeJobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Fleet wide certificate status changes (mass revoke/deactivate) over a list of names or a query over
+ * the Device rows, see {@link DeviceInventoryService#findDeviceNames}. Devices are taken in name order,
+ * one chunk at a time, and each device is updated in all regions in parallel on a bounded worker
+ * pool. Progress is saved after every chunk so an interrupted job resumes after the last chunk.
+ */
+@Service
+@Slf4j
+public class StatusChangeJobService {
+
+    private static final Set<String> STATUSES = new HashSet<>(Arrays.asList("ACTIVE", "INACTIVE", "REVOKED"));
+
+    @Autowired
+    private ThingService thingService;
+
+    @Autowired
+    private RegionFanOut regionFanOut;
+
+    @Autowired
+    private IotClientRegistry iotClientRegistry;
+
+    @Autowired
+    private DeviceInventoryService deviceInventoryService;
+
+    @Autowired
+    private StatusChangeJobRepository statusChangeJobRepository;
+
+    @Value("${aws.iot.status-change.concurrency-per-region:16}")
+    private int concurrencyPerRegion;
+
+    @Value("${aws.iot.status-change.chunk-size:200}")
+    private int chunkSize;
+
+    @Value("${aws.iot.status-change.max-queued-jobs:10}")
+    private int maxQueuedJobs;
+
+    private ThreadPoolExecutor jobExecutor;
+    private ExecutorService workers;
+
+    @PostConstruct
+    public void init() {
+        // one job at a time, it already uses the whole worker pool
+        jobExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueuedJobs),
+                new CustomizableThreadFactory("status-change-job-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        workers = Executors.newFixedThreadPool(concurrencyPerRegion * iotClientRegistry.getRegions().size(), new CustomizableThreadFactory("status-change-worker-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // RUNNING jobs stay RUNNING in the DB and are resumed from their last chunk on next start up
+        jobExecutor.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    public StatusChangeJob submit(BulkStatusChangeRequest bulkStatusChangeRequest) {
+        validate(bulkStatusChangeRequest);
+
+        Instant now = Instant.now();
+        StatusChangeJob statusChangeJob = statusChangeJobRepository.save(StatusChangeJob.builder()
+                .jobId(UUID.randomUUID().toString())
+                .newStatus(bulkStatusChangeRequest.getNewStatus())
+                .deviceNames(bulkStatusChangeRequest.getDeviceNames() == null ? null : bulkStatusChangeRequest.getDeviceNames().stream()
+                        .filter(Objects::nonNull)
+                        .distinct()
+                        .sorted()
+                        .collect(Collectors.joining("\n")))
+                .deviceNamePrefix(bulkStatusChangeRequest.getDeviceNamePrefix())
+                .currentStatus(bulkStatusChangeRequest.getCurrentStatus())
+                .filterRegion(bulkStatusChangeRequest.getRegion())
+                .registeredFrom(bulkStatusChangeRequest.getRegisteredFrom())
+                .registeredTo(bulkStatusChangeRequest.getRegisteredTo())
+                .status(JobStatus.QUEUED)
+                .createdAt(now)
+                .updatedAt(now)
+                .build());
+        schedule(statusChangeJob);
+        return statusChangeJob;
+    }
+
+    public Optional<StatusChangeJob> getJob(String jobId) {
+        return statusChangeJobRepository.findById(jobId);
+    }
+
+    public Optional<StatusChangeJob> resume(String jobId) {
+        return statusChangeJobRepository.findById(jobId)
+                .map(statusChangeJob -> {
+                    if (statusChangeJob.getStatus() != JobStatus.FAILED)
+                        return statusChangeJob;
+
+                    statusChangeJob.setStatus(JobStatus.QUEUED);
+                    statusChangeJob.setUpdatedAt(Instant.now());
+                    statusChangeJobRepository.save(statusChangeJob);
+                    schedule(statusChangeJob);
+                    return statusChangeJob;
+                });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeJobs() {
+        for (StatusChangeJob statusChangeJob : statusChangeJobRepository.findByStatusInOrderByCreatedAt(Arrays.asList(JobStatus.QUEUED, JobStatus.RUNNING))) {
+            log.info("Resuming status change job, jobId: {}, after: {}", statusChangeJob.getJobId(), statusChangeJob.getLastDeviceName());
+            try {
+                schedule(statusChangeJob);
+            } catch (JobQueueFullException jqfe) {
+                // stays QUEUED in the DB, picked up on a later start up or resume
+                return;
+            }
+        }
+    }
+
+    private void validate(BulkStatusChangeRequest bulkStatusChangeRequest) {
+        if (bulkStatusChangeRequest == null || !STATUSES.contains(bulkStatusChangeRequest.getNewStatus()))
+            throw new InvalidRequestException("NewStatus must be one of " + STATUSES + "!");
+        if ((bulkStatusChangeRequest.getDeviceNames() == null) == (bulkStatusChangeRequest.getDeviceNamePrefix() == null))
+            throw new InvalidRequestException("Exactly one of DeviceNames or DeviceNamePrefix is required!");
+        boolean filtered = bulkStatusChangeRequest.getCurrentStatus() != null || bulkStatusChangeRequest.getRegion() != null
+                || bulkStatusChangeRequest.getRegisteredFrom() != null || bulkStatusChangeRequest.getRegisteredTo() != null;
+        if (filtered && bulkStatusChangeRequest.getDeviceNames() != null)
+            throw new InvalidRequestException("CurrentStatus, Region, RegisteredFrom and RegisteredTo only apply to DeviceNamePrefix!");
+        deviceInventoryService.validate(bulkStatusChangeRequest.getCurrentStatus(), bulkStatusChangeRequest.getRegion());
+    }
+
+    private void schedule(StatusChangeJob statusChangeJob) {
+        try {
+            jobExecutor.execute(() -> run(statusChangeJob));
+        } catch (RejectedExecutionException ree) {
+            log.error("Status change job queue full, jobId: {}", statusChangeJob.getJobId());
+            throw new JobQueueFullException("Status change job queue full!", ree);
+        }
+    }
+
+    private void run(StatusChangeJob statusChangeJob) {
+        log.info("Status change job started, jobId: {}, newStatus: {}", statusChangeJob.getJobId(), statusChangeJob.getNewStatus());
+        statusChangeJob.setStatus(JobStatus.RUNNING);
+        save(statusChangeJob);
+
+        List<String> deviceNames = statusChangeJob.getDeviceNames() == null
+                ? null
+                : Arrays.asList(statusChangeJob.getDeviceNames().split("\n"));
+        try {
+            for (List<String> chunk = nextChunk(statusChangeJob, deviceNames); !chunk.isEmpty(); chunk = nextChunk(statusChangeJob, deviceNames)) {
+                if (Thread.currentThread().isInterrupted())
+                    return;
+
+                updateChunk(statusChangeJob, chunk);
+                statusChangeJob.setLastDeviceName(chunk.get(chunk.size() - 1));
+                save(statusChangeJob);
+                log.debug("Status change job progress, jobId: {}, processed: {}, failed: {}", statusChangeJob.getJobId(), statusChangeJob.getProcessed(), statusChangeJob.getFailed());
+            }
+            statusChangeJob.setStatus(JobStatus.SUCCEEDED);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (RuntimeException rte) {
+            log.error("Status change job failed, jobId: {}, error: {}", statusChangeJob.getJobId(), rte.getMessage());
+            statusChangeJob.setStatus(JobStatus.FAILED);
+            statusChangeJob.setError(ErrorMessages.truncate(rte.getMessage()));
+        }
+        save(statusChangeJob);
+        log.info("Status change job {}, jobId: {}, processed: {}, succeeded: {}, notModified: {}, failed: {}",
+                statusChangeJob.getStatus(), statusChangeJob.getJobId(), statusChangeJob.getProcessed(),
+                statusChangeJob.getSucceeded(), statusChangeJob.getNotModified(), statusChangeJob.getFailed());
+    }
+
+    private List<String> nextChunk(StatusChangeJob statusChangeJob, List<String> deviceNames) {
+        String after = statusChangeJob.getLastDeviceName() == null ? "" : statusChangeJob.getLastDeviceName();
+        if (deviceNames != null) {
+            int from = Collections.binarySearch(deviceNames, after);
+            from = from >= 0 ? from + 1 : -from - 1;
+            return deviceNames.subList(from, Math.min(deviceNames.size(), from + chunkSize));
+        }
+
+        return deviceInventoryService.findDeviceNames(statusChangeJob.getDeviceNamePrefix(), statusChangeJob.getCurrentStatus(),
+                statusChangeJob.getFilterRegion(), statusChangeJob.getRegisteredFrom(), statusChangeJob.getRegisteredTo(), after, chunkSize);
+    }
+
+    private void updateChunk(StatusChangeJob statusChangeJob, List<String> chunk) throws InterruptedException {
+        AtomicLong succeeded = new AtomicLong();
+        AtomicLong notModified = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        String newStatus = statusChangeJob.getNewStatus();
+
+        List<CompletableFuture<?>> updates = new ArrayList<>(chunk.size());
+        for (String deviceName : chunk) {
+            updates.add(regionFanOut.fanOut(region -> CompletableFuture.runAsync(
+                    () -> thingService.updateThingCertStatus(deviceName, newStatus, region), workers))
+                    .thenAccept(fanOutResult -> {
+                        // a region without a certificate has nothing to change, it doesn't fail the device
+                        boolean onlyMissingCertificates = fanOutResult.getFailures().values().stream()
+                                .allMatch(throwable -> throwable instanceof CertificateDoesntExistException);
+                        if (fanOutResult.isSuccessful() || onlyMissingCertificates && !fanOutResult.getSucceeded().isEmpty()) {
+                            succeeded.incrementAndGet();
+                        } else if (onlyMissingCertificates && fanOutResult.getPending().isEmpty()) {
+                            notModified.incrementAndGet();
+                        } else {
+                            log.error("Certificate status change failed, thing: {}, newStatus: {}, errors: {}", deviceName, newStatus, fanOutResult.errors());
+                            failed.incrementAndGet();
+                        }
+                    }));
+        }
+
+        try {
+            CompletableFuture.allOf(updates.toArray(new CompletableFuture<?>[0])).get();
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException("Status change chunk failed!", ee.getCause());
+        }
+
+        statusChangeJob.setProcessed(statusChangeJob.getProcessed() + chunk.size());
+        statusChangeJob.setSucceeded(statusChangeJob.getSucceeded() + succeeded.get());
+        statusChangeJob.setNotModified(statusChangeJob.getNotModified() + notModified.get());
+        statusChangeJob.setFailed(statusChangeJob.getFailed() + failed.get());
+    }
+
+    private void save(StatusChangeJob statusChangeJob) {
+        statusChangeJob.setUpdatedAt(Instant.now());
+        statusChangeJobRepository.save(statusChangeJob);
+    }
+}
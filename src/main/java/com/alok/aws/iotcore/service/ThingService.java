@@ -1,12 +1,24 @@
 package com.alok.aws.iotcore.service;
 
-import com.alok.aws.iotcore.entity.Device;
+import com.alok.aws.iotcore.cache.CertificateArnCache;
+import com.alok.aws.iotcore.cache.PolicyAttachmentCache;
+import com.alok.aws.iotcore.certificate.CertificateFingerprint;
+import com.alok.aws.iotcore.certificate.CertificateValidator;
+import com.alok.aws.iotcore.concurrent.FanOutResult;
+import com.alok.aws.iotcore.concurrent.RegionFanOut;
+import com.alok.aws.iotcore.concurrent.RegistrationSingleFlight;
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.entity.AuditAction;
+import com.alok.aws.iotcore.entity.DeviceRegionState;
 import com.alok.aws.iotcore.exception.CertificateDoesntExistException;
+import com.alok.aws.iotcore.exception.InvalidCertificateException;
 import com.alok.aws.iotcore.exception.ThingCreationException;
 import com.alok.aws.iotcore.exception.ThingDoesntExistException;
 import com.alok.aws.iotcore.exception.ThingUpdateException;
+import com.alok.aws.iotcore.metrics.IotMetrics;
 import com.alok.aws.iotcore.model.DeviceRegistrationRequest;
-import com.alok.aws.iotcore.repository.DeviceRepository;
+import com.alok.aws.iotcore.resilience.HedgedRequests;
+import com.alok.aws.iotcore.resilience.RegionCircuitBreakers;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -14,47 +26,149 @@ import org.springframework.stereotype.Service;
 import software.amazon.awssdk.services.iot.IotClient;
 import software.amazon.awssdk.services.iot.model.*;
 
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 @Service
 @Slf4j
 public class ThingService {
 
     @Autowired
-    private IotClient currentRegionIotClient;
+    private IotClientRegistry iotClientRegistry;
+
+    @Autowired
+    private RegionFanOut regionFanOut;
+
+    @Autowired
+    private CertificateArnCache certificateArnCache;
+
+    @Autowired
+    private PolicyAttachmentCache policyAttachmentCache;
+
+    @Autowired
+    private RegistrationSingleFlight registrationSingleFlight;
+
+    @Autowired
+    private CertificateValidator certificateValidator;
 
     @Autowired
-    private IotClient otherRegionIotClient;
+    private DeviceRegionStateService deviceRegionStateService;
 
     @Autowired
-    private DeviceRepository deviceRepository;
+    private IotMetrics iotMetrics;
+
+    @Autowired
+    private AuditLog auditLog;
+
+    @Autowired
+    private HedgedRequests hedgedRequests;
+
+    @Autowired
+    private RegionReplayService regionReplayService;
 
     @Value("${aws.iot.thing.policy.allowed}")
     private String thingAllowedPolicy;
 
-    public void createThingAndRegisterCertificateCurrentRegion(DeviceRegistrationRequest deviceRegistrationRequest) {
-        createThingAndRegisterCertificate(deviceRegistrationRequest, currentRegionIotClient);
+    public void createThingAndRegisterCertificate(DeviceRegistrationRequest deviceRegistrationRequest, String region) {
+        try {
+            createThingAndRegisterCertificate(deviceRegistrationRequest, iotClientRegistry.client(region), region);
+        } catch (RuntimeException rte) {
+            if (RegionCircuitBreakers.isRegionUnavailable(rte))
+                regionReplayService.deferRegistration(region, deviceRegistrationRequest);
+            throw rte;
+        }
     }
 
-    public void createThingAndRegisterCertificateOtherRegion(DeviceRegistrationRequest deviceRegistrationRequest) {
-        createThingAndRegisterCertificate(deviceRegistrationRequest, otherRegionIotClient);
+    // without deferring to the replay queue when the region is unavailable, for callers that keep their own record of the work
+    public void provision(DeviceRegistrationRequest deviceRegistrationRequest, String region) {
+        createThingAndRegisterCertificate(deviceRegistrationRequest, iotClientRegistry.client(region), region);
     }
 
-    private void createThingAndRegisterCertificate(DeviceRegistrationRequest deviceRegistrationRequest, IotClient iotClient) {
+    public FanOutResult createThingAndRegisterCertificateAllRegions(DeviceRegistrationRequest deviceRegistrationRequest) {
+        InvalidCertificateException invalidCertificate = certificateValidator.rejection(deviceRegistrationRequest);
+        if (invalidCertificate != null)
+            return regionFanOut.fanOutBlocking(region -> {
+                throw invalidCertificate;
+            });
+
+        return regionFanOut.fanOutBlocking(region -> createThingAndRegisterCertificate(deviceRegistrationRequest, region));
+    }
+
+    private void createThingAndRegisterCertificate(DeviceRegistrationRequest deviceRegistrationRequest, IotClient iotClient, String region) {
+        long start = iotMetrics.start();
+        RuntimeException failure = null;
+        try {
+            validateAndRegister(deviceRegistrationRequest, iotClient, region);
+        } catch (RuntimeException rte) {
+            failure = rte;
+            throw rte;
+        } finally {
+            iotMetrics.record(IotMetrics.REGISTRATION, region, "createThingAndRegisterCertificate", failure, start);
+            auditRegistration(deviceRegistrationRequest, region, failure, start);
+        }
+    }
+
+    private void validateAndRegister(DeviceRegistrationRequest deviceRegistrationRequest, IotClient iotClient, String region) {
 
         // requires AWSIoTConfigAccess policy to ecsTaskExecutionRole
 
-        if (deviceRegistrationRequest == null
-                || deviceRegistrationRequest.getDeviceName() == null
-                || deviceRegistrationRequest.getCertificatePem() == null
-                || deviceRegistrationRequest.getCaCertificatePem() == null
-        )
-            throw new ThingCreationException("Request validation failed!");
+        certificateValidator.validate(deviceRegistrationRequest);
+
+        registrationSingleFlight.executeBlocking(RegistrationSingleFlight.key(region, deviceRegistrationRequest), () -> {
+            runRegistration(deviceRegistrationRequest, iotClient, region);
+            return null;
+        });
+    }
+
+    private void runRegistration(DeviceRegistrationRequest deviceRegistrationRequest, IotClient iotClient, String region) {
+        String deviceName = deviceRegistrationRequest.getDeviceName();
+        DeviceRegionState deviceRegionState = deviceRegionStateService.load(deviceName, region,
+                CertificateFingerprint.certificateId(deviceRegistrationRequest.getCertificatePem()));
+        if (deviceRegionState.isProvisioned()) {
+            log.debug("Thing already provisioned, thing: {}, region: {}, certId: {}", deviceName, region, deviceRegionState.getCertificateId());
+            certificateArnCache.put(region, deviceName, deviceRegionState.getCertificateArn());
+            return;
+        }
+
+        log.info("Thing creation started, thing: {}", deviceName);
+        RegisterCertificateResponse registerCertificateResponse;
+        RuntimeException failure = null;
+        try {
+            if (!deviceRegionState.isThingCreated()) {
+                createThing(deviceName, iotClient);
+                deviceRegionState.setThingCreated(true);
+            }
+
+            if (!deviceRegionState.isCertificateRegistered()) {
+                registerCertificateResponse = registerCertificate(deviceRegistrationRequest, iotClient, region);
+                deviceRegionStateService.certificateRegistered(deviceRegionState, registerCertificateResponse);
+            } else {
+                registerCertificateResponse = deviceRegionStateService.registeredCertificate(deviceRegionState);
+            }
 
-        log.info("Thing creation started, thing: {}", deviceRegistrationRequest.getDeviceName());
-        createThing(deviceRegistrationRequest.getDeviceName(), iotClient);
-        RegisterCertificateResponse registerCertificateResponse = registerCertificate(deviceRegistrationRequest, iotClient);
-        attachPolicyToCertificate(deviceRegistrationRequest.getDeviceName(), registerCertificateResponse, iotClient);
-        attachThingCertificate(deviceRegistrationRequest.getDeviceName(), registerCertificateResponse, iotClient);
-        log.info("Thing creation completed, thing: {}, certId: {}", deviceRegistrationRequest.getDeviceName(), registerCertificateResponse.certificateId(), iotClient);
+            try {
+                if (!deviceRegionState.isPolicyAttached()) {
+                    attachPolicyToCertificate(deviceName, registerCertificateResponse, iotClient, region);
+                    deviceRegionState.setPolicyAttached(true);
+                }
+                if (!deviceRegionState.isPrincipalAttached()) {
+                    attachThingCertificate(deviceName, registerCertificateResponse, iotClient, region);
+                    deviceRegionState.setPrincipalAttached(true);
+                }
+            } catch (RuntimeException rte) {
+                // the attach steps delete the certificate before failing
+                deviceRegionState.resetCertificate();
+                throw rte;
+            }
+        } catch (RuntimeException rte) {
+            failure = rte;
+            throw rte;
+        } finally {
+            deviceRegionStateService.registrationEnded(deviceRegionState, failure);
+            deviceRegionStateService.save(deviceRegionState);
+        }
+        log.info("Thing creation completed, thing: {}, certId: {}", deviceName, registerCertificateResponse.certificateId());
     }
 
     private void createThing(String thingName, IotClient iotClient) {
@@ -75,7 +189,7 @@ public class ThingService {
         }
     }
 
-    private RegisterCertificateResponse registerCertificate(DeviceRegistrationRequest deviceRegistrationRequest, IotClient iotClient) {
+    private RegisterCertificateResponse registerCertificate(DeviceRegistrationRequest deviceRegistrationRequest, IotClient iotClient, String region) {
         log.debug("Creating certificate for thing: {}", deviceRegistrationRequest.getDeviceName());
         RegisterCertificateResponse registerCertificateResponse = null;
         try {
@@ -84,22 +198,13 @@ public class ThingService {
                     .certificatePem(deviceRegistrationRequest.getCertificatePem())
                     .setAsActive(true)
                     .build());
-
-            deviceRepository.save( Device.builder()
-                    .deviceName(deviceRegistrationRequest.getDeviceName())
-                    .awsDeviceCertId(registerCertificateResponse.certificateId())
-                    .awsDeviceCertArn(registerCertificateResponse.certificateArn())
-                    .build());
+            policyAttachmentCache.registered(region, registerCertificateResponse.certificateArn());
         } catch (ResourceAlreadyExistsException alreadyExists) {
-            // treat this as success if DB has cert id
+            // treat this as success if the region's state has the cert
             log.debug("Certificate already exists, thing: {}", deviceRegistrationRequest.getDeviceName());
-            Device device = deviceRepository.findOneByDeviceName(deviceRegistrationRequest.getDeviceName());
-            if (device != null)
-                registerCertificateResponse = RegisterCertificateResponse.builder()
-                        .certificateId(device.getAwsDeviceCertId())
-                        .certificateArn(device.getAwsDeviceCertArn())
-                        .build();
-            else
+            registerCertificateResponse = deviceRegionStateService.findRegisteredCertificate(deviceRegistrationRequest.getDeviceName(),
+                    region, CertificateFingerprint.certificateId(deviceRegistrationRequest.getCertificatePem()));
+            if (registerCertificateResponse == null)
                 throw new ThingCreationException("Certificate Creation Failed!", alreadyExists);
         } catch (RuntimeException rte) {
             log.error("Certificate creation failed, thing: {}", deviceRegistrationRequest.getDeviceName());
@@ -109,49 +214,101 @@ public class ThingService {
         return registerCertificateResponse;
     }
 
-    private void attachPolicyToCertificate(String deviceName, RegisterCertificateResponse registerCertificateResponse, IotClient iotClient) {
+    private void attachPolicyToCertificate(String deviceName, RegisterCertificateResponse registerCertificateResponse, IotClient iotClient, String region) {
+        if (isPolicyAttached(registerCertificateResponse.certificateArn(), iotClient, region)) {
+            log.debug("Policy already attached to certificate, thing: {}, certId: {}, policy: {}", deviceName, registerCertificateResponse.certificateId(), thingAllowedPolicy);
+            return;
+        }
+
         log.debug("Attaching policy to certificate, thing: {}, certId: {}, policy: {}", deviceName, registerCertificateResponse.certificateId(), thingAllowedPolicy);
         try {
             iotClient.attachPolicy(AttachPolicyRequest.builder()
                     .policyName(thingAllowedPolicy)
                     .target(registerCertificateResponse.certificateArn())
                     .build());
+            policyAttachmentCache.attached(region, registerCertificateResponse.certificateArn(), thingAllowedPolicy);
         } catch (RuntimeException rte) {
             log.error("Attaching policy to thing failed, deleting certificate, thing: {}, certId: {}", deviceName, registerCertificateResponse.certificateId());
-            deleteCertificate(registerCertificateResponse.certificateId(), iotClient);
+            deleteCertificate(deviceName, registerCertificateResponse.certificateId(), iotClient, region);
             throw new ThingCreationException("Policy attachment Failed!", rte);
         }
     }
 
-    private void attachThingCertificate(String deviceName, RegisterCertificateResponse registerCertificateResponse, IotClient iotClient) {
+    // certificates not registered through this instance are looked up, a failed lookup just doesn't save the attach
+    private boolean isPolicyAttached(String certificateArn, IotClient iotClient, String region) {
+        Set<String> policyNames = policyAttachmentCache.get(region, certificateArn);
+        if (policyNames == null) {
+            try {
+                policyNames = iotClient.listAttachedPolicies(ListAttachedPoliciesRequest.builder()
+                        .target(certificateArn)
+                        .build())
+                        .policies().stream()
+                        .map(Policy::policyName)
+                        .collect(Collectors.toSet());
+                policyAttachmentCache.loaded(region, certificateArn, policyNames);
+            } catch (RuntimeException rte) {
+                log.debug("Listing attached policies failed, certArn: {}, error: {}", certificateArn, rte.getMessage());
+                return false;
+            }
+        }
+        return policyNames.contains(thingAllowedPolicy);
+    }
+
+    private void attachThingCertificate(String deviceName, RegisterCertificateResponse registerCertificateResponse, IotClient iotClient, String region) {
         log.debug("Attaching certificate to thing: {}, certId: {}", deviceName, registerCertificateResponse.certificateId());
         try {
             iotClient.attachThingPrincipal(AttachThingPrincipalRequest.builder()
                     .thingName(deviceName)
                     .principal(registerCertificateResponse.certificateArn())
                     .build());
+            certificateArnCache.put(region, deviceName, registerCertificateResponse.certificateArn());
         } catch (RuntimeException rte) {
             log.error("Attaching certificate to thing failed, deleting certificate, thing: {}, certId: {}", deviceName, registerCertificateResponse.certificateId());
-            deleteCertificate(registerCertificateResponse.certificateId(), iotClient);
+            deleteCertificate(deviceName, registerCertificateResponse.certificateId(), iotClient, region);
             throw new ThingCreationException("Certificate attachment Failed!", rte);
         }
     }
 
-    private void detachThingCertificate(String deviceName, String certificateArn, IotClient iotClient) {
+    private void detachThingCertificate(String deviceName, String certificateArn, IotClient iotClient, String region) {
         log.debug("Detaching certificate from thing: {}, certArn: {}", deviceName, certificateArn);
         try {
             iotClient.detachThingPrincipal(DetachThingPrincipalRequest.builder()
                     .thingName(deviceName)
                     .principal(certificateArn)
                     .build());
+            certificateArnCache.markDetached(region, deviceName);
         } catch (RuntimeException rte) {
             log.error("Detaching certificate from thing failed, deleting certificate, thing: {}, certArn: {}", deviceName, certificateArn);
             throw new ThingCreationException("Detaching certificate from thing Failed!", rte);
         }
+
+        // the certificate is detached either way, the row just keeps showing it attached and
+        // detaching it again later is harmless, so the caller carries on
+        try {
+            deviceRegionStateService.principalDetached(deviceName, region).join();
+        } catch (RuntimeException rte) {
+            log.error("Recording certificate detach failed, thing: {}, region: {}, error: {}", deviceName, region, rte.getMessage());
+        }
     }
 
-    private void deleteCertificate(String certificateId, IotClient iotClient) {
-        updateCertificateStatus(certificateId, "INACTIVE", iotClient);
+    private void deleteCertificate(String deviceName, String certificateId, IotClient iotClient, String region) {
+        long start = iotMetrics.start();
+        RuntimeException failure = null;
+        try {
+            forceDeleteCertificate(deviceName, certificateId, iotClient, region);
+        } catch (RuntimeException rte) {
+            failure = rte;
+            throw rte;
+        } finally {
+            iotMetrics.record(IotMetrics.COMPENSATION, region, "deleteCertificate", failure, start);
+            auditLog.record(AuditAction.COMPENSATION, deviceName, region, certificateId, failure, start);
+        }
+    }
+
+    private void forceDeleteCertificate(String deviceName, String certificateId, IotClient iotClient, String region) {
+        certificateArnCache.evict(region, deviceName);
+        policyAttachmentCache.evict(region, certificateId);
+        updateCertificateStatus(certificateId, "INACTIVE", iotClient, region);
         log.debug("Deleting certificate, certId: {}", certificateId);
         try {
               iotClient.deleteCertificate(
@@ -165,52 +322,137 @@ public class ThingService {
         }
     }
 
-    private void updateCertificateStatus(String certificateId, String status, IotClient iotClient) {
+    private void updateCertificateStatus(String certificateId, String status, IotClient iotClient, String region) {
         log.debug("Updating certificate status, certId: {}, status: {}", certificateId, status);
         try {
             iotClient.updateCertificate( UpdateCertificateRequest.builder()
                     .certificateId(certificateId)
                     .newStatus(status)
                     .build());
+            if ("REVOKED".equals(status))
+                policyAttachmentCache.evict(region, certificateId);
         } catch (RuntimeException rte) {
             log.error("Updating Certificate status failed, certId: {}, status: {}", certificateId, status);
             throw new ThingCreationException("Updating certificate status failed!", rte);
         }
     }
 
-    public void updateThingCertStatusCurrentRegion(String thingName, String newStatus) {
-        updateThingCertStatus(thingName, newStatus, currentRegionIotClient);
+    public void updateThingCertStatus(String thingName, String newStatus, String region) {
+        try {
+            updateThingCertStatus(thingName, newStatus, iotClientRegistry.client(region), region);
+        } catch (RuntimeException rte) {
+            if (RegionCircuitBreakers.isRegionUnavailable(rte))
+                regionReplayService.deferStatusUpdate(region, thingName, newStatus);
+            throw rte;
+        }
     }
 
-    public void updateThingCertStatusOtherRegion(String thingName, String newStatus) {
-        updateThingCertStatus(thingName, newStatus, otherRegionIotClient);
+    // without deferring to the replay queue when the region is unavailable, for callers that keep their own record of the work
+    public void changeCertStatus(String thingName, String newStatus, String region) {
+        updateThingCertStatus(thingName, newStatus, iotClientRegistry.client(region), region);
     }
 
-    private void updateThingCertStatus(String thingName, String newStatus, IotClient iotClient) {
-        String certificateArn = getCertificateArn(thingName, iotClient);
+    /**
+     * Undoes a registration in one region: the certificate is detached, deactivated and deleted.
+     * The thing itself is kept, an empty thing grants nothing and createThing accepts it later.
+     * Only the given certificate is removed, a region holding another one (e.g. of a later
+     * registration of the same thing) is left as it is.
+     */
+    public void deprovision(String deviceName, String region, String certificateId) {
+        IotClient iotClient = iotClientRegistry.client(region);
+        DeviceRegionState deviceRegionState = deviceRegionStateService.find(deviceName, region);
+        if (deviceRegionState == null || !deviceRegionState.isCertificateRegistered()) {
+            log.debug("Nothing to deprovision, thing: {}, region: {}", deviceName, region);
+            return;
+        }
+        if (!Objects.equals(deviceRegionState.getCertificateId(), certificateId)) {
+            log.debug("Region holds another certificate, not deprovisioning, thing: {}, region: {}, certId: {}", deviceName, region, deviceRegionState.getCertificateId());
+            return;
+        }
+
+        long start = iotMetrics.start();
+        RuntimeException failure = null;
+        try {
+            if (deviceRegionState.isPrincipalAttached()) {
+                detachThingCertificate(deviceName, deviceRegionState.getCertificateArn(), iotClient, region);
+                // the detach is recorded on the row, carry on from its current version
+                deviceRegionState = deviceRegionStateService.find(deviceName, region);
+            }
+            try {
+                forceDeleteCertificate(deviceName, deviceRegionState.getCertificateId(), iotClient, region);
+            } catch (ThingCreationException tce) {
+                if (!(tce.getCause() instanceof ResourceNotFoundException))
+                    throw tce;
+            }
+            deviceRegionStateService.deprovisioned(deviceRegionState);
+            deviceRegionStateService.save(deviceRegionState);
+        } catch (RuntimeException rte) {
+            failure = rte;
+            throw rte;
+        } finally {
+            iotMetrics.record(IotMetrics.COMPENSATION, region, "deprovision", failure, start);
+            auditLog.record(AuditAction.DEPROVISION, deviceName, region, deviceRegionState.getCertificateId(), failure, start);
+        }
+    }
+
+    public FanOutResult updateThingCertStatusAllRegions(String thingName, String newStatus) {
+        return regionFanOut.fanOutBlocking(region -> updateThingCertStatus(thingName, newStatus, region));
+    }
+
+    private void updateThingCertStatus(String thingName, String newStatus, IotClient iotClient, String region) {
+        long start = iotMetrics.start();
+        RuntimeException failure = null;
+        try {
+            changeThingCertStatus(thingName, newStatus, iotClient, region);
+        } catch (RuntimeException rte) {
+            failure = rte;
+            throw rte;
+        } finally {
+            iotMetrics.record(IotMetrics.STATUS_UPDATE, region, "updateThingCertStatus", failure, start);
+            auditLog.record(AuditAction.STATUS_UPDATE, thingName, region, newStatus, failure, start);
+        }
+    }
+
+    private void changeThingCertStatus(String thingName, String newStatus, IotClient iotClient, String region) {
+        String certificateArn = getCertificateArn(thingName, region);
         updateCertificateStatus(
                 extractCertIdFromArn(certificateArn),
                 newStatus,
-                iotClient
+                iotClient,
+                region
         );
+        deviceRegionStateService.certificateStatusChanged(thingName, region, newStatus).join();
 
         if ("REVOKED".equals(newStatus))
-            detachThingCertificate(thingName, certificateArn, iotClient);
+            detachThingCertificate(thingName, certificateArn, iotClient, region);
     }
 
-    private String getCertificateArn(String thingName, IotClient iotClient) {
+    private String getCertificateArn(String thingName, String region) {
+        String cachedCertificateArn = certificateArnCache.get(region, thingName);
+        if (CertificateArnCache.isDetached(cachedCertificateArn)) {
+            log.error("Thing doesn't have principal, thing: {}", thingName);
+            throw new CertificateDoesntExistException("Thing doesn't have principal!");
+        }
+        if (cachedCertificateArn != null)
+            return cachedCertificateArn;
+
         log.debug("Get certificate id for thing: {}", thingName);
         try {
-            ListThingPrincipalsResponse thingPrincipals = iotClient.listThingPrincipals(ListThingPrincipalsRequest.builder()
+            // idempotent read, hedged on the async client of the region
+            ListThingPrincipalsRequest listThingPrincipalsRequest = ListThingPrincipalsRequest.builder()
                     .thingName(thingName)
-                    .build());
+                    .build();
+            ListThingPrincipalsResponse thingPrincipals = hedgedRequests.executeBlocking(
+                    () -> iotClientRegistry.asyncClient(region).listThingPrincipals(listThingPrincipalsRequest));
             if (!thingPrincipals.hasPrincipals()) {
                 log.error("Thing doesn't have principal, thing: {}", thingName);
                 throw new CertificateDoesntExistException("hing doesn't have principal!");
             }
 
             // Assuming thing has only one principal any time - during revoke the principal was detached
-            return thingPrincipals.principals().get(0);
+            String certificateArn = thingPrincipals.principals().get(0);
+            certificateArnCache.put(region, thingName, certificateArn);
+            return certificateArn;
 
         } catch (ResourceNotFoundException rnf) {
             log.error("Thing doesn't exist!, thing: {}", thingName);
@@ -224,4 +466,12 @@ public class ThingService {
     private String extractCertIdFromArn(String certArn) {
         return certArn.split("/")[1];
     }
-}
\ No newline at end of file
+
+    private void auditRegistration(DeviceRegistrationRequest deviceRegistrationRequest, String region, Throwable failure, long start) {
+        if (deviceRegistrationRequest == null)
+            auditLog.record(AuditAction.REGISTRATION, null, region, null, failure, start);
+        else
+            auditLog.record(AuditAction.REGISTRATION, deviceRegistrationRequest.getDeviceName(), region,
+                    CertificateFingerprint.certificateId(deviceRegistrationRequest.getCertificatePem()), failure, start);
+    }
+}
@@ -0,0 +1,73 @@
+package com.alok.aws.iotcore.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PolicyAttachmentCacheTest {
+
+    private static final String REGION = "ap-south-1";
+    private static final String CERTIFICATE_ARN = "arn:aws:iot:ap-south-1:123456789012:cert/abc";
+
+    private final PolicyAttachmentCache policyAttachmentCache = new PolicyAttachmentCache();
+
+    PolicyAttachmentCacheTest() {
+        ReflectionTestUtils.setField(policyAttachmentCache, "maxSize", 100);
+        ReflectionTestUtils.setField(policyAttachmentCache, "ttlMillis", 60_000L);
+    }
+
+    @Test
+    void tracksRegistrationsLoadsAttachesAndEvictions() {
+        assertThat(policyAttachmentCache.get(REGION, CERTIFICATE_ARN)).isNull();
+
+        policyAttachmentCache.registered(REGION, CERTIFICATE_ARN);
+        assertThat(policyAttachmentCache.get(REGION, CERTIFICATE_ARN)).isEmpty();
+
+        policyAttachmentCache.attached(REGION, CERTIFICATE_ARN, "policy");
+        assertThat(policyAttachmentCache.get(REGION, CERTIFICATE_ARN)).containsOnly("policy");
+
+        policyAttachmentCache.loaded(REGION, CERTIFICATE_ARN, Arrays.asList("policy", "other-policy"));
+        assertThat(policyAttachmentCache.get(REGION, CERTIFICATE_ARN)).containsOnly("policy", "other-policy");
+        assertThat(policyAttachmentCache.get("eu-west-1", CERTIFICATE_ARN)).isNull();
+
+        policyAttachmentCache.evict(REGION, "abc");
+        assertThat(policyAttachmentCache.get(REGION, CERTIFICATE_ARN)).isNull();
+    }
+
+    @Test
+    void concurrentAttachesAreNotLost() throws Exception {
+        int threads = 8;
+        int policiesPerThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> attaches = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                attaches.add(executor.submit(() -> {
+                    start.await(5, TimeUnit.SECONDS);
+                    for (int p = 0; p < policiesPerThread; p++)
+                        policyAttachmentCache.attached(REGION, CERTIFICATE_ARN, "policy-" + thread + "-" + p);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> attach : attaches)
+                attach.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(policyAttachmentCache.get(REGION, CERTIFICATE_ARN)).hasSize(threads * policiesPerThread);
+    }
+}
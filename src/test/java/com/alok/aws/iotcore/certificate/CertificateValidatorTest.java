@@ -0,0 +1,114 @@
+package com.alok.aws.iotcore.certificate;
+
+import com.alok.aws.iotcore.cache.ExpiringLruCache;
+import com.alok.aws.iotcore.exception.InvalidCertificateException;
+import com.alok.aws.iotcore.exception.ThingCreationException;
+import com.alok.aws.iotcore.model.DeviceRegistrationRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CertificateValidatorTest {
+
+    private static final TestCertificates CERTIFICATES = new TestCertificates();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CertificateValidator certificateValidator = new CertificateValidator();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(certificateValidator, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(certificateValidator, "enabled", true);
+        ReflectionTestUtils.setField(certificateValidator, "clockSkewMillis", 300_000L);
+        ReflectionTestUtils.setField(certificateValidator, "caCertificateMaxSize", 10);
+        ReflectionTestUtils.setField(certificateValidator, "caCertificateTtlMillis", 60_000L);
+        ReflectionTestUtils.setField(certificateValidator, "validCertificateMaxSize", 10);
+        ReflectionTestUtils.setField(certificateValidator, "validCertificateTtlMillis", 60_000L);
+        certificateValidator.init();
+    }
+
+    @Test
+    void acceptsACertificateSignedByTheCa() {
+        certificateValidator.validate(CERTIFICATES.deviceCertificatePem("thing"), CERTIFICATES.getCaCertificatePem());
+
+        assertThat(meterRegistry.get(CertificateValidator.VALIDATION).tag("outcome", CertificateValidator.VALID).timer().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.find(CertificateValidator.REJECTIONS).counter()).isNull();
+    }
+
+    @Test
+    void rejectsAnExpiredCertificate() {
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        String expired = CERTIFICATES.deviceCertificatePem("thing", now.minusDays(30), now.minusDays(1));
+
+        assertRejected(expired, CERTIFICATES.getCaCertificatePem(), CertificateValidator.EXPIRED);
+    }
+
+    @Test
+    void rejectsACertificateOfAnotherCa() {
+        // the subject of the given CA isn't the issuer of the device certificate
+        String otherCa = CERTIFICATES.deviceCertificatePem("other-ca");
+
+        assertRejected(CERTIFICATES.deviceCertificatePem("thing"), otherCa, CertificateValidator.ISSUER_MISMATCH);
+    }
+
+    @Test
+    void rejectsABadSignature() {
+        // same issuer name, signed by another key
+        String forged = new TestCertificates().deviceCertificatePem("thing");
+
+        assertRejected(forged, CERTIFICATES.getCaCertificatePem(), CertificateValidator.SIGNATURE);
+    }
+
+    @Test
+    void rejectsMalformedPem() {
+        String garbled = "-----BEGIN CERTIFICATE-----\n"
+                + Base64.getEncoder().encodeToString("not a certificate".getBytes())
+                + "\n-----END CERTIFICATE-----\n";
+
+        assertRejected("not a pem", CERTIFICATES.getCaCertificatePem(), CertificateValidator.MALFORMED);
+        assertRejected(garbled, CERTIFICATES.getCaCertificatePem(), CertificateValidator.MALFORMED);
+        assertRejected(CERTIFICATES.deviceCertificatePem("thing"), "not a pem", CertificateValidator.CA_MALFORMED);
+    }
+
+    @Test
+    void cachesTheCaAndValidCertificates() {
+        String certificate = CERTIFICATES.deviceCertificatePem("thing");
+        certificateValidator.validate(certificate, CERTIFICATES.getCaCertificatePem());
+        certificateValidator.validate(certificate, CERTIFICATES.getCaCertificatePem());
+        certificateValidator.validate(CERTIFICATES.deviceCertificatePem("other-thing"), CERTIFICATES.getCaCertificatePem());
+
+        // the CA is parsed once, the second validation of the same certificate never got to it
+        assertThat(cache("caCertificates").size()).isEqualTo(1);
+        assertThat(cache("validCertificates").size()).isEqualTo(2);
+        assertThat(meterRegistry.get(CertificateValidator.VALIDATION).tag("outcome", CertificateValidator.VALID).timer().count())
+                .isEqualTo(3);
+    }
+
+    @Test
+    void requestWithoutCertificateFailsValidation() {
+        assertThatThrownBy(() -> certificateValidator.validate(new DeviceRegistrationRequest("thing", null, CERTIFICATES.getCaCertificatePem())))
+                .isInstanceOf(ThingCreationException.class);
+        assertThat(certificateValidator.rejection(new DeviceRegistrationRequest("thing", "not a pem", CERTIFICATES.getCaCertificatePem())))
+                .isInstanceOf(InvalidCertificateException.class);
+    }
+
+    private void assertRejected(String certificatePem, String caCertificatePem, String reason) {
+        assertThatThrownBy(() -> certificateValidator.validate(certificatePem, caCertificatePem))
+                .isInstanceOf(InvalidCertificateException.class);
+        assertThat(meterRegistry.get(CertificateValidator.REJECTIONS).tag("reason", reason).counter().count())
+                .isGreaterThanOrEqualTo(1);
+    }
+
+    private ExpiringLruCache<?, ?> cache(String name) {
+        return (ExpiringLruCache<?, ?>) ReflectionTestUtils.getField(certificateValidator, name);
+    }
+}
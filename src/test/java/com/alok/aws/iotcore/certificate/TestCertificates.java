@@ -0,0 +1,126 @@
+package com.alok.aws.iotcore.certificate;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.security.spec.ECGenParameterSpec;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+
+/**
+ * Test CA and a distinct device certificate per device name, so every registration of a test, the
+ * benchmarks or the load test registers a new certificate. The certificates are real X.509 (ECDSA P-256, signed by the CA), written
+ * out as DER by hand because the JDK has no public API to issue certificates.
+ */
+public class TestCertificates {
+
+    private static final String CA_NAME = "iot-core-test-ca";
+
+    // 1.2.840.10045.4.3.2 ecdsa-with-SHA256, 2.5.4.3 commonName, 2.5.29.19 basicConstraints
+    private static final byte[] ECDSA_WITH_SHA256 = {0x06, 0x08, 0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x04, 0x03, 0x02};
+    private static final byte[] COMMON_NAME = {0x06, 0x03, 0x55, 0x04, 0x03};
+    private static final byte[] BASIC_CONSTRAINTS = {0x06, 0x03, 0x55, 0x1d, 0x13};
+    private static final DateTimeFormatter UTC_TIME = DateTimeFormatter.ofPattern("yyMMddHHmmss'Z'");
+
+    private final SecureRandom random = new SecureRandom();
+    private final KeyPair caKeyPair;
+    private final KeyPair deviceKeyPair;
+    private final String caCertificatePem;
+
+    public TestCertificates() {
+        caKeyPair = generateKeyPair();
+        // the key of the devices doesn't matter, only the certificate has to differ
+        deviceKeyPair = generateKeyPair();
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        caCertificatePem = pem(certificate(CA_NAME, caKeyPair.getPublic(), true, now.minusHours(1), now.plusYears(1)));
+    }
+
+    public String getCaCertificatePem() {
+        return caCertificatePem;
+    }
+
+    public String deviceCertificatePem(String deviceName) {
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        return deviceCertificatePem(deviceName, now.minusHours(1), now.plusYears(1));
+    }
+
+    public String deviceCertificatePem(String deviceName, ZonedDateTime notBefore, ZonedDateTime notAfter) {
+        return pem(certificate(deviceName, deviceKeyPair.getPublic(), false, notBefore, notAfter));
+    }
+
+    private byte[] certificate(String subject, PublicKey publicKey, boolean ca, ZonedDateTime notBefore, ZonedDateTime notAfter) {
+        byte[] tbsCertificate = sequence(
+                der(0xa0, der(0x02, BigInteger.valueOf(2).toByteArray())),
+                der(0x02, new BigInteger(63, random).add(BigInteger.ONE).toByteArray()),
+                sequence(ECDSA_WITH_SHA256),
+                name(CA_NAME),
+                sequence(
+                        der(0x17, notBefore.withZoneSameInstant(ZoneOffset.UTC).format(UTC_TIME).getBytes(StandardCharsets.US_ASCII)),
+                        der(0x17, notAfter.withZoneSameInstant(ZoneOffset.UTC).format(UTC_TIME).getBytes(StandardCharsets.US_ASCII))),
+                name(subject),
+                publicKey.getEncoded(),
+                ca ? der(0xa3, sequence(sequence(BASIC_CONSTRAINTS, der(0x01, new byte[]{(byte) 0xff}),
+                        der(0x04, sequence(der(0x01, new byte[]{(byte) 0xff})))))) : new byte[0]);
+
+        byte[] signature;
+        try {
+            Signature signer = Signature.getInstance("SHA256withECDSA");
+            signer.initSign(caKeyPair.getPrivate());
+            signer.update(tbsCertificate);
+            signature = signer.sign();
+        } catch (GeneralSecurityException gse) {
+            throw new IllegalStateException("Can't sign test certificate", gse);
+        }
+
+        byte[] bitString = new byte[signature.length + 1];
+        System.arraycopy(signature, 0, bitString, 1, signature.length);
+        return sequence(tbsCertificate, sequence(ECDSA_WITH_SHA256), der(0x03, bitString));
+    }
+
+    private static byte[] name(String commonName) {
+        return sequence(der(0x31, sequence(COMMON_NAME, der(0x0c, commonName.getBytes(StandardCharsets.UTF_8)))));
+    }
+
+    private static byte[] sequence(byte[]... contents) {
+        return der(0x30, contents);
+    }
+
+    private static byte[] der(int tag, byte[]... contents) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] bytes : contents)
+            content.write(bytes, 0, bytes.length);
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        encoded.write(tag);
+        int length = content.size();
+        if (length < 0x80) {
+            encoded.write(length);
+        } else {
+            byte[] lengthBytes = BigInteger.valueOf(length).toByteArray();
+            int offset = lengthBytes[0] == 0 ? 1 : 0;
+            encoded.write(0x80 | (lengthBytes.length - offset));
+            encoded.write(lengthBytes, offset, lengthBytes.length - offset);
+        }
+        encoded.write(content.toByteArray(), 0, length);
+        return encoded.toByteArray();
+    }
+
+    private static String pem(byte[] der) {
+        return "-----BEGIN CERTIFICATE-----\n"
+                + Base64.getMimeEncoder(64, new byte[]{'\n'}).encodeToString(der)
+                + "\n-----END CERTIFICATE-----\n";
+    }
+
+    private static KeyPair generateKeyPair() {
+        try {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+            keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+            return keyPairGenerator.generateKeyPair();
+        } catch (GeneralSecurityException gse) {
+            throw new IllegalStateException("Can't generate test key pair", gse);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.alok.aws.iotcore.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class AdaptiveTokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void idleBucketHandsOutItsBurstWithoutWaiting() {
+        AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(1, 0.1, 3);
+
+        assertThat(bucket.reserve(0)).isZero();
+        assertThat(bucket.reserve(0)).isZero();
+        assertThat(bucket.reserve(0)).isZero();
+        assertThat(bucket.reserve(0)).isEqualTo(-1);
+    }
+
+    @Test
+    void reservationBeyondMaxWaitTakesNoToken() {
+        AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(1, 0.1, 1);
+        bucket.reserve(0);
+
+        assertThat(bucket.reserve(SECOND / 2)).isEqualTo(-1);
+        assertThat(bucket.reserve(2 * SECOND)).isBetween(SECOND / 2, SECOND);
+        // the token above was taken, the next one is a second later
+        assertThat(bucket.reserve(3 * SECOND)).isBetween(3 * SECOND / 2, 2 * SECOND);
+    }
+
+    @Test
+    void throttlingHalvesTheRateDownToTheMinimum() {
+        AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(8, 1, 1);
+
+        bucket.onThrottled();
+        assertThat(bucket.getPermitsPerSecond()).isCloseTo(4, within(0.01));
+        bucket.onThrottled();
+        bucket.onThrottled();
+        bucket.onThrottled();
+        assertThat(bucket.getPermitsPerSecond()).isCloseTo(1, within(0.01));
+    }
+
+    @Test
+    void successesCreepBackUpToTheConfiguredRate() {
+        AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(8, 1, 1);
+        bucket.onThrottled();
+
+        bucket.onSuccess();
+        assertThat(bucket.getPermitsPerSecond()).isGreaterThan(4).isLessThan(4.5);
+        for (int i = 0; i < 100; i++)
+            bucket.onSuccess();
+        assertThat(bucket.getPermitsPerSecond()).isCloseTo(8, within(0.01));
+    }
+}
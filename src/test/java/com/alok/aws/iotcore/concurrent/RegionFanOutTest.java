@@ -0,0 +1,142 @@
+package com.alok.aws.iotcore.concurrent;
+
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RegionFanOutTest {
+
+    private final RegionFanOut regionFanOut = new RegionFanOut();
+    private final Map<String, CompletableFuture<Void>> calls = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        IotClientRegistry iotClientRegistry = mock(IotClientRegistry.class);
+        when(iotClientRegistry.getRegions()).thenReturn(Arrays.asList("ap-south-1", "ap-southeast-1", "eu-west-1"));
+        ReflectionTestUtils.setField(regionFanOut, "iotClientRegistry", iotClientRegistry);
+        ReflectionTestUtils.setField(regionFanOut, "completionPolicy", CompletionPolicy.ALL);
+        ReflectionTestUtils.setField(regionFanOut, "threads", 2);
+        regionFanOut.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        regionFanOut.shutdown();
+    }
+
+    @Test
+    void requiredRegions() {
+        assertThat(CompletionPolicy.ALL.required(3)).isEqualTo(3);
+        assertThat(CompletionPolicy.QUORUM.required(1)).isEqualTo(1);
+        assertThat(CompletionPolicy.QUORUM.required(2)).isEqualTo(2);
+        assertThat(CompletionPolicy.QUORUM.required(3)).isEqualTo(2);
+        assertThat(CompletionPolicy.QUORUM.required(5)).isEqualTo(3);
+    }
+
+    @Test
+    void allWaitsForEveryRegion() {
+        CompletableFuture<FanOutResult> result = regionFanOut.fanOut(CompletionPolicy.ALL, this::call);
+
+        calls.get("ap-south-1").complete(null);
+        calls.get("ap-southeast-1").complete(null);
+        assertThat(result).isNotDone();
+
+        calls.get("eu-west-1").complete(null);
+        assertThat(result.join().isSuccessful()).isTrue();
+        assertThat(result.join().getSucceeded()).containsExactly("ap-south-1", "ap-southeast-1", "eu-west-1");
+    }
+
+    @Test
+    void allFailsAsSoonAsOneRegionFails() {
+        CompletableFuture<FanOutResult> result = regionFanOut.fanOut(CompletionPolicy.ALL, this::call);
+
+        calls.get("ap-southeast-1").completeExceptionally(new IllegalStateException("down"));
+
+        FanOutResult fanOutResult = result.join();
+        assertThat(fanOutResult.isSuccessful()).isFalse();
+        assertThat(fanOutResult.getPending()).containsExactly("ap-south-1", "eu-west-1");
+        assertThat(fanOutResult.errors()).containsExactly("ap-southeast-1: down");
+        assertThat(fanOutResult.anyFailed(IllegalStateException.class)).isTrue();
+    }
+
+    @Test
+    void quorumCompletesWithoutTheSlowestRegion() {
+        CompletableFuture<FanOutResult> result = regionFanOut.fanOut(CompletionPolicy.QUORUM, this::call);
+
+        calls.get("ap-south-1").complete(null);
+        assertThat(result).isNotDone();
+        calls.get("eu-west-1").complete(null);
+
+        FanOutResult fanOutResult = result.join();
+        assertThat(fanOutResult.isSuccessful()).isTrue();
+        assertThat(fanOutResult.getPending()).containsExactly("ap-southeast-1");
+
+        // a late failure doesn't change the result
+        calls.get("ap-southeast-1").completeExceptionally(new IllegalStateException("late"));
+        assertThat(result.join().getFailures()).isEmpty();
+    }
+
+    @Test
+    void quorumToleratesAMinorityOfFailures() {
+        CompletableFuture<FanOutResult> result = regionFanOut.fanOut(CompletionPolicy.QUORUM, this::call);
+
+        calls.get("ap-south-1").completeExceptionally(new IllegalStateException("down"));
+        assertThat(result).isNotDone();
+        calls.get("ap-southeast-1").complete(null);
+        calls.get("eu-west-1").complete(null);
+
+        assertThat(result.join().isSuccessful()).isTrue();
+        assertThat(result.join().getFailures()).containsOnlyKeys("ap-south-1");
+    }
+
+    @Test
+    void quorumFailsOnceItCanNoLongerBeMet() {
+        CompletableFuture<FanOutResult> result = regionFanOut.fanOut(CompletionPolicy.QUORUM, this::call);
+
+        calls.get("ap-south-1").completeExceptionally(new IllegalStateException("down"));
+        calls.get("eu-west-1").completeExceptionally(new IllegalStateException("down"));
+
+        assertThat(result.join().isSuccessful()).isFalse();
+        assertThat(result.join().getPending()).containsExactly("ap-southeast-1");
+    }
+
+    @Test
+    void callThrowingCountsAsRegionFailure() {
+        FanOutResult fanOutResult = regionFanOut.fanOut(CompletionPolicy.ALL, region -> {
+            if (region.equals("eu-west-1"))
+                throw new IllegalArgumentException("no client");
+            return CompletableFuture.completedFuture(null);
+        }).join();
+
+        assertThat(fanOutResult.getSucceeded()).containsExactly("ap-south-1", "ap-southeast-1");
+        assertThat(fanOutResult.getFailures()).containsOnlyKeys("eu-west-1");
+    }
+
+    @Test
+    void blockingFanOutRunsEveryRegion() {
+        FanOutResult fanOutResult = regionFanOut.fanOutBlocking(CompletionPolicy.ALL, region -> {
+            if (region.equals("ap-south-1"))
+                throw new IllegalStateException("down");
+        });
+
+        assertThat(fanOutResult.getFailures()).containsOnlyKeys("ap-south-1");
+        assertThat(fanOutResult.getFailures().get("ap-south-1")).hasMessage("down");
+    }
+
+    private CompletableFuture<Void> call(String region) {
+        CompletableFuture<Void> call = new CompletableFuture<>();
+        calls.put(region, call);
+        return call;
+    }
+}
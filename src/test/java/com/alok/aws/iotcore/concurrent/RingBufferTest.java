@@ -0,0 +1,98 @@
+package com.alok.aws.iotcore.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RingBufferTest {
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        assertThat(new RingBuffer<>(0).capacity()).isEqualTo(2);
+        assertThat(new RingBuffer<>(4).capacity()).isEqualTo(4);
+        assertThat(new RingBuffer<>(5).capacity()).isEqualTo(8);
+        assertThat(new RingBuffer<>(65536).capacity()).isEqualTo(65536);
+    }
+
+    @Test
+    void fullBufferRejectsUntilDrained() {
+        RingBuffer<Integer> ringBuffer = new RingBuffer<>(4);
+        for (int i = 0; i < 4; i++)
+            assertThat(ringBuffer.offer(i)).isTrue();
+
+        assertThat(ringBuffer.offer(4)).isFalse();
+        assertThat(ringBuffer.size()).isEqualTo(4);
+
+        List<Integer> drained = new ArrayList<>();
+        assertThat(ringBuffer.drainTo(drained, 1)).isEqualTo(1);
+        assertThat(ringBuffer.offer(4)).isTrue();
+        assertThat(ringBuffer.drainTo(drained, 10)).isEqualTo(4);
+        assertThat(drained).containsExactly(0, 1, 2, 3, 4);
+        assertThat(ringBuffer.size()).isZero();
+        assertThat(ringBuffer.drainTo(drained, 10)).isZero();
+    }
+
+    @Test
+    void keepsOrderOverManyLaps() {
+        RingBuffer<Integer> ringBuffer = new RingBuffer<>(8);
+        List<Integer> drained = new ArrayList<>();
+        int next = 0;
+        for (int lap = 0; lap < 100; lap++) {
+            for (int i = 0; i < 5; i++)
+                assertThat(ringBuffer.offer(next++)).isTrue();
+            ringBuffer.drainTo(drained, 5);
+        }
+        ringBuffer.drainTo(drained, Integer.MAX_VALUE);
+
+        assertThat(drained).hasSize(next);
+        for (int i = 0; i < next; i++)
+            assertThat(drained.get(i)).isEqualTo(i);
+    }
+
+    @Test
+    void concurrentProducersLoseAndDuplicateNothing() throws Exception {
+        int producers = 4;
+        int perProducer = 20_000;
+        RingBuffer<Integer> ringBuffer = new RingBuffer<>(1024);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        CountDownLatch done = new CountDownLatch(producers);
+        try {
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                executor.execute(() -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        // a full buffer is retried until the consumer caught up
+                        while (!ringBuffer.offer(producer * perProducer + i))
+                            Thread.yield();
+                    }
+                    done.countDown();
+                });
+            }
+
+            Set<Integer> consumed = new HashSet<>();
+            List<Integer> drained = new ArrayList<>();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (consumed.size() < producers * perProducer && System.nanoTime() < deadline) {
+                drained.clear();
+                ringBuffer.drainTo(drained, 256);
+                for (Integer element : drained)
+                    assertThat(consumed.add(element)).isTrue();
+            }
+
+            assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(consumed).hasSize(producers * perProducer);
+            assertThat(ringBuffer.size()).isZero();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
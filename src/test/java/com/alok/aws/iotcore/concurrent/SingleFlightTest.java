@@ -0,0 +1,123 @@
+package com.alok.aws.iotcore.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+    @Test
+    void coalescesCallsForTheSameKeyWhileInFlight() {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> response = new CompletableFuture<>();
+
+        CompletableFuture<String> leader = singleFlight.execute("thing", () -> {
+            calls.incrementAndGet();
+            return response;
+        });
+        CompletableFuture<String> follower = singleFlight.execute("thing", () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+        CompletableFuture<String> otherKey = singleFlight.execute("other-thing", () -> CompletableFuture.completedFuture("other"));
+
+        assertThat(follower).isSameAs(leader);
+        assertThat(otherKey.join()).isEqualTo("other");
+        response.complete("done");
+        assertThat(follower.join()).isEqualTo("done");
+        assertThat(calls).hasValue(1);
+        assertThat(singleFlight.inFlight()).isZero();
+    }
+
+    @Test
+    void runsAgainOnceTheLeaderCompleted() {
+        singleFlight.execute("thing", () -> CompletableFuture.completedFuture("first")).join();
+
+        assertThat(singleFlight.execute("thing", () -> CompletableFuture.completedFuture("second")).join()).isEqualTo("second");
+    }
+
+    @Test
+    void errorThrownByTheCallCompletesThePromiseAndFreesTheKey() {
+        CompletableFuture<String> failed = singleFlight.execute("thing", () -> {
+            throw new AssertionError("boom");
+        });
+
+        assertThat(failed).isCompletedExceptionally();
+        assertThat(singleFlight.inFlight()).isZero();
+        assertThat(singleFlight.execute("thing", () -> CompletableFuture.completedFuture("again")).join()).isEqualTo("again");
+    }
+
+    @Test
+    void sneakyCheckedExceptionCompletesThePromiseAndFreesTheKey() {
+        CompletableFuture<String> failed = singleFlight.execute("thing", () -> sneakyThrow(new IOException("boom")));
+
+        assertThat(failed).isCompletedExceptionally();
+        assertThat(singleFlight.inFlight()).isZero();
+    }
+
+    @Test
+    void blockingErrorIsRethrownAndFreesTheKey() {
+        assertThatThrownBy(() -> singleFlight.executeBlocking("thing", () -> {
+            throw new StackOverflowError();
+        })).isInstanceOf(StackOverflowError.class);
+
+        assertThat(singleFlight.inFlight()).isZero();
+        assertThat(singleFlight.executeBlocking("thing", () -> "again")).isEqualTo("again");
+    }
+
+    @Test
+    void blockingFollowersGetTheLeadersResultAndFailure() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch leaderRunning = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Future<String> leader = executor.submit(() -> singleFlight.executeBlocking("thing", () -> {
+                leaderRunning.countDown();
+                await(release);
+                throw new IllegalStateException("leader failed");
+            }));
+            assertThat(leaderRunning.await(5, TimeUnit.SECONDS)).isTrue();
+
+            AtomicInteger followerCalls = new AtomicInteger();
+            Future<String> follower = executor.submit(() -> singleFlight.executeBlocking("thing", () -> {
+                followerCalls.incrementAndGet();
+                return "follower";
+            }));
+            // the follower either joined the leader or, if it came late, ran on its own
+            Thread.sleep(100);
+            release.countDown();
+
+            assertThatThrownBy(leader::get).hasCauseInstanceOf(IllegalStateException.class);
+            if (followerCalls.get() == 0)
+                assertThatThrownBy(follower::get).hasRootCauseMessage("leader failed");
+            assertThat(singleFlight.inFlight()).isZero();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable, R> R sneakyThrow(Throwable throwable) throws T {
+        throw (T) throwable;
+    }
+}
@@ -0,0 +1,134 @@
+package com.alok.aws.iotcore.interceptor;
+
+import com.alok.aws.iotcore.configuration.IotRateLimitProperties;
+import com.alok.aws.iotcore.exception.RateLimitExceededException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.awscore.AwsExecutionAttribute;
+import software.amazon.awssdk.core.ClientType;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.regions.Region;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IotRateLimitInterceptorTest {
+
+    private final IotRateLimitInterceptor interceptor = new IotRateLimitInterceptor();
+
+    @BeforeEach
+    void setUp() {
+        IotRateLimitProperties properties = new IotRateLimitProperties();
+        properties.setBurst(2);
+        properties.setDefaultTps(1);
+        properties.setMaxWaitMillis(0);
+        properties.setMaxAsyncWaitMillis(0);
+        ReflectionTestUtils.setField(interceptor, "iotRateLimitProperties", properties);
+        interceptor.init();
+    }
+
+    @Test
+    void everyAttemptOfABlockingCallTakesAToken() {
+        ExecutionAttributes attributes = attributes(ClientType.SYNC);
+        interceptor.beforeExecution(null, attributes);
+
+        interceptor.beforeTransmission(null, attributes);
+        interceptor.beforeTransmission(null, attributes);
+        // the retry took the second token of the burst
+        assertThatThrownBy(() -> interceptor.beforeTransmission(null, attributes))
+                .isInstanceOf(RateLimitExceededException.class);
+    }
+
+    @Test
+    void firstAttemptReservedByExecuteIsNotChargedTwice() {
+        ExecutionAttributes attributes = attributes(ClientType.ASYNC);
+
+        CompletableFuture<String> call = interceptor.execute("ap-south-1", "ListThingPrincipals", () -> {
+            interceptor.beforeExecution(null, attributes);
+            interceptor.beforeTransmission(null, attributes);
+            return CompletableFuture.completedFuture("done");
+        });
+
+        assertThat(call.join()).isEqualTo("done");
+        // one token of the burst is left
+        interceptor.beforeExecution(null, attributes(ClientType.SYNC));
+        interceptor.beforeTransmission(null, attributes(ClientType.SYNC));
+        assertThatThrownBy(() -> interceptor.beforeTransmission(null, attributes(ClientType.SYNC)))
+                .isInstanceOf(RateLimitExceededException.class);
+    }
+
+    @Test
+    void asyncRetriesAreChargedWithoutWaiting() {
+        ExecutionAttributes attributes = attributes(ClientType.ASYNC);
+        interceptor.execute("ap-south-1", "ListThingPrincipals", () -> {
+            interceptor.beforeExecution(null, attributes);
+            interceptor.beforeTransmission(null, attributes);
+            return CompletableFuture.completedFuture("done");
+        }).join();
+
+        // retries on the SDK scheduler go out even beyond the burst, but run the bucket into debt
+        interceptor.beforeTransmission(null, attributes);
+        interceptor.beforeTransmission(null, attributes);
+        CompletableFuture<String> next = interceptor.execute("ap-south-1", "ListThingPrincipals",
+                () -> CompletableFuture.completedFuture("done"));
+        assertThat(next).isCompletedExceptionally();
+    }
+
+    @Test
+    void cancellingACallWaitingForItsTokenCancelsTheScheduledCall() throws InterruptedException {
+        waitUpToSecondsForTokens(5);
+        AtomicBoolean called = new AtomicBoolean();
+        CompletableFuture<String> waiting = interceptor.execute("ap-south-1", "ListThingPrincipals", () -> {
+            called.set(true);
+            return CompletableFuture.completedFuture("done");
+        });
+        assertThat(waiting).isNotDone();
+
+        waiting.cancel(false);
+        // the token would have been free after a second
+        Thread.sleep(1500);
+        assertThat(called).isFalse();
+    }
+
+    @Test
+    void cancellingAStartedCallCancelsTheCall() throws InterruptedException {
+        waitUpToSecondsForTokens(5);
+        CompletableFuture<String> inFlight = new CompletableFuture<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<String> call = interceptor.execute("ap-south-1", "ListThingPrincipals", () -> {
+            started.countDown();
+            return inFlight;
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        call.cancel(false);
+        // the call is hooked up to the result right after it started
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!inFlight.isDone() && System.nanoTime() < deadline)
+            Thread.yield();
+        assertThat(inFlight).isCancelled();
+    }
+
+    // uses up the burst, so the next call waits about a second for its token
+    private void waitUpToSecondsForTokens(int seconds) {
+        IotRateLimitProperties properties = (IotRateLimitProperties) ReflectionTestUtils.getField(interceptor, "iotRateLimitProperties");
+        properties.setMaxAsyncWaitMillis(TimeUnit.SECONDS.toMillis(seconds));
+        for (int i = 0; i < 2; i++)
+            interceptor.execute("ap-south-1", "ListThingPrincipals", () -> CompletableFuture.completedFuture("done")).join();
+    }
+
+    private static ExecutionAttributes attributes(ClientType clientType) {
+        ExecutionAttributes attributes = new ExecutionAttributes();
+        attributes.putAttribute(AwsExecutionAttribute.AWS_REGION, Region.AP_SOUTH_1);
+        attributes.putAttribute(SdkExecutionAttribute.OPERATION_NAME, "ListThingPrincipals");
+        attributes.putAttribute(SdkExecutionAttribute.CLIENT_TYPE, clientType);
+        return attributes;
+    }
+}
@@ -0,0 +1,114 @@
+package com.alok.aws.iotcore.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    @Test
+    void staysClosedBelowTheMinimumCalls() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(10, 4, 0.5, TimeUnit.SECONDS.toNanos(60));
+
+        for (int i = 0; i < 3; i++)
+            circuitBreaker.onFailure();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+    }
+
+    @Test
+    void opensAtTheFailureRateThreshold() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(10, 4, 0.5, TimeUnit.SECONDS.toNanos(60));
+
+        circuitBreaker.onSuccess();
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        circuitBreaker.onFailure();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.isOpen()).isTrue();
+        assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+    }
+
+    @Test
+    void failuresSlideOutOfTheWindow() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(4, 4, 0.75, TimeUnit.SECONDS.toNanos(60));
+
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        circuitBreaker.onSuccess();
+        circuitBreaker.onSuccess();
+        // the window is now failure, success, success, success
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void letsASingleProbeThroughOnceTheOpenPeriodIsOver() {
+        CircuitBreaker circuitBreaker = opened();
+
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+    }
+
+    @Test
+    void successfulProbeClosesTheBreaker() {
+        CircuitBreaker circuitBreaker = opened();
+        circuitBreaker.tryAcquirePermission();
+
+        circuitBreaker.onSuccess();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+    }
+
+    @Test
+    void failedProbeReopensTheBreaker() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 1, 0.5, TimeUnit.MILLISECONDS.toNanos(50));
+        circuitBreaker.onFailure();
+        sleep(60);
+        circuitBreaker.tryAcquirePermission();
+
+        circuitBreaker.onFailure();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+    }
+
+    @Test
+    void ignoredProbeFreesTheProbeSlot() {
+        CircuitBreaker circuitBreaker = opened();
+        circuitBreaker.tryAcquirePermission();
+
+        circuitBreaker.onIgnored();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+    }
+
+    // open for no time at all, the next permission is the probe
+    private static CircuitBreaker opened() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 1, 0.5, 0);
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        return circuitBreaker;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.alok.aws.iotcore.resilience;
+
+import com.alok.aws.iotcore.configuration.IotResilienceProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HedgedRequestsTest {
+
+    private static final long DELAY_MILLIS = 20;
+
+    private final HedgedRequests hedgedRequests = new HedgedRequests();
+    private final List<CompletableFuture<String>> calls = new CopyOnWriteArrayList<>();
+    private final List<String> callingThreads = new CopyOnWriteArrayList<>();
+    private RetryBudget retryBudget;
+
+    @BeforeEach
+    void setUp() {
+        IotResilienceProperties iotResilienceProperties = new IotResilienceProperties();
+        iotResilienceProperties.getHedge().setDelayMillis(DELAY_MILLIS);
+        iotResilienceProperties.getHedge().setThreads(2);
+        retryBudget = new RetryBudget(10, 0.1);
+        ReflectionTestUtils.setField(hedgedRequests, "iotResilienceProperties", iotResilienceProperties);
+        ReflectionTestUtils.setField(hedgedRequests, "retryBudget", retryBudget);
+        hedgedRequests.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        hedgedRequests.shutdown();
+    }
+
+    @Test
+    void fastAnswerIsNotHedged() throws InterruptedException {
+        CompletableFuture<String> result = hedgedRequests.execute(() -> CompletableFuture.completedFuture("fast"));
+
+        assertThat(result.join()).isEqualTo("fast");
+        Thread.sleep(3 * DELAY_MILLIS);
+        assertThat(retryBudget.getTokens()).isEqualTo(10.0);
+    }
+
+    @Test
+    void slowCallIsHedgedOnAWorkerAndTheFirstAnswerWins() {
+        CompletableFuture<String> result = hedgedRequests.execute(this::call);
+
+        CompletableFuture<String> hedge = awaitCall(1);
+        hedge.complete("hedge");
+
+        assertThat(result.join()).isEqualTo("hedge");
+        assertThat(calls.get(0)).isCancelled();
+        assertThat(callingThreads.get(1)).startsWith("hedged-request-worker-");
+        assertThat(retryBudget.getTokens()).isEqualTo(9.0);
+    }
+
+    @Test
+    void failureWaitsForTheOtherCall() {
+        CompletableFuture<String> result = hedgedRequests.execute(this::call);
+        awaitCall(1);
+
+        calls.get(0).completeExceptionally(new IllegalStateException("first"));
+        assertThat(result).isNotDone();
+        calls.get(1).complete("hedge");
+
+        assertThat(result.join()).isEqualTo("hedge");
+    }
+
+    @Test
+    void bothFailing() {
+        CompletableFuture<String> result = hedgedRequests.execute(this::call);
+        awaitCall(1);
+
+        calls.get(0).completeExceptionally(new IllegalStateException("first"));
+        calls.get(1).completeExceptionally(new IllegalStateException("hedge"));
+
+        assertThatThrownBy(() -> hedgedRequests.executeBlocking(() -> calls.get(0)))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(result).isCompletedExceptionally();
+    }
+
+    @Test
+    void noHedgeWithoutRetryBudget() throws InterruptedException {
+        while (retryBudget.tryAcquire()) {
+        }
+
+        CompletableFuture<String> result = hedgedRequests.execute(this::call);
+        Thread.sleep(5 * DELAY_MILLIS);
+
+        assertThat(calls).hasSize(1);
+        calls.get(0).complete("first");
+        assertThat(result.join()).isEqualTo("first");
+    }
+
+    @Test
+    void blockedHedgeDoesNotHoldUpOtherHedges() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        // e.g. a hedge waiting for a rate limit token
+        hedgedRequests.execute(blockingOnHedge(release));
+        Thread.sleep(3 * DELAY_MILLIS);
+
+        CompletableFuture<String> result = hedgedRequests.execute(this::call);
+        awaitCall(1).complete("hedge");
+
+        assertThat(result.join()).isEqualTo("hedge");
+        release.countDown();
+    }
+
+    @Test
+    void cancellingTheResultCancelsTheCallsAndTheHedge() throws InterruptedException {
+        CompletableFuture<String> result = hedgedRequests.execute(this::call);
+
+        result.cancel(false);
+        Thread.sleep(5 * DELAY_MILLIS);
+
+        assertThat(calls).hasSize(1);
+        assertThat(calls.get(0)).isCancelled();
+        assertThat(retryBudget.getTokens()).isEqualTo(10.0);
+    }
+
+    private Supplier<CompletableFuture<String>> blockingOnHedge(CountDownLatch release) {
+        return new Supplier<CompletableFuture<String>>() {
+            private boolean first = true;
+
+            @Override
+            public synchronized CompletableFuture<String> get() {
+                if (first) {
+                    first = false;
+                    return new CompletableFuture<>();
+                }
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                return new CompletableFuture<>();
+            }
+        };
+    }
+
+    private CompletableFuture<String> call() {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        callingThreads.add(Thread.currentThread().getName());
+        calls.add(call);
+        return call;
+    }
+
+    private CompletableFuture<String> awaitCall(int index) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (calls.size() <= index && System.nanoTime() < deadline)
+            Thread.yield();
+        assertThat(calls).hasSizeGreaterThan(index);
+        return calls.get(index);
+    }
+}
@@ -0,0 +1,40 @@
+package com.alok.aws.iotcore.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryBudgetTest {
+
+    @Test
+    void spendsUpToItsCapacity() {
+        RetryBudget retryBudget = new RetryBudget(2, 0.1);
+
+        assertThat(retryBudget.tryAcquire()).isTrue();
+        assertThat(retryBudget.tryAcquire()).isTrue();
+        assertThat(retryBudget.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void successesEarnBackAFractionOfAToken() {
+        RetryBudget retryBudget = new RetryBudget(1, 0.25);
+        retryBudget.tryAcquire();
+
+        for (int i = 0; i < 3; i++)
+            retryBudget.onSuccess();
+        assertThat(retryBudget.tryAcquire()).isFalse();
+
+        retryBudget.onSuccess();
+        assertThat(retryBudget.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void neverExceedsItsCapacity() {
+        RetryBudget retryBudget = new RetryBudget(1, 0.5);
+
+        for (int i = 0; i < 10; i++)
+            retryBudget.onSuccess();
+
+        assertThat(retryBudget.getTokens()).isEqualTo(1.0);
+    }
+}
@@ -0,0 +1,92 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.entity.AuditAction;
+import com.alok.aws.iotcore.entity.AuditEvent;
+import com.alok.aws.iotcore.repository.AuditEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class AuditLogTest {
+
+    private final AuditEventRepository auditEventRepository = mock(AuditEventRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AuditLog auditLog = new AuditLog();
+    private final List<AuditEvent> saved = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(auditLog, "auditEventRepository", auditEventRepository);
+        ReflectionTestUtils.setField(auditLog, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(auditLog, "enabled", true);
+        ReflectionTestUtils.setField(auditLog, "capacity", 64);
+        ReflectionTestUtils.setField(auditLog, "batchSize", 10);
+        ReflectionTestUtils.setField(auditLog, "maxDelayMillis", 5L);
+        ReflectionTestUtils.setField(auditLog, "sampleAbove", 1.0);
+        ReflectionTestUtils.setField(auditLog, "sampleRate", 1.0);
+        ReflectionTestUtils.setField(auditLog, "baseBackoffMillis", 5L);
+        ReflectionTestUtils.setField(auditLog, "maxBackoffMillis", 20L);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        auditLog.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void failedBatchIsKeptAndRetriedUntilWritten() throws Exception {
+        when(auditEventRepository.saveAll(any()))
+                .thenThrow(new DataAccessResourceFailureException("database down"))
+                .thenThrow(new DataAccessResourceFailureException("database down"))
+                .thenAnswer(invocation -> {
+                    ((Iterable<AuditEvent>) invocation.getArgument(0)).forEach(saved::add);
+                    return null;
+                });
+        auditLog.init();
+
+        for (int i = 0; i < 3; i++)
+            auditLog.record(AuditAction.REGISTRATION, "thing-" + i, "ap-south-1", null, null, System.nanoTime());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (count("written") < 3 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+
+        assertThat(saved).extracting(AuditEvent::getDeviceName).containsExactly("thing-0", "thing-1", "thing-2");
+        assertThat(count("retried")).isGreaterThanOrEqualTo(6);
+        assertThat(count("lost")).isZero();
+    }
+
+    @Test
+    void batchStillFailingAtShutdownIsCountedLost() throws Exception {
+        when(auditEventRepository.saveAll(any())).thenThrow(new DataAccessResourceFailureException("database down"));
+        auditLog.init();
+
+        auditLog.record(AuditAction.STATUS_UPDATE, "thing", "ap-south-1", "REVOKED", null, System.nanoTime());
+        auditLog.record(AuditAction.STATUS_UPDATE, "other-thing", "ap-south-1", "REVOKED", null, System.nanoTime());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (count("retried") < 2 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertThat(count("lost")).isZero();
+
+        auditLog.shutdown();
+
+        assertThat(count("lost")).isEqualTo(2);
+        assertThat(count("written")).isZero();
+    }
+
+    private double count(String result) {
+        return meterRegistry.get(AuditLog.EVENTS).tag("result", result).counter().count();
+    }
+}
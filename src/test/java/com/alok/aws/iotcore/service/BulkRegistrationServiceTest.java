@@ -0,0 +1,75 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.concurrent.FanOutResult;
+import com.alok.aws.iotcore.model.DeviceRegistrationRequest;
+import com.alok.aws.iotcore.model.DeviceRegistrationResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BulkRegistrationServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AsyncThingService asyncThingService = mock(AsyncThingService.class);
+    private final BulkRegistrationService bulkRegistrationService = new BulkRegistrationService();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(bulkRegistrationService, "asyncThingService", asyncThingService);
+        ReflectionTestUtils.setField(bulkRegistrationService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(bulkRegistrationService, "maxInFlight", 2);
+    }
+
+    @Test
+    void everyElementGetsOneResultUntilTheStreamBreaks() throws Exception {
+        FanOutResult succeeded = mock(FanOutResult.class);
+        when(succeeded.isSuccessful()).thenReturn(true);
+        CompletableFuture<FanOutResult> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("boom"));
+        when(asyncThingService.createThingAndRegisterCertificateAllRegions(any())).thenAnswer(invocation -> {
+            String deviceName = invocation.<DeviceRegistrationRequest>getArgument(0).getDeviceName();
+            if ("thrown".equals(deviceName))
+                throw new IllegalStateException("thrown");
+            return "failed".equals(deviceName) ? failed : CompletableFuture.completedFuture(succeeded);
+        });
+
+        String requests = "{\"DeviceName\":\"thing\"}\n"
+                + "{\"DeviceName\":{\"nested\":[1,2]}}\n"
+                + "{\"DeviceName\":\"failed\"}\n"
+                + "{\"DeviceName\":\"thrown\"}\n"
+                + "{\"DeviceName\":\"other-thing\"}\n"
+                + "{\"DeviceName\": broken\n"
+                + "{\"DeviceName\":\"never-read\"}\n";
+        ByteArrayOutputStream results = new ByteArrayOutputStream();
+        bulkRegistrationService.registerDevices(new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8)), results);
+
+        List<DeviceRegistrationResult> written = new ArrayList<>();
+        for (String line : results.toString(StandardCharsets.UTF_8.name()).split("\n"))
+            written.add(objectMapper.readValue(line, DeviceRegistrationResult.class));
+        assertThat(written)
+                .extracting(DeviceRegistrationResult::getDeviceName, DeviceRegistrationResult::getStatus)
+                .containsExactly(
+                        tuple("thing", 201),
+                        tuple(null, 400),
+                        tuple("failed", 500),
+                        tuple("thrown", 500),
+                        tuple("other-thing", 201),
+                        tuple(null, 400));
+        assertThat(written.get(1).getErrors()).singleElement().asString().startsWith("Malformed request, element 2");
+        assertThat(written.get(5).getErrors()).singleElement().asString().startsWith("Malformed request, element 6");
+    }
+}
@@ -0,0 +1,171 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.entity.Device;
+import com.alok.aws.iotcore.entity.DeviceRegionState;
+import com.alok.aws.iotcore.exception.InvalidRequestException;
+import com.alok.aws.iotcore.model.DeviceResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.when;
+
+@DataJpaTest
+@Import({DeviceInventoryService.class, ObjectMapper.class})
+class DeviceInventoryServiceTest {
+
+    private static final String CURRENT_REGION = "ap-south-1";
+    private static final String OTHER_REGION = "eu-west-1";
+    private static final Instant T0 = Instant.parse("2026-01-01T00:00:00Z");
+
+    @Autowired
+    private DeviceInventoryService deviceInventoryService;
+
+    @Autowired
+    private TestEntityManager testEntityManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @MockBean
+    private IotClientRegistry iotClientRegistry;
+
+    @BeforeEach
+    void setUp() {
+        when(iotClientRegistry.getCurrentRegion()).thenReturn(CURRENT_REGION);
+        when(iotClientRegistry.getRegions()).thenReturn(Arrays.asList(CURRENT_REGION, OTHER_REGION));
+
+        device("plant-a-1", CURRENT_REGION, "ACTIVE", T0);
+        device("plant-a-2", CURRENT_REGION, "INACTIVE", T0.plusSeconds(60));
+        device("plant-a-3", OTHER_REGION, "ACTIVE", T0.plusSeconds(120));
+        device("plant_b-1", CURRENT_REGION, "ACTIVE", T0.plusSeconds(180));
+        device("plantXb-1", CURRENT_REGION, "ACTIVE", T0.plusSeconds(240));
+        testEntityManager.persist(Device.builder().deviceName("plant-c-1").build());
+        testEntityManager.flush();
+    }
+
+    @Test
+    void selectsByPrefixInNameOrder() {
+        assertThat(deviceInventoryService.findDeviceNames("plant-a-", null, null, null, null, "", 10))
+                .containsExactly("plant-a-1", "plant-a-2", "plant-a-3");
+        assertThat(deviceInventoryService.findDeviceNames("", null, null, null, null, "", 10))
+                .containsExactly("plant-a-1", "plant-a-2", "plant-a-3", "plant-c-1", "plantXb-1", "plant_b-1");
+    }
+
+    @Test
+    void prefixWildcardsAreLiterals() {
+        assertThat(deviceInventoryService.findDeviceNames("plant_b", null, null, null, null, "", 10))
+                .containsExactly("plant_b-1");
+    }
+
+    @Test
+    void pagesAfterTheLastName() {
+        assertThat(deviceInventoryService.findDeviceNames("", null, null, null, null, "", 2))
+                .containsExactly("plant-a-1", "plant-a-2");
+        assertThat(deviceInventoryService.findDeviceNames("", null, null, null, null, "plant-a-2", 2))
+                .containsExactly("plant-a-3", "plant-c-1");
+    }
+
+    @Test
+    void filtersByCertificateStatusInTheCurrentRegionByDefault() {
+        assertThat(deviceInventoryService.findDeviceNames("plant-a-", "ACTIVE", null, null, null, "", 10))
+                .containsExactly("plant-a-1");
+        assertThat(deviceInventoryService.findDeviceNames("plant-a-", "ACTIVE", OTHER_REGION, null, null, "", 10))
+                .containsExactly("plant-a-3");
+    }
+
+    @Test
+    void filtersByRegistrationWindow() {
+        assertThat(deviceInventoryService.findDeviceNames("", null, null, T0.plusSeconds(60), T0.plusSeconds(240), "", 10))
+                .containsExactly("plant-a-2", "plant_b-1");
+    }
+
+    @Test
+    void devicePagesSeekPastTheLastNameUntilEmpty() {
+        List<String> deviceNames = new ArrayList<>();
+        String after = null;
+        List<DeviceResponse> page;
+        do {
+            page = deviceInventoryService.getDevices(null, null, null, after, 4);
+            assertThat(page.size()).isLessThanOrEqualTo(4);
+            page.forEach(device -> deviceNames.add(device.getDeviceName()));
+            after = page.isEmpty() ? after : page.get(page.size() - 1).getDeviceName();
+        } while (!page.isEmpty());
+
+        assertThat(deviceNames).containsExactly("plant-a-1", "plant-a-2", "plant-a-3", "plant-c-1", "plantXb-1", "plant_b-1");
+        assertThat(deviceInventoryService.getDevices(null, null, null, "plant-a-1", 2))
+                .extracting(DeviceResponse::getDeviceName, DeviceResponse::getCertificateId)
+                .containsExactly(tuple("plant-a-2", "plant-a-2-cert"), tuple("plant-a-3", "plant-a-3-cert"));
+    }
+
+    @Test
+    void devicePagesKeepTheFiltersAndClampTheLimit() {
+        assertThat(deviceInventoryService.getDevices(null, "ACTIVE", null, "plant-a-1", 10))
+                .extracting(DeviceResponse::getDeviceName)
+                .containsExactly("plantXb-1", "plant_b-1");
+        assertThat(deviceInventoryService.getDevices("plant-a-3-cert", null, null, null, 10))
+                .extracting(DeviceResponse::getDeviceName)
+                .containsExactly("plant-a-3");
+
+        ReflectionTestUtils.setField(deviceInventoryService, "maxPageSize", 3);
+        assertThat(deviceInventoryService.getDevices(null, null, null, null, 100)).hasSize(3);
+        assertThat(deviceInventoryService.getDevices(null, null, null, null, 0)).hasSize(1);
+    }
+
+    @Test
+    void exportReadsEveryChunkOnce() throws Exception {
+        // six devices in chunks of two, the last chunk is full and an empty one ends the export
+        ReflectionTestUtils.setField(deviceInventoryService, "fetchSize", 2);
+
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        deviceInventoryService.export(null, null, null, DeviceInventoryService.ExportFormat.NDJSON, ndjson);
+        List<String> exported = new ArrayList<>();
+        for (String line : ndjson.toString(StandardCharsets.UTF_8.name()).split("\n"))
+            exported.add(objectMapper.readValue(line, DeviceResponse.class).getDeviceName());
+        assertThat(exported).containsExactly("plant-a-1", "plant-a-2", "plant-a-3", "plant-c-1", "plantXb-1", "plant_b-1");
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        deviceInventoryService.export(null, "ACTIVE", null, DeviceInventoryService.ExportFormat.CSV, csv);
+        assertThat(csv.toString(StandardCharsets.UTF_8.name()).split("\n"))
+                .containsExactly("DeviceName,CertificateId,CertificateArn",
+                        "plant-a-1,plant-a-1-cert,", "plantXb-1,plantXb-1-cert,", "plant_b-1,plant_b-1-cert,");
+    }
+
+    @Test
+    void rejectsUnknownStatusAndRegion() {
+        assertThatThrownBy(() -> deviceInventoryService.validate("DELETED", null))
+                .isInstanceOf(InvalidRequestException.class);
+        assertThatThrownBy(() -> deviceInventoryService.validate(null, "us-east-1"))
+                .isInstanceOf(InvalidRequestException.class);
+    }
+
+    private void device(String deviceName, String region, String certificateStatus, Instant createdAt) {
+        testEntityManager.persist(Device.builder()
+                .deviceName(deviceName)
+                .awsDeviceCertId(deviceName + "-cert")
+                .build());
+        testEntityManager.persist(DeviceRegionState.builder()
+                .deviceName(deviceName)
+                .region(region)
+                .certificateStatus(certificateStatus)
+                .createdAt(createdAt)
+                .build());
+    }
+}
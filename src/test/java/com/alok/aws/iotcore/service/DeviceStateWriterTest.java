@@ -0,0 +1,175 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.entity.Device;
+import com.alok.aws.iotcore.entity.DeviceRegionState;
+import com.alok.aws.iotcore.entity.DeviceRegionStateId;
+import com.alok.aws.iotcore.repository.DeviceRegionStateRepository;
+import com.alok.aws.iotcore.repository.DeviceRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DataJpaTest
+// the writer commits its own transactions
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class DeviceStateWriterTest {
+
+    private static final String REGION = "ap-south-1";
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Autowired
+    private DeviceRegionStateRepository deviceRegionStateRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private DeviceStateWriter deviceStateWriter;
+
+    @BeforeEach
+    void setUp() {
+        deviceStateWriter = new DeviceStateWriter();
+        ReflectionTestUtils.setField(deviceStateWriter, "deviceRepository", deviceRepository);
+        ReflectionTestUtils.setField(deviceStateWriter, "deviceRegionStateRepository", deviceRegionStateRepository);
+        ReflectionTestUtils.setField(deviceStateWriter, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(deviceStateWriter, "entityManager", entityManager);
+        ReflectionTestUtils.setField(deviceStateWriter, "batchSize", 100);
+        ReflectionTestUtils.setField(deviceStateWriter, "maxDelayMillis", 5L);
+        ReflectionTestUtils.setField(deviceStateWriter, "queueCapacity", 100);
+        // no writer thread, flush() writes everything queued as one batch
+        ReflectionTestUtils.setField(deviceStateWriter, "queue", new LinkedBlockingQueue<>(100));
+        ReflectionTestUtils.setField(deviceStateWriter, "transactionTemplate", new TransactionTemplate(transactionManager));
+    }
+
+    @AfterEach
+    void tearDown() {
+        deviceRegionStateRepository.deleteAll();
+        deviceRepository.deleteAll();
+    }
+
+    @Test
+    void insertsAndUpdatesTheRowsOfABatch() {
+        Device device = Device.builder().deviceName("thing").awsDeviceCertId("cert").build();
+        DeviceRegionState first = state("thing");
+        DeviceRegionState second = state("other-thing");
+        CompletableFuture<Void> deviceWritten = deviceStateWriter.write(device);
+        CompletableFuture<Void> firstWritten = deviceStateWriter.write(first);
+        CompletableFuture<Void> secondWritten = deviceStateWriter.write(second);
+
+        flush();
+
+        assertThat(CompletableFuture.allOf(deviceWritten, firstWritten, secondWritten)).isCompleted();
+        assertThat(deviceRepository.findOneByDeviceName("thing").getAwsDeviceCertId()).isEqualTo("cert");
+        assertThat(deviceRegionStateRepository.count()).isEqualTo(2);
+        assertThat(first.getVersion()).isZero();
+        assertThat(first.getCreatedAt()).isNotNull();
+
+        first.setCertificateStatus("INACTIVE");
+        device.setAwsDeviceCertArn("arn");
+        CompletableFuture<Void> updated = CompletableFuture.allOf(deviceStateWriter.write(first), deviceStateWriter.write(device));
+
+        flush();
+
+        assertThat(updated).isCompleted();
+        assertThat(first.getVersion()).isEqualTo(1);
+        assertThat(reload("thing").getCertificateStatus()).isEqualTo("INACTIVE");
+        assertThat(deviceRepository.findOneByDeviceName("thing").getAwsDeviceCertArn()).isEqualTo("arn");
+    }
+
+    @Test
+    void staleOrUnreadStateFailsOnlyItself() {
+        DeviceRegionState stored = state("thing");
+        deviceStateWriter.write(stored);
+        flush();
+
+        DeviceRegionState stale = reload("thing");
+        stored.setCertificateStatus("INACTIVE");
+        deviceStateWriter.write(stored);
+        flush();
+
+        stale.setCertificateStatus("REVOKED");
+        DeviceRegionState unread = state("thing");
+        unread.setCertificateStatus("REVOKED");
+        DeviceRegionState other = state("other-thing");
+        CompletableFuture<Void> staleWritten = deviceStateWriter.write(stale);
+        CompletableFuture<Void> otherWritten = deviceStateWriter.write(other);
+        CompletableFuture<Void> unreadWritten = deviceStateWriter.write(unread);
+
+        flush();
+
+        assertThatThrownBy(staleWritten::join).hasCauseInstanceOf(OptimisticLockException.class);
+        assertThatThrownBy(unreadWritten::join).hasCauseInstanceOf(OptimisticLockException.class);
+        assertThat(otherWritten).isCompleted();
+        assertThat(reload("thing").getCertificateStatus()).isEqualTo("INACTIVE");
+        assertThat(reload("other-thing")).isNotNull();
+    }
+
+    @Test
+    void writeIsRejectedWhenTheQueueIsFull() {
+        ReflectionTestUtils.setField(deviceStateWriter, "queue", new LinkedBlockingQueue<>(1));
+
+        CompletableFuture<Void> queued = deviceStateWriter.write(state("thing"));
+        CompletableFuture<Void> rejected = deviceStateWriter.write(state("other-thing"));
+
+        assertThat(queued).isNotDone();
+        assertThatThrownBy(rejected::join).hasCauseInstanceOf(RejectedExecutionException.class);
+        flush();
+        assertThat(queued).isCompleted();
+    }
+
+    @Test
+    void writeAfterShutdownIsRejected() throws Exception {
+        deviceStateWriter.init();
+        CompletableFuture<Void> written = deviceStateWriter.write(state("thing"));
+
+        deviceStateWriter.shutdown();
+        CompletableFuture<Void> rejected = deviceStateWriter.write(state("other-thing"));
+
+        assertThat(written).isCompleted();
+        assertThatThrownBy(rejected::join).hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(reload("other-thing")).isNull();
+    }
+
+    private void flush() {
+        BlockingQueue<?> queue = (BlockingQueue<?>) ReflectionTestUtils.getField(deviceStateWriter, "queue");
+        List<Object> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        ReflectionTestUtils.invokeMethod(deviceStateWriter, "flush", batch);
+    }
+
+    private DeviceRegionState reload(String deviceName) {
+        return deviceRegionStateRepository.findById(new DeviceRegionStateId(deviceName, REGION)).orElse(null);
+    }
+
+    private static DeviceRegionState state(String deviceName) {
+        return DeviceRegionState.builder()
+                .deviceName(deviceName)
+                .region(REGION)
+                .certificateStatus("ACTIVE")
+                .build();
+    }
+}
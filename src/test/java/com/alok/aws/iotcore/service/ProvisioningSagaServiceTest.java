@@ -0,0 +1,222 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.certificate.CertificateFingerprint;
+import com.alok.aws.iotcore.certificate.CertificateValidator;
+import com.alok.aws.iotcore.certificate.TestCertificates;
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.entity.Device;
+import com.alok.aws.iotcore.entity.ProvisioningOperation;
+import com.alok.aws.iotcore.entity.ProvisioningSaga;
+import com.alok.aws.iotcore.entity.SagaStatus;
+import com.alok.aws.iotcore.entity.SagaStep;
+import com.alok.aws.iotcore.entity.SagaStepStatus;
+import com.alok.aws.iotcore.exception.InvalidRequestException;
+import com.alok.aws.iotcore.exception.RegionUnavailableException;
+import com.alok.aws.iotcore.repository.DeviceRepository;
+import com.alok.aws.iotcore.repository.ProvisioningSagaRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ProvisioningSagaServiceTest {
+
+    private static final TestCertificates CERTIFICATES = new TestCertificates();
+
+    private final ProvisioningSagaRepository provisioningSagaRepository = mock(ProvisioningSagaRepository.class);
+    private final AsyncThingService asyncThingService = mock(AsyncThingService.class);
+    private final ThingService thingService = mock(ThingService.class);
+    private final IotClientRegistry iotClientRegistry = mock(IotClientRegistry.class);
+    private final DeviceRepository deviceRepository = mock(DeviceRepository.class);
+    private final ProvisioningSagaService provisioningSagaService = new ProvisioningSagaService();
+    private final ExecutorService workers = Executors.newFixedThreadPool(2);
+
+    @BeforeEach
+    void setUp() {
+        when(iotClientRegistry.getRegions()).thenReturn(Arrays.asList("ap-south-1", "eu-west-1"));
+        ReflectionTestUtils.setField(provisioningSagaService, "provisioningSagaRepository", provisioningSagaRepository);
+        ReflectionTestUtils.setField(provisioningSagaService, "asyncThingService", asyncThingService);
+        ReflectionTestUtils.setField(provisioningSagaService, "thingService", thingService);
+        ReflectionTestUtils.setField(provisioningSagaService, "iotClientRegistry", iotClientRegistry);
+        ReflectionTestUtils.setField(provisioningSagaService, "deviceRepository", deviceRepository);
+        ReflectionTestUtils.setField(provisioningSagaService, "certificateValidator", mock(CertificateValidator.class));
+        ReflectionTestUtils.setField(provisioningSagaService, "batchSize", 50);
+        ReflectionTestUtils.setField(provisioningSagaService, "maxAttempts", 2);
+        ReflectionTestUtils.setField(provisioningSagaService, "maxCompensationAttempts", 2);
+        ReflectionTestUtils.setField(provisioningSagaService, "baseBackoffMillis", 10L);
+        ReflectionTestUtils.setField(provisioningSagaService, "maxBackoffMillis", 100L);
+        // the dispatcher isn't started, the tests dispatch themselves
+        ReflectionTestUtils.setField(provisioningSagaService, "workers", workers);
+    }
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    void invalidStatusIsRejectedBeforeTheSagaIsRecorded() {
+        assertThatThrownBy(() -> provisioningSagaService.startStatusUpdate("thing", "ACTIV"))
+                .isInstanceOf(InvalidRequestException.class);
+        assertThatThrownBy(() -> provisioningSagaService.startStatusUpdate("thing", null))
+                .isInstanceOf(InvalidRequestException.class);
+        assertThatThrownBy(() -> provisioningSagaService.startStatusUpdate("thing", "PENDING_TRANSFER"))
+                .isInstanceOf(InvalidRequestException.class);
+
+        verify(provisioningSagaRepository, never()).save(any());
+    }
+
+    @Test
+    void registrationSucceedsOnceEveryRegionIsDone() {
+        when(asyncThingService.provision(any(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+        ProvisioningSaga saga = registration();
+
+        dispatch(saga);
+
+        assertThat(saga.getStatus()).isEqualTo(SagaStatus.SUCCEEDED);
+        assertThat(saga.getSteps()).extracting(SagaStep::getStatus).containsOnly(SagaStepStatus.DONE);
+        verify(deviceRepository, never()).delete(any());
+    }
+
+    @Test
+    void failedRegionIsRetriedWithoutRedoingTheOthers() {
+        when(asyncThingService.provision(any(), eq("ap-south-1"))).thenReturn(CompletableFuture.completedFuture(null));
+        when(asyncThingService.provision(any(), eq("eu-west-1"))).thenReturn(failed(new IllegalStateException("boom")));
+        ProvisioningSaga saga = registration();
+
+        dispatch(saga);
+
+        assertThat(saga.getStatus()).isEqualTo(SagaStatus.PENDING);
+        assertThat(saga.getAttempts()).isEqualTo(1);
+        assertThat(saga.getNextAttemptAt()).isAfter(Instant.now().minusSeconds(1));
+        assertThat(saga.getError()).isEqualTo("eu-west-1: boom");
+
+        when(asyncThingService.provision(any(), eq("eu-west-1"))).thenReturn(CompletableFuture.completedFuture(null));
+        dispatch(saga);
+
+        assertThat(saga.getStatus()).isEqualTo(SagaStatus.SUCCEEDED);
+        verify(asyncThingService, times(1)).provision(any(), eq("ap-south-1"));
+    }
+
+    @Test
+    void regionOutageDoesNotUseUpAttempts() {
+        when(asyncThingService.provision(any(), anyString())).thenReturn(failed(new RegionUnavailableException("eu-west-1 unavailable")));
+        ProvisioningSaga saga = registration();
+
+        dispatch(saga);
+        dispatch(saga);
+        dispatch(saga);
+
+        assertThat(saga.getStatus()).isEqualTo(SagaStatus.PENDING);
+        assertThat(saga.getAttempts()).isZero();
+    }
+
+    @Test
+    void registrationIsCompensatedAfterTheLastAttemptAndItsDeviceDeleted() {
+        when(asyncThingService.provision(any(), eq("ap-south-1"))).thenReturn(CompletableFuture.completedFuture(null));
+        when(asyncThingService.provision(any(), eq("eu-west-1"))).thenReturn(failed(new IllegalStateException("boom")));
+        ProvisioningSaga saga = registration();
+        Device device = new Device("thing", CertificateFingerprint.certificateId(saga.getCertificatePem()), "arn");
+        when(deviceRepository.findOneByDeviceName("thing")).thenReturn(device);
+
+        dispatch(saga);
+        dispatch(saga);
+
+        assertThat(saga.getStatus()).isEqualTo(SagaStatus.COMPENSATING);
+        assertThat(saga.getAttempts()).isZero();
+
+        dispatch(saga);
+
+        assertThat(saga.getStatus()).isEqualTo(SagaStatus.COMPENSATED);
+        assertThat(saga.getSteps()).extracting(SagaStep::getStatus).containsOnly(SagaStepStatus.COMPENSATED);
+        // only the certificate of this saga is removed, not whatever the regions hold by now
+        String certificateId = CertificateFingerprint.certificateId(saga.getCertificatePem());
+        verify(thingService).deprovision("thing", "ap-south-1", certificateId);
+        verify(thingService).deprovision("thing", "eu-west-1", certificateId);
+        verify(deviceRepository).delete(device);
+    }
+
+    @Test
+    void deviceOfALaterRegistrationIsKept() {
+        ProvisioningSaga saga = registration();
+        saga.setStatus(SagaStatus.COMPENSATING);
+        when(deviceRepository.findOneByDeviceName("thing")).thenReturn(new Device("thing", "other-certificate", "arn"));
+
+        dispatch(saga);
+
+        assertThat(saga.getStatus()).isEqualTo(SagaStatus.COMPENSATED);
+        verify(deviceRepository, never()).delete(any());
+    }
+
+    @Test
+    void compensationGivesUpAfterItsLastAttempt() {
+        doThrow(new IllegalStateException("still failing")).when(thingService).deprovision(eq("thing"), eq("eu-west-1"), anyString());
+        ProvisioningSaga saga = registration();
+        saga.setStatus(SagaStatus.COMPENSATING);
+
+        dispatch(saga);
+
+        assertThat(saga.getStatus()).isEqualTo(SagaStatus.COMPENSATING);
+
+        dispatch(saga);
+
+        assertThat(saga.getStatus()).isEqualTo(SagaStatus.FAILED);
+        assertThat(saga.getError()).isEqualTo("eu-west-1: still failing");
+        verify(deviceRepository, never()).delete(any());
+    }
+
+    @Test
+    void statusUpdateIsNotCompensated() throws Exception {
+        doThrow(new IllegalStateException("boom")).when(thingService).changeCertStatus("thing", "INACTIVE", "eu-west-1");
+        ProvisioningSaga saga = registration();
+        saga.setOperation(ProvisioningOperation.STATUS_UPDATE);
+        saga.setNewStatus("INACTIVE");
+
+        dispatch(saga);
+        dispatch(saga);
+
+        assertThat(saga.getStatus()).isEqualTo(SagaStatus.FAILED);
+        verify(thingService, never()).deprovision(anyString(), anyString(), anyString());
+    }
+
+    private void dispatch(ProvisioningSaga saga) {
+        when(provisioningSagaRepository.findByStatusInAndNextAttemptAtLessThanEqualOrderByNextAttemptAt(any(), any(), any()))
+                .thenReturn(Collections.singletonList(saga));
+        ReflectionTestUtils.invokeMethod(provisioningSagaService, "dispatch");
+    }
+
+    private static ProvisioningSaga registration() {
+        return ProvisioningSaga.builder()
+                .sagaId("saga")
+                .operation(ProvisioningOperation.REGISTRATION)
+                .deviceName("thing")
+                .certificatePem(CERTIFICATES.deviceCertificatePem("thing"))
+                .caCertificatePem(CERTIFICATES.getCaCertificatePem())
+                .status(SagaStatus.PENDING)
+                .steps(Arrays.asList(
+                        SagaStep.builder().region("ap-south-1").status(SagaStepStatus.PENDING).build(),
+                        SagaStep.builder().region("eu-west-1").status(SagaStepStatus.PENDING).build()))
+                .nextAttemptAt(Instant.now())
+                .build();
+    }
+
+    private static CompletableFuture<Void> failed(Throwable throwable) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+}
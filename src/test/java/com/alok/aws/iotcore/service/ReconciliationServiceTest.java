@@ -0,0 +1,273 @@
+package com.alok.aws.iotcore.service;
+
+import com.alok.aws.iotcore.cache.CertificateArnCache;
+import com.alok.aws.iotcore.configuration.IotClientRegistry;
+import com.alok.aws.iotcore.entity.Device;
+import com.alok.aws.iotcore.entity.DeviceRegionState;
+import com.alok.aws.iotcore.entity.DeviceRegionStateId;
+import com.alok.aws.iotcore.entity.FindingKind;
+import com.alok.aws.iotcore.entity.JobStatus;
+import com.alok.aws.iotcore.entity.ProvisioningOperation;
+import com.alok.aws.iotcore.entity.ProvisioningSaga;
+import com.alok.aws.iotcore.entity.ProvisioningStatus;
+import com.alok.aws.iotcore.entity.ReconciliationFinding;
+import com.alok.aws.iotcore.entity.ReconciliationRun;
+import com.alok.aws.iotcore.entity.SagaStatus;
+import com.alok.aws.iotcore.exception.InvalidRequestException;
+import com.alok.aws.iotcore.model.ReconciliationRequest;
+import com.alok.aws.iotcore.repository.DeviceRegionStateRepository;
+import com.alok.aws.iotcore.repository.DeviceRepository;
+import com.alok.aws.iotcore.repository.ProvisioningSagaRepository;
+import com.alok.aws.iotcore.repository.ReconciliationFindingRepository;
+import com.alok.aws.iotcore.repository.ReconciliationRunRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import software.amazon.awssdk.services.iot.IotAsyncClient;
+import software.amazon.awssdk.services.iot.IotClient;
+import software.amazon.awssdk.services.iot.model.Certificate;
+import software.amazon.awssdk.services.iot.model.CertificateStatus;
+import software.amazon.awssdk.services.iot.model.DeleteThingRequest;
+import software.amazon.awssdk.services.iot.model.ListCertificatesRequest;
+import software.amazon.awssdk.services.iot.model.ListCertificatesResponse;
+import software.amazon.awssdk.services.iot.model.ListThingPrincipalsRequest;
+import software.amazon.awssdk.services.iot.model.ListThingPrincipalsResponse;
+import software.amazon.awssdk.services.iot.model.ListThingsRequest;
+import software.amazon.awssdk.services.iot.model.ListThingsResponse;
+import software.amazon.awssdk.services.iot.model.ThingAttribute;
+import software.amazon.awssdk.services.iot.model.UpdateCertificateRequest;
+import software.amazon.awssdk.services.iot.paginators.ListCertificatesIterable;
+import software.amazon.awssdk.services.iot.paginators.ListThingsIterable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@DataJpaTest
+@Import({ReconciliationService.class, ReconciliationServiceTest.Regions.class})
+// the run reads on its own threads, the rows have to be committed
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ReconciliationServiceTest {
+
+    private static final String REGION = "ap-south-1";
+    private static final IotClient IOT_CLIENT = mock(IotClient.class);
+    private static final IotAsyncClient IOT_ASYNC_CLIENT = mock(IotAsyncClient.class);
+
+    @TestConfiguration
+    static class Regions {
+        // the service sizes its executor from the regions when it's created
+        @Bean
+        IotClientRegistry iotClientRegistry() {
+            IotClientRegistry iotClientRegistry = mock(IotClientRegistry.class);
+            when(iotClientRegistry.getRegions()).thenReturn(Collections.singletonList(REGION));
+            when(iotClientRegistry.client(REGION)).thenReturn(IOT_CLIENT);
+            when(iotClientRegistry.asyncClient(REGION)).thenReturn(IOT_ASYNC_CLIENT);
+            return iotClientRegistry;
+        }
+    }
+
+    @Autowired
+    private ReconciliationService reconciliationService;
+
+    @Autowired
+    private DeviceRepository deviceRepository;
+
+    @Autowired
+    private DeviceRegionStateRepository deviceRegionStateRepository;
+
+    @Autowired
+    private ProvisioningSagaRepository provisioningSagaRepository;
+
+    @Autowired
+    private ReconciliationRunRepository reconciliationRunRepository;
+
+    @Autowired
+    private ReconciliationFindingRepository reconciliationFindingRepository;
+
+    @MockBean
+    private CertificateArnCache certificateArnCache;
+
+    private final Instant past = Instant.now().minus(Duration.ofDays(1));
+    private final Instant future = Instant.now().plus(Duration.ofDays(1));
+
+    @BeforeEach
+    void setUp() {
+        reset(IOT_CLIENT, IOT_ASYNC_CLIENT);
+        ReflectionTestUtils.setField(reconciliationService, "repairEnabled", true);
+
+        deviceRepository.save(new Device("known", "cert-known", "arn:cert/cert-known"));
+        deviceRepository.save(new Device("missing", "cert-missing", "arn:cert/cert-missing"));
+        regionState("left-over", "cert-left-over", ProvisioningStatus.FAILED, past);
+        regionState("compensated", "cert-compensated", ProvisioningStatus.DEPROVISIONED, past);
+        regionState("in-flight", "cert-in-flight", ProvisioningStatus.PENDING, past);
+        regionState("saga-open", "cert-saga-open", ProvisioningStatus.FAILED, past);
+        regionState("changed", "cert-changed", ProvisioningStatus.FAILED, future);
+        provisioningSagaRepository.save(ProvisioningSaga.builder()
+                .sagaId("saga")
+                .operation(ProvisioningOperation.REGISTRATION)
+                .deviceName("saga-open")
+                .status(SagaStatus.PENDING)
+                .build());
+
+        things("known", "left-over", "foreign", "in-flight", "saga-open", "changed", "attached");
+        regionState("attached", null, ProvisioningStatus.FAILED, past);
+        when(IOT_CLIENT.listCertificatesPaginator(any(ListCertificatesRequest.class)))
+                .thenAnswer(invocation -> new ListCertificatesIterable(IOT_CLIENT, invocation.getArgument(0)));
+        when(IOT_CLIENT.listCertificates(any(ListCertificatesRequest.class))).thenReturn(ListCertificatesResponse.builder()
+                .certificates(
+                        certificate("cert-known", past),
+                        certificate("cert-left-over", past),
+                        certificate("cert-compensated", future),
+                        certificate("cert-foreign", past),
+                        certificate("cert-in-flight", past))
+                .build());
+        when(IOT_ASYNC_CLIENT.listThingPrincipals(any(ListThingPrincipalsRequest.class))).thenAnswer(invocation -> {
+            ListThingPrincipalsRequest request = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(ListThingPrincipalsResponse.builder()
+                    .principals("attached".equals(request.thingName())
+                            ? Collections.singletonList("arn:aws:iot:ap-south-1:1:cert/cert-other")
+                            : Collections.<String>emptyList())
+                    .build());
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        reconciliationFindingRepository.deleteAll();
+        reconciliationRunRepository.deleteAll();
+        provisioningSagaRepository.deleteAll();
+        deviceRegionStateRepository.deleteAll();
+        deviceRepository.deleteAll();
+    }
+
+    @Test
+    void detectionOnlyReportsTheDiffAndChangesNothing() throws Exception {
+        ReconciliationRun reconciliationRun = run(false);
+
+        assertThat(reconciliationRun.getStatus()).isEqualTo(JobStatus.SUCCEEDED);
+        assertThat(reconciliationRun.getThingsScanned()).isEqualTo(7);
+        assertThat(reconciliationRun.getCertificatesScanned()).isEqualTo(5);
+        assertThat(reconciliationRun.getDevicesScanned()).isEqualTo(2);
+        assertThat(keys(reconciliationRun, FindingKind.ORPHAN_THING))
+                .containsExactlyInAnyOrder("left-over", "foreign", "in-flight", "saga-open", "changed", "attached");
+        assertThat(keys(reconciliationRun, FindingKind.ORPHAN_CERTIFICATE))
+                .containsExactlyInAnyOrder("cert-left-over", "cert-compensated", "cert-foreign", "cert-in-flight");
+        assertThat(keys(reconciliationRun, FindingKind.MISSING_THING)).containsExactly("missing");
+        assertThat(keys(reconciliationRun, FindingKind.MISSING_CERTIFICATE)).containsExactly("cert-missing");
+        assertThat(reconciliationRun.getRepaired()).isZero();
+        verify(IOT_CLIENT, never()).deleteThing(any(DeleteThingRequest.class));
+        verify(IOT_CLIENT, never()).updateCertificate(any(UpdateCertificateRequest.class));
+        verifyNoInteractions(IOT_ASYNC_CLIENT);
+    }
+
+    @Test
+    void repairOnlyTouchesWhatThisServiceLeftOver() throws Exception {
+        ReconciliationRun reconciliationRun = run(true);
+
+        assertThat(reconciliationRun.getStatus()).isEqualTo(JobStatus.SUCCEEDED);
+        assertThat(reconciliationRun.getRepaired()).isEqualTo(2);
+        assertThat(findings(reconciliationRun).stream()
+                .filter(ReconciliationFinding::isRepaired)
+                .map(finding -> finding.getKind() + " " + key(finding)))
+                .containsExactlyInAnyOrder("ORPHAN_THING left-over", "ORPHAN_CERTIFICATE cert-left-over");
+
+        // foreign things, registrations in flight, open sagas, rows changed since the start and things in use stay
+        verify(IOT_CLIENT).deleteThing(DeleteThingRequest.builder().thingName("left-over").build());
+        verify(IOT_CLIENT, times(1)).deleteThing(any(DeleteThingRequest.class));
+        // foreign certificates and certificates created since the start stay
+        verify(IOT_CLIENT).updateCertificate(UpdateCertificateRequest.builder()
+                .certificateId("cert-left-over")
+                .newStatus(CertificateStatus.INACTIVE)
+                .build());
+        verify(IOT_CLIENT, times(1)).updateCertificate(any(UpdateCertificateRequest.class));
+        assertThat(deviceRegionStateRepository.findById(new DeviceRegionStateId("left-over", REGION)))
+                .hasValueSatisfying(deviceRegionState -> assertThat(deviceRegionState.isThingCreated()).isFalse());
+    }
+
+    @Test
+    void repairIsRejectedUnlessEnabled() {
+        ReflectionTestUtils.setField(reconciliationService, "repairEnabled", false);
+        ReconciliationRequest reconciliationRequest = new ReconciliationRequest(null, true, false);
+
+        assertThatThrownBy(() -> reconciliationService.submit(reconciliationRequest))
+                .isInstanceOf(InvalidRequestException.class);
+        assertThat(reconciliationRunRepository.count()).isZero();
+    }
+
+    private ReconciliationRun run(boolean repair) throws InterruptedException {
+        String runId = reconciliationService.submit(new ReconciliationRequest(null, repair, false)).getRunId();
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (System.nanoTime() < deadline) {
+            ReconciliationRun reconciliationRun = reconciliationService.getRun(runId).get();
+            if (reconciliationRun.getStatus() == JobStatus.SUCCEEDED || reconciliationRun.getStatus() == JobStatus.FAILED)
+                return reconciliationRun;
+            Thread.sleep(20);
+        }
+        throw new AssertionError("Reconciliation didn't finish");
+    }
+
+    private List<ReconciliationFinding> findings(ReconciliationRun reconciliationRun) {
+        return reconciliationService.getFindings(reconciliationRun.getRunId(), 0, 1000);
+    }
+
+    private List<String> keys(ReconciliationRun reconciliationRun, FindingKind kind) {
+        return findings(reconciliationRun).stream()
+                .filter(finding -> finding.getKind() == kind)
+                .map(ReconciliationServiceTest::key)
+                .collect(Collectors.toList());
+    }
+
+    private static String key(ReconciliationFinding finding) {
+        return finding.getKind() == FindingKind.ORPHAN_CERTIFICATE || finding.getKind() == FindingKind.MISSING_CERTIFICATE
+                ? finding.getCertificateId()
+                : finding.getThingName();
+    }
+
+    private void regionState(String deviceName, String certificateId, ProvisioningStatus status, Instant updatedAt) {
+        deviceRegionStateRepository.save(DeviceRegionState.builder()
+                .deviceName(deviceName)
+                .region(REGION)
+                .certificateId(certificateId)
+                .thingCreated(true)
+                .status(status)
+                .createdAt(past)
+                .updatedAt(updatedAt)
+                .build());
+    }
+
+    private static void things(String... thingNames) {
+        when(IOT_CLIENT.listThingsPaginator(any(ListThingsRequest.class)))
+                .thenAnswer(invocation -> new ListThingsIterable(IOT_CLIENT, invocation.getArgument(0)));
+        when(IOT_CLIENT.listThings(any(ListThingsRequest.class))).thenReturn(ListThingsResponse.builder()
+                .things(Arrays.stream(thingNames)
+                        .map(thingName -> ThingAttribute.builder().thingName(thingName).build())
+                        .collect(Collectors.toList()))
+                .build());
+    }
+
+    private static Certificate certificate(String certificateId, Instant creationDate) {
+        return Certificate.builder()
+                .certificateId(certificateId)
+                .status(CertificateStatus.ACTIVE)
+                .creationDate(creationDate)
+                .build();
+    }
+}